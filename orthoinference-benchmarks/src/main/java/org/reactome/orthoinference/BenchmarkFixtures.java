@@ -0,0 +1,123 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.GKSchemaAttribute;
+import org.gk.schema.GKSchemaClass;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+
+/**
+ * Synthetic, in-memory inputs for the orthoinference benchmarks, so that they can be run without a release database or orthopairs files.
+ * Every fixture is generated from a fixed seed, so each run of a benchmark measures the same work.
+ */
+final class BenchmarkFixtures {
+
+	static final long SEED = 20181017L;
+
+	private BenchmarkFixtures()
+	{
+	}
+
+	static String proteinId(int i)
+	{
+		return String.format("P%05d", i);
+	}
+
+	static String homologueId(int i)
+	{
+		return String.format("ENSMUSP%011d", i);
+	}
+
+	static String geneId(int i)
+	{
+		return String.format("ENSMUSG%011d", i);
+	}
+
+	// Writes a homologue mapping file in the orthopairs format: a protein, a tab and its space-separated 'DB:ID' homologues.
+	// About a fifth of the proteins have no homologue, as with real orthopairs files.
+	static void writeHomologueMappingFile(Path mappingFilePath, int proteinCount, int maxHomologues) throws IOException
+	{
+		Random random = new Random(SEED);
+		try (BufferedWriter writer = Files.newBufferedWriter(mappingFilePath))
+		{
+			for (int i = 0; i < proteinCount; i++)
+			{
+				int homologueCount = random.nextInt(5) == 0 ? 0 : 1 + random.nextInt(maxHomologues);
+				if (homologueCount == 0)
+				{
+					continue;
+				}
+				StringBuilder line = new StringBuilder(proteinId(i)).append('\t');
+				for (int j = 0; j < homologueCount; j++)
+				{
+					if (j > 0)
+					{
+						line.append(' ');
+					}
+					line.append("ENSEMBL:").append(homologueId(random.nextInt(proteinCount * 2)));
+				}
+				writer.write(line.toString());
+				writer.newLine();
+			}
+		}
+	}
+
+	// Writes a gene-protein mapping file: a gene, a tab and its space-separated proteins
+	static void writeProteinGeneMappingFile(Path mappingFilePath, int geneCount, int maxProteins) throws IOException
+	{
+		Random random = new Random(SEED);
+		try (BufferedWriter writer = Files.newBufferedWriter(mappingFilePath))
+		{
+			for (int i = 0; i < geneCount; i++)
+			{
+				StringBuilder line = new StringBuilder(geneId(i)).append('\t');
+				int proteinCount = 1 + random.nextInt(maxProteins);
+				for (int j = 0; j < proteinCount; j++)
+				{
+					if (j > 0)
+					{
+						line.append(' ');
+					}
+					line.append(homologueId(random.nextInt(geneCount * 2)));
+				}
+				writer.write(line.toString());
+				writer.newLine();
+			}
+		}
+	}
+
+	// An attribute of the in-memory schema classes that stand in for those of a release database's schema
+	static GKSchemaAttribute attribute(String name, int category, boolean multiple)
+	{
+		GKSchemaAttribute attribute = new GKSchemaAttribute(name);
+		attribute.setName(name);
+		attribute.setCategory(category);
+		attribute.setMultiple(multiple);
+		return attribute;
+	}
+
+	static GKSchemaClass schemaClass(String name, SchemaAttribute... attributes)
+	{
+		GKSchemaClass schemaClass = new GKSchemaClass(name);
+		schemaClass.setName(name);
+		for (SchemaAttribute attribute : attributes)
+		{
+			schemaClass.addAttribute(attribute);
+		}
+		return schemaClass;
+	}
+
+	// An instance that isn't backed by a database, so its attribute values are only those set on it
+	static GKInstance instance(SchemaClass schemaClass, long dbId)
+	{
+		GKInstance inst = new GKInstance(schemaClass);
+		inst.setDBID(dbId);
+		return inst;
+	}
+}
@@ -0,0 +1,89 @@
+package org.reactome.orthoinference;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of the homologue and gene-protein mapping files read at the start of each species' inference, and the homologue lookups
+ * that protein counting and EWAS inference make for each ReferenceGeneProduct.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdentifierMappingsBenchmark {
+
+	// Roughly the number of human proteins in an orthopairs file
+	@Param({"20000"})
+	public int proteinCount;
+
+	private Path mappingDirectory;
+	private Path homologueMappingFile;
+	private Path proteinGeneMappingFile;
+	private IdentifierMappings homologueMappings;
+	private String[] lookupIds;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		mappingDirectory = Files.createTempDirectory("orthoinference-benchmarks");
+		homologueMappingFile = mappingDirectory.resolve("hsap_mmus_mapping.tsv");
+		proteinGeneMappingFile = mappingDirectory.resolve("mmus_gene_protein_mapping.tsv");
+		BenchmarkFixtures.writeHomologueMappingFile(homologueMappingFile, proteinCount, 4);
+		BenchmarkFixtures.writeProteinGeneMappingFile(proteinGeneMappingFile, proteinCount, 3);
+		homologueMappings = IdentifierMappings.readHomologueMappings(homologueMappingFile);
+		lookupIds = new String[proteinCount];
+		for (int i = 0; i < proteinCount; i++)
+		{
+			lookupIds[i] = BenchmarkFixtures.proteinId(i);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		Files.deleteIfExists(homologueMappingFile);
+		Files.deleteIfExists(proteinGeneMappingFile);
+		Files.deleteIfExists(mappingDirectory);
+	}
+
+	@Benchmark
+	public IdentifierMappings readHomologueMappings() throws Exception
+	{
+		return IdentifierMappings.readHomologueMappings(homologueMappingFile);
+	}
+
+	@Benchmark
+	public IdentifierMappings readProteinGeneMappings() throws Exception
+	{
+		return IdentifierMappings.readProteinGeneMappings(proteinGeneMappingFile);
+	}
+
+	// One lookup of each protein, as made when counting the proteins of every ReactionlikeEvent
+	@Benchmark
+	public void lookUpHomologues(Blackhole blackhole)
+	{
+		for (String lookupId : lookupIds)
+		{
+			blackhole.consume(homologueMappings.getValues(lookupId));
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Creation of the keys that identical instance checks and the inference caches use (InstanceIdentityKey, which replaced
+ * InstanceUtilities.getCacheKey). The instances are Complex-like: a single-value name, a species and a multi-value hasComponent.
+ * The schema classes and instances are built in memory rather than loaded from a database, so the times are those of the key's
+ * own work and of GKInstance's attribute lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstanceIdentityKeyBenchmark {
+
+	@Param({"2", "16"})
+	public int componentCount;
+
+	private static final int INSTANCE_COUNT = 1024;
+	private SchemaClass complexClass;
+	private GKInstance[] instances;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		complexClass = BenchmarkFixtures.schemaClass("Complex",
+			BenchmarkFixtures.attribute("name", SchemaAttribute.ALL_DEFINING, false),
+			BenchmarkFixtures.attribute("species", SchemaAttribute.ALL_DEFINING, false),
+			BenchmarkFixtures.attribute("hasComponent", SchemaAttribute.ALL_DEFINING, true));
+		SchemaClass entityClass = BenchmarkFixtures.schemaClass("EntityWithAccessionedSequence");
+		SchemaClass speciesClass = BenchmarkFixtures.schemaClass("Species");
+
+		Random random = new Random(BenchmarkFixtures.SEED);
+		GKInstance speciesInst = BenchmarkFixtures.instance(speciesClass, 48892L);
+		instances = new GKInstance[INSTANCE_COUNT];
+		for (int i = 0; i < INSTANCE_COUNT; i++)
+		{
+			List<Object> componentInstances = new ArrayList<>();
+			for (int j = 0; j < componentCount; j++)
+			{
+				componentInstances.add(BenchmarkFixtures.instance(entityClass, 100000L + random.nextInt(1000000)));
+			}
+			GKInstance inst = BenchmarkFixtures.instance(complexClass, 2000000L + i);
+			inst.setAttributeValueNoCheck("name", "Complex " + i);
+			inst.setAttributeValueNoCheck("species", speciesInst);
+			inst.setAttributeValueNoCheck("hasComponent", componentInstances);
+			instances[i] = inst;
+		}
+	}
+
+	// Used by the identical instance index and the inference caches
+	@Benchmark
+	public void orderedKeys(Blackhole blackhole) throws Exception
+	{
+		for (GKInstance inst : instances)
+		{
+			blackhole.consume(InstanceIdentityKey.of(inst));
+		}
+	}
+
+	// Used by the in-memory store of dry runs, which sorts multi-value attributes
+	@Benchmark
+	public void unorderedKeys(Blackhole blackhole) throws Exception
+	{
+		for (GKInstance inst : instances)
+		{
+			blackhole.consume(InstanceIdentityKey.unordered(inst, complexClass));
+		}
+	}
+}
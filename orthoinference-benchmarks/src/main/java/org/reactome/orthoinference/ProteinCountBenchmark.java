@@ -0,0 +1,123 @@
+package org.reactome.orthoinference;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaClass;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.reactome.orthoinference.ProteinCountPlan.EntitySetPlan;
+import org.reactome.orthoinference.ProteinCountPlan.Member;
+
+/**
+ * Protein counting (ProteinCountUtility.getDistinctProteinCounts) over synthetic Complex/EntitySet trees. Each Complex has a few
+ * ReferenceGeneProducts and may have DefinedSets and CandidateSets whose members are ReferenceGeneProducts or earlier Complexes, so
+ * trees share subcomplexes as they do in Reactome. This is the CPU-bound part of inferring an entity (OrthologousEntityGenerator.createOrthoEntity);
+ * the rest of it is made up of database reads and writes. A new utility is used for each invocation, so no counts are cached between them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProteinCountBenchmark {
+
+	@Param({"1000", "10000"})
+	public int complexCount;
+
+	// The chance that a Complex has EntitySets, in percent
+	@Param({"30"})
+	public int entitySetPercentage;
+
+	private InferencePlan inferencePlan;
+	private IdentifierMappings homologueMappings;
+	private GKInstance[] complexInstances;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		Random random = new Random(BenchmarkFixtures.SEED);
+		int proteinCount = complexCount * 2;
+		IdentifierMappings.Builder mappingsBuilder = new IdentifierMappings.Builder();
+		for (int i = 0; i < proteinCount; i++)
+		{
+			// About a fifth of the proteins have no homologue
+			int homologueCount = random.nextInt(5) == 0 ? 0 : 1 + random.nextInt(3);
+			for (int j = 0; j < homologueCount; j++)
+			{
+				mappingsBuilder.add(BenchmarkFixtures.proteinId(i), "ENSEMBL:" + BenchmarkFixtures.homologueId(random.nextInt(proteinCount)));
+			}
+		}
+		homologueMappings = mappingsBuilder.build();
+
+		Map<Long, ProteinCountPlan> proteinCountPlans = new HashMap<>();
+		// Planned protein counts only read the Complexes' DB IDs
+		SchemaClass complexClass = BenchmarkFixtures.schemaClass("Complex");
+		complexInstances = new GKInstance[complexCount];
+		for (int i = 0; i < complexCount; i++)
+		{
+			long dbId = i + 1;
+			String[] referenceGeneProductIdentifiers = new String[1 + random.nextInt(4)];
+			for (int j = 0; j < referenceGeneProductIdentifiers.length; j++)
+			{
+				referenceGeneProductIdentifiers[j] = BenchmarkFixtures.proteinId(random.nextInt(proteinCount));
+			}
+			EntitySetPlan[] entitySetPlans = new EntitySetPlan[0];
+			if (random.nextInt(100) < entitySetPercentage)
+			{
+				entitySetPlans = new EntitySetPlan[1 + random.nextInt(2)];
+				for (int j = 0; j < entitySetPlans.length; j++)
+				{
+					entitySetPlans[j] = createEntitySetPlan(random, i, proteinCount);
+				}
+			}
+			proteinCountPlans.put(dbId, new ProteinCountPlan(referenceGeneProductIdentifiers, entitySetPlans));
+			complexInstances[i] = BenchmarkFixtures.instance(complexClass, dbId);
+		}
+		inferencePlan = InferencePlan.ofProteinCountPlans(proteinCountPlans);
+	}
+
+	// Members are ReferenceGeneProducts or Complexes that come earlier, so that the plans form a DAG
+	private static EntitySetPlan createEntitySetPlan(Random random, int complexIndex, int proteinCount)
+	{
+		Member[] members = new Member[2 + random.nextInt(4)];
+		for (int k = 0; k < members.length; k++)
+		{
+			if (complexIndex > 0 && random.nextBoolean())
+			{
+				members[k] = new Member(1 + random.nextInt(complexIndex), null);
+			} else {
+				members[k] = new Member(0, BenchmarkFixtures.proteinId(random.nextInt(proteinCount)));
+			}
+		}
+		return new EntitySetPlan(random.nextInt(4) == 0, members);
+	}
+
+	// Counts every Complex, with the later (larger) ones counted first, as happens when a ReactionlikeEvent's inputs are inferred
+	@Benchmark
+	public void countAllComplexes(Blackhole blackhole) throws Exception
+	{
+		ProteinCountUtility proteinCountUtility = new ProteinCountUtility(inferencePlan, new InferenceMetrics());
+		proteinCountUtility.setHomologueMappingFile(homologueMappings);
+		for (int i = complexInstances.length - 1; i >= 0; i--)
+		{
+			blackhole.consume(proteinCountUtility.getDistinctProteinCounts(complexInstances[i]));
+		}
+	}
+}
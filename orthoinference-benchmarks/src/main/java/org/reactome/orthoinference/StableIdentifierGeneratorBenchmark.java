@@ -0,0 +1,163 @@
+package org.reactome.orthoinference;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import static org.gk.model.ReactomeJavaConstants.*;
+
+/**
+ * Generation of the orthologous stable identifiers of a species' inferred instances, including paralog suffixes (eg: R-MMU-123456-2).
+ * The species' stable identifiers are already known, as when a species is inferred again, so the generator derives each identifier, counts
+ * its paralogs and fetches the existing StableIdentifier from an in-memory store. Creating new StableIdentifiers needs a database schema
+ * (see InstanceUtilities.createNewInferredGKInstance), so it isn't covered. A new generator is created before each invocation, so paralog
+ * counts start from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StableIdentifierGeneratorBenchmark {
+
+	@Param({"10000"})
+	public int instanceCount;
+
+	// The share of instances that are inferred from the same source instance as an earlier one, in percent
+	@Param({"25"})
+	public int paralogPercentage;
+
+	private Map<String, Long> stableIdentifierDbIds;
+	private InstanceStore instanceStore;
+	private GKInstance[] originalInstances;
+	private GKInstance[] inferredInstances;
+	private StableIdentifierGenerator stableIdentifierGenerator;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		SchemaClass stableIdentifierClass = BenchmarkFixtures.schemaClass(StableIdentifier,
+			BenchmarkFixtures.attribute(identifier, SchemaAttribute.ALL_DEFINING, false),
+			BenchmarkFixtures.attribute(identifierVersion, SchemaAttribute.NONE_DEFINING, false));
+		SchemaClass eventClass = BenchmarkFixtures.schemaClass(Reaction,
+			BenchmarkFixtures.attribute(stableIdentifier, SchemaAttribute.NONE_DEFINING, false));
+
+		int sourceCount = Math.max(1, instanceCount * (100 - paralogPercentage) / 100);
+		GKInstance[] sourceInstances = new GKInstance[sourceCount];
+		for (int i = 0; i < sourceCount; i++)
+		{
+			GKInstance stableIdentifierInst = BenchmarkFixtures.instance(stableIdentifierClass, 1000000L + i);
+			stableIdentifierInst.setAttributeValueNoCheck(identifier, "R-HSA-" + (1000000 + i));
+			GKInstance sourceInst = BenchmarkFixtures.instance(eventClass, 2000000L + i);
+			sourceInst.setAttributeValueNoCheck(stableIdentifier, stableIdentifierInst);
+			sourceInstances[i] = sourceInst;
+		}
+		// The species' StableIdentifiers, including those of the paralogs, keyed by identifier
+		stableIdentifierDbIds = new HashMap<>();
+		Map<Long, GKInstance> orthoStableIdentifierInstances = new HashMap<>();
+		originalInstances = new GKInstance[instanceCount];
+		inferredInstances = new GKInstance[instanceCount];
+		for (int i = 0; i < instanceCount; i++)
+		{
+			String targetIdentifier = "R-MMU-" + (1000000 + i % sourceCount) + (i >= sourceCount ? "-" + (1 + i / sourceCount) : "");
+			GKInstance orthoStableIdentifierInst = BenchmarkFixtures.instance(stableIdentifierClass, 3000000L + i);
+			orthoStableIdentifierInst.setAttributeValueNoCheck(identifier, targetIdentifier);
+			stableIdentifierDbIds.put(targetIdentifier, orthoStableIdentifierInst.getDBID());
+			orthoStableIdentifierInstances.put(orthoStableIdentifierInst.getDBID(), orthoStableIdentifierInst);
+			originalInstances[i] = sourceInstances[i % sourceCount];
+			inferredInstances[i] = BenchmarkFixtures.instance(eventClass, 4000000L + i);
+		}
+		instanceStore = new ExistingInstanceStore(orthoStableIdentifierInstances);
+	}
+
+	@Setup(Level.Invocation)
+	public void createGenerator()
+	{
+		stableIdentifierGenerator = new StableIdentifierGenerator("MMU", stableIdentifierDbIds, instanceStore);
+	}
+
+	@Benchmark
+	public void generateOrthologousStableIds(Blackhole blackhole) throws Exception
+	{
+		for (int i = 0; i < instanceCount; i++)
+		{
+			blackhole.consume(stableIdentifierGenerator.generateOrthologousStableId(inferredInstances[i], originalInstances[i]));
+		}
+	}
+
+	// Holds the species' existing StableIdentifiers, so the benchmark is kept to the generator's own work, without any database reads or writes
+	private static class ExistingInstanceStore implements InstanceStore
+	{
+		private final Map<Long, GKInstance> instances;
+
+		private ExistingInstanceStore(Map<Long, GKInstance> instances)
+		{
+			this.instances = instances;
+		}
+
+		@Override
+		public void begin()
+		{
+		}
+
+		@Override
+		public void storeInstance(GKInstance inst)
+		{
+		}
+
+		@Override
+		public void updateInstanceAttribute(GKInstance inst, String attribute)
+		{
+		}
+
+		@Override
+		public void loadInstanceAttributeValues(GKInstance inst, String attribute)
+		{
+		}
+
+		@Override
+		public GKInstance fetchInstance(long dbId)
+		{
+			return instances.get(dbId);
+		}
+
+		@Override
+		public Collection<GKInstance> fetchIdenticalInstances(GKInstance inst)
+		{
+			return null;
+		}
+
+		@Override
+		public void commit()
+		{
+		}
+
+		@Override
+		public void rollback()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.reactome.orthoinference;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * Hands out the DB IDs of the instances that orthoinference inserts, in blocks, so that MySQLInstanceStore can number new instances without
+ * a round trip each and insert them later with multi-row INSERTs. Each block starts above both the largest DB ID in the database (one
+ * SELECT MAX per block) and the blocks reserved before it. One allocator is shared by every species and worker of a run.
+ *
+ * Instances that are stored by MySQLAdaptor itself (eg: InstanceEdits, and the PathwayDiagrams of species whose inference has finished)
+ * are numbered by the DatabaseObject auto-increment, which only knows about DB IDs that have been inserted. So that it can't hand out a
+ * reserved DB ID, a row with the last DB ID of each block is inserted and deleted again, which moves the auto-increment past the block.
+ * Reservations are made on the allocator's own auto-commit connection, since the connections of the stores are in transactions.
+ */
+public class DbIdAllocator {
+
+	private static final Logger logger = LogManager.getLogger();
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+	private final int blockSize;
+	private MySQLAdaptor reservationDba;
+	private long nextUnreservedDbId = 0;
+
+	public DbIdAllocator(int blockSize)
+	{
+		this(blockSize, null);
+	}
+
+	// If reservationDba is null, the connection is opened the first time a block is reserved
+	DbIdAllocator(int blockSize, MySQLAdaptor reservationDba)
+	{
+		if (blockSize < 1)
+		{
+			throw new IllegalArgumentException("The DB ID block size must be positive: " + blockSize);
+		}
+		this.blockSize = blockSize;
+		this.reservationDba = reservationDba;
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	// Reserves the next block of DB IDs and returns the first of them. dba is the adaptor of the database the block is reserved in.
+	public synchronized long reserveBlock(MySQLAdaptor dba) throws Exception
+	{
+		if (reservationDba == null)
+		{
+			reservationDba = new MySQLAdaptor(dba.getDBHost(), dba.getDBName(), dba.getDBUser(), dba.getDBPwd(), dba.getDBPort());
+		}
+		long firstDbId = Math.max(getMaxDbId() + 1, nextUnreservedDbId);
+		long lastDbId = firstDbId + blockSize - 1;
+		Connection connection = reservationDba.getConnection();
+		try (PreparedStatement insert = connection.prepareStatement("INSERT INTO DatabaseObject (DB_ID, _class, _displayName) VALUES (?, 'DatabaseObject', 'DB ID reservation')");
+			PreparedStatement delete = connection.prepareStatement("DELETE FROM DatabaseObject WHERE DB_ID = ?"))
+		{
+			insert.setLong(1, lastDbId);
+			insert.executeUpdate();
+			delete.setLong(1, lastDbId);
+			delete.executeUpdate();
+		}
+		nextUnreservedDbId = lastDbId + 1;
+		logger.debug("Reserved DB IDs " + firstDbId + " to " + lastDbId);
+		return firstDbId;
+	}
+
+	private long getMaxDbId() throws Exception
+	{
+		ResultSet results = reservationDba.executeQuery("SELECT MAX(DB_ID) FROM DatabaseObject", Collections.emptyList());
+		try {
+			return results.next() ? results.getLong(1) : 0;
+		} finally {
+			results.getStatement().close();
+		}
+	}
+
+	// Closes the connection that blocks are reserved on, if one was opened
+	public synchronized void close() throws Exception
+	{
+		if (reservationDba != null)
+		{
+			reservationDba.cleanUp();
+			reservationDba = null;
+		}
+	}
+}
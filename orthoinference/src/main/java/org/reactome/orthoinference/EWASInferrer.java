@@ -1,8 +1,7 @@
 package org.reactome.orthoinference;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 
@@ -11,73 +10,65 @@ import org.apache.logging.log4j.Logger;
 import org.gk.model.GKInstance;
 import static org.gk.model.ReactomeJavaConstants.*;
 import org.gk.persistence.MySQLAdaptor;
-import org.gk.schema.GKSchemaClass;
 import org.gk.schema.InvalidAttributeException;
 import org.gk.schema.SchemaClass;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.reactome.release.common.orthopairs.OrthopairsIndex;
 
 public class EWASInferrer {
 
 	private static final Logger logger = LogManager.getLogger();
-	private static MySQLAdaptor dba;
-	static boolean altRefDbExists = false;
-	private static String altRefDbId;
-	private static GKInstance instanceEditInst;
-	private static GKInstance ensgDbInst;
-	private static GKInstance enspDbInst;
-	private static GKInstance alternateDbInst;
-	private static GKInstance uniprotDbInst;
-	private static GKInstance speciesInst;
-	private static Map<String, String[]> homologueMappings = new HashMap<>();
-	private static Map<String, List<String>> ensgMappings = new HashMap<>();
-	private static Map<String, GKInstance> referenceGeneProductIdenticals = new HashMap<>();
-	private static Map<String,GKInstance> ewasIdenticals = new HashMap<>();
-	private static Map<String,GKInstance> residueIdenticals = new HashMap<>();
+	private final InferenceContext context;
+	private final MySQLAdaptor dba;
+	boolean altRefDbExists = false;
+	private String altRefDbId;
+	private GKInstance instanceEditInst;
+	private GKInstance ensgDbInst;
+	private GKInstance enspDbInst;
+	private GKInstance alternateDbInst;
+	private GKInstance uniprotDbInst;
+	private GKInstance speciesInst;
+	private IdentifierMappings homologueMappings = new IdentifierMappings.Builder().build();
+	private IdentifierMappings ensgMappings = new IdentifierMappings.Builder().build();
+	// Inferred ReferenceGeneProducts by homologue identifier, shared with the other contexts of the species
+	private final InferredInstanceCache<String> referenceGeneProductIdenticals;
+
+	public EWASInferrer(InferenceContext context)
+	{
+		this.context = context;
+		this.dba = context.getDbAdaptor();
+		this.referenceGeneProductIdenticals = context.getInferredInstanceCaches().getCache("referenceGeneProduct", context);
+	}
 
 	// Creates an array of inferred EWAS instances from the homologue mappings file (hsap_species_mapping.txt).
+	public List<GKInstance> inferEWAS(GKInstance ewasInst) throws InvalidAttributeException, Exception
+	{
+		return context.getMetrics().time("inferEWAS", () -> inferEWASInstances(ewasInst));
+	}
+
 	@SuppressWarnings("unchecked")
-	public static List<GKInstance> inferEWAS(GKInstance ewasInst) throws InvalidAttributeException, Exception
+	private List<GKInstance> inferEWASInstances(GKInstance ewasInst) throws InvalidAttributeException, Exception
 	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
 		List<GKInstance> infEWASInstances = new ArrayList<>();
 		String referenceEntityId = ((GKInstance) ewasInst.getAttributeValue(referenceEntity)).getAttributeValue(identifier).toString();
-		if (homologueMappings.get(referenceEntityId) != null)
+		int homologueMappingIndex = homologueMappings.indexOf(referenceEntityId);
+		if (homologueMappingIndex >= 0)
 		{
 			// Iterate through the array of homologue mappings, attempting to infer EWAS instances for each.
-			logger.info("EWAS homologue(s): " + Arrays.toString(homologueMappings.get(referenceEntityId)));
-			for (String homologue : homologueMappings.get(referenceEntityId)) {
+			logger.info("EWAS homologue(s): " + homologueMappings.getQualifiedValues(referenceEntityId));
+			for (int homologuePosition = homologueMappings.getValueStart(homologueMappingIndex); homologuePosition < homologueMappings.getValueEnd(homologueMappingIndex); homologuePosition++) {
+				String homologue = homologueMappings.getQualifiedValue(homologuePosition);
 				logger.info("Homologue:" + homologue + "  Source:" + referenceEntityId);
-				// Handles homologues formatted as either DB:ID or just ID
-				String homologueSource = homologue.contains(":") ? homologue.split(":")[0] : "";
-				String homologueId = homologue.contains(":") ? homologue.split(":")[1] : homologue;
+				// Homologues formatted as either DB:ID or just ID were split into their source and ID when the mapping file was read
+				String homologueSource = homologueMappings.getSource(homologuePosition);
+				String homologueId = homologueMappings.getValue(homologuePosition);
 
 				if (checkValidSpeciesProtein(homologueId)) {
-					GKInstance infReferenceGeneProductInst;
-					if (referenceGeneProductIdenticals.get(homologueId) == null) {
-						logger.info("Creating ReferenceGeneProduct for " + homologue);
-						infReferenceGeneProductInst = InstanceUtilities.createNewInferredGKInstance((GKInstance) ewasInst.getAttributeValue(referenceEntity));
-						infReferenceGeneProductInst.addAttributeValue(identifier, homologueId);
-						// Reference DB can differ between homologue mappings, but can be differentiated by the 'homologueSource' found in each mapping.
-						// With PANTHER data, the Protein IDs are exclusively UniProt
-						GKInstance referenceDatabaseInst = homologueSource.equals("ENSP") ? enspDbInst : uniprotDbInst;
-						infReferenceGeneProductInst.addAttributeValue(referenceDatabase, referenceDatabaseInst);
-
-						// Creates ReferenceDNASequence instance from ReferenceEntity
-						List<GKInstance> inferredReferenceDNAInstances = createReferenceDNASequence(homologueId);
-						infReferenceGeneProductInst.addAttributeValue(referenceGene, inferredReferenceDNAInstances);
-
-						infReferenceGeneProductInst.addAttributeValue(species, speciesInst);
-						String referenceGeneProductSource = homologueSource.equals("ENSP") ? "ENSEMBL:" : "UniProt:";
-						infReferenceGeneProductInst.setAttributeValue(_displayName, referenceGeneProductSource + homologueId);
-						logger.info("ReferenceGeneProduct instance created");
-						infReferenceGeneProductInst = InstanceUtilities.checkForIdenticalInstances(infReferenceGeneProductInst, null);
-						referenceGeneProductIdenticals.put(homologueId, infReferenceGeneProductInst);
-					} else {
-						logger.info("Orthologous ReferenceGeneProduct already exists");
-						infReferenceGeneProductInst = referenceGeneProductIdenticals.get(homologueId);
-					}
+					GKInstance infReferenceGeneProductInst = referenceGeneProductIdenticals.computeIfAbsent(homologueId, () -> createReferenceGeneProduct(ewasInst, homologue, homologueSource, homologueId));
 					// Creating inferred EWAS
-					GKInstance infEWASInst = InstanceUtilities.createNewInferredGKInstance(ewasInst);
+					GKInstance infEWASInst = instanceUtilities.createNewInferredGKInstance(ewasInst);
 					infEWASInst.addAttributeValue(referenceEntity, infReferenceGeneProductInst);
 
 					// Method for adding start/end coordinates. It is convoluted due to a quirk with assigning the name differently based on coordinate value (see infer_events.pl lines 1190-1192).
@@ -107,7 +98,7 @@ public class EWASInferrer {
 					for (GKInstance modifiedResidueInst : (Collection<GKInstance>) ewasInst.getAttributeValuesList(hasModifiedResidue)) {
 						logger.info("Inferring ModifiedResidue: " + modifiedResidueInst);
 						String infModifiedResidueDisplayName = "";
-						GKInstance infModifiedResidueInst = InstanceUtilities.createNewInferredGKInstance(modifiedResidueInst);
+						GKInstance infModifiedResidueInst = instanceUtilities.createNewInferredGKInstance(modifiedResidueInst);
 						infModifiedResidueInst.addAttributeValue(referenceSequence, infReferenceGeneProductInst);
 						infModifiedResidueDisplayName += infReferenceGeneProductInst.getDisplayName();
 						for (int coordinateValue : (Collection<Integer>) modifiedResidueInst.getAttributeValuesList(coordinate)) {
@@ -169,31 +160,17 @@ public class EWASInferrer {
 								}
 							}
 						}
-						// Caching based on an instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which slows things.
-						String cacheKey = InstanceUtilities.getCacheKey((GKSchemaClass) infModifiedResidueInst.getSchemClass(), infModifiedResidueInst);
-						if (residueIdenticals.get(cacheKey) != null) {
-							infModifiedResidueInst = residueIdenticals.get(cacheKey);
-						} else {
-							infModifiedResidueInst = InstanceUtilities.checkForIdenticalInstances(infModifiedResidueInst, null);
-							residueIdenticals.put(cacheKey, infModifiedResidueInst);
-						}
+						// Cached based on the instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
+						infModifiedResidueInst = instanceUtilities.getIdenticalInstance(infModifiedResidueInst, null);
 						infModifiedResidueInstances.add(infModifiedResidueInst);
 						logger.info("Successfully inferred ModifiedResidue");
 					}
 					infEWASInst.addAttributeValue(hasModifiedResidue, infModifiedResidueInstances);
-					// Caching based on an instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which slows things.
-					String cacheKey = InstanceUtilities.getCacheKey((GKSchemaClass) infEWASInst.getSchemClass(), infEWASInst);
-					if (ewasIdenticals.get(cacheKey) != null) {
-						infEWASInst = ewasIdenticals.get(cacheKey);
-					} else {
-						infEWASInst = InstanceUtilities.checkForIdenticalInstances(infEWASInst, ewasInst);
-						ewasIdenticals.put(cacheKey, infEWASInst);
-					}
+					// Cached based on the instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
+					infEWASInst = instanceUtilities.getIdenticalInstance(infEWASInst, ewasInst);
 
-					infEWASInst = InstanceUtilities.addAttributeValueIfNecessary(infEWASInst, ewasInst, inferredFrom);
-					dba.updateInstanceAttribute(infEWASInst, inferredFrom);
-					ewasInst = InstanceUtilities.addAttributeValueIfNecessary(ewasInst, infEWASInst, inferredTo);
-					dba.updateInstanceAttribute(ewasInst, inferredTo);
+					context.getUnitOfWork().addAttributeValue(infEWASInst, ewasInst, inferredFrom);
+					context.getUnitOfWork().addSourceAttributeValue(ewasInst, infEWASInst, inferredTo);
 					logger.info("Successfully inferred EWAS instance for " + homologue + " homologue");
 					infEWASInstances.add(infEWASInst);
 				} else {
@@ -207,18 +184,41 @@ public class EWASInferrer {
 		return infEWASInstances;
 	}
 
+	private GKInstance createReferenceGeneProduct(GKInstance ewasInst, String homologue, String homologueSource, String homologueId) throws Exception
+	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		logger.info("Creating ReferenceGeneProduct for " + homologue);
+		GKInstance infReferenceGeneProductInst = instanceUtilities.createNewInferredGKInstance((GKInstance) ewasInst.getAttributeValue(referenceEntity));
+		infReferenceGeneProductInst.addAttributeValue(identifier, homologueId);
+		// Reference DB can differ between homologue mappings, but can be differentiated by the 'homologueSource' found in each mapping.
+		// With PANTHER data, the Protein IDs are exclusively UniProt
+		GKInstance referenceDatabaseInst = homologueSource.equals("ENSP") ? enspDbInst : uniprotDbInst;
+		infReferenceGeneProductInst.addAttributeValue(referenceDatabase, referenceDatabaseInst);
+
+		// Creates ReferenceDNASequence instance from ReferenceEntity
+		List<GKInstance> inferredReferenceDNAInstances = createReferenceDNASequence(homologueId);
+		infReferenceGeneProductInst.addAttributeValue(referenceGene, inferredReferenceDNAInstances);
+
+		infReferenceGeneProductInst.addAttributeValue(species, speciesInst);
+		String referenceGeneProductSource = homologueSource.equals("ENSP") ? "ENSEMBL:" : "UniProt:";
+		infReferenceGeneProductInst.setAttributeValue(_displayName, referenceGeneProductSource + homologueId);
+		logger.info("ReferenceGeneProduct instance created");
+		return instanceUtilities.checkForIdenticalInstances(infReferenceGeneProductInst, null);
+	}
+
 	// Homologous Protein IDs can exist in ${source}_${target}_mapping.txt but the corresponding Gene ID might not exist in ${target}_gene_protein_mapping.txt.
 	// This is different from when we built Orthopairs files using Compara, since the homology mapping file was generated using IDs from the gene-protein file.
 	// This function prevents a Null Exception from killing the entire Reaction's inference, rather than just the EWAS inference.
-	private static boolean checkValidSpeciesProtein(String homologueId) {
+	private boolean checkValidSpeciesProtein(String homologueId) {
 		return ensgMappings.containsKey(homologueId);
 	}
 
 	// Creates ReferenceGeneSequence instance based on ENSG identifier mapped to protein. Creates an instance for the primary database and an alternate, if it exists.
-	private static List<GKInstance> createReferenceDNASequence(String homologueId) throws Exception
+	private List<GKInstance> createReferenceDNASequence(String homologueId) throws Exception
 	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
 		List<GKInstance> referenceDNAInstances = new ArrayList<>();
-		List<String> ensgIds = ensgMappings.get(homologueId);
+		List<String> ensgIds = ensgMappings.getValues(homologueId);
 		logger.info("Gene ID(s): " + ensgIds);
 		for (String ensgId : ensgIds)
 		{
@@ -231,7 +231,7 @@ public class EWASInferrer {
 			referenceDNAInst.addAttributeValue(referenceDatabase, ensgDbInst);
 			referenceDNAInst.addAttributeValue(species, speciesInst);
 			referenceDNAInst.setAttributeValue(_displayName, "ENSEMBL:" + ensgId);
-			referenceDNAInst = InstanceUtilities.checkForIdenticalInstances(referenceDNAInst, null);
+			referenceDNAInst = instanceUtilities.checkForIdenticalInstances(referenceDNAInst, null);
 			referenceDNAInstances.add(referenceDNAInst);
 			if (altRefDbExists)
 			{
@@ -248,7 +248,7 @@ public class EWASInferrer {
 				alternateRefDNAInst.addAttributeValue(referenceDatabase, alternateDbInst);
 				alternateRefDNAInst.addAttributeValue(species, speciesInst);
 				alternateRefDNAInst.setAttributeValue(_displayName, alternateDbInst.getAttributeValue(name) + ":" + ensgId);
-				alternateRefDNAInst = InstanceUtilities.checkForIdenticalInstances(alternateRefDNAInst, null);
+				alternateRefDNAInst = instanceUtilities.checkForIdenticalInstances(alternateRefDNAInst, null);
 				referenceDNAInstances.add(alternateRefDNAInst);
 			}
 		}
@@ -257,62 +257,68 @@ public class EWASInferrer {
 	}
 
 	// These are setup functions called at the beginning of the 'inferEvent' script
-	public static void setAdaptor(MySQLAdaptor dbAdaptor)
+	public void setInstanceEdit(GKInstance instanceEditCopy)
 	{
-		dba = dbAdaptor;
+		instanceEditInst = instanceEditCopy;
 	}
 
-	public static void setInstanceEdit(GKInstance instanceEditCopy)
+	// Sets the HashMap of species-specific homologue-identifier mappings
+	public void setHomologueMappingFile(IdentifierMappings homologueMappingsCopy) { homologueMappings = homologueMappingsCopy; }
+
+	// The inferred ReferenceGeneProducts keyed by homologue identifier, for InferenceJournal
+	InferredInstanceCache<String> getReferenceGeneProductIdenticals() { return referenceGeneProductIdenticals; }
+
+	IdentifierMappings getHomologueMappings() { return homologueMappings; }
+
+	IdentifierMappings getEnsgMappings() { return ensgMappings; }
+
+	// Copies the setup instances and mappings of the species' context to a worker's context
+	void copySetup(EWASInferrer source) throws Exception
 	{
-		instanceEditInst = instanceEditCopy;
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		altRefDbExists = source.altRefDbExists;
+		altRefDbId = source.altRefDbId;
+		instanceEditInst = instanceUtilities.refetch(source.instanceEditInst);
+		ensgDbInst = instanceUtilities.refetch(source.ensgDbInst);
+		enspDbInst = instanceUtilities.refetch(source.enspDbInst);
+		alternateDbInst = instanceUtilities.refetch(source.alternateDbInst);
+		uniprotDbInst = instanceUtilities.refetch(source.uniprotDbInst);
+		speciesInst = instanceUtilities.refetch(source.speciesInst);
+		homologueMappings = source.homologueMappings;
+		ensgMappings = source.ensgMappings;
 	}
 
-	// Sets the HashMap of species-specific homologue-identifier mappings
-	public static void setHomologueMappingFile(Map<String, String[]> homologueMappingsCopy) { homologueMappings = homologueMappingsCopy; }
+	// Read the species-specific ENSG gene-protein mappings, mapping each protein to its genes
+	public void readENSGMappingFile(String toSpecies, String pathToOrthopairs) throws IOException
+	{
+		ensgMappings = readENSGMappings(toSpecies, pathToOrthopairs);
+	}
 
-	// Read the species-specific ENSG gene-protein mappings, and create a Hashmap with the contents
-	public static void readENSGMappingFile(String toSpecies, String pathToOrthopairs) throws IOException
+	static IdentifierMappings readENSGMappings(String toSpecies, String pathToOrthopairs) throws IOException
 	{
 		String mappingFileName = toSpecies + "_gene_protein_mapping.txt";
-		String mappingFilePath = Paths.get(pathToOrthopairs, mappingFileName).toString();
-		logger.info("Reading in " + mappingFilePath);
-		FileReader fr = new FileReader(mappingFilePath);
-		BufferedReader br = new BufferedReader(fr);
-
-		String currentLine;
-		while ((currentLine = br.readLine()) != null)
+		Path mappingFilePath = Paths.get(pathToOrthopairs, mappingFileName);
+		// The inverted index maps each protein to its genes, so it is used in place
+		Path mappingIndexPath = IdentifierMappings.findInvertedIndexFile(mappingFilePath);
+		if (mappingIndexPath != null)
 		{
-			String[] tabSplit = currentLine.split("\t");
-			String ensgKey = tabSplit[0];
-			String[] proteins = tabSplit[1].split(" ");
-			for (String protein : proteins)
-			{
-				String proteinId = protein.contains(":") ? protein.split(":")[1] : protein;
-
-				if (ensgMappings.get(proteinId) == null)
-				{
-					List<String> singleArray = new ArrayList<>();
-					singleArray.add(ensgKey);
-					ensgMappings.put(proteinId, singleArray);
-				} else {
-					ensgMappings.get(proteinId).add(ensgKey);
-				}
-			}
+			logger.info("Looking up genes in the binary index " + mappingIndexPath);
+			return IdentifierMappings.of(OrthopairsIndex.open(mappingIndexPath));
 		}
-		br.close();
-		fr.close();
+		logger.info("Reading in " + mappingFilePath);
+		return IdentifierMappings.readProteinGeneMappings(mappingFilePath);
 	}
 
 	// Fetches Uniprot DB instance
 	@SuppressWarnings("unchecked")
-	public static void fetchAndSetUniprotDbInstance() throws Exception
+	public void fetchAndSetUniprotDbInstance() throws Exception
 	{
 		Collection<GKInstance> uniprotDbInstances = (Collection<GKInstance>) dba.fetchInstanceByAttribute(ReferenceDatabase, name, "=", "UniProt");
 		uniprotDbInst = uniprotDbInstances.iterator().next();
 	}
 
 	// Creates instance pertaining to the species Ensembl Protein DB
-	public static void createEnsemblProteinDbInstance(String toSpeciesLong, String toSpeciesReferenceDbUrl, String toSpeciesEnspAccessUrl) throws Exception
+	public void createEnsemblProteinDbInstance(String toSpeciesLong, String toSpeciesReferenceDbUrl, String toSpeciesEnspAccessUrl) throws Exception
 	{
 		String enspSpeciesDb = "ENSEMBL_" + toSpeciesLong + "_PROTEIN";
 		enspDbInst = new GKInstance(dba.getSchema().getClassByName(ReferenceDatabase));
@@ -323,11 +329,11 @@ public class EWASInferrer {
 		enspDbInst.addAttributeValue(url, toSpeciesReferenceDbUrl);
 		enspDbInst.addAttributeValue(accessUrl, toSpeciesEnspAccessUrl);
 		enspDbInst.setAttributeValue(_displayName, "Ensembl");
-		dba.storeInstance(enspDbInst);
+		context.getInstanceStore().storeInstance(enspDbInst);
 	}
 
 	// Creates instance pertaining to the species Ensembl Gene DB
-	public static void createEnsemblGeneDBInstance(String toSpeciesLong, String toSpeciesReferenceDbUrl, String toSpeciesEnsgAccessUrl) throws Exception
+	public void createEnsemblGeneDBInstance(String toSpeciesLong, String toSpeciesReferenceDbUrl, String toSpeciesEnsgAccessUrl) throws Exception
 	{
 		String ensgSpeciesDb = "ENSEMBL_" + toSpeciesLong + "_GENE";
 		ensgDbInst = new GKInstance(dba.getSchema().getClassByName(ReferenceDatabase));
@@ -338,11 +344,11 @@ public class EWASInferrer {
 		ensgDbInst.addAttributeValue(url, toSpeciesReferenceDbUrl);
 		ensgDbInst.addAttributeValue(accessUrl, toSpeciesEnsgAccessUrl);
 		ensgDbInst.setAttributeValue(_displayName, "ENSEMBL");
-		dba.storeInstance(ensgDbInst);
+		context.getInstanceStore().storeInstance(ensgDbInst);
 	}
 
 	// Create instance pertaining to any alternative reference DB for the species
-	public static void createAlternateReferenceDBInstance(JSONObject altRefDbJSON) throws Exception
+	public void createAlternateReferenceDBInstance(JSONObject altRefDbJSON) throws Exception
 	{
 		alternateDbInst = new GKInstance(dba.getSchema().getClassByName(ReferenceDatabase));
 		alternateDbInst.setDbAdaptor(dba);
@@ -351,7 +357,7 @@ public class EWASInferrer {
 		alternateDbInst.addAttributeValue(url, altRefDbJSON.get("url"));
 		alternateDbInst.addAttributeValue(accessUrl, altRefDbJSON.get("access"));
 		alternateDbInst.setAttributeValue(_displayName, ((JSONArray) altRefDbJSON.get("dbname")).get(0));
-		alternateDbInst = InstanceUtilities.checkForIdenticalInstances(alternateDbInst, null);
+		alternateDbInst = context.getInstanceUtilities().checkForIdenticalInstances(alternateDbInst, null);
 		if (altRefDbJSON.get("alt_id") != null)
 		{
 			altRefDbId = (String) altRefDbJSON.get("alt_id");
@@ -359,13 +365,13 @@ public class EWASInferrer {
 		altRefDbExists = true;
 	}
 
-	public static void setAltRefDbToFalse()
+	public void setAltRefDbToFalse()
 	{
 		altRefDbExists = false;
 	}
 
 	// Sets the species instance for inferEWAS to use
-	public static void setSpeciesInstance(GKInstance speciesInstCopy)
+	public void setSpeciesInstance(GKInstance speciesInstCopy)
 	{
 		speciesInst = speciesInstCopy;
 	}
@@ -1,11 +1,11 @@
 package org.reactome.orthoinference;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
@@ -13,9 +13,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,6 +35,7 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.reactome.release.common.database.InstanceEditUtils;
+import org.reactome.release.common.orthopairs.OrthopairsIndex;
 
 /**
  *
@@ -38,41 +46,181 @@ import org.reactome.release.common.database.InstanceEditUtils;
  * into their PhysicalEntity subunits. The homology data used for the inference process comes from PANTHER (www.pantherdb.org) and is generated during the 'Orthopairs' step of the Reactome release process.
  * After all inference attempts for each RlE has been completed in an organism, the pathways that contain the reactions are filled with these newly inferred ones.
  *
+ * Multiple species can be inferred concurrently in the same JVM. Each species is given its own InferenceContext (and database connection), while the
+ * Human ReactionlikeEvents and skip list are retrieved once and shared between species as SourceSpeciesData.
  *
  */
 
 public class EventsInferrer
 {
 	private static final Logger logger = LogManager.getLogger();
-	private static MySQLAdaptor dbAdaptor;
-	private static MySQLAdaptor dbAdaptorPrev;
-	private static String releaseVersion;
-	private static GKInstance instanceEditInst;
-	private static GKInstance speciesInst;
-	private static Map<GKInstance,GKInstance> manualEventToNonHumanSource = new HashMap<>();
-	private static List<GKInstance> manualHumanEvents = new ArrayList<>();
-	private static StableIdentifierGenerator stableIdentifierGenerator;
-	private static OrthologousPathwayDiagramGenerator orthologousPathwayDiagramGenerator;
+	private final Properties props;
+	private final String species;
+	private final SourceSpeciesData sourceData;
+	private final IdenticalInstanceIndex identicalInstanceIndex;
+	private final InMemoryInstanceStore dryRunStore;
+	private MySQLAdaptor dbAdaptor;
+	private MySQLAdaptor dbAdaptorPrev;
+	private String releaseVersion;
+	private InferenceContext context;
+	private GKInstance instanceEditInst;
+	private GKInstance speciesInst;
+	// Synchronized, since they are added to by each worker when ReactionlikeEvents are inferred in parallel
+	private Map<GKInstance,GKInstance> manualEventToNonHumanSource = Collections.synchronizedMap(new HashMap<>());
+	private List<GKInstance> manualHumanEvents = Collections.synchronizedList(new ArrayList<>());
+	private OrthologousPathwayDiagramGenerator orthologousPathwayDiagramGenerator;
+	// In incremental mode, the RlEs whose outcome in the previous release is carried forward (see IncrementalInferencePlanner)
+	private InferenceProvenance previousProvenance;
+	private Set<Long> carriedForwardDbIds = Collections.emptySet();
+	private InferredClosureCopier closureCopier;
+	private int complexProteinThreshold;
+
+	// identicalInstanceIndex may be null, in which case identical instances are fetched from the DB. dryRunStore is null unless this is a dry run.
+	public EventsInferrer(Properties props, String species, SourceSpeciesData sourceData, IdenticalInstanceIndex identicalInstanceIndex, InMemoryInstanceStore dryRunStore)
+	{
+		this.props = props;
+		this.species = species;
+		this.sourceData = sourceData;
+		this.identicalInstanceIndex = identicalInstanceIndex;
+		this.dryRunStore = dryRunStore;
+	}
 
-	@SuppressWarnings("unchecked")
 	public static void inferEvents(Properties props, String species) throws Exception
 	{
-		logger.info("Preparing DB Adaptor and setting project variables");
-		// Set up DB adaptor using config.properties file
+		inferEvents(props, Collections.singletonList(species));
+	}
+
+	// Infers all species in the list. Species are run concurrently on a thread pool, the size of which can be set with the 'parallelSpeciesCount' property.
+	public static void inferEvents(Properties props, List<String> speciesCodes) throws Exception
+	{
+		logger.info("Retrieving source species ReactionlikeEvents");
+		MySQLAdaptor sourceDbAdaptor = createDbAdaptor(props, props.getProperty("release_current.name"));
+		// The inference plan is built by the first run of a release and re-used by the runs of the remaining species
+		Path pathToInferencePlan = Paths.get(props.getProperty("pathToInferencePlan", "inference_plan_" + props.getProperty("releaseNumber") + ".bin"));
+		SourceSpeciesData sourceData = SourceSpeciesData.load(sourceDbAdaptor, props.getProperty("releaseNumber"), props.getProperty("pathToOrthoinferenceSkipList"), pathToInferencePlan, speciesCodes.size() > 1);
+		if (sourceData == null)
+		{
+			sourceDbAdaptor.cleanUp();
+			return;
+		}
+		// Setting 'thresholdSweep' (eg: 50-100:5) reports how many ReactionlikeEvents would be inferred at each Complex/Polymer protein threshold,
+		// instead of inferring them. Nothing is written to the database.
+		if (props.containsKey("thresholdSweep"))
+		{
+			ThresholdSweep.run(props, speciesCodes, sourceData, sourceDbAdaptor);
+			sourceDbAdaptor.cleanUp();
+			return;
+		}
+		// Optionally answers identical instance checks from memory instead of the DB. The index is shared by all species being inferred.
+		IdenticalInstanceIndex identicalInstanceIndex = null;
+		if (Boolean.valueOf(props.getProperty("preloadIdenticalInstances", "false")))
+		{
+			logger.info("Preloading identical instance index");
+			identicalInstanceIndex = IdenticalInstanceIndex.preload(sourceDbAdaptor);
+		}
+		// Setting 'dryRun' keeps everything that would be written to the release database in memory (see InMemoryInstanceStore). Outputs are
+		// written to files prefixed with 'dry_run_', no PathwayDiagrams are generated and interrupted dry runs aren't resumed. Setting
+		// 'dryRunSnapshot' to the snapshot of an earlier dry run continues from the instances and updates that it contains.
+		InMemoryInstanceStore dryRunStore = null;
+		if (Boolean.valueOf(props.getProperty("dryRun", "false")))
+		{
+			String dryRunSnapshot = props.getProperty("dryRunSnapshot");
+			dryRunStore = dryRunSnapshot != null ? InMemoryInstanceStore.load(sourceDbAdaptor, Paths.get(dryRunSnapshot)) : InMemoryInstanceStore.seed(sourceDbAdaptor);
+		}
+		sourceDbAdaptor.cleanUp();
+
+		if (speciesCodes.size() == 1)
+		{
+			try {
+				new EventsInferrer(props, speciesCodes.get(0), sourceData, identicalInstanceIndex, dryRunStore).inferEvents();
+			} finally {
+				sourceData.getDbIdAllocator().close();
+			}
+			outputDryRunInstances(props, dryRunStore);
+			return;
+		}
+
+		int threadCount = Math.min(speciesCodes.size(), Integer.valueOf(props.getProperty("parallelSpeciesCount", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+		logger.info("Inferring " + speciesCodes.size() + " species using " + threadCount + " threads: " + speciesCodes);
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		Map<String, Future<?>> speciesInferences = new LinkedHashMap<>();
+		IdenticalInstanceIndex sharedIdenticalInstanceIndex = identicalInstanceIndex;
+		InMemoryInstanceStore sharedDryRunStore = dryRunStore;
+		for (String speciesCode : speciesCodes)
+		{
+			speciesInferences.put(speciesCode, executor.submit(() -> {
+				// The thread name appears in each log line, which keeps the logs of concurrently inferred species distinguishable
+				Thread.currentThread().setName("orthoinference-" + speciesCode);
+				new EventsInferrer(props, speciesCode, sourceData, sharedIdenticalInstanceIndex, sharedDryRunStore).inferEvents();
+				return null;
+			}));
+		}
+		executor.shutdown();
+
+		List<String> failedSpecies = new ArrayList<>();
+		for (Map.Entry<String, Future<?>> speciesInference : speciesInferences.entrySet())
+		{
+			try {
+				speciesInference.getValue().get();
+			} catch (ExecutionException e) {
+				logger.fatal("Orthoinference of " + speciesInference.getKey() + " failed", e.getCause());
+				failedSpecies.add(speciesInference.getKey());
+			}
+		}
+		if (!failedSpecies.isEmpty())
+		{
+			logger.fatal("Orthoinference failed for species: " + failedSpecies);
+		}
+		sourceData.getDbIdAllocator().close();
+		outputDryRunInstances(props, dryRunStore);
+	}
+
+	// Lists the instances that a dry run would have stored, and writes the snapshot of everything it would have stored or updated
+	private static void outputDryRunInstances(Properties props, InMemoryInstanceStore dryRunStore) throws Exception
+	{
+		if (dryRunStore != null)
+		{
+			Path pathToDryRunInstances = Paths.get(props.getProperty("pathToInferenceSummaries", "."), "dry_run_instances_" + props.getProperty("releaseNumber") + ".tsv");
+			logger.info("Dry run stored " + dryRunStore.getStoredInstanceCount() + " instances in memory, writing them to " + pathToDryRunInstances);
+			dryRunStore.writeStoredInstances(pathToDryRunInstances);
+			Path pathToDryRunSnapshot = Paths.get(props.getProperty("pathToInferenceSummaries", "."), "dry_run_snapshot_" + props.getProperty("releaseNumber") + ".tsv");
+			logger.info("Writing the dry run's snapshot to " + pathToDryRunSnapshot);
+			dryRunStore.writeSnapshot(pathToDryRunSnapshot);
+		}
+	}
+
+	static int getComplexProteinThreshold(Properties props)
+	{
+		int threshold = Integer.valueOf(props.getProperty("complexProteinThreshold", String.valueOf(OrthologousEntityGenerator.DEFAULT_COMPLEX_PROTEIN_THRESHOLD)));
+		if (threshold < 0 || threshold > 100)
+		{
+			throw new IllegalArgumentException("complexProteinThreshold must be a percent from 0 to 100: " + threshold);
+		}
+		return threshold;
+	}
+
+	static MySQLAdaptor createDbAdaptor(Properties props, String database) throws Exception
+	{
 		String username = props.getProperty("release.database.user");
 		String password = props.getProperty("release.database.password");
-		String database = props.getProperty("release_current.name");
-		String prevDatabase = props.getProperty("release_previous.name");
 		String host = props.getProperty("release.database.host");
 		int port = Integer.valueOf(props.getProperty("release.database.port"));
+		return new MySQLAdaptor(host, database, username, password, port);
+	}
 
-		dbAdaptor = new MySQLAdaptor(host, database, username, password, port);
-		dbAdaptorPrev = new MySQLAdaptor(host, prevDatabase, username, password, port);
+	@SuppressWarnings("unchecked")
+	public void inferEvents() throws Exception
+	{
+		long startNanos = System.nanoTime();
+		logger.info("Preparing DB Adaptor and setting project variables");
+		// Set up DB adaptor using config.properties file. Each species has its own adaptors, since MySQLAdaptor connections and caches can't be shared between threads.
+		dbAdaptor = createDbAdaptor(props, props.getProperty("release_current.name"));
+		dbAdaptorPrev = createDbAdaptor(props, props.getProperty("release_previous.name"));
 		if (dbAdaptor == null || dbAdaptorPrev == null) {
 			logger.fatal("Null MySQLAdaptor, terminating orthoinference");
 			return;
 		}
-		setDbAdaptors(dbAdaptor);
+		context = new InferenceContext(species, dbAdaptor, sourceData, identicalInstanceIndex, dryRunStore);
 
 		releaseVersion = props.getProperty("releaseNumber");
 		String pathToOrthopairs = Paths.get(props.getProperty("pathToOrthopairs") + releaseVersion).toString();
@@ -81,9 +229,6 @@ public class EventsInferrer
 		int personId = Integer.valueOf(props.getProperty("personId"));
 		setReleaseDates(dateOfRelease);
 
-		String pathToSkipList = props.getProperty("pathToOrthoinferenceSkipList");
-		SkipInstanceChecker.getSkipList(pathToSkipList);
-
 		JSONParser parser = new JSONParser();
 		Object obj = parser.parse(new FileReader(pathToSpeciesConfig));
 		JSONObject jsonObject = (JSONObject) obj;
@@ -99,106 +244,277 @@ public class EventsInferrer
 		String refDbProteinUrl = (String) refDb.get("access");
 		String refDbGeneUrl = (String) refDb.get("ensg_access");
 
+		// The percent of a Complex/Polymer's proteins that must be inferrable, which defaults to 75 and can be set with 'complexProteinThreshold'
+		complexProteinThreshold = getComplexProteinThreshold(props);
+		context.getOrthologousEntityGenerator().setComplexProteinThreshold(complexProteinThreshold);
 		// Creates two files that a) list reactions that are eligible for inference and b) those that are successfully inferred
-		String eligibleFilename = "eligible_" + species	+ "_75.txt";
-		String inferredFilename = "inferred_" + species + "_75.txt";
-		createNewFile(eligibleFilename);
-		createNewFile(inferredFilename);
-		ReactionInferrer.setEligibleFilename(eligibleFilename);
-		ReactionInferrer.setInferredFilename(inferredFilename);
-
-		stableIdentifierGenerator = new StableIdentifierGenerator(dbAdaptor, (String) speciesObject.get("abbreviation"));
-		// Set static variables (DB/Species Instances, mapping files) that will be repeatedly used
+		String eligibleFilename = getOutputFilename("eligible_" + species	+ "_" + complexProteinThreshold + ".txt");
+		String inferredFilename = getOutputFilename("inferred_" + species + "_" + complexProteinThreshold + ".txt");
+		ReactionInferrer reactionInferrer = context.getReactionInferrer();
+		reactionInferrer.setEligibleFilename(eligibleFilename);
+		reactionInferrer.setInferredFilename(inferredFilename);
+		context.setStableIdentifierGenerator(new StableIdentifierGenerator(dbAdaptor, (String) speciesObject.get("abbreviation"), context.getInstanceUtilities()));
+		// Progress is checkpointed to a journal each time writes are committed. If a previous run of this species was interrupted, it is resumed from the journal.
+		Path pathToJournal = Paths.get(props.getProperty("pathToInferenceJournal", "."), getOutputFilename("orthoinference_journal_" + species + ".tsv"));
+		InferenceJournal journal = new InferenceJournal(pathToJournal, props.getProperty("release_current.name"), releaseVersion, species);
+		boolean resumed = dryRunStore == null && Boolean.valueOf(props.getProperty("resumeFromJournal", "true")) && journal.restore(context, eligibleFilename, inferredFilename);
+		if (!resumed)
+		{
+			createNewFile(eligibleFilename);
+			createNewFile(inferredFilename);
+		}
+
+		// Set variables (DB/Species Instances, mapping files) that will be repeatedly used
 		setInstanceEdits(personId);
+		EWASInferrer ewasInferrer = context.getEWASInferrer();
 		try {
-			Map<String,String[]> homologueMappings = readHomologueMappingFile(species, "hsap", pathToOrthopairs);
-			ProteinCountUtility.setHomologueMappingFile(homologueMappings);
-			EWASInferrer.setHomologueMappingFile(homologueMappings);
+			IdentifierMappings homologueMappings = readHomologueMappingFile(species, "hsap", pathToOrthopairs);
+			context.getProteinCountUtility().setHomologueMappingFile(homologueMappings);
+			ewasInferrer.setHomologueMappingFile(homologueMappings);
 		} catch (FileNotFoundException e) {
 			logger.fatal("Unable to locate " + speciesName +" mapping file: hsap_" + species + "_mapping.txt. Orthology prediction not possible.");
 			return;
 		}
-		EWASInferrer.readENSGMappingFile(species, pathToOrthopairs);
-		EWASInferrer.fetchAndSetUniprotDbInstance();
-		EWASInferrer.createEnsemblProteinDbInstance(speciesName, refDbUrl, refDbProteinUrl);
-		EWASInferrer.createEnsemblGeneDBInstance(speciesName, refDbUrl, refDbGeneUrl);
+		ewasInferrer.readENSGMappingFile(species, pathToOrthopairs);
+		ewasInferrer.fetchAndSetUniprotDbInstance();
+		ewasInferrer.createEnsemblProteinDbInstance(speciesName, refDbUrl, refDbProteinUrl);
+		ewasInferrer.createEnsemblGeneDBInstance(speciesName, refDbUrl, refDbGeneUrl);
 
-		JSONObject altRefDbJSON = (JSONObject) speciesObject.get("alt_refdb");
-		if (altRefDbJSON != null)
+		// The instances created below aren't specific to this species, so their identical checks are guarded to prevent species
+		// that are being inferred concurrently from each storing their own copy.
+		synchronized (sourceData.getWriteLock())
 		{
-			logger.info("Alternate DB exists for " + speciesName);
-			EWASInferrer.createAlternateReferenceDBInstance(altRefDbJSON);
-		} else {
-			EWASInferrer.setAltRefDbToFalse();
+			JSONObject altRefDbJSON = (JSONObject) speciesObject.get("alt_refdb");
+			if (altRefDbJSON != null)
+			{
+				logger.info("Alternate DB exists for " + speciesName);
+				ewasInferrer.createAlternateReferenceDBInstance(altRefDbJSON);
+			} else {
+				ewasInferrer.setAltRefDbToFalse();
+			}
+			createAndSetSpeciesInstance(speciesName);
+			setSummationInstance();
+			setEvidenceTypeInstance();
+			context.getOrthologousEntityGenerator().setComplexSummationInstance();
 		}
-		createAndSetSpeciesInstance(speciesName);
-		setSummationInstance();
-		setEvidenceTypeInstance();
-		OrthologousEntityGenerator.setComplexSummationInstance();
+
+		recordPhase("setup", startNanos);
 
 /**
  *  Start of ReactionlikeEvent inference. Retrieves all human ReactionlikeEvents, and attempts to infer each for the species.
  */
-		// Gets DB instance of source species (human)
-		Collection<GKInstance> sourceSpeciesInst = (Collection<GKInstance>) dbAdaptor.fetchInstanceByAttribute("Species", "name", "=", "Homo sapiens");
-		if (sourceSpeciesInst.isEmpty())
-		{
-			logger.info("Could not find Species instance for Homo sapiens");
-			return;
-		}
-		long humanInstanceDbId = sourceSpeciesInst.iterator().next().getDBID();
-		orthologousPathwayDiagramGenerator = new OrthologousPathwayDiagramGenerator(dbAdaptor, dbAdaptorPrev, speciesInst, personId, humanInstanceDbId);
-		// Gets Reaction instances of source species (human)
-		Collection<GKInstance> reactionInstances = (Collection<GKInstance>) dbAdaptor.fetchInstanceByAttribute("ReactionlikeEvent", "species", "=", humanInstanceDbId);
-
-		List<Long> dbids = new ArrayList<>();
+		orthologousPathwayDiagramGenerator = new OrthologousPathwayDiagramGenerator(dbAdaptor, dbAdaptorPrev, speciesInst, personId, sourceData.getSourceSpeciesDbId());
+		// Setting 'parallelDiagramWorkers' above 1 generates the species' PathwayDiagrams on that many workers, each with its own connection
+		orthologousPathwayDiagramGenerator.setWorkers(Integer.valueOf(props.getProperty("parallelDiagramWorkers", "1")), () -> createDbAdaptor(props, props.getProperty("release_current.name")));
+		// Gets Reaction instances of source species (human) through this species' adaptor. Their sorted DB IDs are shared in SourceSpeciesData.
+		Collection<GKInstance> reactionInstances = (Collection<GKInstance>) dbAdaptor.fetchInstanceByAttribute("ReactionlikeEvent", "species", "=", sourceData.getSourceSpeciesDbId());
 		Map<Long, GKInstance> reactionMap = new HashMap<>();
 		for (GKInstance reactionInst : reactionInstances) {
-			dbids.add(reactionInst.getDBID());
 			reactionMap.put(reactionInst.getDBID(), reactionInst);
 		}
-		Collections.sort(dbids);
-
-		logger.info(sourceSpeciesInst.iterator().next().getDisplayName() + " ReactionlikeEvent instances: " + dbids.size());
-		for (Long dbid : dbids)
+		List<Long> dbids = sourceData.getReactionlikeEventDbIds();
+		logger.info(sourceData.getSourceSpeciesName() + " ReactionlikeEvent instances: " + dbids.size());
+		// Setting 'prefetchSourceInstances' loads the attributes of the instances that the RlEs' inference reads in bulk, rather than one instance at a time
+		// as they are first read (see SourceInstancePrefetcher). With parallel workers, each worker prefetches its groups of RlEs through its own connection instead.
+		if (Boolean.valueOf(props.getProperty("prefetchSourceInstances", "false")) && Integer.valueOf(props.getProperty("parallelReactionWorkers", "1")) <= 1)
+		{
+			SourceInstancePrefetcher.prefetch(dbAdaptor, reactionInstances, context.getMetrics());
+		}
+		// Setting 'incrementalInference' records the provenance of each RlE's inference for the next release, and carries forward the outcome of
+		// RlEs that are unchanged since the previous release, copying their inferred RlEs from it. The previous provenance file can be set with 'pathToPreviousProvenance'.
+		InferenceProvenance provenance = null;
+		if (Boolean.valueOf(props.getProperty("incrementalInference", "false")))
 		{
-			GKInstance reactionInst = reactionMap.get(dbid);
-			logger.info("Attempting RlE inference: " + reactionInst);
-			// Check if the current Reaction already exists for this species, that it is a valid instance (passes some filters), and that it doesn't have a Disease attribute.
-			// Adds to manualHumanEvents array if it passes conditions. This code block allows you to re-run the code without re-inferring instances.
-			List<GKInstance> previouslyInferredInstances = new ArrayList<GKInstance>();
-			previouslyInferredInstances = checkIfPreviouslyInferred(reactionInst, orthologousEvent, previouslyInferredInstances);
-			previouslyInferredInstances = checkIfPreviouslyInferred(reactionInst, inferredFrom, previouslyInferredInstances);
-			if (previouslyInferredInstances.size() > 0)
+			long planningStartNanos = System.nanoTime();
+			provenance = IncrementalInferencePlanner.recordInputs(dbids, reactionMap, dbAdaptor, ewasInferrer.getHomologueMappings(), ewasInferrer.getEnsgMappings(),
+				sourceData.getSkipList(), complexProteinThreshold);
+			String previousReleaseVersion = String.valueOf(Integer.valueOf(releaseVersion) - 1);
+			Path pathToPreviousProvenance = props.containsKey("pathToPreviousProvenance") ? Paths.get(props.getProperty("pathToPreviousProvenance")) : getProvenancePath(previousReleaseVersion);
+			if (Files.exists(pathToPreviousProvenance))
 			{
-				GKInstance prevInfInst = previouslyInferredInstances.get(0);
-				if (prevInfInst.getAttributeValue(disease) == null)
+				previousProvenance = InferenceProvenance.read(pathToPreviousProvenance);
+				carriedForwardDbIds = IncrementalInferencePlanner.findCarriedForward(provenance, previousProvenance, reactionMap, dbAdaptorPrev, speciesInst.getDBID());
+				closureCopier = new InferredClosureCopier(dbAdaptorPrev);
+			} else {
+				logger.warn("No provenance found at " + pathToPreviousProvenance + ", inference will be attempted for all ReactionlikeEvents");
+			}
+			recordPhase("incrementalPlanning", planningStartNanos);
+		}
+		// Writes are made in a transaction and attribute updates are buffered, being flushed to the DB every 'persistenceBatchSize' reactions
+		int persistenceBatchSize = Integer.valueOf(props.getProperty("persistenceBatchSize", "100"));
+		// Inferred instances stay cached by their source instance's DB ID, but once persisted, the caches only hold on to 'maxCachedInferredInstances' of them
+		context.getInferredInstanceCaches().setMaxResidentInstances(Integer.valueOf(props.getProperty("maxCachedInferredInstances", String.valueOf(InferredInstanceCaches.DEFAULT_MAX_RESIDENT_INSTANCES))));
+		long reactionsStartNanos = System.nanoTime();
+		// The metrics are written at the end of the run, and optionally every 'metricsSnapshotIntervalSeconds' while it progresses
+		InferenceMetrics metrics = context.getMetrics();
+		Path pathToMetrics = Paths.get(props.getProperty("pathToInferenceSummaries", "."), getOutputFilename("orthoinference_metrics_" + species + "_" + releaseVersion + ".tsv"));
+		long metricsSnapshotInterval = Long.valueOf(props.getProperty("metricsSnapshotIntervalSeconds", "0"));
+		if (metricsSnapshotInterval > 0)
+		{
+			metrics.startPeriodicSnapshots(pathToMetrics, metricsSnapshotInterval);
+		}
+		InferenceUnitOfWork unitOfWork = context.getUnitOfWork();
+		unitOfWork.begin();
+		// Setting 'parallelReactionWorkers' above 1 infers independent groups of ReactionlikeEvents concurrently (see ReactionGroupScheduler)
+		int reactionWorkerCount = Integer.valueOf(props.getProperty("parallelReactionWorkers", "1"));
+		// Outcomes of RlEs whose groups were committed by an interrupted parallel run
+		Map<Long, ReactionGroupScheduler.ReactionOutcome> committedOutcomes = journal.getCommittedOutcomes();
+		if (reactionWorkerCount > 1)
+		{
+			// The DB IDs are sorted, so those up to the checkpoint were committed by the interrupted run
+			List<Long> pendingDbIds = new ArrayList<>();
+			for (Long dbid : dbids)
+			{
+				if (dbid > journal.getLastCommittedReactionDbId() && !committedOutcomes.containsKey(dbid))
 				{
-					logger.info("Inferred RlE already exists, skipping inference");
-					manualEventToNonHumanSource.put(reactionInst, prevInfInst);
-					manualHumanEvents.add(reactionInst);
-				} else {
-					logger.info("Disease reaction, skipping inference");
+					pendingDbIds.add(dbid);
 				}
-				continue;
 			}
-
-			// An inferred ReactionlikeEvent doesn't already exist for this species, and an orthologous inference will be attempted.
+			// The workers fetch the setup instances through their own connections, so they need to be committed first
+			unitOfWork.flush();
 			try {
-				ReactionInferrer.inferReaction(reactionInst);
-				logger.info("Successfully inferred " + reactionInst);
+				// Each worker's commits are checkpointed, so an interrupted run doesn't infer their groups again
+				new ReactionGroupScheduler(context, props, reactionWorkerCount, persistenceBatchSize,
+					groupOutcomes -> journal.checkpointGroups(context, groupOutcomes, eligibleFilename, inferredFilename))
+					.inferReactions(pendingDbIds, reactionMap, committedOutcomes, this::inferReactionlikeEvent);
 			} catch (Exception e) {
 				e.printStackTrace();
+				unitOfWork.rollback();
+				reactionInferrer.closeReports();
+				metrics.stopPeriodicSnapshots();
 				return;
 			}
+		} else {
+			int attemptedReactionCount = 0;
+			for (Long dbid : dbids)
+			{
+				// The DB IDs are sorted, so those up to the checkpoint were committed by the interrupted run
+				if (dbid <= journal.getLastCommittedReactionDbId())
+				{
+					continue;
+				}
+				try {
+					if (committedOutcomes.containsKey(dbid))
+					{
+						ReactionGroupScheduler.recordOutcome(context, reactionMap.get(dbid), committedOutcomes.get(dbid));
+					}
+					else if (inferReactionlikeEvent(context, reactionMap.get(dbid)) && ++attemptedReactionCount % persistenceBatchSize == 0)
+					{
+						unitOfWork.flush();
+						journal.checkpoint(context, dbid, eligibleFilename, inferredFilename);
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+					unitOfWork.rollback();
+					reactionInferrer.closeReports();
+					metrics.stopPeriodicSnapshots();
+					return;
+				}
+			}
+		}
+		if (!dbids.isEmpty())
+		{
+			unitOfWork.flush();
+			journal.checkpoint(context, dbids.get(dbids.size() - 1), eligibleFilename, inferredFilename);
+		}
+		reactionInferrer.closeReports();
+		recordPhase("reactions", reactionsStartNanos);
+		long pathwaysStartNanos = System.nanoTime();
+		PathwaysInferrer pathwaysInferrer = context.getPathwaysInferrer();
+		pathwaysInferrer.setInferredEvent(reactionInferrer.getInferredEvent());
+		pathwaysInferrer.inferPathways(reactionInferrer.getInferrableHumanEvents());
+		// Diagram generation reads the inferred Pathways from the DB, so all buffered writes need to be committed first
+		unitOfWork.close();
+		recordPhase("pathways", pathwaysStartNanos);
+		// Diagram generation reads and writes the database directly, so it isn't part of a dry run
+		if (dryRunStore == null)
+		{
+			long diagramsStartNanos = System.nanoTime();
+			orthologousPathwayDiagramGenerator.generateOrthologousPathwayDiagrams();
+			recordPhase("diagrams", diagramsStartNanos);
 		}
-		PathwaysInferrer.setInferredEvent(ReactionInferrer.getInferredEvent());
-		PathwaysInferrer.inferPathways(ReactionInferrer.getInferrableHumanEvents());
-		orthologousPathwayDiagramGenerator.generateOrthologousPathwayDiagrams();
 		outputReport(species);
+		recordPhase("total", startNanos);
+		outputSummary(species);
+		if (provenance != null)
+		{
+			outputProvenance(provenance, dbids, reactionMap, eligibleFilename);
+		}
+		metrics.stopPeriodicSnapshots();
+		metrics.logSummary();
+		metrics.writeSnapshot(pathToMetrics);
+		journal.delete();
 		logger.info("Finished orthoinference of " + speciesName);
 	}
 
+	// Infers a single ReactionlikeEvent with the given context, which is either this species' context or that of a worker. Returns false if
+	// the RlE was skipped because it has already been inferred for this species.
+	private boolean inferReactionlikeEvent(InferenceContext inferenceContext, GKInstance reactionInst) throws Exception
+	{
+		logger.info("Attempting RlE inference: " + reactionInst);
+		// Check if the current Reaction already exists for this species, that it is a valid instance (passes some filters), and that it doesn't have a Disease attribute.
+		// Adds to manualHumanEvents array if it passes conditions. This code block allows you to re-run the code without re-inferring instances.
+		List<GKInstance> previouslyInferredInstances = new ArrayList<GKInstance>();
+		previouslyInferredInstances = checkIfPreviouslyInferred(reactionInst, orthologousEvent, previouslyInferredInstances);
+		previouslyInferredInstances = checkIfPreviouslyInferred(reactionInst, inferredFrom, previouslyInferredInstances);
+		if (previouslyInferredInstances.size() > 0)
+		{
+			GKInstance prevInfInst = previouslyInferredInstances.get(0);
+			if (prevInfInst.getAttributeValue(disease) == null)
+			{
+				logger.info("Inferred RlE already exists, skipping inference");
+				manualEventToNonHumanSource.put(reactionInst, prevInfInst);
+				manualHumanEvents.add(reactionInst);
+				inferenceContext.getSummary().recordSkippedReaction("previously inferred");
+			} else {
+				logger.info("Disease reaction, skipping inference");
+				inferenceContext.getSummary().recordSkippedReaction("previously inferred disease reaction");
+			}
+			return false;
+		}
+
+		if (carriedForwardDbIds.contains(reactionInst.getDBID()))
+		{
+			InferenceProvenance.Record previousRecord = previousProvenance.getRecord(reactionInst.getDBID());
+			ReactionInferrer reactionInferrer = inferenceContext.getReactionInferrer();
+			if (previousRecord.getInferredReactionDbId() == null)
+			{
+				logger.info("RlE unchanged since the previous release, carrying forward its outcome");
+				if (previousRecord.isEligible())
+				{
+					reactionInferrer.recordEligibleReaction(reactionInst);
+				}
+				inferenceContext.getSummary().recordSkippedReaction("unchanged since previous release");
+				return false;
+			}
+			long startNanos = System.nanoTime();
+			GKInstance infReactionInst = closureCopier.copyInferredReaction(inferenceContext, reactionInst, previousRecord.getInferredReactionDbId());
+			if (infReactionInst != null)
+			{
+				inferenceContext.getMetrics().recordTime("copyInferredReaction", startNanos);
+				logger.info("RlE unchanged since the previous release, copied its inferred RlE: " + infReactionInst);
+				reactionInferrer.recordEligibleReaction(reactionInst);
+				reactionInferrer.recordInferredReaction(reactionInst, infReactionInst);
+				return true;
+			}
+			logger.info("The previous release's inferred RlE can't be copied, inferring it again");
+		}
+
+		// An inferred ReactionlikeEvent doesn't already exist for this species, and an orthologous inference will be attempted.
+		long startNanos = System.nanoTime();
+		inferenceContext.getReactionInferrer().inferReaction(reactionInst);
+		inferenceContext.getMetrics().recordTime("inferReaction", startNanos);
+		logger.info("Successfully inferred " + reactionInst);
+		return true;
+	}
+
+	// Records the time taken by a phase of the species' inference in the summary and the metrics
+	private void recordPhase(String phase, long startNanos)
+	{
+		context.getMetrics().recordTime("phase." + phase, startNanos);
+		context.getSummary().recordPhase(phase, (System.nanoTime() - startNanos) / 1000000);
+	}
+
 	private static void createNewFile(String filename) throws IOException {
 		File file = new File(filename);
 		if (file.exists()) {
@@ -207,19 +523,15 @@ public class EventsInferrer
 		file.createNewFile();
 	}
 
-	public static StableIdentifierGenerator getStableIdentifierGenerator() {
-		return stableIdentifierGenerator;
-	}
-
-	private static void setReleaseDates(String dateOfRelease)
+	private void setReleaseDates(String dateOfRelease)
 	{
-		ReactionInferrer.setReleaseDate(dateOfRelease);
-		PathwaysInferrer.setReleaseDate(dateOfRelease);
+		context.getReactionInferrer().setReleaseDate(dateOfRelease);
+		context.getPathwaysInferrer().setReleaseDate(dateOfRelease);
 
 	}
 
 	@SuppressWarnings("unchecked")
-	private static List<GKInstance> checkIfPreviouslyInferred(GKInstance reactionInst, String attribute, List<GKInstance> previouslyInferredInstances) throws InvalidAttributeException, Exception
+	private List<GKInstance> checkIfPreviouslyInferred(GKInstance reactionInst, String attribute, List<GKInstance> previouslyInferredInstances) throws InvalidAttributeException, Exception
 	{
 		for (GKInstance attributeInst : (Collection<GKInstance>) reactionInst.getAttributeValuesList(attribute))
 		{
@@ -232,58 +544,88 @@ public class EventsInferrer
 		return previouslyInferredInstances;
 	}
 
-	private static void outputReport(String species) throws IOException
+	private void outputReport(String species) throws IOException
 	{
-		int eligibleCount = ReactionInferrer.getEligibleCount();
-		int inferredCount = ReactionInferrer.getInferredCount();
+		int eligibleCount = context.getReactionInferrer().getEligibleCount();
+		int inferredCount = context.getReactionInferrer().getInferredCount();
 		float percentInferred = (float) 100*inferredCount/eligibleCount;
 		// Create file if it doesn't exist
-		String reportFilename = "report_ortho_inference_test_reactome_" + releaseVersion + ".txt";
+		String reportFilename = getOutputFilename("report_ortho_inference_test_reactome_" + releaseVersion + ".txt");
 		logger.info("Updating " + reportFilename);
-		if (!Files.exists(Paths.get(reportFilename))) {
-			createNewFile(reportFilename);
-		}
 		String results = "hsap to " + species + ":\t" + inferredCount + " out of " + eligibleCount + " eligible reactions (" + String.format("%.2f", percentInferred) + "%)\n";
-		Files.write(Paths.get(reportFilename), results.getBytes(), StandardOpenOption.APPEND);
+		// The report file is shared by all species
+		synchronized (sourceData.getWriteLock())
+		{
+			if (!Files.exists(Paths.get(reportFilename))) {
+				createNewFile(reportFilename);
+			}
+			Files.write(Paths.get(reportFilename), results.getBytes(), StandardOpenOption.APPEND);
+		}
 	}
 
-	// Statically store the adaptor variable in each class
-	private static void setDbAdaptors(MySQLAdaptor dbAdaptor)
+	// Writes the species' summary as JSON, and adds it to the TSV summary of all species in the release
+	private void outputSummary(String species) throws IOException
 	{
-		ReactionInferrer.setAdaptor(dbAdaptor);
-		SkipInstanceChecker.setAdaptor(dbAdaptor);
-		InstanceUtilities.setAdaptor(dbAdaptor);
-		OrthologousEntityGenerator.setAdaptor(dbAdaptor);
-		EWASInferrer.setAdaptor(dbAdaptor);
-		PathwaysInferrer.setAdaptor(dbAdaptor);
+		InferenceSummary summary = context.getSummary();
+		summary.setReactionCounts(context.getReactionInferrer().getEligibleCount(), context.getReactionInferrer().getInferredCount());
+		context.reportCacheStatistics();
+		Path pathToSummaries = Paths.get(props.getProperty("pathToInferenceSummaries", "."));
+		summary.writeJson(pathToSummaries.resolve(getOutputFilename("orthoinference_summary_" + species + "_" + releaseVersion + ".json")));
+		synchronized (sourceData.getWriteLock())
+		{
+			summary.writeTsv(pathToSummaries.resolve(getOutputFilename("orthoinference_summary_" + releaseVersion + ".tsv")));
+		}
+	}
 
+	// The outputs of a dry run are kept apart from those of a run that writes to the database
+	private String getOutputFilename(String filename)
+	{
+		return dryRunStore != null ? "dry_run_" + filename : filename;
 	}
 
-	// Read the species-specific orthopair 'mapping' file, and create a HashMap with the contents
-	private static Map<String, String[]> readHomologueMappingFile(String toSpecies, String fromSpecies, String pathToOrthopairs) throws IOException
+	private Path getProvenancePath(String provenanceReleaseVersion)
+	{
+		return Paths.get(props.getProperty("pathToInferenceSummaries", "."), "orthoinference_provenance_" + species + "_" + provenanceReleaseVersion + ".tsv");
+	}
+
+	// Records the outcome of each RlE in the provenance and writes it. Eligible RlEs are read from the eligible file, which also lists those of a resumed run.
+	private void outputProvenance(InferenceProvenance provenance, List<Long> dbids, Map<Long, GKInstance> reactionMap, String eligibleFilename) throws IOException
+	{
+		Set<Long> eligibleDbIds = new HashSet<>();
+		for (String eligibleLine : Files.readAllLines(Paths.get(eligibleFilename)))
+		{
+			eligibleDbIds.add(Long.valueOf(eligibleLine.split("\t", 2)[0]));
+		}
+		Map<GKInstance, GKInstance> inferredEvent = context.getReactionInferrer().getInferredEvent();
+		for (Long dbid : dbids)
+		{
+			GKInstance infReactionInst = inferredEvent.get(reactionMap.get(dbid));
+			provenance.setOutcome(dbid, eligibleDbIds.contains(dbid), infReactionInst != null ? infReactionInst.getDBID() : null);
+		}
+		provenance.write(Paths.get(props.getProperty("pathToInferenceSummaries", "."), getOutputFilename(getProvenancePath(releaseVersion).getFileName().toString())));
+	}
+
+	// Read the species-specific orthopair 'mapping' file
+	static IdentifierMappings readHomologueMappingFile(String toSpecies, String fromSpecies, String pathToOrthopairs) throws IOException
 	{
 		String orthopairsFileName = fromSpecies + "_" + toSpecies + "_mapping.txt";
-		String orthopairsFilePath = Paths.get(pathToOrthopairs, orthopairsFileName).toString();
+		Path orthopairsFilePath = Paths.get(pathToOrthopairs, orthopairsFileName);
 		logger.info("Reading in " + orthopairsFilePath);
-		FileReader fr = new FileReader(orthopairsFilePath);
-		BufferedReader br = new BufferedReader(fr);
-
-		Map<String, String[]> homologueMappings = new HashMap<>();
-		String currentLine;
-		while ((currentLine = br.readLine()) != null)
+		if (!Files.exists(orthopairsFilePath))
+		{
+			throw new FileNotFoundException(orthopairsFilePath.toString());
+		}
+		Path orthopairsIndexPath = IdentifierMappings.findIndexFile(orthopairsFilePath);
+		if (orthopairsIndexPath != null)
 		{
-			String[] tabSplit = currentLine.split("\t");
-			String mapKey = tabSplit[0];
-			String[] spaceSplit = tabSplit[1].split(" ");
-			homologueMappings.put(mapKey, spaceSplit);
-		}
-		br.close();
-		fr.close();
-		return homologueMappings;
+			logger.info("Looking up homologues in the binary index " + orthopairsIndexPath);
+			return IdentifierMappings.of(OrthopairsIndex.open(orthopairsIndexPath));
+		}
+		return IdentifierMappings.readHomologueMappings(orthopairsFilePath);
 	}
 
 	// Find the instance specific to this species
-	private static void createAndSetSpeciesInstance(String toSpeciesLong) throws Exception
+	private void createAndSetSpeciesInstance(String toSpeciesLong) throws Exception
 	{
 		SchemaClass referenceDb = dbAdaptor.getSchema().getClassByName(Species);
 		speciesInst = new GKInstance(referenceDb);
@@ -291,27 +633,27 @@ public class EventsInferrer
 		speciesInst.addAttributeValue(created, instanceEditInst);
 		speciesInst.addAttributeValue(name, toSpeciesLong);
 		speciesInst.addAttributeValue(_displayName, toSpeciesLong);
-		speciesInst = InstanceUtilities.checkForIdenticalInstances(speciesInst, null);
+		speciesInst = context.getInstanceUtilities().checkForIdenticalInstances(speciesInst, null);
 		logger.info("Using species instance: " + speciesInst);
-		OrthologousEntityGenerator.setSpeciesInstance(speciesInst);
-		EWASInferrer.setSpeciesInstance(speciesInst);
-		InstanceUtilities.setSpeciesInstance(speciesInst);
+		context.getOrthologousEntityGenerator().setSpeciesInstance(speciesInst);
+		context.getEWASInferrer().setSpeciesInstance(speciesInst);
+		context.getInstanceUtilities().setSpeciesInstance(speciesInst);
 	}
-	// Create and set static Summation instance
-	private static void setSummationInstance() throws Exception
+	// Create and set Summation instance
+	private void setSummationInstance() throws Exception
 	{
 		GKInstance summationInst = new GKInstance(dbAdaptor.getSchema().getClassByName(Summation));
 		summationInst.setDbAdaptor(dbAdaptor);
 		summationInst.addAttributeValue(created, instanceEditInst);
-		String summationText = "This event has been computationally inferred from an event that has been demonstrated in another species.<p>The inference is based on the homology mapping from PANTHER. Briefly, reactions for which all involved PhysicalEntities (in input, output and catalyst) have a mapped orthologue/paralogue (for complexes at least 75% of components must have a mapping) are inferred to the other species. High level events are also inferred for these events to allow for easier navigation.<p><a href='/electronic_inference_compara.html' target = 'NEW'>More details and caveats of the event inference in Reactome.</a> For details on PANTHER see also: <a href='http://www.pantherdb.org/about.jsp' target='NEW'>http://www.pantherdb.org/about.jsp</a>";
+		String summationText = "This event has been computationally inferred from an event that has been demonstrated in another species.<p>The inference is based on the homology mapping from PANTHER. Briefly, reactions for which all involved PhysicalEntities (in input, output and catalyst) have a mapped orthologue/paralogue (for complexes at least " + complexProteinThreshold + "% of components must have a mapping) are inferred to the other species. High level events are also inferred for these events to allow for easier navigation.<p><a href='/electronic_inference_compara.html' target = 'NEW'>More details and caveats of the event inference in Reactome.</a> For details on PANTHER see also: <a href='http://www.pantherdb.org/about.jsp' target='NEW'>http://www.pantherdb.org/about.jsp</a>";
 		summationInst.addAttributeValue(text, summationText);
 		summationInst.addAttributeValue(_displayName, summationText);
-		summationInst = InstanceUtilities.checkForIdenticalInstances(summationInst, null);
-		ReactionInferrer.setSummationInstance(summationInst);
-		PathwaysInferrer.setSummationInstance(summationInst);
+		summationInst = context.getInstanceUtilities().checkForIdenticalInstances(summationInst, null);
+		context.getReactionInferrer().setSummationInstance(summationInst);
+		context.getPathwaysInferrer().setSummationInstance(summationInst);
 	}
-	// Create and set static EvidenceType instance
-	private static void setEvidenceTypeInstance() throws Exception
+	// Create and set EvidenceType instance
+	private void setEvidenceTypeInstance() throws Exception
 	{
 		GKInstance evidenceTypeInst = new GKInstance(dbAdaptor.getSchema().getClassByName(EvidenceType));
 		evidenceTypeInst.setDbAdaptor(dbAdaptor);
@@ -320,18 +662,24 @@ public class EventsInferrer
 		evidenceTypeInst.addAttributeValue(name, evidenceTypeText);
 		evidenceTypeInst.addAttributeValue(name, "IEA");
 		evidenceTypeInst.addAttributeValue(_displayName, evidenceTypeText);
-		evidenceTypeInst = InstanceUtilities.checkForIdenticalInstances(evidenceTypeInst, null);
-		ReactionInferrer.setEvidenceTypeInstance(evidenceTypeInst);
-		PathwaysInferrer.setEvidenceTypeInstance(evidenceTypeInst);
+		evidenceTypeInst = context.getInstanceUtilities().checkForIdenticalInstances(evidenceTypeInst, null);
+		context.getReactionInferrer().setEvidenceTypeInstance(evidenceTypeInst);
+		context.getPathwaysInferrer().setEvidenceTypeInstance(evidenceTypeInst);
 	}
 
-	private static void setInstanceEdits(int personId) throws Exception
+	private void setInstanceEdits(int personId) throws Exception
 	{
-		instanceEditInst = InstanceEditUtils.createInstanceEdit(dbAdaptor, personId, "org.reactome.orthoinference");
+		if (dryRunStore != null)
+		{
+			instanceEditInst = InstanceEditUtils.createDefaultIE(dbAdaptor, personId, false, "Inserted by org.reactome.orthoinference");
+			context.getInstanceStore().storeInstance(instanceEditInst);
+		} else {
+			instanceEditInst = InstanceEditUtils.createInstanceEdit(dbAdaptor, personId, "org.reactome.orthoinference");
+		}
 		logger.info("Instance edit: " + instanceEditInst);
-		InstanceUtilities.setInstanceEdit(instanceEditInst);
-		OrthologousEntityGenerator.setInstanceEdit(instanceEditInst);
-		EWASInferrer.setInstanceEdit(instanceEditInst);
-		PathwaysInferrer.setInstanceEdit(instanceEditInst);
+		context.getInstanceUtilities().setInstanceEdit(instanceEditInst);
+		context.getOrthologousEntityGenerator().setInstanceEdit(instanceEditInst);
+		context.getEWASInferrer().setInstanceEdit(instanceEditInst);
+		context.getPathwaysInferrer().setInstanceEdit(instanceEditInst);
 	}
 }
@@ -0,0 +1,107 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import static org.gk.model.ReactomeJavaConstants.*;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+
+/**
+ * An in-memory replacement for MySQLAdaptor.fetchIdenticalInstances, which makes a multi-join query each time it is called. At startup, the defining
+ * attribute values of every instance of the classes that orthoinference creates are loaded in bulk, and the DB ID of each instance is indexed
+ * by its defining attribute values (see InstanceIdentityKey). As with fetchIdenticalInstances, instances of subclasses are indexed under each
+ * of the indexed classes they belong to. Instances stored during inference are added to the index.
+ *
+ * Only classes whose defining attributes all require every value to match can be answered this way. Classes with 'any' defining attributes
+ * still use fetchIdenticalInstances. The index is shared by the species being inferred, so it is thread-safe.
+ */
+public class IdenticalInstanceIndex {
+
+	private static final Logger logger = LogManager.getLogger();
+	// The classes of the instances that orthoinference checks for identical instances
+	private static final String[] INDEXED_CLASSES = {ReferenceGeneProduct, ReferenceDNASequence, EntityWithAccessionedSequence, Complex, Polymer, DefinedSet,
+		CandidateSet, CatalystActivity, Summation, GenomeEncodedEntity, Compartment};
+	private final Map<String, SchemaClass> indexedClasses = new ConcurrentHashMap<>();
+	private final Map<String, Map<InstanceIdentityKey, Long>> dbIdsByClass = new ConcurrentHashMap<>();
+
+	private IdenticalInstanceIndex()
+	{
+	}
+
+	// Loads the defining attribute values of all instances of the indexed classes
+	@SuppressWarnings("unchecked")
+	public static IdenticalInstanceIndex preload(MySQLAdaptor dba) throws Exception
+	{
+		IdenticalInstanceIndex index = new IdenticalInstanceIndex();
+		for (String className : INDEXED_CLASSES)
+		{
+			SchemaClass indexedClass = dba.getSchema().getClassByName(className);
+			if (!InstanceIdentityKey.isKeyedByAllDefiningValues(indexedClass))
+			{
+				logger.info(className + " has 'any' defining attributes, identical instances will be fetched from the DB");
+				continue;
+			}
+			List<String> definingAttributeNames = new ArrayList<>();
+			for (SchemaAttribute definingAttr : (Collection<SchemaAttribute>) indexedClass.getDefiningAttributes())
+			{
+				definingAttributeNames.add(definingAttr.getName());
+			}
+			Collection<GKInstance> instances = (Collection<GKInstance>) dba.fetchInstancesByClass(className);
+			dba.loadInstanceAttributeValues(instances, definingAttributeNames.toArray(new String[0]));
+			Map<InstanceIdentityKey, Long> dbIds = new ConcurrentHashMap<>(instances.size() * 2);
+			for (GKInstance inst : instances)
+			{
+				// If there are several identical instances, the one with the smallest DB ID is used
+				dbIds.merge(InstanceIdentityKey.unordered(inst, indexedClass), inst.getDBID(), Math::min);
+			}
+			index.indexedClasses.put(className, indexedClass);
+			index.dbIdsByClass.put(className, dbIds);
+			logger.info("Indexed " + instances.size() + " " + className + " instances");
+		}
+		return index;
+	}
+
+	public boolean isIndexed(SchemaClass instanceClass)
+	{
+		return indexedClasses.containsKey(instanceClass.getName());
+	}
+
+	// Returns the DB ID of an instance identical to inst, or null if there isn't one. The class of inst must be indexed.
+	public Long findIdenticalDbId(GKInstance inst) throws Exception
+	{
+		SchemaClass instanceClass = inst.getSchemClass();
+		return dbIdsByClass.get(instanceClass.getName()).get(InstanceIdentityKey.unordered(inst, instanceClass));
+	}
+
+	// Indexes a newly stored instance under its class and any indexed superclasses
+	public void add(GKInstance inst) throws Exception
+	{
+		for (SchemaClass indexedClass : indexedClasses.values())
+		{
+			if (inst.getSchemClass().isa(indexedClass))
+			{
+				dbIdsByClass.get(indexedClass.getName()).putIfAbsent(InstanceIdentityKey.unordered(inst, indexedClass), inst.getDBID());
+			}
+		}
+	}
+
+	// Removes an instance whose storage was rolled back
+	public void remove(GKInstance inst) throws Exception
+	{
+		for (SchemaClass indexedClass : indexedClasses.values())
+		{
+			if (inst.getSchemClass().isa(indexedClass))
+			{
+				dbIdsByClass.get(indexedClass.getName()).remove(InstanceIdentityKey.unordered(inst, indexedClass), inst.getDBID());
+			}
+		}
+	}
+}
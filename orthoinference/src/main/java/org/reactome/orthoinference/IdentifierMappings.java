@@ -0,0 +1,387 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.reactome.release.common.orthopairs.OrthopairsIndex;
+
+/**
+ * A read-only mapping of identifiers to identifiers, such as the homologue mappings (hsap_<species>_mapping.txt) or the protein-gene mappings
+ * (<species>_gene_protein_mapping.txt) produced by Orthopairs. Mapped values can be given as 'DB:ID' or 'ID', and the source DB and ID of each
+ * value can be read separately.
+ *
+ * Orthopairs also writes each mapping file as a binary index (see OrthopairsIndex), and the gene-protein mappings as an inverted index keyed by
+ * protein. Mappings of an index are looked up in the memory-mapped file, without being copied to the heap. Mappings read from a text file are
+ * split once, when read: the keys are held in a sorted array and found by binary search, and the values of all keys are held in a single array,
+ * with each key's values in a contiguous range of it. Identifiers are interned, so an identifier that is mapped from many keys is only held once,
+ * and sources are dictionary-encoded as a byte per value. This uses a fraction of the memory of a HashMap of String arrays/Lists.
+ */
+public abstract class IdentifierMappings {
+
+	private IdentifierMappings()
+	{
+	}
+
+	// Reads a homologue mapping file, in which each line is a source species protein followed by a tab and its space-separated homologues.
+	// Lines are split as the HashMap they replace was filled: with String.split, and a protein on several lines keeps the homologues of the last one.
+	public static IdentifierMappings readHomologueMappings(Path mappingFilePath) throws IOException
+	{
+		Builder builder = new Builder();
+		try (BufferedReader br = Files.newBufferedReader(mappingFilePath))
+		{
+			String currentLine;
+			while ((currentLine = br.readLine()) != null)
+			{
+				String[] tabSplit = currentLine.split("\t");
+				builder.put(tabSplit[0], tabSplit[1].split(" "));
+			}
+		}
+		return builder.build();
+	}
+
+	// Reads a gene-protein mapping file, in which each line is a gene followed by a tab and its space-separated proteins, and maps each protein to its genes.
+	// As before, a protein's genes are appended in the order of the lines, including any gene that is on several lines.
+	public static IdentifierMappings readProteinGeneMappings(Path mappingFilePath) throws IOException
+	{
+		Builder builder = new Builder();
+		try (BufferedReader br = Files.newBufferedReader(mappingFilePath))
+		{
+			String currentLine;
+			while ((currentLine = br.readLine()) != null)
+			{
+				String[] tabSplit = currentLine.split("\t");
+				for (String protein : tabSplit[1].split(" "))
+				{
+					builder.add(getProteinId(protein), tabSplit[0]);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	// The ID of a protein given as 'DB:ID' or 'ID', which is the text between its first and second colons if it has any
+	private static String getProteinId(String protein)
+	{
+		int colonIndex = protein.indexOf(':');
+		if (colonIndex < 0)
+		{
+			return protein;
+		}
+		int nextColonIndex = protein.indexOf(':', colonIndex + 1);
+		return protein.substring(colonIndex + 1, nextColonIndex >= 0 ? nextColonIndex : protein.length());
+	}
+
+	// Returns a view of the mappings of a binary index, which are looked up in the index rather than copied from it
+	public static IdentifierMappings of(OrthopairsIndex mappingIndex)
+	{
+		return new IndexedMappings(mappingIndex);
+	}
+
+	// Returns the binary index that Orthopairs wrote next to the mapping file (eg: hsap_mmus_mapping.bin next to hsap_mmus_mapping.txt),
+	// or null if there is none, or if it is older than the mapping file and so may not hold the same mappings
+	public static Path findIndexFile(Path mappingFilePath) throws IOException
+	{
+		return findIndexFile(mappingFilePath, ".bin");
+	}
+
+	// Returns the binary index keyed by the values of the mapping file (eg: mmus_gene_protein_mapping_inverted.bin, which maps each protein to
+	// its genes), or null if there is none or it is older than the mapping file
+	public static Path findInvertedIndexFile(Path mappingFilePath) throws IOException
+	{
+		return findIndexFile(mappingFilePath, "_inverted.bin");
+	}
+
+	private static Path findIndexFile(Path mappingFilePath, String indexFileSuffix) throws IOException
+	{
+		String mappingFileName = mappingFilePath.getFileName().toString();
+		String indexFileName = (mappingFileName.endsWith(".txt") ? mappingFileName.substring(0, mappingFileName.length() - ".txt".length()) : mappingFileName) + indexFileSuffix;
+		Path indexFilePath = mappingFilePath.resolveSibling(indexFileName);
+		if (!Files.exists(indexFilePath) || Files.getLastModifiedTime(indexFilePath).compareTo(Files.getLastModifiedTime(mappingFilePath)) < 0)
+		{
+			return null;
+		}
+		return indexFilePath;
+	}
+
+	// Returns the index of the key, or -1 if it isn't mapped
+	public abstract int indexOf(String key);
+
+	public boolean containsKey(String key)
+	{
+		return indexOf(key) >= 0;
+	}
+
+	// The number of values mapped from the key, which is 0 if it isn't mapped
+	public int getValueCount(String key)
+	{
+		int index = indexOf(key);
+		return index >= 0 ? getValueEnd(index) - getValueStart(index) : 0;
+	}
+
+	// The range of positions of the values of the key at keyIndex, for use with getValue, getSource and getQualifiedValue
+	public abstract int getValueStart(int keyIndex);
+
+	public abstract int getValueEnd(int keyIndex);
+
+	// The ID of the value at the position, without its source DB
+	public abstract String getValue(int valuePosition);
+
+	// The source DB of the value at the position, or an empty string if it had none
+	public abstract String getSource(int valuePosition);
+
+	// The value at the position as it appeared in the mapping file
+	public abstract String getQualifiedValue(int valuePosition);
+
+	// The IDs of the values mapped from the key, which is empty if it isn't mapped
+	public List<String> getValues(String key)
+	{
+		int index = indexOf(key);
+		if (index < 0)
+		{
+			return Collections.emptyList();
+		}
+		List<String> keyValues = new ArrayList<>(getValueEnd(index) - getValueStart(index));
+		for (int valuePosition = getValueStart(index); valuePosition < getValueEnd(index); valuePosition++)
+		{
+			keyValues.add(getValue(valuePosition));
+		}
+		return keyValues;
+	}
+
+	// The values mapped from the key as they appeared in the mapping file, eg: for logging
+	public List<String> getQualifiedValues(String key)
+	{
+		int index = indexOf(key);
+		List<String> qualifiedValues = new ArrayList<>();
+		if (index >= 0)
+		{
+			for (int valuePosition = getValueStart(index); valuePosition < getValueEnd(index); valuePosition++)
+			{
+				qualifiedValues.add(getQualifiedValue(valuePosition));
+			}
+		}
+		return qualifiedValues;
+	}
+
+	public abstract int size();
+
+	// Mappings read from a text file or built, held in arrays
+	private static class ArrayMappings extends IdentifierMappings {
+
+		private final String[] keys;
+		// The values of keys[i] are at valueOffsets[i] (inclusive) to valueOffsets[i + 1] (exclusive)
+		private final int[] valueOffsets;
+		private final String[] values;
+		private final byte[] valueSources;
+		private final String[] sources;
+
+		private ArrayMappings(String[] keys, int[] valueOffsets, String[] values, byte[] valueSources, String[] sources)
+		{
+			this.keys = keys;
+			this.valueOffsets = valueOffsets;
+			this.values = values;
+			this.valueSources = valueSources;
+			this.sources = sources;
+		}
+
+		@Override
+		public int indexOf(String key)
+		{
+			if (key == null)
+			{
+				return -1;
+			}
+			int index = Arrays.binarySearch(keys, key);
+			return index >= 0 ? index : -1;
+		}
+
+		@Override
+		public int getValueStart(int keyIndex)
+		{
+			return valueOffsets[keyIndex];
+		}
+
+		@Override
+		public int getValueEnd(int keyIndex)
+		{
+			return valueOffsets[keyIndex + 1];
+		}
+
+		@Override
+		public String getValue(int valuePosition)
+		{
+			return values[valuePosition];
+		}
+
+		@Override
+		public String getSource(int valuePosition)
+		{
+			return sources[valueSources[valuePosition]];
+		}
+
+		@Override
+		public String getQualifiedValue(int valuePosition)
+		{
+			String source = getSource(valuePosition);
+			return source.isEmpty() ? values[valuePosition] : source + ":" + values[valuePosition];
+		}
+
+		@Override
+		public int size()
+		{
+			return keys.length;
+		}
+	}
+
+	// Mappings looked up in a memory-mapped binary index, whose values are as they appeared in the mapping file
+	private static class IndexedMappings extends IdentifierMappings {
+
+		private final OrthopairsIndex mappingIndex;
+
+		private IndexedMappings(OrthopairsIndex mappingIndex)
+		{
+			this.mappingIndex = mappingIndex;
+		}
+
+		@Override
+		public int indexOf(String key)
+		{
+			return mappingIndex.indexOf(key);
+		}
+
+		@Override
+		public int getValueStart(int keyIndex)
+		{
+			return mappingIndex.getValueStart(keyIndex);
+		}
+
+		@Override
+		public int getValueEnd(int keyIndex)
+		{
+			return mappingIndex.getValueEnd(keyIndex);
+		}
+
+		@Override
+		public String getValue(int valuePosition)
+		{
+			String qualifiedValue = mappingIndex.getValue(valuePosition);
+			return qualifiedValue.substring(qualifiedValue.indexOf(':') + 1);
+		}
+
+		@Override
+		public String getSource(int valuePosition)
+		{
+			String qualifiedValue = mappingIndex.getValue(valuePosition);
+			int colonIndex = qualifiedValue.indexOf(':');
+			return colonIndex >= 0 ? qualifiedValue.substring(0, colonIndex) : "";
+		}
+
+		@Override
+		public String getQualifiedValue(int valuePosition)
+		{
+			return mappingIndex.getValue(valuePosition);
+		}
+
+		@Override
+		public int size()
+		{
+			return mappingIndex.size();
+		}
+	}
+
+	/**
+	 * Collects mappings in the order they are read. A key's values keep their order. Values added to a key that was already added are appended,
+	 * and values put for a key replace the ones it had, as with Map.put.
+	 */
+	public static class Builder {
+
+		private final Map<String, String> internedIdentifiers = new HashMap<>();
+		private final Map<String, Byte> sourceIndexes = new HashMap<>();
+		private final List<String> sources = new ArrayList<>();
+		private final Map<String, List<Integer>> valuePositions = new HashMap<>();
+		private final List<String> values = new ArrayList<>();
+		private final List<Byte> valueSources = new ArrayList<>();
+
+		public Builder()
+		{
+			getSourceIndex("");
+		}
+
+		// Adds a value, given as 'DB:ID' or 'ID', to the key
+		public Builder add(String key, String qualifiedValue)
+		{
+			int colonIndex = qualifiedValue.indexOf(':');
+			String source = colonIndex >= 0 ? qualifiedValue.substring(0, colonIndex) : "";
+			String value = colonIndex >= 0 ? qualifiedValue.substring(colonIndex + 1) : qualifiedValue;
+			valuePositions.computeIfAbsent(intern(key), k -> new ArrayList<>()).add(values.size());
+			values.add(intern(value));
+			valueSources.add(getSourceIndex(source));
+			return this;
+		}
+
+		// Replaces the values of the key with the given values, each given as 'DB:ID' or 'ID'
+		public Builder put(String key, String... qualifiedValues)
+		{
+			valuePositions.put(intern(key), new ArrayList<>(qualifiedValues.length));
+			for (String qualifiedValue : qualifiedValues)
+			{
+				add(key, qualifiedValue);
+			}
+			return this;
+		}
+
+		private String intern(String identifier)
+		{
+			String internedIdentifier = internedIdentifiers.putIfAbsent(identifier, identifier);
+			return internedIdentifier != null ? internedIdentifier : identifier;
+		}
+
+		private byte getSourceIndex(String source)
+		{
+			Byte sourceIndex = sourceIndexes.get(source);
+			if (sourceIndex == null)
+			{
+				if (sources.size() > Byte.MAX_VALUE)
+				{
+					throw new IllegalStateException("Too many identifier sources, " + source + " can't be added");
+				}
+				sourceIndex = (byte) sources.size();
+				sourceIndexes.put(source, sourceIndex);
+				sources.add(source);
+			}
+			return sourceIndex;
+		}
+
+		public IdentifierMappings build()
+		{
+			String[] keys = valuePositions.keySet().toArray(new String[0]);
+			Arrays.sort(keys);
+			int[] valueOffsets = new int[keys.length + 1];
+			// Values replaced by put aren't kept
+			int valueCount = valuePositions.values().stream().mapToInt(List::size).sum();
+			String[] sortedValues = new String[valueCount];
+			byte[] sortedValueSources = new byte[valueCount];
+			int valuePosition = 0;
+			for (int i = 0; i < keys.length; i++)
+			{
+				valueOffsets[i] = valuePosition;
+				for (int unsortedPosition : valuePositions.get(keys[i]))
+				{
+					sortedValues[valuePosition] = values.get(unsortedPosition);
+					sortedValueSources[valuePosition] = valueSources.get(unsortedPosition);
+					valuePosition++;
+				}
+			}
+			valueOffsets[keys.length] = valuePosition;
+			return new ArrayMappings(keys, valueOffsets, sortedValues, sortedValueSources, sources.toArray(new String[0]));
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaClass;
+
+/**
+ * Locks shared by the workers that infer a species' ReactionlikeEvent groups in parallel (see ReactionGroupScheduler). Groups don't share
+ * source instances, but their inferences can still produce identical instances (eg: ghost homologues, Compartments). The identical instance
+ * check and storage of an instance are made while holding the lock of its InstanceIdentityKey, so only workers creating instances with the
+ * same identity wait for each other. Locks are striped, so a fixed number of them are kept regardless of how many instances are checked.
+ *
+ * Workers only commit at group boundaries, so the instances a worker has stored can't be seen through the other workers' connections until then.
+ * The identity keys of these instances are registered as pending, and a worker that needs an instance identical to one pending in another
+ * worker gets a ConflictException. It then rolls back its uncommitted groups, waits for the other worker to commit or roll back, and infers them again.
+ */
+public class IdentityLocks {
+
+	private static final int STRIPE_COUNT = 1024;
+	private final Object[] stripes = new Object[STRIPE_COUNT];
+	private final Map<String, Boolean> keyedClasses = new ConcurrentHashMap<>();
+	// The unit of work that stored each pending instance, keyed by its 'all' defining values (see InstanceIdentityKey.ofAllDefiningValues)
+	private final Map<InstanceIdentityKey, InferenceUnitOfWork> pendingOwners = new ConcurrentHashMap<>();
+	// The pending keys of each unit of work. Each list is only used by the thread of its unit of work.
+	private final Map<InferenceUnitOfWork, List<InstanceIdentityKey>> pendingKeys = new ConcurrentHashMap<>();
+
+	// Thrown when an instance identical to the one being checked has been stored by another worker, but not committed yet. Also thrown by
+	// InferredInstanceCache when an instance is being inferred by another worker, or hasn't been committed by it yet.
+	public static class ConflictException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+		private final transient Object monitor;
+		private final transient BooleanSupplier pending;
+
+		// The monitor is notified whenever the condition may have stopped being pending
+		ConflictException(String message, Object monitor, BooleanSupplier pending)
+		{
+			super(message);
+			this.monitor = monitor;
+			this.pending = pending;
+		}
+
+		// Waits until the conflicting instance has been committed or rolled back. The waiting worker must have rolled back its own writes first,
+		// so that no worker waits while holding pending instances, and workers can't wait for each other.
+		public void awaitRelease() throws InterruptedException
+		{
+			synchronized (monitor)
+			{
+				while (pending.getAsBoolean())
+				{
+					monitor.wait();
+				}
+			}
+		}
+	}
+
+	public IdentityLocks()
+	{
+		for (int i = 0; i < STRIPE_COUNT; i++)
+		{
+			stripes[i] = new Object();
+		}
+	}
+
+	// Returns the lock for instances identical to inst. Instances of classes with 'any' defining attributes all use the lock of their class.
+	public Object getLock(GKInstance inst) throws Exception
+	{
+		SchemaClass instanceClass = inst.getSchemClass();
+		boolean keyed = keyedClasses.computeIfAbsent(instanceClass.getName(), k -> InstanceIdentityKey.isKeyedByAllDefiningValues(instanceClass));
+		int hash = keyed ? InstanceIdentityKey.unordered(inst, instanceClass).hashCode() : instanceClass.getName().hashCode();
+		return stripes[(hash & Integer.MAX_VALUE) % STRIPE_COUNT];
+	}
+
+	// Throws a ConflictException if another unit of work has stored an instance that may be identical to inst and hasn't committed it. Called with inst's lock held.
+	public void checkNotPendingElsewhere(GKInstance inst, InferenceUnitOfWork unitOfWork) throws Exception
+	{
+		InstanceIdentityKey key = InstanceIdentityKey.ofAllDefiningValues(inst);
+		InferenceUnitOfWork owner = pendingOwners.get(key);
+		if (owner != null && owner != unitOfWork)
+		{
+			throw new ConflictException("An instance identical to " + key + " is pending in another worker", this, () -> pendingOwners.get(key) == owner);
+		}
+	}
+
+	// Registers an instance that the unit of work has just stored. Called with inst's lock held.
+	public void addPending(GKInstance inst, InferenceUnitOfWork unitOfWork) throws Exception
+	{
+		InstanceIdentityKey key = InstanceIdentityKey.ofAllDefiningValues(inst);
+		if (pendingOwners.putIfAbsent(key, unitOfWork) == null)
+		{
+			pendingKeys.computeIfAbsent(unitOfWork, k -> new ArrayList<>()).add(key);
+		}
+	}
+
+	// Called once the unit of work has committed or rolled back its writes, which wakes the workers waiting for them
+	public void release(InferenceUnitOfWork unitOfWork)
+	{
+		List<InstanceIdentityKey> keys = pendingKeys.remove(unitOfWork);
+		if (keys == null)
+		{
+			return;
+		}
+		for (InstanceIdentityKey key : keys)
+		{
+			pendingOwners.remove(key, unitOfWork);
+		}
+		synchronized (this)
+		{
+			notifyAll();
+		}
+	}
+}
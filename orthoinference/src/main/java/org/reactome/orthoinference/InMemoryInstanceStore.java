@@ -0,0 +1,505 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+
+import static org.gk.model.ReactomeJavaConstants.*;
+
+/**
+ * Keeps the instances stored by a dry run of orthoinference in memory, so that a species can be inferred against a release database without
+ * changing it (eg: to see the effect of a parameter change, or to benchmark inference without database writes). The database is the seed:
+ * its instances are read as usual, and stored instances are given DB IDs above its largest DB ID, so they can't clash with existing ones.
+ * Identical instance checks return the matching database instances, followed by any stored instance with the same defining attribute values
+ * (see InstanceIdentityKey). Unlike fetchIdenticalInstances, stored instances are only matched when all of their defining values are equal.
+ *
+ * Attribute updates of database instances (eg: the inferredTo and orthologousEvent values added to source species instances) are recorded
+ * with the values that were written, and are returned by getAttributeValues and by the stores' loadInstanceAttributeValues. The store is an
+ * overlay of the database rather than a copy of it: reads of unchanged instances, and of database instances through a MySQLAdaptor, still go
+ * to the database, which doesn't have the recorded updates.
+ *
+ * writeSnapshot writes the stored instances and recorded updates to a text file, ordered by DB ID so that the snapshots of two dry runs can
+ * be diffed, and load creates a store from the database and a snapshot (eg: to infer further species on top of an earlier dry run).
+ *
+ * One store is shared by all species and workers of a run, since the identical instance index and the inference caches refer to stored
+ * instances by DB ID. Each species and worker writes through its own InstanceStore from createStore. Transactions do nothing, except that
+ * a rollback removes the instances stored, and the updates recorded, since the last commit.
+ */
+public class InMemoryInstanceStore {
+
+	private static final Logger logger = LogManager.getLogger();
+	private final AtomicLong lastDbId;
+	private final Map<Long, GKInstance> storedInstances = new ConcurrentHashMap<>();
+	// Stored instances by their class and superclasses, keyed by the defining values of that class
+	private final Map<String, Map<InstanceIdentityKey, GKInstance>> storedInstancesByClass = new ConcurrentHashMap<>();
+	// The keys each stored instance was indexed by, which are replaced when its defining values are updated
+	private final Map<Long, Map<String, InstanceIdentityKey>> storedInstanceKeys = new ConcurrentHashMap<>();
+	// The values last written to the updated attributes of database instances, keyed by DB ID and attribute
+	private final Map<Long, Map<String, List<Object>>> updatedAttributes = new ConcurrentHashMap<>();
+
+	private InMemoryInstanceStore(long lastDbId)
+	{
+		this.lastDbId = new AtomicLong(lastDbId);
+	}
+
+	// Creates a store seeded with the contents of the database
+	public static InMemoryInstanceStore seed(MySQLAdaptor dba) throws Exception
+	{
+		long lastDbId = getLastDbId(dba);
+		logger.info("Dry run: instances will be stored in memory, with DB IDs above " + lastDbId);
+		return new InMemoryInstanceStore(lastDbId);
+	}
+
+	// Creates a store seeded with the contents of the database and of a snapshot written by writeSnapshot
+	public static InMemoryInstanceStore load(MySQLAdaptor dba, Path snapshotPath) throws Exception
+	{
+		List<String[]> snapshotLines = new ArrayList<>();
+		for (String line : Files.readAllLines(snapshotPath))
+		{
+			snapshotLines.add(line.split("\t", -1));
+		}
+		// Stored instances are created first, since values can refer to instances that were stored after them
+		Map<Long, GKInstance> loadedInstances = new HashMap<>();
+		long lastDbId = getLastDbId(dba);
+		for (String[] snapshotLine : snapshotLines)
+		{
+			if (snapshotLine[0].equals("stored"))
+			{
+				GKInstance inst = new GKInstance(dba.getSchema().getClassByName(snapshotLine[2]));
+				inst.setDBID(Long.valueOf(snapshotLine[1]));
+				inst.setDbAdaptor(dba);
+				inst.setDisplayName(unescape(snapshotLine[3]));
+				loadedInstances.put(inst.getDBID(), inst);
+				lastDbId = Math.max(lastDbId, inst.getDBID());
+			}
+		}
+		InMemoryInstanceStore store = new InMemoryInstanceStore(lastDbId);
+		for (String[] snapshotLine : snapshotLines)
+		{
+			long dbId = Long.valueOf(snapshotLine[1]);
+			if (snapshotLine[0].equals("updated"))
+			{
+				store.updatedAttributes.computeIfAbsent(dbId, k -> new ConcurrentHashMap<>()).put(snapshotLine[2], new ArrayList<>());
+			} else if (snapshotLine[0].equals("value"))
+			{
+				Object value = parseValue(snapshotLine[3], snapshotLine[4], loadedInstances, dba);
+				GKInstance loadedInst = loadedInstances.get(dbId);
+				if (loadedInst != null)
+				{
+					loadedInst.addAttributeValueNoCheck(snapshotLine[2], value);
+				} else {
+					Map<String, List<Object>> attributeValues = store.updatedAttributes.get(dbId);
+					if (attributeValues == null || !attributeValues.containsKey(snapshotLine[2]))
+					{
+						throw new IllegalStateException("Value of " + dbId + "." + snapshotLine[2] + " precedes its 'updated' line in " + snapshotPath);
+					}
+					attributeValues.get(snapshotLine[2]).add(value);
+				}
+			}
+		}
+		for (GKInstance loadedInst : loadedInstances.values())
+		{
+			// All of the attribute values are in memory, so none are loaded from the database, which doesn't have the instance
+			loadedInst.setIsInflated(true);
+			store.add(loadedInst);
+		}
+		logger.info("Dry run: loaded " + loadedInstances.size() + " stored instances and the updates of " + store.updatedAttributes.size()
+			+ " database instances from " + snapshotPath + ", new instances will be stored with DB IDs above " + lastDbId);
+		return store;
+	}
+
+	private static long getLastDbId(MySQLAdaptor dba) throws Exception
+	{
+		ResultSet results = dba.executeQuery("SELECT MAX(DB_ID) FROM DatabaseObject", Collections.emptyList());
+		try {
+			return results.next() ? results.getLong(1) : 0;
+		} finally {
+			results.getStatement().close();
+		}
+	}
+
+	// Creates the InstanceStore of a species or worker, which reads existing instances through its own adaptor
+	public InstanceStore createStore(MySQLAdaptor dba)
+	{
+		return new Store(dba);
+	}
+
+	public int getStoredInstanceCount()
+	{
+		return storedInstances.size();
+	}
+
+	// The values of the attribute of a stored instance, or the values last written to it if it's a database instance. Returns null if the
+	// attribute of the database instance hasn't been updated.
+	@SuppressWarnings("unchecked")
+	public List<Object> getAttributeValues(long dbId, String attribute) throws Exception
+	{
+		GKInstance storedInst = storedInstances.get(dbId);
+		if (storedInst != null)
+		{
+			return new ArrayList<>((List<Object>) storedInst.getAttributeValuesList(attribute));
+		}
+		Map<String, List<Object>> attributeValues = updatedAttributes.get(dbId);
+		List<Object> values = attributeValues != null ? attributeValues.get(attribute) : null;
+		return values != null ? new ArrayList<>(values) : null;
+	}
+
+	// Writes the DB ID, class and display name of each stored instance, in the order they were stored
+	public void writeStoredInstances(Path storedInstancesPath) throws IOException
+	{
+		try (BufferedWriter writer = Files.newBufferedWriter(storedInstancesPath))
+		{
+			for (GKInstance storedInst : new TreeMap<>(storedInstances).values())
+			{
+				writer.write(storedInst.getDBID() + "\t" + storedInst.getSchemClass().getName() + "\t" + storedInst.getDisplayName());
+				writer.newLine();
+			}
+		}
+	}
+
+	// Writes the stored instances with their attribute values, followed by the recorded updates of database instances. Each line is one of:
+	//   stored <DB ID> <class> <display name>
+	//   updated <DB ID> <attribute>
+	//   value <DB ID> <attribute> <type> <value>
+	// where the type is 'instance' (the value is the DB ID of the instance), 'string', 'integer', 'long', 'float', 'double' or 'boolean'.
+	// Tabs, line breaks and backslashes in strings are escaped with backslashes.
+	@SuppressWarnings("unchecked")
+	public void writeSnapshot(Path snapshotPath) throws Exception
+	{
+		try (BufferedWriter writer = Files.newBufferedWriter(snapshotPath))
+		{
+			Map<Long, GKInstance> sortedStoredInstances = new TreeMap<>(storedInstances);
+			for (GKInstance storedInst : sortedStoredInstances.values())
+			{
+				writer.write("stored\t" + storedInst.getDBID() + "\t" + storedInst.getSchemClass().getName() + "\t" + escape(storedInst.getDisplayName()));
+				writer.newLine();
+			}
+			for (GKInstance storedInst : sortedStoredInstances.values())
+			{
+				for (SchemaAttribute attribute : (Collection<SchemaAttribute>) storedInst.getSchemClass().getAttributes())
+				{
+					if (!attribute.getName().equals(DB_ID) && !attribute.getName().equals(_displayName))
+					{
+						writeValues(writer, storedInst.getDBID(), attribute.getName(), (List<Object>) storedInst.getAttributeValuesList(attribute.getName()));
+					}
+				}
+			}
+			for (Map.Entry<Long, Map<String, List<Object>>> updatedInstance : new TreeMap<>(updatedAttributes).entrySet())
+			{
+				for (Map.Entry<String, List<Object>> attributeValues : new TreeMap<>(updatedInstance.getValue()).entrySet())
+				{
+					writer.write("updated\t" + updatedInstance.getKey() + "\t" + attributeValues.getKey());
+					writer.newLine();
+					writeValues(writer, updatedInstance.getKey(), attributeValues.getKey(), attributeValues.getValue());
+				}
+			}
+		}
+	}
+
+	private static void writeValues(BufferedWriter writer, long dbId, String attribute, List<Object> values) throws IOException
+	{
+		for (Object value : values)
+		{
+			writer.write("value\t" + dbId + "\t" + attribute + "\t" + formatValue(value));
+			writer.newLine();
+		}
+	}
+
+	private static String formatValue(Object value)
+	{
+		if (value instanceof GKInstance)
+		{
+			return "instance\t" + ((GKInstance) value).getDBID();
+		} else if (value instanceof String)
+		{
+			return "string\t" + escape((String) value);
+		} else if (value instanceof Integer)
+		{
+			return "integer\t" + value;
+		} else if (value instanceof Long)
+		{
+			return "long\t" + value;
+		} else if (value instanceof Float)
+		{
+			return "float\t" + value;
+		} else if (value instanceof Double)
+		{
+			return "double\t" + value;
+		} else if (value instanceof Boolean)
+		{
+			return "boolean\t" + value;
+		}
+		throw new IllegalArgumentException("Unsupported attribute value type: " + value.getClass().getName());
+	}
+
+	private static Object parseValue(String type, String value, Map<Long, GKInstance> loadedInstances, MySQLAdaptor dba) throws Exception
+	{
+		switch (type)
+		{
+			case "instance":
+				GKInstance loadedInst = loadedInstances.get(Long.valueOf(value));
+				return loadedInst != null ? loadedInst : dba.fetchInstance(Long.valueOf(value));
+			case "string":
+				return unescape(value);
+			case "integer":
+				return Integer.valueOf(value);
+			case "long":
+				return Long.valueOf(value);
+			case "float":
+				return Float.valueOf(value);
+			case "double":
+				return Double.valueOf(value);
+			case "boolean":
+				return Boolean.valueOf(value);
+			default:
+				throw new IllegalArgumentException("Unsupported attribute value type: " + type);
+		}
+	}
+
+	private static String escape(String value)
+	{
+		if (value == null)
+		{
+			return "";
+		}
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String value)
+	{
+		StringBuilder unescaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length())
+			{
+				char escaped = value.charAt(++i);
+				unescaped.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+			} else {
+				unescaped.append(c);
+			}
+		}
+		return unescaped.toString();
+	}
+
+	private void add(GKInstance inst) throws Exception
+	{
+		storedInstances.put(inst.getDBID(), inst);
+		index(inst);
+	}
+
+	private void remove(GKInstance inst)
+	{
+		storedInstances.remove(inst.getDBID());
+		unindex(inst);
+	}
+
+	private void index(GKInstance inst) throws Exception
+	{
+		Map<String, InstanceIdentityKey> keys = new HashMap<>();
+		for (SchemaClass keyClass : getClassAndSuperClasses(inst.getSchemClass()))
+		{
+			if (!keyClass.getDefiningAttributes().isEmpty())
+			{
+				InstanceIdentityKey key = InstanceIdentityKey.unordered(inst, keyClass);
+				storedInstancesByClass.computeIfAbsent(keyClass.getName(), k -> new ConcurrentHashMap<>()).putIfAbsent(key, inst);
+				keys.put(keyClass.getName(), key);
+			}
+		}
+		storedInstanceKeys.put(inst.getDBID(), keys);
+	}
+
+	private void unindex(GKInstance inst)
+	{
+		Map<String, InstanceIdentityKey> keys = storedInstanceKeys.remove(inst.getDBID());
+		if (keys == null)
+		{
+			return;
+		}
+		for (Map.Entry<String, InstanceIdentityKey> key : keys.entrySet())
+		{
+			Map<InstanceIdentityKey, GKInstance> classInstances = storedInstancesByClass.get(key.getKey());
+			if (classInstances != null)
+			{
+				classInstances.remove(key.getValue(), inst);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Set<SchemaClass> getClassAndSuperClasses(SchemaClass instanceClass)
+	{
+		Set<SchemaClass> classes = new HashSet<>();
+		List<SchemaClass> pendingClasses = new ArrayList<>(Collections.singletonList(instanceClass));
+		while (!pendingClasses.isEmpty())
+		{
+			SchemaClass schemaClass = pendingClasses.remove(pendingClasses.size() - 1);
+			if (classes.add(schemaClass) && schemaClass.getSuperClasses() != null)
+			{
+				pendingClasses.addAll((Collection<SchemaClass>) schemaClass.getSuperClasses());
+			}
+		}
+		return classes;
+	}
+
+	private class Store implements InstanceStore
+	{
+		private final MySQLAdaptor dba;
+		private final List<GKInstance> uncommittedInstances = new ArrayList<>();
+		// The values that the updates made since the last commit replaced, or null if the attribute hadn't been updated, in the order made
+		private final Map<Long, Map<String, List<Object>>> uncommittedUpdates = new LinkedHashMap<>();
+
+		private Store(MySQLAdaptor dba)
+		{
+			this.dba = dba;
+		}
+
+		@Override
+		public void begin()
+		{
+		}
+
+		// As with MySQLAdaptor.storeInstance, new instances that inst refers to are stored first
+		@Override
+		@SuppressWarnings("unchecked")
+		public void storeInstance(GKInstance inst) throws Exception
+		{
+			for (SchemaAttribute attribute : (Collection<SchemaAttribute>) inst.getSchemClass().getAttributes())
+			{
+				if (attribute.isInstanceTypeAttribute())
+				{
+					for (Object valueInst : (Collection<Object>) inst.getAttributeValuesList(attribute.getName()))
+					{
+						if (valueInst instanceof GKInstance && ((GKInstance) valueInst).getDBID() == null)
+						{
+							storeInstance((GKInstance) valueInst);
+						}
+					}
+				}
+			}
+			inst.setDBID(lastDbId.incrementAndGet());
+			add(inst);
+			uncommittedInstances.add(inst);
+		}
+
+		// Stored instances hold their own values, so they are only re-indexed in case a defining value changed. The values written to a
+		// database instance are recorded.
+		@Override
+		@SuppressWarnings("unchecked")
+		public void updateInstanceAttribute(GKInstance inst, String attribute) throws Exception
+		{
+			if (storedInstances.get(inst.getDBID()) == inst)
+			{
+				unindex(inst);
+				index(inst);
+				return;
+			}
+			Map<String, List<Object>> attributeValues = updatedAttributes.computeIfAbsent(inst.getDBID(), k -> new ConcurrentHashMap<>());
+			List<Object> replacedValues = attributeValues.put(attribute, new ArrayList<>((List<Object>) inst.getAttributeValuesList(attribute)));
+			Map<String, List<Object>> uncommittedAttributes = uncommittedUpdates.computeIfAbsent(inst.getDBID(), k -> new LinkedHashMap<>());
+			if (!uncommittedAttributes.containsKey(attribute))
+			{
+				uncommittedAttributes.put(attribute, replacedValues);
+			}
+		}
+
+		// Loads the database's values, and replaces them with the values last written if the attribute was updated
+		@Override
+		public void loadInstanceAttributeValues(GKInstance inst, String attribute) throws Exception
+		{
+			if (storedInstances.get(inst.getDBID()) == inst)
+			{
+				return;
+			}
+			dba.loadInstanceAttributeValues(inst, inst.getSchemClass().getAttribute(attribute));
+			List<Object> values = getAttributeValues(inst.getDBID(), attribute);
+			if (values != null)
+			{
+				inst.setAttributeValueNoCheck(attribute, values);
+			}
+		}
+
+		@Override
+		public GKInstance fetchInstance(long dbId) throws Exception
+		{
+			GKInstance storedInst = storedInstances.get(dbId);
+			return storedInst != null ? storedInst : dba.fetchInstance(dbId);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Collection<GKInstance> fetchIdenticalInstances(GKInstance inst) throws Exception
+		{
+			List<GKInstance> identicalInstances = new ArrayList<>();
+			Collection<GKInstance> databaseInstances = (Collection<GKInstance>) dba.fetchIdenticalInstances(inst);
+			if (databaseInstances != null)
+			{
+				identicalInstances.addAll(databaseInstances);
+			}
+			Map<InstanceIdentityKey, GKInstance> classInstances = storedInstancesByClass.get(inst.getSchemClass().getName());
+			GKInstance storedInst = classInstances != null ? classInstances.get(InstanceIdentityKey.unordered(inst, inst.getSchemClass())) : null;
+			if (storedInst != null)
+			{
+				identicalInstances.add(storedInst);
+			}
+			return identicalInstances.isEmpty() ? null : identicalInstances;
+		}
+
+		@Override
+		public void commit()
+		{
+			uncommittedInstances.clear();
+			uncommittedUpdates.clear();
+		}
+
+		@Override
+		public void rollback() throws Exception
+		{
+			for (GKInstance inst : uncommittedInstances)
+			{
+				remove(inst);
+			}
+			for (Map.Entry<Long, Map<String, List<Object>>> uncommittedUpdate : uncommittedUpdates.entrySet())
+			{
+				Map<String, List<Object>> attributeValues = updatedAttributes.get(uncommittedUpdate.getKey());
+				for (Map.Entry<String, List<Object>> replacedValues : uncommittedUpdate.getValue().entrySet())
+				{
+					if (replacedValues.getValue() != null)
+					{
+						attributeValues.put(replacedValues.getKey(), replacedValues.getValue());
+					} else {
+						attributeValues.remove(replacedValues.getKey());
+					}
+				}
+			}
+			uncommittedInstances.clear();
+			uncommittedUpdates.clear();
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import static org.gk.model.ReactomeJavaConstants.*;
+
+/**
+ * Finds the human ReactionlikeEvents whose inference doesn't need to be attempted again, because nothing it depends on has changed since the
+ * previous release. An RlE's outcome is carried forward when:
+ *  - its content and mapping fingerprints are the same as those recorded in the previous release's provenance (see InferenceProvenance). The
+ *    content fingerprint also covers the settings that decide its outcome: whether it is in the skip list, and the complex protein threshold
+ *  - in the previous release database, it has no InstanceEdits that are newer than those in the current one, and its inferred event for the
+ *    species is the one recorded in the provenance, or it has none if the provenance records that it wasn't inferred
+ * Each release database is rebuilt from the curated human content, so the inferred RlEs of carried forward RlEs are copied from the previous
+ * release database with the instances inferred for them (see InferredClosureCopier). Everything else (new or changed RlEs) makes up the changed
+ * set, which is inferred again.
+ */
+public class IncrementalInferencePlanner {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private IncrementalInferencePlanner()
+	{
+	}
+
+	// The provenance of each RlE's inputs in the current release, without outcomes
+	public static InferenceProvenance recordInputs(List<Long> reactionDbIds, Map<Long, GKInstance> reactionMap, MySQLAdaptor dba,
+		IdentifierMappings homologueMappings, IdentifierMappings ensgMappings, Set<String> skipList, int complexProteinThreshold) throws Exception
+	{
+		Map<Long, Collection<GKInstance>> reactionInputs = new HashMap<>();
+		Set<GKInstance> editedInstances = new LinkedHashSet<>();
+		for (Long dbId : reactionDbIds)
+		{
+			GKInstance reactionInst = reactionMap.get(dbId);
+			Collection<GKInstance> inputInstances = ReactionGroupPlanner.followInferenceInputs(reactionInst);
+			reactionInputs.put(dbId, inputInstances);
+			editedInstances.add(reactionInst);
+			editedInstances.addAll(inputInstances);
+		}
+		// The InstanceEdits of all RlEs and their inputs are loaded in a single pass
+		dba.loadInstanceAttributeValues(editedInstances, new String[] {created, modified});
+
+		InferenceProvenance provenance = new InferenceProvenance();
+		for (Long dbId : reactionDbIds)
+		{
+			List<String> contentLines = new ArrayList<>();
+			contentLines.add(dbId + ":" + getLatestEditDbId(reactionMap.get(dbId)));
+			// Removing an RlE from the skip list, or lowering the threshold, can make it inferrable
+			contentLines.add("skipList:" + skipList.contains(dbId.toString()));
+			contentLines.add("complexProteinThreshold:" + complexProteinThreshold);
+			Set<String> mappingLines = new HashSet<>();
+			Set<String> mappingKeys = new LinkedHashSet<>();
+			for (GKInstance inputInst : reactionInputs.get(dbId))
+			{
+				contentLines.add(inputInst.getDBID() + ":" + getLatestEditDbId(inputInst));
+				if (inputInst.getSchemClass().isa(ReferenceGeneProduct))
+				{
+					// Missing mapping lines are recorded too, since adding one can make the RlE inferrable
+					String proteinId = (String) inputInst.getAttributeValue(identifier);
+					mappingKeys.add("homologue\t" + proteinId);
+					mappingLines.add("homologue\t" + proteinId + "\t" + String.join(" ", homologueMappings.getQualifiedValues(proteinId)));
+					for (String homologueId : homologueMappings.getValues(proteinId))
+					{
+						mappingKeys.add("gene\t" + homologueId);
+						mappingLines.add("gene\t" + homologueId + "\t" + String.join(" ", ensgMappings.getValues(homologueId)));
+					}
+				}
+			}
+			provenance.addInputs(dbId, InferenceProvenance.fingerprint(contentLines), InferenceProvenance.fingerprint(mappingLines), new ArrayList<>(mappingKeys));
+		}
+		return provenance;
+	}
+
+	// The DB IDs of the RlEs whose outcome in the previous release can be carried forward
+	@SuppressWarnings("unchecked")
+	public static Set<Long> findCarriedForward(InferenceProvenance currentProvenance, InferenceProvenance previousProvenance, Map<Long, GKInstance> reactionMap,
+		MySQLAdaptor dbaPrev, long speciesDbId) throws Exception
+	{
+		List<Long> candidateDbIds = new ArrayList<>();
+		for (InferenceProvenance.Record record : currentProvenance.getRecords())
+		{
+			InferenceProvenance.Record previousRecord = previousProvenance.getRecord(record.getReactionDbId());
+			if (previousRecord != null && record.hasSameInputs(previousRecord))
+			{
+				candidateDbIds.add(record.getReactionDbId());
+			}
+		}
+		Set<Long> carriedForwardDbIds = new HashSet<>();
+		if (candidateDbIds.isEmpty())
+		{
+			return carriedForwardDbIds;
+		}
+
+		// The candidates are checked against the previous release database in two bulk loads: their InstanceEdits and orthologous events,
+		// then the species of those events
+		Collection<GKInstance> previousReactionInstances = (Collection<GKInstance>) dbaPrev.fetchInstancesByClass(ReactionlikeEvent, candidateDbIds);
+		dbaPrev.loadInstanceAttributeValues(previousReactionInstances, new String[] {created, modified, orthologousEvent});
+		Set<GKInstance> previousOrthologousEvents = new HashSet<>();
+		for (GKInstance previousReactionInst : previousReactionInstances)
+		{
+			previousOrthologousEvents.addAll((Collection<GKInstance>) previousReactionInst.getAttributeValuesList(orthologousEvent));
+		}
+		dbaPrev.loadInstanceAttributeValues(previousOrthologousEvents, new String[] {species});
+		for (GKInstance previousReactionInst : previousReactionInstances)
+		{
+			GKInstance reactionInst = reactionMap.get(previousReactionInst.getDBID());
+			Long inferredReactionDbId = previousProvenance.getRecord(previousReactionInst.getDBID()).getInferredReactionDbId();
+			if (getLatestEditDbId(reactionInst) <= getLatestEditDbId(previousReactionInst) && Objects.equals(getInferredReactionDbId(previousReactionInst, speciesDbId), inferredReactionDbId))
+			{
+				carriedForwardDbIds.add(previousReactionInst.getDBID());
+			}
+		}
+		logger.info(carriedForwardDbIds.size() + " of " + currentProvenance.getRecords().size() + " ReactionlikeEvents are unchanged since the previous release");
+		return carriedForwardDbIds;
+	}
+
+	// InstanceEdit DB IDs increase over time, so the largest is the latest edit
+	@SuppressWarnings("unchecked")
+	private static long getLatestEditDbId(GKInstance inst) throws Exception
+	{
+		long latestEditDbId = -1;
+		GKInstance createdInst = (GKInstance) inst.getAttributeValue(created);
+		if (createdInst != null)
+		{
+			latestEditDbId = createdInst.getDBID();
+		}
+		for (GKInstance modifiedInst : (Collection<GKInstance>) inst.getAttributeValuesList(modified))
+		{
+			latestEditDbId = Math.max(latestEditDbId, modifiedInst.getDBID());
+		}
+		return latestEditDbId;
+	}
+
+	// The DB ID of the RlE's inferred event for the species, or null if it has none
+	@SuppressWarnings("unchecked")
+	private static Long getInferredReactionDbId(GKInstance reactionInst, long speciesDbId) throws Exception
+	{
+		for (GKInstance orthologousEventInst : (Collection<GKInstance>) reactionInst.getAttributeValuesList(orthologousEvent))
+		{
+			GKInstance orthologousSpeciesInst = (GKInstance) orthologousEventInst.getAttributeValue(species);
+			if (orthologousSpeciesInst != null && orthologousSpeciesInst.getDBID() == speciesDbId)
+			{
+				return orthologousEventInst.getDBID();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,205 @@
+package org.reactome.orthoinference;
+
+import java.util.Map;
+
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * The state of a single species' orthoinference run. Each species that is inferred gets its own context, which holds the species'
+ * database adaptor and the inference classes that previously kept their state in static fields. Contexts only share the read-only
+ * SourceSpeciesData, so several species can be inferred at the same time in one JVM.
+ */
+public class InferenceContext {
+
+	private final String speciesCode;
+	private final MySQLAdaptor dba;
+	private final SourceSpeciesData sourceData;
+	private final InstanceUtilities instanceUtilities;
+	private final ProteinCountUtility proteinCountUtility;
+	private final SkipInstanceChecker skipInstanceChecker;
+	private final EWASInferrer ewasInferrer;
+	private final OrthologousEntityGenerator orthologousEntityGenerator;
+	private final ReactionInferrer reactionInferrer;
+	private final PathwaysInferrer pathwaysInferrer;
+	private final InstanceStore instanceStore;
+	private final InferenceUnitOfWork unitOfWork;
+	private final InstanceIdentityIndex identityIndex = new InstanceIdentityIndex();
+	private final IdenticalInstanceIndex identicalInstanceIndex;
+	private StableIdentifierGenerator stableIdentifierGenerator;
+	private IdentityLocks identityLocks;
+	private final InferenceSummary summary;
+	private final InferenceMetrics metrics;
+	private final InMemoryInstanceStore dryRunStore;
+	private final InferredInstanceCaches inferredInstanceCaches;
+
+	public InferenceContext(String speciesCode, MySQLAdaptor dba, SourceSpeciesData sourceData, IdenticalInstanceIndex identicalInstanceIndex)
+	{
+		this(speciesCode, dba, sourceData, identicalInstanceIndex, null);
+	}
+
+	// If dryRunStore isn't null, the inference is written to it instead of the database
+	public InferenceContext(String speciesCode, MySQLAdaptor dba, SourceSpeciesData sourceData, IdenticalInstanceIndex identicalInstanceIndex, InMemoryInstanceStore dryRunStore)
+	{
+		this(speciesCode, dba, sourceData, identicalInstanceIndex, dryRunStore, new InferenceMetrics(), null);
+	}
+
+	// inferredInstanceCaches is null for a species' context, which creates the caches that its workers share
+	private InferenceContext(String speciesCode, MySQLAdaptor dba, SourceSpeciesData sourceData, IdenticalInstanceIndex identicalInstanceIndex,
+		InMemoryInstanceStore dryRunStore, InferenceMetrics metrics, InferredInstanceCaches inferredInstanceCaches)
+	{
+		this.speciesCode = speciesCode;
+		this.dba = dba;
+		this.sourceData = sourceData;
+		this.identicalInstanceIndex = identicalInstanceIndex;
+		this.metrics = metrics;
+		this.dryRunStore = dryRunStore;
+		this.inferredInstanceCaches = inferredInstanceCaches != null ? inferredInstanceCaches : new InferredInstanceCaches(metrics);
+		this.instanceStore = dryRunStore != null ? dryRunStore.createStore(dba) : new MySQLInstanceStore(dba, metrics, sourceData.getDbIdAllocator());
+		this.unitOfWork = new InferenceUnitOfWork(this);
+		this.instanceUtilities = new InstanceUtilities(this);
+		this.proteinCountUtility = new ProteinCountUtility(sourceData.getInferencePlan(), metrics);
+		this.skipInstanceChecker = new SkipInstanceChecker(sourceData.getSkipList(), sourceData.getInferencePlan());
+		this.ewasInferrer = new EWASInferrer(this);
+		this.orthologousEntityGenerator = new OrthologousEntityGenerator(this);
+		this.reactionInferrer = new ReactionInferrer(this);
+		this.pathwaysInferrer = new PathwaysInferrer(this);
+		this.summary = new InferenceSummary(speciesCode);
+	}
+
+	public String getSpeciesCode()
+	{
+		return speciesCode;
+	}
+
+	public MySQLAdaptor getDbAdaptor()
+	{
+		return dba;
+	}
+
+	// The backend that the inference is written to
+	public InstanceStore getInstanceStore()
+	{
+		return instanceStore;
+	}
+
+	public boolean isDryRun()
+	{
+		return dryRunStore != null;
+	}
+
+	public SourceSpeciesData getSourceData()
+	{
+		return sourceData;
+	}
+
+	public InferenceUnitOfWork getUnitOfWork()
+	{
+		return unitOfWork;
+	}
+
+	public InstanceIdentityIndex getIdentityIndex()
+	{
+		return identityIndex;
+	}
+
+	// Null unless identical instances were preloaded
+	public IdenticalInstanceIndex getIdenticalInstanceIndex()
+	{
+		return identicalInstanceIndex;
+	}
+
+	// Null unless this is the context of a worker inferring ReactionlikeEvent groups in parallel
+	public IdentityLocks getIdentityLocks()
+	{
+		return identityLocks;
+	}
+
+	// Creates the context of a worker that infers some of this species' ReactionlikeEvent groups on its own connection (see ReactionGroupScheduler).
+	// The setup instances (InstanceEdit, Species, ReferenceDatabases etc.) are fetched through the worker's adaptor and the mappings are shared.
+	public InferenceContext createWorkerContext(MySQLAdaptor workerDba, IdentityLocks identityLocks) throws Exception
+	{
+		InferenceContext workerContext = new InferenceContext(speciesCode, workerDba, sourceData, identicalInstanceIndex, dryRunStore, metrics, inferredInstanceCaches);
+		workerContext.identityLocks = identityLocks;
+		workerContext.instanceUtilities.copySetup(instanceUtilities);
+		workerContext.proteinCountUtility.setHomologueMappingFile(ewasInferrer.getHomologueMappings());
+		workerContext.ewasInferrer.copySetup(ewasInferrer);
+		workerContext.orthologousEntityGenerator.copySetup(orthologousEntityGenerator);
+		workerContext.reactionInferrer.copySetup(reactionInferrer);
+		workerContext.setStableIdentifierGenerator(stableIdentifierGenerator.createWorkerGenerator(workerDba, workerContext.instanceUtilities));
+		return workerContext;
+	}
+
+	// Each worker has its own summary, which ReactionGroupScheduler adds to the species' summary when the worker commits
+	public InferenceSummary getSummary()
+	{
+		return summary;
+	}
+
+	// Shared with the species' workers when ReactionlikeEvents are inferred in parallel
+	public InferenceMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	// Adds the hit and miss counts of the species' caches to the summary
+	public void reportCacheStatistics()
+	{
+		for (Map.Entry<String, long[]> cache : metrics.getCacheStatistics().entrySet())
+		{
+			summary.addCacheStatistics(cache.getKey(), cache.getValue()[0], cache.getValue()[1]);
+		}
+	}
+
+	// Shared with the species' workers when ReactionlikeEvents are inferred in parallel
+	public InferredInstanceCaches getInferredInstanceCaches()
+	{
+		return inferredInstanceCaches;
+	}
+
+	public InstanceUtilities getInstanceUtilities()
+	{
+		return instanceUtilities;
+	}
+
+	public ProteinCountUtility getProteinCountUtility()
+	{
+		return proteinCountUtility;
+	}
+
+	public SkipInstanceChecker getSkipInstanceChecker()
+	{
+		return skipInstanceChecker;
+	}
+
+	public EWASInferrer getEWASInferrer()
+	{
+		return ewasInferrer;
+	}
+
+	public OrthologousEntityGenerator getOrthologousEntityGenerator()
+	{
+		return orthologousEntityGenerator;
+	}
+
+	public ReactionInferrer getReactionInferrer()
+	{
+		return reactionInferrer;
+	}
+
+	public PathwaysInferrer getPathwaysInferrer()
+	{
+		return pathwaysInferrer;
+	}
+
+	public StableIdentifierGenerator getStableIdentifierGenerator()
+	{
+		return stableIdentifierGenerator;
+	}
+
+	public void setStableIdentifierGenerator(StableIdentifierGenerator stableIdentifierGenerator)
+	{
+		this.stableIdentifierGenerator = stableIdentifierGenerator;
+		stableIdentifierGenerator.setMetrics(metrics);
+		stableIdentifierGenerator.setInstanceStore(instanceStore);
+	}
+}
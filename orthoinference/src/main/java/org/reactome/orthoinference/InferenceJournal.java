@@ -0,0 +1,283 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.reactome.orthoinference.ReactionGroupScheduler.ReactionOutcome;
+
+/**
+ * Records the progress of a species' orthoinference, so that a run that crashed or was killed can resume where it stopped. Each time the
+ * unit of work is committed, the journal file is replaced with a checkpoint of:
+ *  - the DB ID of the last ReactionlikeEvent whose inference was committed
+ *  - the eligible/inferred reaction counts, and the lengths of the eligible/inferred files
+ *  - the caches of inferred instances (DB IDs of source instances and their inferred instances), including the identical instance caches
+ *  - the paralog counts of the stable identifiers generated so far (see StableIdentifierGenerator)
+ *  - when ReactionlikeEvent groups are inferred in parallel, the outcomes of the later RlEs whose groups have been committed
+ * When a run is started with a journal from the same database and release, the caches are restored and the ReactionlikeEvents up to the
+ * checkpoint, or whose outcome was recorded, are skipped. The journal is a tab-separated text file, and is deleted once the species' inference has completed.
+ */
+public class InferenceJournal {
+
+	private static final Logger logger = LogManager.getLogger();
+	private static final String VERSION = "2";
+	private static final String NULL_VALUE = "null";
+	private final Path journalPath;
+	private final String databaseName;
+	private final String releaseVersion;
+	private final String species;
+	private long lastCommittedReactionDbId = -1;
+	// Outcomes of the RlEs after lastCommittedReactionDbId that parallel workers have committed (see ReactionGroupScheduler), by DB ID
+	private final TreeMap<Long, ReactionOutcome> committedOutcomes = new TreeMap<>();
+
+	public InferenceJournal(Path journalPath, String databaseName, String releaseVersion, String species)
+	{
+		this.journalPath = journalPath;
+		this.databaseName = databaseName;
+		this.releaseVersion = releaseVersion;
+		this.species = species;
+	}
+
+	// The DB ID of the last ReactionlikeEvent committed before the run was interrupted, or -1 if the run wasn't resumed
+	public long getLastCommittedReactionDbId()
+	{
+		return lastCommittedReactionDbId;
+	}
+
+	// Outcomes of the RlEs that parallel workers committed before the run was interrupted, which aren't inferred again
+	public synchronized Map<Long, ReactionOutcome> getCommittedOutcomes()
+	{
+		return new TreeMap<>(committedOutcomes);
+	}
+
+	// Writes a checkpoint after a parallel worker has committed the inference of its groups' RlEs. The RlEs up to the last sequential checkpoint stay committed.
+	public synchronized void checkpointGroups(InferenceContext context, Map<Long, ReactionOutcome> groupOutcomes, String eligibleFilename, String inferredFilename) throws IOException
+	{
+		committedOutcomes.putAll(groupOutcomes);
+		checkpoint(context, lastCommittedReactionDbId, eligibleFilename, inferredFilename);
+	}
+
+	// Writes a checkpoint after the inference of the ReactionlikeEvent with lastCommittedReactionDbId has been committed, and the outcomes of
+	// the RlEs up to it have been recorded. The checkpoint is written to a temporary file first, so that an interrupted write never replaces the previous checkpoint.
+	public synchronized void checkpoint(InferenceContext context, long lastCommittedReactionDbId, String eligibleFilename, String inferredFilename) throws IOException
+	{
+		committedOutcomes.headMap(lastCommittedReactionDbId, true).clear();
+		ReactionInferrer reactionInferrer = context.getReactionInferrer();
+		// The report lengths are recorded, so their buffered lines need to be written first
+		reactionInferrer.flushReports();
+		Path tempPath = Paths.get(journalPath + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tempPath))
+		{
+			writeLine(writer, "journal", VERSION);
+			writeLine(writer, "database", databaseName);
+			writeLine(writer, "release", releaseVersion);
+			writeLine(writer, "species", species);
+			writeLine(writer, "lastCommittedReaction", String.valueOf(lastCommittedReactionDbId));
+			writeLine(writer, "eligibleCount", String.valueOf(reactionInferrer.getEligibleCount()));
+			writeLine(writer, "inferredCount", String.valueOf(reactionInferrer.getInferredCount()));
+			writeLine(writer, "eligibleFileLength", String.valueOf(Files.size(Paths.get(eligibleFilename))));
+			writeLine(writer, "inferredFileLength", String.valueOf(Files.size(Paths.get(inferredFilename))));
+			for (Map.Entry<String, Integer> skippedReactionCount : context.getSummary().getSkippedReactionCounts().entrySet())
+			{
+				writeLine(writer, "skipped", skippedReactionCount.getKey(), skippedReactionCount.getValue().toString());
+			}
+			for (GKInstance reactionInst : reactionInferrer.getInferrableHumanEvents())
+			{
+				writeLine(writer, "inferrableHumanEvent", reactionInst.getDBID().toString());
+			}
+			writeInstanceCaches(writer, reactionInferrer.getInstanceCaches());
+			for (Map.Entry<String, InferredInstanceCache<Long>> entityCache : context.getOrthologousEntityGenerator().getInstanceCaches().entrySet())
+			{
+				writeInferredInstanceCache(writer, entityCache.getKey(), entityCache.getValue());
+			}
+			writeInferredInstanceCache(writer, "referenceGeneProduct", context.getEWASInferrer().getReferenceGeneProductIdenticals());
+			for (GKInstance identicalInst : context.getIdentityIndex().values())
+			{
+				if (identicalInst.getDBID() != null)
+				{
+					writeLine(writer, "identical", identicalInst.getDBID().toString());
+				}
+			}
+			for (Map.Entry<Long, ReactionOutcome> committedOutcome : committedOutcomes.entrySet())
+			{
+				ReactionOutcome outcome = committedOutcome.getValue();
+				writeLine(writer, "committedReaction", committedOutcome.getKey().toString(), String.valueOf(outcome.eligible),
+					outcome.inferredReactionDbId != null ? outcome.inferredReactionDbId.toString() : NULL_VALUE);
+			}
+			for (Map.Entry<String, Integer> paralogCount : context.getStableIdentifierGenerator().getParalogCounts().entrySet())
+			{
+				writeLine(writer, "paralogCount", paralogCount.getKey(), paralogCount.getValue().toString());
+			}
+			writeLine(writer, "end");
+		}
+		Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeInstanceCaches(BufferedWriter writer, Map<String, Map<GKInstance, GKInstance>> instanceCaches) throws IOException
+	{
+		for (Map.Entry<String, Map<GKInstance, GKInstance>> instanceCache : instanceCaches.entrySet())
+		{
+			for (Map.Entry<GKInstance, GKInstance> cachedInstance : instanceCache.getValue().entrySet())
+			{
+				writeLine(writer, instanceCache.getKey(), cachedInstance.getKey().getDBID().toString(), getDbId(cachedInstance.getValue()));
+			}
+		}
+	}
+
+	// Only the persisted entries are written, since the others will be inferred again when the run is resumed
+	private static <K> void writeInferredInstanceCache(BufferedWriter writer, String cacheName, InferredInstanceCache<K> instanceCache) throws IOException
+	{
+		for (Map.Entry<K, Long> cachedDbId : instanceCache.getPersistedDbIds().entrySet())
+		{
+			writeLine(writer, cacheName, cachedDbId.getKey().toString(), cachedDbId.getValue().toString());
+		}
+	}
+
+	// Some caches record that an instance couldn't be inferred with a null value
+	private static String getDbId(GKInstance inst)
+	{
+		return inst != null ? inst.getDBID().toString() : NULL_VALUE;
+	}
+
+	private static void writeLine(BufferedWriter writer, String... values) throws IOException
+	{
+		writer.write(String.join("\t", values));
+		writer.newLine();
+	}
+
+	// Restores the checkpoint into the context, which must already have its StableIdentifierGenerator, if the journal exists and is from the same
+	// database, release and species. The eligible and inferred files are truncated to their length at the checkpoint, since any reactions written after it will be inferred again. Returns true if the run was resumed.
+	public boolean restore(InferenceContext context, String eligibleFilename, String inferredFilename) throws Exception
+	{
+		if (!Files.exists(journalPath))
+		{
+			return false;
+		}
+		if (!isComplete() || !isSameRun())
+		{
+			logger.warn("Ignoring journal " + journalPath + ", it is incomplete or from a different run");
+			return false;
+		}
+		MySQLAdaptor dba = context.getDbAdaptor();
+		ReactionInferrer reactionInferrer = context.getReactionInferrer();
+		Map<String, Map<GKInstance, GKInstance>> reactionCaches = reactionInferrer.getInstanceCaches();
+		Map<String, InferredInstanceCache<Long>> entityCaches = context.getOrthologousEntityGenerator().getInstanceCaches();
+		int eligibleCount = 0;
+		int inferredCount = 0;
+		try (BufferedReader reader = Files.newBufferedReader(journalPath))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] values = line.split("\t");
+				switch (values[0])
+				{
+					case "lastCommittedReaction":
+						lastCommittedReactionDbId = Long.parseLong(values[1]);
+						break;
+					case "eligibleCount":
+						eligibleCount = Integer.parseInt(values[1]);
+						break;
+					case "inferredCount":
+						inferredCount = Integer.parseInt(values[1]);
+						break;
+					case "eligibleFileLength":
+						truncate(eligibleFilename, Long.parseLong(values[1]));
+						break;
+					case "inferredFileLength":
+						truncate(inferredFilename, Long.parseLong(values[1]));
+						break;
+					case "skipped":
+						context.getSummary().restoreSkippedReactions(values[1], Integer.parseInt(values[2]));
+						break;
+					case "inferrableHumanEvent":
+						reactionInferrer.getInferrableHumanEvents().add(dba.fetchInstance(Long.valueOf(values[1])));
+						break;
+					case "referenceGeneProduct":
+						context.getEWASInferrer().getReferenceGeneProductIdenticals().restore(values[1], Long.parseLong(values[2]));
+						break;
+					case "committedReaction":
+						committedOutcomes.put(Long.valueOf(values[1]), new ReactionOutcome(Boolean.parseBoolean(values[2]), values[3].equals(NULL_VALUE) ? null : Long.valueOf(values[3])));
+						break;
+					case "paralogCount":
+						context.getStableIdentifierGenerator().restoreParalogCount(values[1], Integer.parseInt(values[2]));
+						break;
+					case "identical":
+						// The key is rebuilt from the stored instance. If its values are in a different order than those of the instance that was
+						// originally looked up, the lookup misses the index and falls back to checking the DB, which gives the same result.
+						GKInstance identicalInst = dba.fetchInstance(Long.valueOf(values[1]));
+						context.getIdentityIndex().put(InstanceIdentityKey.of(identicalInst), identicalInst);
+						break;
+					default:
+						if (reactionCaches.containsKey(values[0]))
+						{
+							reactionCaches.get(values[0]).put(dba.fetchInstance(Long.valueOf(values[1])), fetchInstance(dba, values[2]));
+						} else if (entityCaches.containsKey(values[0]))
+						{
+							// The inferred instances are fetched when they are first used
+							entityCaches.get(values[0]).restore(Long.valueOf(values[1]), Long.parseLong(values[2]));
+						}
+				}
+			}
+		}
+		reactionInferrer.restoreCounts(eligibleCount, inferredCount);
+		logger.info("Resuming orthoinference of " + species + " after ReactionlikeEvent " + lastCommittedReactionDbId);
+		return true;
+	}
+
+	private static GKInstance fetchInstance(MySQLAdaptor dba, String dbId) throws Exception
+	{
+		return dbId.equals(NULL_VALUE) ? null : dba.fetchInstance(Long.valueOf(dbId));
+	}
+
+	private static void truncate(String filename, long length) throws IOException
+	{
+		try (RandomAccessFile file = new RandomAccessFile(filename, "rw"))
+		{
+			file.setLength(length);
+		}
+	}
+
+	// A complete journal ends with an 'end' line
+	private boolean isComplete() throws IOException
+	{
+		String lastLine = null;
+		try (BufferedReader reader = Files.newBufferedReader(journalPath))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				lastLine = line;
+			}
+		}
+		return "end".equals(lastLine);
+	}
+
+	private boolean isSameRun() throws IOException
+	{
+		try (BufferedReader reader = Files.newBufferedReader(journalPath))
+		{
+			return ("journal\t" + VERSION).equals(reader.readLine())
+				&& ("database\t" + databaseName).equals(reader.readLine())
+				&& ("release\t" + releaseVersion).equals(reader.readLine())
+				&& ("species\t" + species).equals(reader.readLine());
+		}
+	}
+
+	// Called once the species' inference has completed
+	public void delete() throws IOException
+	{
+		Files.deleteIfExists(journalPath);
+	}
+}
@@ -0,0 +1,217 @@
+package org.reactome.orthoinference;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Records where a species' orthoinference spends its time: call counts and latency histograms of the main inference steps, the number of
+ * SQL round trips made by each operation, and the hits and misses of the inference caches. The workers of a species that is inferred in
+ * parallel record into the same registry, so it is thread-safe.
+ *
+ * Latencies are counted in power-of-two buckets of nanoseconds, so percentiles are reported as the upper bound of their bucket (at most
+ * twice the actual value). SQL round trips are those made explicitly by the inference classes; attribute values that the adaptor loads
+ * lazily when a GKInstance is read aren't counted.
+ */
+public class InferenceMetrics {
+
+	private static final Logger logger = LogManager.getLogger();
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> sqlRoundTrips = new ConcurrentHashMap<>();
+	// Hits and misses of each cache
+	private final Map<String, LongAdder[]> cacheLookups = new ConcurrentHashMap<>();
+	private ScheduledExecutorService snapshotExecutor;
+
+	// A call that is timed by time(). Unlike Callable, it may throw any exception.
+	public interface TimedCall<T>
+	{
+		T call() throws Exception;
+	}
+
+	private static class Timer
+	{
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		// Bucket i counts the calls that took less than 2^i nanoseconds, and at least 2^(i-1)
+		private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+
+		private void record(long nanos)
+		{
+			count.increment();
+			totalNanos.add(nanos);
+			buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+		}
+
+		// The upper bound, in nanoseconds, of the bucket that holds the percentile
+		private long getPercentileNanos(double percentile)
+		{
+			long rank = (long) Math.ceil(percentile * count.sum());
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++)
+			{
+				seen += buckets.get(i);
+				if (seen >= rank && seen > 0)
+				{
+					return i == Long.SIZE ? Long.MAX_VALUE : 1L << i;
+				}
+			}
+			return 0;
+		}
+	}
+
+	// Records the time taken by a call that started at startNanos (from System.nanoTime)
+	public void recordTime(String timerName, long startNanos)
+	{
+		timers.computeIfAbsent(timerName, k -> new Timer()).record(System.nanoTime() - startNanos);
+	}
+
+	public <T> T time(String timerName, TimedCall<T> call) throws Exception
+	{
+		long startNanos = System.nanoTime();
+		try {
+			return call.call();
+		} finally {
+			recordTime(timerName, startNanos);
+		}
+	}
+
+	// Counts a query or update sent to the DB by an operation (eg: 'fetchIdenticalInstances', 'storeInstance')
+	public void countSqlRoundTrip(String operation)
+	{
+		sqlRoundTrips.computeIfAbsent(operation, k -> new LongAdder()).increment();
+	}
+
+	public void recordCacheLookup(String cacheName, boolean hit)
+	{
+		LongAdder[] lookups = cacheLookups.computeIfAbsent(cacheName, k -> new LongAdder[] {new LongAdder(), new LongAdder()});
+		lookups[hit ? 0 : 1].increment();
+	}
+
+	// The hits and misses of each cache, by cache name
+	public Map<String, long[]> getCacheStatistics()
+	{
+		Map<String, long[]> cacheStatistics = new TreeMap<>();
+		for (Map.Entry<String, LongAdder[]> cache : cacheLookups.entrySet())
+		{
+			cacheStatistics.put(cache.getKey(), new long[] {cache.getValue()[0].sum(), cache.getValue()[1].sum()});
+		}
+		return cacheStatistics;
+	}
+
+	public long getCallCount(String timerName)
+	{
+		Timer timer = timers.get(timerName);
+		return timer != null ? timer.count.sum() : 0;
+	}
+
+	public long getSqlRoundTrips(String operation)
+	{
+		LongAdder roundTrips = sqlRoundTrips.get(operation);
+		return roundTrips != null ? roundTrips.sum() : 0;
+	}
+
+	// The metrics as 'metric, statistic, value' rows, sorted by metric. Latencies are in microseconds.
+	public List<String> getSnapshotLines()
+	{
+		List<String> lines = new ArrayList<>();
+		lines.add("metric\tstatistic\tvalue");
+		for (Map.Entry<String, Timer> timer : new TreeMap<>(timers).entrySet())
+		{
+			String metric = "timer." + timer.getKey();
+			Timer timerValue = timer.getValue();
+			long count = timerValue.count.sum();
+			lines.add(metric + "\tcount\t" + count);
+			lines.add(metric + "\ttotalMicros\t" + timerValue.totalNanos.sum() / 1000);
+			lines.add(metric + "\tmeanMicros\t" + (count > 0 ? timerValue.totalNanos.sum() / count / 1000 : 0));
+			lines.add(metric + "\tp50Micros\t" + timerValue.getPercentileNanos(0.5) / 1000);
+			lines.add(metric + "\tp90Micros\t" + timerValue.getPercentileNanos(0.9) / 1000);
+			lines.add(metric + "\tp99Micros\t" + timerValue.getPercentileNanos(0.99) / 1000);
+			lines.add(metric + "\tmaxMicros\t" + timerValue.getPercentileNanos(1.0) / 1000);
+		}
+		for (Map.Entry<String, LongAdder> roundTrips : new TreeMap<>(sqlRoundTrips).entrySet())
+		{
+			lines.add("sql." + roundTrips.getKey() + "\troundTrips\t" + roundTrips.getValue().sum());
+		}
+		for (Map.Entry<String, long[]> cache : getCacheStatistics().entrySet())
+		{
+			lines.add("cache." + cache.getKey() + "\thits\t" + cache.getValue()[0]);
+			lines.add("cache." + cache.getKey() + "\tmisses\t" + cache.getValue()[1]);
+		}
+		return lines;
+	}
+
+	// Writes a snapshot of the metrics to the file. It is written to a temporary file first, so readers never see a partial snapshot.
+	public void writeSnapshot(Path snapshotPath) throws IOException
+	{
+		Path tempPath = Paths.get(snapshotPath + ".tmp");
+		Files.write(tempPath, getSnapshotLines());
+		Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Rewrites the snapshot file every intervalSeconds until stopPeriodicSnapshots is called, so a long run can be watched while it progresses
+	public synchronized void startPeriodicSnapshots(Path snapshotPath, long intervalSeconds)
+	{
+		snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "orthoinference-metrics-" + snapshotPath.getFileName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotExecutor.scheduleAtFixedRate(() -> {
+			try {
+				writeSnapshot(snapshotPath);
+			} catch (IOException e) {
+				logger.warn("Unable to write metrics snapshot " + snapshotPath, e);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stopPeriodicSnapshots()
+	{
+		if (snapshotExecutor != null)
+		{
+			snapshotExecutor.shutdownNow();
+			snapshotExecutor = null;
+		}
+	}
+
+	// Logs the timers, slowest in total first, followed by the SQL round trips and cache hit rates
+	public void logSummary()
+	{
+		List<Map.Entry<String, Timer>> sortedTimers = new ArrayList<>(timers.entrySet());
+		sortedTimers.sort(Comparator.comparingLong((Map.Entry<String, Timer> timer) -> timer.getValue().totalNanos.sum()).reversed());
+		for (Map.Entry<String, Timer> timer : sortedTimers)
+		{
+			Timer timerValue = timer.getValue();
+			long count = timerValue.count.sum();
+			logger.info(String.format("%s: %d calls, %.1fs total, mean %.3fms, p50 <= %.3fms, p99 <= %.3fms", timer.getKey(), count,
+				timerValue.totalNanos.sum() / 1e9, count > 0 ? timerValue.totalNanos.sum() / 1e6 / count : 0.0,
+				timerValue.getPercentileNanos(0.5) / 1e6, timerValue.getPercentileNanos(0.99) / 1e6));
+		}
+		for (Map.Entry<String, LongAdder> roundTrips : new TreeMap<>(sqlRoundTrips).entrySet())
+		{
+			logger.info("SQL " + roundTrips.getKey() + ": " + roundTrips.getValue().sum() + " round trips");
+		}
+		for (Map.Entry<String, long[]> cache : getCacheStatistics().entrySet())
+		{
+			long hits = cache.getValue()[0];
+			long lookups = hits + cache.getValue()[1];
+			logger.info(String.format("Cache %s: %d lookups, %.1f%% hits", cache.getKey(), lookups, lookups > 0 ? 100.0 * hits / lookups : 0.0));
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import static org.gk.model.ReactomeJavaConstants.*;
+import org.reactome.orthoinference.ProteinCountPlan.EntitySetPlan;
+import org.reactome.orthoinference.ProteinCountPlan.Member;
+
+/**
+ * Facts about the source species (Human) that are the same for every species being inferred: the skip verdict of each ReactionlikeEvent,
+ * whether each PhysicalEntity has a species attribute in it or its constituents (see SpeciesCheckUtility), and the protein count plans (see ProteinCountPlan)
+ * of the ReactionlikeEvents, Complexes, Polymers and EntitySets that are inferred. These previously had to be re-derived from the DB for every species.
+ * The plan is built once and saved in a binary file, which is loaded by the species that are inferred afterwards. It is read-only once built.
+ * Instances that aren't in the plan are handled by the original checks.
+ */
+public class InferencePlan {
+
+	private static final Logger logger = LogManager.getLogger();
+	private static final int FILE_MAGIC = 0x4F49504C; // 'OIPL'
+	private static final int FILE_VERSION = 2;
+	private final Map<Long, String> skipReasons;
+	private final Map<Long, Boolean> speciesAttributeFlags;
+	private final Map<Long, ProteinCountPlan> proteinCountPlans;
+
+	private InferencePlan(Map<Long, String> skipReasons, Map<Long, Boolean> speciesAttributeFlags, Map<Long, ProteinCountPlan> proteinCountPlans)
+	{
+		this.skipReasons = skipReasons;
+		this.speciesAttributeFlags = speciesAttributeFlags;
+		this.proteinCountPlans = proteinCountPlans;
+	}
+
+	// A plan without any entries, for which all checks are done against the DB.
+	public static InferencePlan empty()
+	{
+		return new InferencePlan(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+	}
+
+	// A plan that only holds protein count plans, such as the synthetic plans of the orthoinference benchmarks
+	static InferencePlan ofProteinCountPlans(Map<Long, ProteinCountPlan> proteinCountPlans)
+	{
+		return new InferencePlan(Collections.emptyMap(), Collections.emptyMap(), proteinCountPlans);
+	}
+
+	// Loads the plan from pathToPlan if it was built from the same database, release, skip list and source species ReactionlikeEvents,
+	// otherwise builds it and saves it to pathToPlan. databaseName identifies the database (eg: host:port/name).
+	public static InferencePlan loadOrBuild(Path pathToPlan, String databaseName, String releaseNumber, long sourceSpeciesDbId,
+		Collection<GKInstance> reactionInstances, Set<String> skipList) throws Exception
+	{
+		byte[] planKey = getPlanKey(databaseName, releaseNumber, sourceSpeciesDbId, reactionInstances, skipList);
+		if (Files.exists(pathToPlan))
+		{
+			InferencePlan plan = read(pathToPlan, planKey);
+			if (plan != null)
+			{
+				logger.info("Loaded inference plan from " + pathToPlan);
+				return plan;
+			}
+			logger.info("Inference plan " + pathToPlan + " was built for a different database, release or skip list, rebuilding it");
+		}
+		InferencePlan plan = build(reactionInstances, skipList);
+		plan.write(pathToPlan, planKey);
+		logger.info("Saved inference plan to " + pathToPlan);
+		return plan;
+	}
+
+	// SHA-256 digest of the database, release, skip list and source species ReactionlikeEvents that the plan was built from. The release
+	// stands in for the content of the entity graph, since a release's database isn't curated once orthoinference has started.
+	static byte[] getPlanKey(String databaseName, String releaseNumber, long sourceSpeciesDbId, Collection<GKInstance> reactionInstances, Set<String> skipList) throws Exception
+	{
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update((databaseName + "\n" + releaseNumber + "\n" + sourceSpeciesDbId + "\n").getBytes(StandardCharsets.UTF_8));
+		List<String> sortedSkipList = new ArrayList<>(skipList);
+		Collections.sort(sortedSkipList);
+		for (String skippedDbId : sortedSkipList)
+		{
+			digest.update((skippedDbId + ",").getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((byte) '\n');
+		List<Long> dbIds = new ArrayList<>();
+		for (GKInstance reactionInst : reactionInstances)
+		{
+			dbIds.add(reactionInst.getDBID());
+		}
+		Collections.sort(dbIds);
+		for (long dbId : dbIds)
+		{
+			digest.update((dbId + ",").getBytes(StandardCharsets.UTF_8));
+		}
+		return digest.digest();
+	}
+
+	// Walks all source species ReactionlikeEvents, along with the PhysicalEntities that would be inferred for those that aren't skipped.
+	@SuppressWarnings("unchecked")
+	public static InferencePlan build(Collection<GKInstance> reactionInstances, Set<String> skipList) throws Exception
+	{
+		logger.info("Building inference plan for " + reactionInstances.size() + " ReactionlikeEvents");
+		Map<Long, String> skipReasons = new HashMap<>();
+		Map<Long, Boolean> speciesAttributeFlags = new HashMap<>();
+		Map<Long, ProteinCountPlan> proteinCountPlans = new HashMap<>();
+		Set<Long> seenEntities = new HashSet<>();
+		for (GKInstance reactionInst : reactionInstances)
+		{
+			String skipReason = SkipInstanceChecker.getSkipReason(reactionInst, skipList);
+			skipReasons.put(reactionInst.getDBID(), skipReason);
+			if (skipReason != null)
+			{
+				continue;
+			}
+			ProteinCountPlan.build(reactionInst, proteinCountPlans);
+
+			List<GKInstance> physicalEntityInstances = new ArrayList<>();
+			physicalEntityInstances.addAll(reactionInst.getAttributeValuesList(input));
+			physicalEntityInstances.addAll(reactionInst.getAttributeValuesList(output));
+			for (GKInstance catalystActivityInst : (Collection<GKInstance>) reactionInst.getAttributeValuesList(catalystActivity))
+			{
+				physicalEntityInstances.addAll(catalystActivityInst.getAttributeValuesList(physicalEntity));
+			}
+			for (GKInstance regulatedByInst : (Collection<GKInstance>) reactionInst.getAttributeValuesList("regulatedBy"))
+			{
+				for (GKInstance regulatorInst : (Collection<GKInstance>) regulatedByInst.getAttributeValuesList(regulator))
+				{
+					if (regulatorInst.getSchemClass().isa(PhysicalEntity))
+					{
+						physicalEntityInstances.add(regulatorInst);
+					}
+				}
+			}
+			for (GKInstance physicalEntityInst : physicalEntityInstances)
+			{
+				addPhysicalEntity(physicalEntityInst, seenEntities, speciesAttributeFlags, proteinCountPlans);
+			}
+		}
+		logger.info("Inference plan built: " + skipReasons.size() + " ReactionlikeEvents, " + speciesAttributeFlags.size() + " PhysicalEntities, " + proteinCountPlans.size() + " protein count plans");
+		return new InferencePlan(skipReasons, speciesAttributeFlags, proteinCountPlans);
+	}
+
+	// Records the species attribute flag and protein count plan of a PhysicalEntity and its constituent instances
+	@SuppressWarnings("unchecked")
+	private static void addPhysicalEntity(GKInstance physicalEntityInst, Set<Long> seenEntities, Map<Long, Boolean> speciesAttributeFlags, Map<Long, ProteinCountPlan> proteinCountPlans) throws Exception
+	{
+		if (!seenEntities.add(physicalEntityInst.getDBID()) || !physicalEntityInst.getSchemClass().isValidAttribute(species))
+		{
+			return;
+		}
+		speciesAttributeFlags.put(physicalEntityInst.getDBID(), SpeciesCheckUtility.checkForSpeciesAttribute(physicalEntityInst));
+		if (physicalEntityInst.getSchemClass().isa(Complex) || physicalEntityInst.getSchemClass().isa(Polymer) || physicalEntityInst.getSchemClass().isa(EntitySet))
+		{
+			ProteinCountPlan.build(physicalEntityInst, proteinCountPlans);
+		}
+		for (String constituentAttribute : new String[] {hasComponent, hasMember, hasCandidate, repeatedUnit})
+		{
+			if (physicalEntityInst.getSchemClass().isValidAttribute(constituentAttribute))
+			{
+				for (GKInstance constituentInst : (Collection<GKInstance>) physicalEntityInst.getAttributeValuesList(constituentAttribute))
+				{
+					addPhysicalEntity(constituentInst, seenEntities, speciesAttributeFlags, proteinCountPlans);
+				}
+			}
+		}
+	}
+
+	public boolean hasSkipVerdict(long reactionDbId)
+	{
+		return skipReasons.containsKey(reactionDbId);
+	}
+
+	// The reason the ReactionlikeEvent is skipped, or null if it isn't skipped
+	public String getSkipReason(long reactionDbId)
+	{
+		return skipReasons.get(reactionDbId);
+	}
+
+	// Returns null if the PhysicalEntity isn't in the plan
+	public Boolean getSpeciesAttributeFlag(long physicalEntityDbId)
+	{
+		return speciesAttributeFlags.get(physicalEntityDbId);
+	}
+
+	// Returns null if the instance isn't in the plan
+	public ProteinCountPlan getProteinCountPlan(long dbId)
+	{
+		return proteinCountPlans.get(dbId);
+	}
+
+	// Writes the plan to a temporary file that is then moved to pathToPlan, so that a partially written plan is never read.
+	// ReferenceGeneProduct identifiers and skip reasons are written once in a string pool, and are referred to by their index.
+	private void write(Path pathToPlan, byte[] planKey) throws IOException
+	{
+		Map<String, Integer> stringPool = new HashMap<>();
+		List<String> pooledStrings = new ArrayList<>();
+		for (String skipReason : skipReasons.values())
+		{
+			addToPool(skipReason, stringPool, pooledStrings);
+		}
+		for (ProteinCountPlan plan : proteinCountPlans.values())
+		{
+			for (String identifierName : plan.referenceGeneProductIdentifiers)
+			{
+				addToPool(identifierName, stringPool, pooledStrings);
+			}
+			for (EntitySetPlan entitySetPlan : plan.entitySetPlans)
+			{
+				for (Member member : entitySetPlan.members)
+				{
+					addToPool(member.referenceGeneProductIdentifier, stringPool, pooledStrings);
+				}
+			}
+		}
+
+		Path tempPath = Files.createTempFile(pathToPlan.toAbsolutePath().getParent(), pathToPlan.getFileName().toString(), ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath))))
+		{
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.write(planKey);
+			out.writeInt(pooledStrings.size());
+			for (String pooledString : pooledStrings)
+			{
+				out.writeUTF(pooledString);
+			}
+			out.writeInt(skipReasons.size());
+			for (Map.Entry<Long, String> skipReason : skipReasons.entrySet())
+			{
+				out.writeLong(skipReason.getKey());
+				out.writeInt(skipReason.getValue() != null ? stringPool.get(skipReason.getValue()) : -1);
+			}
+			out.writeInt(speciesAttributeFlags.size());
+			for (Map.Entry<Long, Boolean> speciesAttributeFlag : speciesAttributeFlags.entrySet())
+			{
+				out.writeLong(speciesAttributeFlag.getKey());
+				out.writeBoolean(speciesAttributeFlag.getValue());
+			}
+			out.writeInt(proteinCountPlans.size());
+			for (Map.Entry<Long, ProteinCountPlan> proteinCountPlan : proteinCountPlans.entrySet())
+			{
+				ProteinCountPlan plan = proteinCountPlan.getValue();
+				out.writeLong(proteinCountPlan.getKey());
+				out.writeInt(plan.referenceGeneProductIdentifiers.length);
+				for (String identifierName : plan.referenceGeneProductIdentifiers)
+				{
+					out.writeInt(stringPool.get(identifierName));
+				}
+				out.writeInt(plan.entitySetPlans.length);
+				for (EntitySetPlan entitySetPlan : plan.entitySetPlans)
+				{
+					out.writeBoolean(entitySetPlan.candidates);
+					out.writeInt(entitySetPlan.members.length);
+					for (Member member : entitySetPlan.members)
+					{
+						out.writeBoolean(member.isComplex());
+						if (member.isComplex())
+						{
+							out.writeLong(member.complexDbId);
+						} else {
+							out.writeInt(stringPool.get(member.referenceGeneProductIdentifier));
+						}
+					}
+				}
+			}
+		}
+		Files.move(tempPath, pathToPlan, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void addToPool(String value, Map<String, Integer> stringPool, List<String> pooledStrings)
+	{
+		if (value != null && !stringPool.containsKey(value))
+		{
+			stringPool.put(value, pooledStrings.size());
+			pooledStrings.add(value);
+		}
+	}
+
+	// Reads the plan from pathToPlan, returning null if it is from a different version or its key doesn't match
+	private static InferencePlan read(Path pathToPlan, byte[] planKey) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pathToPlan))))
+		{
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+			{
+				return null;
+			}
+			byte[] fileKey = new byte[planKey.length];
+			in.readFully(fileKey);
+			if (!Arrays.equals(fileKey, planKey))
+			{
+				return null;
+			}
+			String[] pooledStrings = new String[in.readInt()];
+			for (int i = 0; i < pooledStrings.length; i++)
+			{
+				pooledStrings[i] = in.readUTF();
+			}
+			int skipReasonCount = in.readInt();
+			Map<Long, String> skipReasons = new HashMap<>(skipReasonCount * 2);
+			for (int i = 0; i < skipReasonCount; i++)
+			{
+				long dbId = in.readLong();
+				int poolIndex = in.readInt();
+				skipReasons.put(dbId, poolIndex >= 0 ? pooledStrings[poolIndex] : null);
+			}
+			int speciesAttributeFlagCount = in.readInt();
+			Map<Long, Boolean> speciesAttributeFlags = new HashMap<>(speciesAttributeFlagCount * 2);
+			for (int i = 0; i < speciesAttributeFlagCount; i++)
+			{
+				speciesAttributeFlags.put(in.readLong(), in.readBoolean());
+			}
+			int proteinCountPlanCount = in.readInt();
+			Map<Long, ProteinCountPlan> proteinCountPlans = new HashMap<>(proteinCountPlanCount * 2);
+			for (int i = 0; i < proteinCountPlanCount; i++)
+			{
+				long dbId = in.readLong();
+				String[] referenceGeneProductIdentifiers = new String[in.readInt()];
+				for (int j = 0; j < referenceGeneProductIdentifiers.length; j++)
+				{
+					referenceGeneProductIdentifiers[j] = pooledStrings[in.readInt()];
+				}
+				EntitySetPlan[] entitySetPlans = new EntitySetPlan[in.readInt()];
+				for (int j = 0; j < entitySetPlans.length; j++)
+				{
+					boolean candidates = in.readBoolean();
+					Member[] members = new Member[in.readInt()];
+					for (int k = 0; k < members.length; k++)
+					{
+						members[k] = in.readBoolean() ? new Member(in.readLong(), null) : new Member(0, pooledStrings[in.readInt()]);
+					}
+					entitySetPlans[j] = new EntitySetPlan(candidates, members);
+				}
+				proteinCountPlans.put(dbId, new ProteinCountPlan(referenceGeneProductIdentifiers, entitySetPlans));
+			}
+			return new InferencePlan(skipReasons, speciesAttributeFlags, proteinCountPlans);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records, for each human ReactionlikeEvent of a species' orthoinference, what its inference depended on and what it produced:
+ *  - a fingerprint of the RlE's content: the RlE and the instances its inference reads, each with its latest InstanceEdit
+ *  - a fingerprint of the mapping lines that were looked up for its ReferenceGeneProducts, and the keys of those lines
+ *  - whether it was eligible, and the DB ID of the inferred RlE, if it was inferred
+ * The provenance of a release is compared with the next release's to find the RlEs whose inference can be carried forward
+ * (see IncrementalInferencePlanner). It is written as a tab-separated file of 'reaction' lines, each followed by its 'mapping' lines.
+ */
+public class InferenceProvenance {
+
+	private static final String NULL_VALUE = "null";
+	private final Map<Long, Record> records = new TreeMap<>();
+
+	public static class Record
+	{
+		private final long reactionDbId;
+		private final String contentFingerprint;
+		private final String mappingFingerprint;
+		private final List<String> mappingKeys;
+		private boolean eligible;
+		private Long inferredReactionDbId;
+
+		private Record(long reactionDbId, String contentFingerprint, String mappingFingerprint, List<String> mappingKeys)
+		{
+			this.reactionDbId = reactionDbId;
+			this.contentFingerprint = contentFingerprint;
+			this.mappingFingerprint = mappingFingerprint;
+			this.mappingKeys = mappingKeys;
+		}
+
+		public long getReactionDbId() { return reactionDbId; }
+
+		public String getContentFingerprint() { return contentFingerprint; }
+
+		public String getMappingFingerprint() { return mappingFingerprint; }
+
+		// The mapping lines the RlE depended on, as 'homologue<tab>protein ID' and 'gene<tab>homologue ID'
+		public List<String> getMappingKeys() { return mappingKeys; }
+
+		public boolean isEligible() { return eligible; }
+
+		public Long getInferredReactionDbId() { return inferredReactionDbId; }
+
+		// True if both records were made from the same RlE content and mapping lines
+		public boolean hasSameInputs(Record other)
+		{
+			return contentFingerprint.equals(other.contentFingerprint) && mappingFingerprint.equals(other.mappingFingerprint);
+		}
+	}
+
+	public Record addInputs(long reactionDbId, String contentFingerprint, String mappingFingerprint, List<String> mappingKeys)
+	{
+		Record record = new Record(reactionDbId, contentFingerprint, mappingFingerprint, mappingKeys);
+		records.put(reactionDbId, record);
+		return record;
+	}
+
+	public void setOutcome(long reactionDbId, boolean eligible, Long inferredReactionDbId)
+	{
+		Record record = records.get(reactionDbId);
+		if (record != null)
+		{
+			record.eligible = eligible;
+			record.inferredReactionDbId = inferredReactionDbId;
+		}
+	}
+
+	public Record getRecord(long reactionDbId)
+	{
+		return records.get(reactionDbId);
+	}
+
+	public Collection<Record> getRecords()
+	{
+		return records.values();
+	}
+
+	// A SHA-1 digest of the lines, independent of their order
+	public static String fingerprint(Collection<String> lines)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (String line : new TreeSet<>(lines))
+			{
+				digest.update(line.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			StringBuilder fingerprint = new StringBuilder();
+			for (byte digestByte : digest.digest())
+			{
+				fingerprint.append(String.format("%02x", digestByte));
+			}
+			return fingerprint.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void write(Path provenancePath) throws IOException
+	{
+		try (BufferedWriter writer = Files.newBufferedWriter(provenancePath))
+		{
+			for (Record record : records.values())
+			{
+				writeLine(writer, "reaction", String.valueOf(record.reactionDbId), String.valueOf(record.eligible),
+					record.inferredReactionDbId != null ? record.inferredReactionDbId.toString() : NULL_VALUE, record.contentFingerprint, record.mappingFingerprint);
+				for (String mappingKey : record.mappingKeys)
+				{
+					writeLine(writer, "mapping", String.valueOf(record.reactionDbId), mappingKey);
+				}
+			}
+		}
+	}
+
+	private static void writeLine(BufferedWriter writer, String... values) throws IOException
+	{
+		writer.write(String.join("\t", values));
+		writer.newLine();
+	}
+
+	public static InferenceProvenance read(Path provenancePath) throws IOException
+	{
+		InferenceProvenance provenance = new InferenceProvenance();
+		try (BufferedReader reader = Files.newBufferedReader(provenancePath))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] values = line.split("\t", 3);
+				long reactionDbId = Long.parseLong(values[1]);
+				if (values[0].equals("reaction"))
+				{
+					String[] outcome = values[2].split("\t");
+					provenance.addInputs(reactionDbId, outcome[2], outcome[3], new ArrayList<>());
+					provenance.setOutcome(reactionDbId, Boolean.parseBoolean(outcome[0]), outcome[1].equals(NULL_VALUE) ? null : Long.valueOf(outcome[1]));
+				}
+				else if (values[0].equals("mapping"))
+				{
+					provenance.getRecord(reactionDbId).mappingKeys.add(values[2]);
+				}
+			}
+		}
+		return provenance;
+	}
+}
@@ -0,0 +1,153 @@
+package org.reactome.orthoinference;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Machine-readable summary of a species' orthoinference: the time taken by each phase, the eligible and inferred reaction counts, the number of
+ * reactions that weren't inferred by reason, and the hit rates of the inference caches. It is written as JSON for the species, and as
+ * 'species, metric, value' rows to a TSV file shared by all species of the release, which can be loaded as is into a dashboard. A rerun of a
+ * species replaces its rows in the TSV file.
+ * The workers of a species that is inferred in parallel each record into their own summary, whose skipped reactions are added to the species'
+ * summary when the worker commits, and it is thread-safe.
+ */
+public class InferenceSummary {
+
+	private final String species;
+	private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+	private final Map<String, Integer> skippedReactionCounts = new TreeMap<>();
+	// Hits and misses of each cache
+	private final Map<String, long[]> cacheStatistics = new TreeMap<>();
+	private int eligibleCount;
+	private int inferredCount;
+
+	public InferenceSummary(String species)
+	{
+		this.species = species;
+	}
+
+	// Records the time taken by a phase of the inference (eg: 'reactions', 'pathways')
+	public synchronized void recordPhase(String phase, long millis)
+	{
+		phaseMillis.put(phase, millis);
+	}
+
+	// Records a ReactionlikeEvent that wasn't inferred, and why
+	public synchronized void recordSkippedReaction(String reason)
+	{
+		skippedReactionCounts.merge(reason, 1, Integer::sum);
+	}
+
+	// Used by InferenceJournal when a run is resumed
+	synchronized void restoreSkippedReactions(String reason, int count)
+	{
+		skippedReactionCounts.put(reason, count);
+	}
+
+	public synchronized Map<String, Integer> getSkippedReactionCounts()
+	{
+		return new TreeMap<>(skippedReactionCounts);
+	}
+
+	// Adds the skipped reactions of a worker's summary, which are removed from it
+	public void addSkippedReactions(InferenceSummary workerSummary)
+	{
+		Map<String, Integer> workerCounts;
+		synchronized (workerSummary)
+		{
+			workerCounts = new TreeMap<>(workerSummary.skippedReactionCounts);
+			workerSummary.skippedReactionCounts.clear();
+		}
+		synchronized (this)
+		{
+			for (Map.Entry<String, Integer> workerCount : workerCounts.entrySet())
+			{
+				skippedReactionCounts.merge(workerCount.getKey(), workerCount.getValue(), Integer::sum);
+			}
+		}
+	}
+
+	// Adds to the hits and misses of a cache. Each worker of a species inferred in parallel adds those of its own caches.
+	public synchronized void addCacheStatistics(String cacheName, long hits, long misses)
+	{
+		long[] statistics = cacheStatistics.computeIfAbsent(cacheName, k -> new long[2]);
+		statistics[0] += hits;
+		statistics[1] += misses;
+	}
+
+	public synchronized void setReactionCounts(int eligibleCount, int inferredCount)
+	{
+		this.eligibleCount = eligibleCount;
+		this.inferredCount = inferredCount;
+	}
+
+	// The metrics of the summary, in the order they are written
+	synchronized Map<String, Object> getMetrics()
+	{
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("eligibleReactions", eligibleCount);
+		metrics.put("inferredReactions", inferredCount);
+		metrics.put("percentInferred", eligibleCount > 0 ? Math.round(10000.0 * inferredCount / eligibleCount) / 100.0 : 0.0);
+		for (Map.Entry<String, Long> phase : phaseMillis.entrySet())
+		{
+			metrics.put("millis." + phase.getKey(), phase.getValue());
+		}
+		for (Map.Entry<String, Integer> skippedReactionCount : skippedReactionCounts.entrySet())
+		{
+			metrics.put("skipped." + skippedReactionCount.getKey(), skippedReactionCount.getValue());
+		}
+		for (Map.Entry<String, long[]> cache : cacheStatistics.entrySet())
+		{
+			long hits = cache.getValue()[0];
+			long lookups = hits + cache.getValue()[1];
+			metrics.put("cacheHitRate." + cache.getKey(), lookups > 0 ? Math.round(10000.0 * hits / lookups) / 10000.0 : 0.0);
+		}
+		return metrics;
+	}
+
+	public void writeJson(Path jsonPath) throws IOException
+	{
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("species", species);
+		summary.putAll(getMetrics());
+		Files.write(jsonPath, JSONValue.toJSONString(summary).getBytes());
+	}
+
+	// Writes the metrics to the TSV file, replacing the species' rows from a previous run, so that a rerun of the species doesn't duplicate them.
+	// The rows of other species are kept, and the file is given a header when it is created. The caller guards against concurrent writes by other species.
+	public void writeTsv(Path tsvPath) throws IOException
+	{
+		List<String> lines = new ArrayList<>();
+		if (Files.exists(tsvPath))
+		{
+			for (String line : Files.readAllLines(tsvPath))
+			{
+				if (!line.startsWith(species + "\t"))
+				{
+					lines.add(line);
+				}
+			}
+		}
+		else
+		{
+			lines.add("species\tmetric\tvalue");
+		}
+		for (Map.Entry<String, Object> metric : getMetrics().entrySet())
+		{
+			lines.add(species + "\t" + metric.getKey() + "\t" + metric.getValue());
+		}
+		// The rows are written to a temporary file first, so that an interrupted write never loses those of other species
+		Path tempPath = tsvPath.resolveSibling(tsvPath.getFileName() + ".tmp");
+		Files.write(tempPath, lines);
+		Files.move(tempPath, tsvPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,234 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+
+/**
+ * Write-behind layer for the writes made during orthoinference. All writes happen in a transaction that is only committed when the unit of work
+ * is flushed. Attribute updates (inferredFrom, inferredTo, orthologousEvent, hasEvent etc.) are buffered, so an attribute that is modified many
+ * times between flushes is written to the database once, with its final value. The resulting database is the same as when each update is written immediately.
+ * Writes are made through the context's InstanceStore, which keeps them in memory during a dry run.
+ *
+ * New instances are buffered by the InstanceStore too: MySQLInstanceStore numbers them from reserved blocks of DB IDs and inserts them
+ * with multi-row INSERTs when the transaction is committed. Until then, identical instance checks find them through the IdenticalInstanceIndex
+ * or the store's pending instances, and the IdentityLocks keep other workers from inferring them again.
+ */
+public class InferenceUnitOfWork {
+
+	private static final Logger logger = LogManager.getLogger();
+	private final InferenceContext context;
+	private final InstanceStore instanceStore;
+	// Pending updates of inferred instances, keyed by the instance's DB ID. The instance's in-memory value is written when flushed.
+	private final Map<Long, GKInstance> pendingInstances = new LinkedHashMap<>();
+	private final Map<Long, Set<String>> pendingAttributes = new LinkedHashMap<>();
+	// Pending values added to source species instances. These are kept separately, since they may need to be merged with values written by other species.
+	private final Map<Long, GKInstance> pendingSourceInstances = new LinkedHashMap<>();
+	private final Map<Long, Map<String, List<GKInstance>>> pendingSourceValues = new LinkedHashMap<>();
+	// Instances stored since the last flush, which are removed from the identical instance index if they are rolled back
+	private final List<GKInstance> storedInstances = new ArrayList<>();
+	// The values that attributes had before their first buffered addition since the last flush, which are restored if the writes are rolled back
+	private final Map<GKInstance, Map<String, List<Object>>> originalValues = new LinkedHashMap<>();
+	private boolean inTransaction = false;
+
+	public InferenceUnitOfWork(InferenceContext context)
+	{
+		this.context = context;
+		this.instanceStore = context.getInstanceStore();
+	}
+
+	// Starts the transaction that subsequent writes are made in
+	public void begin() throws Exception
+	{
+		instanceStore.begin();
+		inTransaction = true;
+	}
+
+	// Stores a new instance, which receives its DB ID immediately so that it can be referred to. The store inserts it by the next flush.
+	public void storeInstance(GKInstance inst) throws Exception
+	{
+		long startNanos = System.nanoTime();
+		instanceStore.storeInstance(inst);
+		context.getMetrics().recordTime("storeInstance", startNanos);
+		IdenticalInstanceIndex identicalInstanceIndex = context.getIdenticalInstanceIndex();
+		if (identicalInstanceIndex != null)
+		{
+			identicalInstanceIndex.add(inst);
+			storedInstances.add(inst);
+		}
+	}
+
+	// Marks the attribute of an instance as modified. It is written to the DB, using the instance's in-memory value, during the next flush.
+	public void updateAttribute(GKInstance inst, String attribute)
+	{
+		pendingInstances.put(inst.getDBID(), inst);
+		pendingAttributes.computeIfAbsent(inst.getDBID(), k -> new LinkedHashSet<>()).add(attribute);
+	}
+
+	// Adds valueInst to the multi-value attribute of inst if it isn't already there, and marks the attribute as modified if it was added.
+	public void addAttributeValue(GKInstance inst, GKInstance valueInst, String attribute) throws Exception
+	{
+		if (!containsValue(inst, valueInst, attribute))
+		{
+			rememberOriginalValues(inst, attribute);
+			inst.addAttributeValue(attribute, valueInst);
+			updateAttribute(inst, attribute);
+		}
+	}
+
+	// Adds valueInst to the multi-value attribute of a source species instance (eg: inferredTo, orthologousEvent). Source species instances
+	// are shared by every species being inferred, so the added values are remembered and merged with the DB's current values during the flush.
+	public void addSourceAttributeValue(GKInstance sourceInst, GKInstance valueInst, String attribute) throws Exception
+	{
+		if (containsValue(sourceInst, valueInst, attribute))
+		{
+			return;
+		}
+		rememberOriginalValues(sourceInst, attribute);
+		sourceInst.addAttributeValue(attribute, valueInst);
+		pendingSourceInstances.put(sourceInst.getDBID(), sourceInst);
+		pendingSourceValues.computeIfAbsent(sourceInst.getDBID(), k -> new LinkedHashMap<>())
+			.computeIfAbsent(attribute, k -> new ArrayList<>()).add(valueInst);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void rememberOriginalValues(GKInstance inst, String attribute) throws Exception
+	{
+		Map<String, List<Object>> instanceValues = originalValues.computeIfAbsent(inst, k -> new LinkedHashMap<>());
+		if (!instanceValues.containsKey(attribute))
+		{
+			instanceValues.put(attribute, new ArrayList<>((Collection<Object>) inst.getAttributeValuesList(attribute)));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static boolean containsValue(GKInstance inst, GKInstance valueInst, String attribute) throws Exception
+	{
+		for (GKInstance existingInst : (Collection<GKInstance>) inst.getAttributeValuesList(attribute))
+		{
+			if (existingInst.getDBID().equals(valueInst.getDBID()))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Writes all buffered attribute updates and commits the transaction. When multiple species are being inferred, the source species
+	// values are re-loaded from the InstanceStore before being updated so that values written by other species aren't overwritten.
+	public void flush() throws Exception
+	{
+		SourceSpeciesData sourceData = context.getSourceData();
+		InferenceMetrics metrics = context.getMetrics();
+		long startNanos = System.nanoTime();
+		synchronized (sourceData.getWriteLock())
+		{
+			int updateCount = 0;
+			for (Map.Entry<Long, Set<String>> pendingAttribute : pendingAttributes.entrySet())
+			{
+				GKInstance inst = pendingInstances.get(pendingAttribute.getKey());
+				for (String attribute : pendingAttribute.getValue())
+				{
+					instanceStore.updateInstanceAttribute(inst, attribute);
+					updateCount++;
+				}
+			}
+			for (Map.Entry<Long, Map<String, List<GKInstance>>> pendingSourceValue : pendingSourceValues.entrySet())
+			{
+				GKInstance sourceInst = pendingSourceInstances.get(pendingSourceValue.getKey());
+				for (Map.Entry<String, List<GKInstance>> attributeValues : pendingSourceValue.getValue().entrySet())
+				{
+					String attribute = attributeValues.getKey();
+					if (sourceData.isSharedBetweenSpecies())
+					{
+						instanceStore.loadInstanceAttributeValues(sourceInst, attribute);
+						for (GKInstance valueInst : attributeValues.getValue())
+						{
+							InstanceUtilities.addAttributeValueIfNecessary(sourceInst, valueInst, attribute);
+						}
+					}
+					instanceStore.updateInstanceAttribute(sourceInst, attribute);
+					updateCount++;
+				}
+			}
+			if (inTransaction)
+			{
+				instanceStore.commit();
+			}
+			logger.info("Flushed " + updateCount + " attribute update(s)");
+		}
+		context.getInferredInstanceCaches().markPersisted(this);
+		releasePending(true);
+		// Includes the time spent waiting for other species' flushes
+		metrics.recordTime("flush", startNanos);
+		clear();
+	}
+
+	// Discards the buffered updates and rolls back any instances stored since the last flush. The values added to in-memory instances since
+	// then are removed as well, so that a retry on the same adaptor starts from the values that were committed.
+	public void rollback() throws Exception
+	{
+		for (Map.Entry<GKInstance, Map<String, List<Object>>> instanceValues : originalValues.entrySet())
+		{
+			for (Map.Entry<String, List<Object>> attributeValues : instanceValues.getValue().entrySet())
+			{
+				instanceValues.getKey().setAttributeValueNoCheck(attributeValues.getKey(), attributeValues.getValue());
+			}
+		}
+		if (inTransaction)
+		{
+			logger.warn("Rolling back writes made since the last flush");
+			instanceStore.rollback();
+			for (GKInstance inst : storedInstances)
+			{
+				context.getIdenticalInstanceIndex().remove(inst);
+			}
+		}
+		context.getInferredInstanceCaches().discardPending(this);
+		releasePending(false);
+		clear();
+	}
+
+	// Lets other workers use the instances stored since the last flush, or create their own if the writes were rolled back
+	private void releasePending(boolean committed)
+	{
+		StableIdentifierGenerator stableIdentifierGenerator = context.getStableIdentifierGenerator();
+		if (stableIdentifierGenerator != null)
+		{
+			stableIdentifierGenerator.releasePending(committed);
+		}
+		if (context.getIdentityLocks() != null)
+		{
+			context.getIdentityLocks().release(this);
+		}
+	}
+
+	// Flushes any remaining updates and returns the connection to auto-commit mode.
+	public void close() throws Exception
+	{
+		flush();
+		if (inTransaction)
+		{
+			instanceStore.close();
+			inTransaction = false;
+		}
+	}
+
+	private void clear()
+	{
+		pendingInstances.clear();
+		pendingAttributes.clear();
+		pendingSourceInstances.clear();
+		pendingSourceValues.clear();
+		storedInstances.clear();
+		originalValues.clear();
+	}
+}
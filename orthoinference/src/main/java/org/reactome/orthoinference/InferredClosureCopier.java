@@ -0,0 +1,345 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import static org.gk.model.ReactomeJavaConstants.*;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
+
+/**
+ * Copies the inferred ReactionlikeEvents of the previous release into the current release database, for the RlEs whose inference is carried
+ * forward (see IncrementalInferencePlanner). The instances that the previous release's orthoinference created for an inferred RlE make up its
+ * inferred closure: the RlE and the inferred PhysicalEntities, ReferenceGeneProducts, Summations, Regulations etc. that it refers to, which are
+ * those created by the InstanceEdit of the inferred RlE. They are read from the previous release database and stored again through the context,
+ * so that they go through the same identical instance checks as inferred instances, and are given this release's InstanceEdit, release date and
+ * stable identifiers. The other instances that the closure refers to (the human instances it was inferred from, Compartments etc.) are curated,
+ * so they have the same DB IDs in both release databases.
+ *
+ * A closure isn't copied, and the RlE is inferred again instead, if it refers to another inferred Event or to a curated instance that doesn't
+ * have the same class and display name in the current release. This is checked before any of its instances are stored.
+ */
+public class InferredClosureCopier {
+
+	private static final Logger logger = LogManager.getLogger();
+	// Attributes that are set by this release's inference, or by the steps of the previous release that followed orthoinference
+	private static final Set<String> UNCOPIED_ATTRIBUTES = new HashSet<>(Arrays.asList(DB_ID, created, modified, stableIdentifier, releaseDate, precedingEvent, _doRelease));
+	private final MySQLAdaptor dbaPrev;
+
+	public InferredClosureCopier(MySQLAdaptor dbaPrev)
+	{
+		this.dbaPrev = dbaPrev;
+	}
+
+	// An instance of a closure as it was in the previous release. Values that are instances are replaced by ClosureReferences and SourceReferences.
+	private static class InstanceSnapshot
+	{
+		private final long dbId;
+		private final String className;
+		private final Map<String, List<Object>> attributeValues = new LinkedHashMap<>();
+		private boolean hasReleaseDate;
+		// Whether it refers to the inferred RlE, directly or through other instances of the closure (eg: Regulations in older schemas)
+		private boolean refersToReaction;
+
+		private InstanceSnapshot(long dbId, String className)
+		{
+			this.dbId = dbId;
+			this.className = className;
+		}
+
+		private void addValue(String attribute, Object value)
+		{
+			attributeValues.computeIfAbsent(attribute, k -> new ArrayList<>()).add(value);
+		}
+	}
+
+	// An instance of the closure, by its DB ID in the previous release
+	private static class ClosureReference
+	{
+		private final long dbId;
+
+		private ClosureReference(long dbId)
+		{
+			this.dbId = dbId;
+		}
+	}
+
+	// A curated instance, which is expected to have the same DB ID, class and display name in the current release
+	private static class SourceReference
+	{
+		private final long dbId;
+		private final String className;
+		private final String displayName;
+
+		private SourceReference(GKInstance inst)
+		{
+			this.dbId = inst.getDBID();
+			this.className = inst.getSchemClass().getName();
+			this.displayName = inst.getDisplayName();
+		}
+	}
+
+	// Copies the previous release's inferred RlE of reactionInst, and its closure, with the context. Returns the copied RlE, or null if it can't be copied.
+	public GKInstance copyInferredReaction(InferenceContext context, GKInstance reactionInst, long previousInferredReactionDbId) throws Exception
+	{
+		List<InstanceSnapshot> closure;
+		// The previous release's adaptor is shared by the species' workers, which copy their own RlEs
+		synchronized (dbaPrev)
+		{
+			closure = readClosure(previousInferredReactionDbId);
+		}
+		if (closure == null)
+		{
+			return null;
+		}
+		Map<Long, GKInstance> sourceInstances = fetchSourceInstances(context, closure);
+		if (sourceInstances == null)
+		{
+			return null;
+		}
+		logger.info("Copying " + closure.size() + " instance(s) inferred for " + reactionInst + " in the previous release");
+		return storeClosure(context, reactionInst, closure, sourceInstances);
+	}
+
+	// Reads the closure of the previous release's inferred RlE, in the order its instances can be stored in: each after the instances it refers to,
+	// and the RlE last. Returns null if the closure can't be copied.
+	private List<InstanceSnapshot> readClosure(long inferredReactionDbId) throws Exception
+	{
+		GKInstance inferredReactionInst = dbaPrev.fetchInstance(inferredReactionDbId);
+		if (inferredReactionInst == null || !inferredReactionInst.getSchemClass().isa(ReactionlikeEvent))
+		{
+			logger.warn("No inferred ReactionlikeEvent with DB ID " + inferredReactionDbId + " found in the previous release");
+			return null;
+		}
+		GKInstance inferenceEditInst = (GKInstance) inferredReactionInst.getAttributeValue(created);
+		if (inferenceEditInst == null)
+		{
+			return null;
+		}
+		Map<Long, InstanceSnapshot> snapshots = new LinkedHashMap<>();
+		if (!readInstance(inferredReactionInst, inferredReactionInst.getDBID(), inferenceEditInst.getDBID(), snapshots, new HashSet<>()))
+		{
+			return null;
+		}
+		return new ArrayList<>(snapshots.values());
+	}
+
+	// Adds the snapshot of an instance of the closure after those of the instances it refers to. Returns false if the closure can't be copied.
+	@SuppressWarnings("unchecked")
+	private boolean readInstance(GKInstance inst, long inferredReactionDbId, long inferenceEditDbId, Map<Long, InstanceSnapshot> snapshots, Set<Long> visitedDbIds) throws Exception
+	{
+		visitedDbIds.add(inst.getDBID());
+		InstanceSnapshot snapshot = new InstanceSnapshot(inst.getDBID(), inst.getSchemClass().getName());
+		for (GKSchemaAttribute attribute : (Collection<GKSchemaAttribute>) inst.getSchemClass().getAttributes())
+		{
+			String attributeName = attribute.getName();
+			if (attributeName.equals(releaseDate))
+			{
+				snapshot.hasReleaseDate = inst.getAttributeValue(releaseDate) != null;
+			}
+			if (UNCOPIED_ATTRIBUTES.contains(attributeName))
+			{
+				continue;
+			}
+			for (Object value : (Collection<Object>) inst.getAttributeValuesList(attributeName))
+			{
+				if (!(value instanceof GKInstance))
+				{
+					snapshot.addValue(attributeName, value);
+					continue;
+				}
+				GKInstance valueInst = (GKInstance) value;
+				if (!isCreatedBy(valueInst, inferenceEditDbId))
+				{
+					snapshot.addValue(attributeName, new SourceReference(valueInst));
+					continue;
+				}
+				if (valueInst.getDBID() == inferredReactionDbId)
+				{
+					snapshot.refersToReaction = true;
+				}
+				else if (valueInst.getSchemClass().isa(Event))
+				{
+					logger.info(inst + " refers to another inferred Event, " + valueInst + ", so it can't be copied");
+					return false;
+				}
+				else if (!snapshots.containsKey(valueInst.getDBID()))
+				{
+					if (visitedDbIds.contains(valueInst.getDBID()) || !readInstance(valueInst, inferredReactionDbId, inferenceEditDbId, snapshots, visitedDbIds))
+					{
+						return false;
+					}
+				}
+				if (snapshots.containsKey(valueInst.getDBID()))
+				{
+					snapshot.refersToReaction |= snapshots.get(valueInst.getDBID()).refersToReaction;
+				}
+				snapshot.addValue(attributeName, new ClosureReference(valueInst.getDBID()));
+			}
+		}
+		// The stable identifier of a PhysicalEntity is generated from that of the instance it was inferred from
+		if (inst.getSchemClass().isa(PhysicalEntity) && !snapshot.attributeValues.containsKey(inferredFrom))
+		{
+			logger.info(inst + " has no inferredFrom instance, so it can't be copied");
+			return false;
+		}
+		snapshots.put(inst.getDBID(), snapshot);
+		return true;
+	}
+
+	private static boolean isCreatedBy(GKInstance inst, long instanceEditDbId) throws Exception
+	{
+		GKInstance createdInst = (GKInstance) inst.getAttributeValue(created);
+		return createdInst != null && createdInst.getDBID() == instanceEditDbId;
+	}
+
+	// Fetches the curated instances that the closure refers to from the current release. Returns null if any of them isn't the instance it was in the previous release.
+	private static Map<Long, GKInstance> fetchSourceInstances(InferenceContext context, List<InstanceSnapshot> closure) throws Exception
+	{
+		Map<Long, GKInstance> sourceInstances = new HashMap<>();
+		for (InstanceSnapshot snapshot : closure)
+		{
+			for (List<Object> values : snapshot.attributeValues.values())
+			{
+				for (Object value : values)
+				{
+					if (!(value instanceof SourceReference) || sourceInstances.containsKey(((SourceReference) value).dbId))
+					{
+						continue;
+					}
+					SourceReference sourceReference = (SourceReference) value;
+					GKInstance sourceInst = context.getInstanceStore().fetchInstance(sourceReference.dbId);
+					if (sourceInst == null || !sourceInst.getSchemClass().getName().equals(sourceReference.className) || !Objects.equals(sourceInst.getDisplayName(), sourceReference.displayName))
+					{
+						logger.info("The " + sourceReference.className + " with DB ID " + sourceReference.dbId + " isn't the same in the current release, so the closure can't be copied");
+						return null;
+					}
+					sourceInstances.put(sourceReference.dbId, sourceInst);
+				}
+			}
+		}
+		return sourceInstances;
+	}
+
+	// Stores copies of the closure's instances, then the copied RlE, then those that refer to it. As when it is inferred, the RlE's attributes
+	// whose values refer to it are updated once it has been stored.
+	private static GKInstance storeClosure(InferenceContext context, GKInstance reactionInst, List<InstanceSnapshot> closure, Map<Long, GKInstance> sourceInstances) throws Exception
+	{
+		InstanceSnapshot reactionSnapshot = closure.get(closure.size() - 1);
+		Map<Long, InstanceSnapshot> snapshots = new HashMap<>();
+		for (InstanceSnapshot snapshot : closure)
+		{
+			snapshots.put(snapshot.dbId, snapshot);
+		}
+		Map<Long, GKInstance> copies = new HashMap<>();
+		for (InstanceSnapshot snapshot : closure)
+		{
+			if (snapshot != reactionSnapshot && !snapshot.refersToReaction)
+			{
+				copies.put(snapshot.dbId, storeCopy(context, snapshot, copies, sourceInstances));
+			}
+		}
+
+		Set<String> deferredAttributes = new HashSet<>();
+		for (Map.Entry<String, List<Object>> attributeValues : reactionSnapshot.attributeValues.entrySet())
+		{
+			for (Object value : attributeValues.getValue())
+			{
+				if (value instanceof ClosureReference && (((ClosureReference) value).dbId == reactionSnapshot.dbId || snapshots.get(((ClosureReference) value).dbId).refersToReaction))
+				{
+					deferredAttributes.add(attributeValues.getKey());
+				}
+			}
+		}
+		GKInstance infReactionInst = createCopy(context, reactionSnapshot, deferredAttributes, copies, sourceInstances);
+		infReactionInst.addAttributeValue(stableIdentifier, context.getStableIdentifierGenerator().generateOrthologousStableId(infReactionInst, reactionInst));
+		context.getUnitOfWork().storeInstance(infReactionInst);
+		context.getUnitOfWork().addSourceAttributeValue(reactionInst, infReactionInst, orthologousEvent);
+		copies.put(reactionSnapshot.dbId, infReactionInst);
+
+		for (InstanceSnapshot snapshot : closure)
+		{
+			if (snapshot != reactionSnapshot && snapshot.refersToReaction)
+			{
+				copies.put(snapshot.dbId, storeCopy(context, snapshot, copies, sourceInstances));
+			}
+		}
+		for (String attribute : deferredAttributes)
+		{
+			for (Object value : reactionSnapshot.attributeValues.get(attribute))
+			{
+				infReactionInst.addAttributeValue(attribute, resolve(value, copies, sourceInstances));
+			}
+			context.getUnitOfWork().updateAttribute(infReactionInst, attribute);
+		}
+		return infReactionInst;
+	}
+
+	// Stores the copy of an instance, or returns the identical instance that already exists. As when they are inferred, the instances a
+	// PhysicalEntity was inferred from refer back to it.
+	@SuppressWarnings("unchecked")
+	private static GKInstance storeCopy(InferenceContext context, InstanceSnapshot snapshot, Map<Long, GKInstance> copies, Map<Long, GKInstance> sourceInstances) throws Exception
+	{
+		GKInstance copyInst = createCopy(context, snapshot, Collections.emptySet(), copies, sourceInstances);
+		List<GKInstance> originalInstances = copyInst.getSchemClass().isValidAttribute(inferredFrom) ? (List<GKInstance>) copyInst.getAttributeValuesList(inferredFrom) : Collections.emptyList();
+		GKInstance originalInst = !originalInstances.isEmpty() ? originalInstances.get(0) : null;
+		GKInstance storedInst = context.getInstanceUtilities().getIdenticalInstance(copyInst, originalInst);
+		if (storedInst.getSchemClass().isa(PhysicalEntity))
+		{
+			for (GKInstance sourceInst : originalInstances)
+			{
+				if (sourceInst.getSchemClass().isValidAttribute(inferredTo))
+				{
+					context.getUnitOfWork().addSourceAttributeValue(sourceInst, storedInst, inferredTo);
+				}
+			}
+		}
+		return storedInst;
+	}
+
+	private static GKInstance createCopy(InferenceContext context, InstanceSnapshot snapshot, Set<String> skippedAttributes, Map<Long, GKInstance> copies, Map<Long, GKInstance> sourceInstances) throws Exception
+	{
+		GKInstance copyInst = context.getInstanceUtilities().createInferredGKInstance(snapshot.className);
+		for (Map.Entry<String, List<Object>> attributeValues : snapshot.attributeValues.entrySet())
+		{
+			if (skippedAttributes.contains(attributeValues.getKey()))
+			{
+				continue;
+			}
+			for (Object value : attributeValues.getValue())
+			{
+				copyInst.addAttributeValue(attributeValues.getKey(), resolve(value, copies, sourceInstances));
+			}
+		}
+		if (snapshot.hasReleaseDate)
+		{
+			copyInst.addAttributeValue(releaseDate, context.getReactionInferrer().getReleaseDate());
+		}
+		return copyInst;
+	}
+
+	private static Object resolve(Object value, Map<Long, GKInstance> copies, Map<Long, GKInstance> sourceInstances)
+	{
+		if (value instanceof ClosureReference)
+		{
+			return copies.get(((ClosureReference) value).dbId);
+		}
+		if (value instanceof SourceReference)
+		{
+			return sourceInstances.get(((SourceReference) value).dbId);
+		}
+		return value;
+	}
+}
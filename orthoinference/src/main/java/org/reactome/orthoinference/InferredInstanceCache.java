@@ -0,0 +1,146 @@
+package org.reactome.orthoinference;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+
+/**
+ * A context's view of one of the species' shared caches of inferred instances (see InferredInstanceCaches). Entries are keyed by the DB ID of the
+ * source instance (or another stable key, such as a homologue identifier), not by GKInstance identity, so the same source instance fetched through
+ * different adaptors has the same entry. Instances inferred by other contexts are only used once they are persisted, and are fetched through this
+ * context's InstanceStore. Until then, the entry is claimed by the other context's unit of work, and an IdentityLocks.ConflictException is thrown so that
+ * this context rolls back and waits for it to be committed or rolled back (see ReactionGroupScheduler). An instance isn't inferred again by another context.
+ */
+public class InferredInstanceCache<K> {
+
+	private static final Logger logger = LogManager.getLogger();
+	private final InferredInstanceCaches caches;
+	private final String cacheName;
+	private final Map<Object, InferredInstanceCaches.Entry> entries;
+	private final InferenceContext context;
+
+	// Infers the instance to be cached. A null result means that it couldn't be inferred.
+	public interface Inference
+	{
+		GKInstance infer() throws Exception;
+	}
+
+	InferredInstanceCache(InferredInstanceCaches caches, String cacheName, Map<Object, InferredInstanceCaches.Entry> entries, InferenceContext context)
+	{
+		this.caches = caches;
+		this.cacheName = cacheName;
+		this.entries = entries;
+		this.context = context;
+	}
+
+	// Returns the cached instance, or null if there isn't one that this context can use
+	public GKInstance get(K key) throws Exception
+	{
+		GKInstance cachedInst = getUsableInstance(entries.get(key));
+		caches.recordLookup(cacheName, cachedInst != null);
+		return cachedInst;
+	}
+
+	// Returns the cached instance, or infers and caches it if there isn't one. The entry is claimed before the instance is inferred, so no other
+	// context infers it at the same time. Null results aren't cached, so they are inferred again the next time, as before.
+	// Throws an IdentityLocks.ConflictException if the entry is claimed by another context's unit of work.
+	public GKInstance computeIfAbsent(K key, Inference inference) throws Exception
+	{
+		InferredInstanceCaches.Entry entry;
+		while ((entry = entries.get(key)) == null)
+		{
+			InferredInstanceCaches.Entry newEntry = new InferredInstanceCaches.Entry(entries, key, context.getUnitOfWork());
+			if (entries.putIfAbsent(key, newEntry) == null)
+			{
+				caches.recordLookup(cacheName, false);
+				return inferEntry(newEntry, inference);
+			}
+		}
+		GKInstance cachedInst = getUsableInstance(entry);
+		caches.recordLookup(cacheName, cachedInst != null);
+		if (cachedInst != null)
+		{
+			logger.debug("Cached " + cacheName + " instance found for " + key);
+			return cachedInst;
+		}
+		if (entry.owner != context.getUnitOfWork() && entry.isClaimed())
+		{
+			throw caches.createConflict(cacheName, entry);
+		}
+		if (entry.discarded)
+		{
+			// Discarded since it was looked up, so it can be claimed again
+			return computeIfAbsent(key, inference);
+		}
+		// The instance is being inferred by this context (ie: the entity refers to itself), or was persisted by another context without a DB ID,
+		// so it can't be fetched. Neither is cached, as before.
+		return inference.infer();
+	}
+
+	// Restores a persisted entry from InferenceJournal. Its instance is fetched when it is first used.
+	public void restore(K key, long dbId)
+	{
+		InferredInstanceCaches.Entry entry = new InferredInstanceCaches.Entry(entries, key, null);
+		entry.dbId = dbId;
+		entry.persisted = true;
+		entries.put(key, entry);
+	}
+
+	// The DB IDs of the persisted instances, by key, for InferenceJournal
+	@SuppressWarnings("unchecked")
+	public Map<K, Long> getPersistedDbIds()
+	{
+		Map<K, Long> persistedDbIds = new LinkedHashMap<>();
+		for (InferredInstanceCaches.Entry entry : entries.values())
+		{
+			if (entry.persisted && entry.dbId != null)
+			{
+				persistedDbIds.put((K) entry.key, entry.dbId);
+			}
+		}
+		return persistedDbIds;
+	}
+
+	private GKInstance inferEntry(InferredInstanceCaches.Entry entry, Inference inference) throws Exception
+	{
+		GKInstance inferredInst;
+		try {
+			inferredInst = inference.infer();
+		} catch (Exception e) {
+			caches.discard(entry);
+			throw e;
+		}
+		if (inferredInst == null)
+		{
+			caches.discard(entry);
+			return null;
+		}
+		entry.dbId = inferredInst.getDBID();
+		entry.inst = inferredInst;
+		caches.addPending(entry);
+		return inferredInst;
+	}
+
+	// This context's own instances are used as they are, while persisted ones are fetched through its store once they have been released or if
+	// they were inferred by another context. Entries that are still being inferred, or that another context hasn't persisted yet, can't be used.
+	private GKInstance getUsableInstance(InferredInstanceCaches.Entry entry) throws Exception
+	{
+		if (entry == null)
+		{
+			return null;
+		}
+		GKInstance cachedInst = entry.inst;
+		if (cachedInst != null && entry.owner == context.getUnitOfWork())
+		{
+			return cachedInst;
+		}
+		if (entry.persisted && entry.dbId != null)
+		{
+			return context.getInstanceStore().fetchInstance(entry.dbId);
+		}
+		return null;
+	}
+}
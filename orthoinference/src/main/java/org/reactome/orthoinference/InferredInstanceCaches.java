@@ -0,0 +1,167 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gk.model.GKInstance;
+
+/**
+ * The caches of inferred instances (inferred PhysicalEntities by source DB ID, ReferenceGeneProducts by homologue etc.) of a species, which are shared
+ * by the species' context and the workers that infer its ReactionlikeEvent groups in parallel. Each context reads and writes them through its own
+ * InferredInstanceCache views, since an instance can only be used with the adaptor it was fetched or stored with.
+ *
+ * An entry is a claim on its key by the InferenceUnitOfWork of the context that infers it, which it keeps until it is flushed or rolled back. Once
+ * flushed, an entry's instance and everything it refers to are persisted, so it can be used by every context by fetching it through the context's
+ * InstanceStore. Until then, other contexts wait for the claim to be released rather than inferring the instance themselves (see InferredInstanceCache).
+ * The number of persisted entries that hold on to their instance is bounded: when there are more than maxResidentInstances, the oldest ones release
+ * their instance and only keep its DB ID. Entries that aren't persisted yet, and those whose instance has no DB ID, aren't counted and are never released.
+ * This only bounds the references held by the caches, not the heap: a released instance stays in the cache of the MySQLAdaptor that stored or
+ * fetched it, and so does every instance that refers to it.
+ */
+public class InferredInstanceCaches {
+
+	public static final int DEFAULT_MAX_RESIDENT_INSTANCES = 250000;
+	private final InferenceMetrics metrics;
+	private final Map<String, Map<Object, Entry>> caches = new ConcurrentHashMap<>();
+	// The entries of each unit of work that haven't been flushed yet. Each list is only used by the thread of its unit of work.
+	private final Map<InferenceUnitOfWork, List<Entry>> pendingEntries = new ConcurrentHashMap<>();
+	// Persisted entries that still hold their instance, oldest first, and their number
+	private final Queue<Entry> residentEntries = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger residentCount = new AtomicInteger();
+	private volatile int maxResidentInstances = DEFAULT_MAX_RESIDENT_INSTANCES;
+
+	public InferredInstanceCaches(InferenceMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	public void setMaxResidentInstances(int maxResidentInstances)
+	{
+		this.maxResidentInstances = maxResidentInstances;
+		releaseExcessInstances();
+	}
+
+	// The view of the named cache for a context
+	public <K> InferredInstanceCache<K> getCache(String cacheName, InferenceContext context)
+	{
+		return new InferredInstanceCache<>(this, cacheName, caches.computeIfAbsent(cacheName, k -> new ConcurrentHashMap<>()), context);
+	}
+
+	// The names of the caches, for InferenceJournal
+	public List<String> getCacheNames()
+	{
+		return new ArrayList<>(caches.keySet());
+	}
+
+	// Called once the unit of work's writes are committed and its buffered updates written: its entries can now be used by other contexts and released
+	public void markPersisted(InferenceUnitOfWork unitOfWork)
+	{
+		List<Entry> entries = pendingEntries.remove(unitOfWork);
+		if (entries == null)
+		{
+			return;
+		}
+		for (Entry entry : entries)
+		{
+			entry.persisted = true;
+			// Instances without a DB ID can't be fetched again, so they stay resident
+			if (entry.dbId != null)
+			{
+				residentEntries.add(entry);
+				residentCount.incrementAndGet();
+			}
+		}
+		releaseExcessInstances();
+		notifyReleased();
+	}
+
+	// Called when the unit of work is rolled back: the instances of its entries were never committed
+	public void discardPending(InferenceUnitOfWork unitOfWork)
+	{
+		List<Entry> entries = pendingEntries.remove(unitOfWork);
+		if (entries == null)
+		{
+			return;
+		}
+		for (Entry entry : entries)
+		{
+			entry.cache.remove(entry.key, entry);
+			entry.discarded = true;
+		}
+		notifyReleased();
+	}
+
+	void recordLookup(String cacheName, boolean hit)
+	{
+		metrics.recordCacheLookup(cacheName, hit);
+	}
+
+	// Adds an entry whose instance has just been inferred
+	void addPending(Entry entry)
+	{
+		pendingEntries.computeIfAbsent(entry.owner, k -> new ArrayList<>()).add(entry);
+	}
+
+	// Removes an entry whose instance couldn't be inferred, which releases its claim
+	void discard(Entry entry)
+	{
+		entry.cache.remove(entry.key, entry);
+		entry.discarded = true;
+		notifyReleased();
+	}
+
+	// The conflict of a context that needs the instance of an entry claimed by another unit of work. It is released once the entry's instance is persisted or discarded.
+	IdentityLocks.ConflictException createConflict(String cacheName, Entry entry)
+	{
+		return new IdentityLocks.ConflictException("The " + cacheName + " instance of " + entry.key + " is pending in another worker", this, entry::isClaimed);
+	}
+
+	private void notifyReleased()
+	{
+		synchronized (this)
+		{
+			notifyAll();
+		}
+	}
+
+	private void releaseExcessInstances()
+	{
+		Entry entry;
+		while (residentCount.get() > maxResidentInstances && (entry = residentEntries.poll()) != null)
+		{
+			entry.inst = null;
+			residentCount.decrementAndGet();
+		}
+	}
+
+	// A cached instance. The instance is set once it has been inferred, and released once it is persisted and the bound has been exceeded.
+	// The entry is discarded if its instance couldn't be inferred or was rolled back.
+	static class Entry
+	{
+		final Map<Object, Entry> cache;
+		final Object key;
+		final InferenceUnitOfWork owner;
+		volatile GKInstance inst;
+		volatile Long dbId;
+		volatile boolean persisted;
+		volatile boolean discarded;
+
+		Entry(Map<Object, Entry> cache, Object key, InferenceUnitOfWork owner)
+		{
+			this.cache = cache;
+			this.key = key;
+			this.owner = owner;
+		}
+
+		// Whether the entry is still claimed by its unit of work, which is either inferring its instance or hasn't flushed it yet
+		boolean isClaimed()
+		{
+			return !persisted && !discarded;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gk.model.GKInstance;
+
+/**
+ * The instances that have already been checked for identical instances in the DB during a species' inference, keyed by their InstanceIdentityKey.
+ * Keys are partitioned by class, so that lookups only search the instances of the key's class. This replaces the separate String-keyed caches
+ * that were kept for each kind of inferred instance (EWAS, ModifiedResidue, DefinedSet, Complex, EntitySet and mock GEE instances).
+ */
+public class InstanceIdentityIndex {
+
+	private final Map<String, Map<InstanceIdentityKey, GKInstance>> instancesByClass = new HashMap<>();
+
+	// Returns the instance that was stored with an identical key, or null if there isn't one.
+	public GKInstance get(InstanceIdentityKey key)
+	{
+		Map<InstanceIdentityKey, GKInstance> classInstances = instancesByClass.get(key.getClassName());
+		return classInstances != null ? classInstances.get(key) : null;
+	}
+
+	public void put(InstanceIdentityKey key, GKInstance inst)
+	{
+		instancesByClass.computeIfAbsent(key.getClassName(), k -> new HashMap<>()).put(key, inst);
+	}
+
+	// All indexed instances, which InferenceJournal uses to rebuild the index when a run is resumed
+	public List<GKInstance> values()
+	{
+		List<GKInstance> instances = new ArrayList<>();
+		for (Map<InstanceIdentityKey, GKInstance> classInstances : instancesByClass.values())
+		{
+			instances.addAll(classInstances.values());
+		}
+		return instances;
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for (Map<InstanceIdentityKey, GKInstance> classInstances : instancesByClass.values())
+		{
+			size += classInstances.size();
+		}
+		return size;
+	}
+}
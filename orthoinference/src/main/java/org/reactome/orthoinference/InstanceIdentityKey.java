@@ -0,0 +1,155 @@
+package org.reactome.orthoinference;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+
+/**
+ * Identifies an instance by its class and the values of its defining attributes, which is what MySQLAdaptor.fetchIdenticalInstances compares.
+ * Instance values are represented by their DB IDs. Each defining attribute keeps its own slot (multi-value attributes get an array of their values),
+ * so unlike a concatenated string, values from different attributes or of different instances can't run together and collide.
+ * The hash is computed once, when the key is created.
+ */
+public final class InstanceIdentityKey {
+
+	private final String className;
+	private final Object[] definingValues;
+	private final int hash;
+
+	private InstanceIdentityKey(String className, Object[] definingValues)
+	{
+		this.className = className;
+		this.definingValues = definingValues;
+		this.hash = className.hashCode() * 31 + Arrays.deepHashCode(definingValues);
+	}
+
+	// Creates the key of an instance, keeping the values of multi-value attributes in their current order
+	public static InstanceIdentityKey of(GKInstance inst) throws Exception
+	{
+		return of(inst, inst.getSchemClass(), false);
+	}
+
+	// Creates the key of an instance using the defining attributes of keyClass (the instance's class or a superclass of it). The values of multi-value
+	// attributes are sorted, as fetchIdenticalInstances doesn't take their order into account.
+	public static InstanceIdentityKey unordered(GKInstance inst, SchemaClass keyClass) throws Exception
+	{
+		return of(inst, keyClass, true);
+	}
+
+	// Creates the key of an instance from the values of its class's 'all' defining attributes only, with the values of multi-value attributes sorted.
+	// Instances that fetchIdenticalInstances finds identical always have the same key, although instances with the same key may differ in their
+	// 'any' defining attributes. For classes that are keyed by all their defining values, this is the same as unordered(inst, inst.getSchemClass()).
+	public static InstanceIdentityKey ofAllDefiningValues(GKInstance inst) throws Exception
+	{
+		return ofAllDefiningValues(inst, inst.getSchemClass());
+	}
+
+	// As above, using the 'all' defining attributes of keyClass (the instance's class or a superclass of it)
+	public static InstanceIdentityKey ofAllDefiningValues(GKInstance inst, SchemaClass keyClass) throws Exception
+	{
+		return of(inst, keyClass, true, true);
+	}
+
+	private static InstanceIdentityKey of(GKInstance inst, SchemaClass instanceClass, boolean sortMultipleValues) throws Exception
+	{
+		return of(inst, instanceClass, sortMultipleValues, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static InstanceIdentityKey of(GKInstance inst, SchemaClass instanceClass, boolean sortMultipleValues, boolean allDefiningOnly) throws Exception
+	{
+		Collection<SchemaAttribute> definingAttributes = (Collection<SchemaAttribute>) instanceClass.getDefiningAttributes();
+		Object[] definingValues = new Object[definingAttributes.size()];
+		int i = 0;
+		for (SchemaAttribute definingAttr : definingAttributes)
+		{
+			if (allDefiningOnly && definingAttr.getCategory() != SchemaAttribute.ALL_DEFINING)
+			{
+				i++;
+				continue;
+			}
+			if (definingAttr.isMultiple())
+			{
+				Collection<Object> attributeValues = inst.getAttributeValuesList(definingAttr.getName());
+				if (attributeValues != null && attributeValues.size() > 0)
+				{
+					Object[] values = new Object[attributeValues.size()];
+					int j = 0;
+					for (Object attributeValue : attributeValues)
+					{
+						values[j++] = getKeyValue(attributeValue);
+					}
+					if (sortMultipleValues)
+					{
+						Arrays.sort(values, Comparator.comparing(String::valueOf));
+					}
+					definingValues[i] = values;
+				}
+			} else {
+				definingValues[i] = getKeyValue(inst.getAttributeValue(definingAttr.getName()));
+			}
+			i++;
+		}
+		return new InstanceIdentityKey(instanceClass.getName(), definingValues);
+	}
+
+	// True if every defining attribute of the class requires all of its values to match. Only the identity of instances of these classes
+	// is fully described by their key; classes with 'any' defining attributes can be identical to instances with a different key.
+	@SuppressWarnings("unchecked")
+	public static boolean isKeyedByAllDefiningValues(SchemaClass instanceClass)
+	{
+		for (SchemaAttribute definingAttr : (Collection<SchemaAttribute>) instanceClass.getDefiningAttributes())
+		{
+			if (definingAttr.getCategory() != SchemaAttribute.ALL_DEFINING)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Object getKeyValue(Object attributeValue)
+	{
+		if (attributeValue instanceof GKInstance)
+		{
+			return ((GKInstance) attributeValue).getDBID();
+		}
+		return attributeValue;
+	}
+
+	public String getClassName()
+	{
+		return className;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+		if (!(obj instanceof InstanceIdentityKey))
+		{
+			return false;
+		}
+		InstanceIdentityKey other = (InstanceIdentityKey) obj;
+		return hash == other.hash && className.equals(other.className) && Arrays.deepEquals(definingValues, other.definingValues);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	@Override
+	public String toString()
+	{
+		return className + Arrays.deepToString(definingValues);
+	}
+}
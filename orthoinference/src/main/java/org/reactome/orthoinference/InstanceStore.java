@@ -0,0 +1,38 @@
+package org.reactome.orthoinference;
+
+import java.util.Collection;
+
+import org.gk.model.GKInstance;
+
+/**
+ * The persistence backend that orthoinference writes to. Instances that orthoinference has stored are fetched back through it, while the
+ * source species instances are read through the context's MySQLAdaptor. MySQLInstanceStore writes to the release database; the stores
+ * created by an InMemoryInstanceStore keep the writes in memory, which allows dry runs against an unchanged database.
+ */
+public interface InstanceStore
+{
+	// Starts the transaction that subsequent writes are made in
+	void begin() throws Exception;
+
+	// Stores a new instance, which receives a DB ID
+	void storeInstance(GKInstance inst) throws Exception;
+
+	// Writes the instance's in-memory value of the attribute
+	void updateInstanceAttribute(GKInstance inst, String attribute) throws Exception;
+
+	// Replaces the instance's in-memory value of the attribute with the value that has been written, including by other species
+	void loadInstanceAttributeValues(GKInstance inst, String attribute) throws Exception;
+
+	GKInstance fetchInstance(long dbId) throws Exception;
+
+	// Returns the instances that are identical to inst, or null if there aren't any
+	Collection<GKInstance> fetchIdenticalInstances(GKInstance inst) throws Exception;
+
+	void commit() throws Exception;
+
+	// Discards the writes made since the last commit
+	void rollback() throws Exception;
+
+	// Ends the transaction started by begin
+	void close() throws Exception;
+}
@@ -1,9 +1,8 @@
 package org.reactome.orthoinference;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
@@ -12,7 +11,6 @@ import org.gk.model.GKInstance;
 import static org.gk.model.ReactomeJavaConstants.*;
 import org.gk.persistence.MySQLAdaptor;
 import org.gk.schema.GKSchemaAttribute;
-import org.gk.schema.GKSchemaClass;
 import org.gk.schema.SchemaClass;
 
 
@@ -20,13 +18,19 @@ import org.gk.schema.SchemaClass;
 public class InstanceUtilities {
 	
 	private static final Logger logger = LogManager.getLogger();
-	private static MySQLAdaptor dba; 
-	private static GKInstance speciesInst;
-	private static GKInstance instanceEditInst;
-	private static Map<String,GKInstance> mockedIdenticals = new HashMap<>();
-	
+	private final InferenceContext context;
+	private final MySQLAdaptor dba;
+	private GKInstance speciesInst;
+	private GKInstance instanceEditInst;
+
+	public InstanceUtilities(InferenceContext context)
+	{
+		this.context = context;
+		this.dba = context.getDbAdaptor();
+	}
+
 	// Creates new instance that will be inferred based on the incoming instances class		
-	public static GKInstance createNewInferredGKInstance(GKInstance instanceToBeInferred) throws Exception
+	public GKInstance createNewInferredGKInstance(GKInstance instanceToBeInferred) throws Exception
 	{
 		GKInstance inferredInst = null;
 		String reactionClass = instanceToBeInferred.getSchemClass().getName();
@@ -59,11 +63,20 @@ public class InstanceUtilities {
 		return inferredInst;
 	}
 	
+	// Creates an empty instance of the class, created by this species' InstanceEdit. Used to copy the instances inferred in the previous release (see InferredClosureCopier).
+	public GKInstance createInferredGKInstance(String className) throws Exception
+	{
+		GKInstance inferredInst = new GKInstance(dba.getSchema().getClassByName(className));
+		inferredInst.setDbAdaptor(dba);
+		inferredInst.addAttributeValue(created, instanceEditInst);
+		return inferredInst;
+	}
+
 	// Some 'Compartment' instances were actually 'GO_CellularComponent' instances. This meant that the instances that
 	// were pulled from the original instance's Compartment attribute could not be added to the new instance, due to them being
 	// a GO_CellularComponent. This function is the workaround, producing a Compartment instance that contains all the same attribute values.
 	@SuppressWarnings("unchecked")
-	public static GKInstance createCompartmentInstance(GKInstance compartmentInstGk) throws Exception
+	public GKInstance createCompartmentInstance(GKInstance compartmentInstGk) throws Exception
 	{
 		logger.warn(compartmentInstGk + " is a " + compartmentInstGk.getSchemClass() + " instead of a Compartment -- creating new Compartment instance");
 		SchemaClass compartmentClass = dba.getSchema().getClassByName(Compartment);
@@ -80,13 +93,22 @@ public class InstanceUtilities {
 				}
 			}
 		}
-		newCompartmentInst = checkForIdenticalInstances(newCompartmentInst, null);
+		// Compartments aren't species-specific, so the identical check is guarded to stop concurrently inferred species from storing duplicates.
+		// The pending writes are committed straight away so that other species' identical checks can see the new Compartment.
+		synchronized (context.getSourceData().getWriteLock())
+		{
+			newCompartmentInst = checkForIdenticalInstances(newCompartmentInst, null);
+			if (context.getSourceData().isSharedBetweenSpecies())
+			{
+				context.getUnitOfWork().flush();
+			}
+		}
 		return newCompartmentInst;
 	}
 
 	// Equivalent to create_ghost from Perl; Returns a mock homologue that is needed in cases where an inference is rejected, but the
 	// component isn't essential for the inference to be completed.
-	public static GKInstance createMockGKInstance(GKInstance instanceToBeMocked) throws Exception
+	public GKInstance createMockGKInstance(GKInstance instanceToBeMocked) throws Exception
 	{
 		SchemaClass genomeEncodedEntityClass = dba.getSchema().getClassByName(GenomeEncodedEntity);
 		GKInstance mockedInst = new GKInstance(genomeEncodedEntityClass);
@@ -99,26 +121,63 @@ public class InstanceUtilities {
 		mockedInst.addAttributeValue(species, speciesInst);
 		mockedInst.addAttributeValue(compartment, instanceToBeMocked.getAttributeValue(compartment));
 		
-		// Caching based on an instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
-		String cacheKey = getCacheKey((GKSchemaClass) mockedInst.getSchemClass(), mockedInst);
-		if (mockedIdenticals.get(cacheKey) != null)
-		{
-			mockedInst = mockedIdenticals.get(cacheKey);
-		} else {
-			mockedInst = checkForIdenticalInstances(mockedInst, instanceToBeMocked);
-			mockedIdenticals.put(cacheKey, mockedInst);
-		}
-		instanceToBeMocked = addAttributeValueIfNecessary(instanceToBeMocked, mockedInst, inferredTo);
-		dba.updateInstanceAttribute(instanceToBeMocked, inferredTo);
-		
+		// Cached based on the instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
+		mockedInst = getIdenticalInstance(mockedInst, instanceToBeMocked);
+		context.getUnitOfWork().addSourceAttributeValue(instanceToBeMocked, mockedInst, inferredTo);
+
 		return mockedInst;
 	}
 	
-	// Checks that equivalent instances don't already exist in the DB, substituting if they do
-	public static GKInstance checkForIdenticalInstances(GKInstance inferredInst, GKInstance originalInst) throws Exception
+	// Returns the instance that was previously found or stored for an instance with the same defining attributes. Otherwise, checks
+	// that equivalent instances don't already exist in the DB and remembers the result.
+	public GKInstance getIdenticalInstance(GKInstance inferredInst, GKInstance originalInst) throws Exception
+	{
+		InstanceIdentityKey identityKey = InstanceIdentityKey.of(inferredInst);
+		GKInstance identicalInst = context.getIdentityIndex().get(identityKey);
+		context.getMetrics().recordCacheLookup("identityIndex", identicalInst != null);
+		if (identicalInst == null)
+		{
+			identicalInst = checkForIdenticalInstances(inferredInst, originalInst);
+			context.getIdentityIndex().put(identityKey, identicalInst);
+		}
+		return identicalInst;
+	}
+
+	// Checks that equivalent instances don't already exist in the DB, substituting if they do. When identical instances were preloaded, the check is made against the index.
+	public GKInstance checkForIdenticalInstances(GKInstance inferredInst, GKInstance originalInst) throws Exception
+	{
+		IdentityLocks identityLocks = context.getIdentityLocks();
+		if (identityLocks == null)
+		{
+			return context.getMetrics().time("checkForIdenticalInstances", () -> findOrStoreIdenticalInstance(inferredInst, originalInst));
+		}
+		// When ReactionlikeEvent groups are inferred in parallel, a new instance is registered as pending until the worker commits its groups, since
+		// the identical checks of other workers, which use their own connections, can't see it before then. The time spent waiting for the lock is included.
+		return context.getMetrics().time("checkForIdenticalInstances", () -> {
+			synchronized (identityLocks.getLock(inferredInst))
+			{
+				identityLocks.checkNotPendingElsewhere(inferredInst, context.getUnitOfWork());
+				GKInstance identicalInst = findOrStoreIdenticalInstance(inferredInst, originalInst);
+				if (identicalInst == inferredInst)
+				{
+					identityLocks.addPending(inferredInst, context.getUnitOfWork());
+				}
+				return identicalInst;
+			}
+		});
+	}
+
+	private GKInstance findOrStoreIdenticalInstance(GKInstance inferredInst, GKInstance originalInst) throws Exception
 	{
-		@SuppressWarnings("unchecked")
-		Collection<GKInstance> identicalInstances = dba.fetchIdenticalInstances(inferredInst);
+		Collection<GKInstance> identicalInstances;
+		IdenticalInstanceIndex identicalInstanceIndex = context.getIdenticalInstanceIndex();
+		if (identicalInstanceIndex != null && identicalInstanceIndex.isIndexed(inferredInst.getSchemClass()))
+		{
+			Long identicalDbId = identicalInstanceIndex.findIdenticalDbId(inferredInst);
+			identicalInstances = identicalDbId != null ? Collections.singletonList(context.getInstanceStore().fetchInstance(identicalDbId)) : null;
+		} else {
+			identicalInstances = context.getInstanceStore().fetchIdenticalInstances(inferredInst);
+		}
 		if (identicalInstances != null) 
 		{
 			if (identicalInstances.size() == 1) 
@@ -130,10 +189,10 @@ public class InstanceUtilities {
 			}
 		} else {
 			if (inferredInst.getSchemClass().isa(PhysicalEntity)) {
-				GKInstance orthoStableIdentifierInst = EventsInferrer.getStableIdentifierGenerator().generateOrthologousStableId(inferredInst, originalInst);
+				GKInstance orthoStableIdentifierInst = context.getStableIdentifierGenerator().generateOrthologousStableId(inferredInst, originalInst);
 				inferredInst.addAttributeValue(stableIdentifier, orthoStableIdentifierInst);
 			}
-			dba.storeInstance(inferredInst);
+			context.getUnitOfWork().storeInstance(inferredInst);
 			return inferredInst;
 		}
 	}
@@ -164,58 +223,25 @@ public class InstanceUtilities {
 		return instanceToBeCheckedForExistingAttribute;
 	}
 	
-	// Caching. This function goes through each defining attribute of the incoming instance and produces a string of the attribute values (DB IDs if the attribute is an instance).
-	// This allows for identical instances held in memory to be used before trying to use fetchIdenticalInstances, which is expensive. 
-	@SuppressWarnings("unchecked")
-	public static String getCacheKey(GKSchemaClass instanceClass, GKInstance inferredInst) throws Exception
+	// Returns the instance with the same DB ID from this context's adaptor. Used to pass instances between the contexts of a species' workers.
+	public GKInstance refetch(GKInstance inst) throws Exception
 	{
-		String key = "";
-		for (GKSchemaAttribute definingAttr : (Collection<GKSchemaAttribute>) instanceClass.getDefiningAttributes())
-		{
-			if (definingAttr.isMultiple()) 
-			{
-				Collection<Object> multiValueAttributes = inferredInst.getAttributeValuesList(definingAttr.getName());
-				if (multiValueAttributes.size() > 0)
-				{
-					for (Object attribute : multiValueAttributes)
-					{
-						if (attribute.getClass().getSimpleName().equals("GKInstance"))
-						{
-							GKInstance gkInstance = (GKInstance) attribute;
-							key += gkInstance.getDBID().toString();
-						} else {
-							key += (String) attribute;
-						}
-					}
-				} else {
-					key += "null";
-				}
-			} else {
-				if (definingAttr.isInstanceTypeAttribute() && inferredInst.getAttributeValue(definingAttr.getName()) != null)
-				{
-					key += ((GKInstance) inferredInst.getAttributeValue(definingAttr.getName())).getDBID().toString();
-				} else if (inferredInst.getAttributeValue(definingAttr.getName()) != null) 
-				{
-					key += inferredInst.getAttributeValue(definingAttr.getName());
-				} else {
-					key += "null";
-				}
-			}
-		}
-		return key;
+		return inst != null ? context.getInstanceStore().fetchInstance(inst.getDBID()) : null;
 	}
-	
-	public static void setAdaptor(MySQLAdaptor dbAdaptor)
+
+	// Copies the setup instances of the species' context to a worker's context
+	void copySetup(InstanceUtilities source) throws Exception
 	{
-		dba = dbAdaptor;
+		speciesInst = refetch(source.speciesInst);
+		instanceEditInst = refetch(source.instanceEditInst);
 	}
-	
-	public static void setSpeciesInstance(GKInstance speciesInstCopy)
+
+	public void setSpeciesInstance(GKInstance speciesInstCopy)
 	{
 		speciesInst = speciesInstCopy;
 	}
 	
-	public static void setInstanceEdit(GKInstance instanceEditCopy) 
+	public void setInstanceEdit(GKInstance instanceEditCopy) 
 	{
 		instanceEditInst = instanceEditCopy;
 	}
@@ -0,0 +1,102 @@
+package org.reactome.orthoinference;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive long keys (eg: DB IDs), using open addressing with linear probing. This avoids boxing each key
+ * and allocating an entry for each mapping, as a HashMap<Long, V> would. Null values are not supported. Not thread-safe.
+ */
+class LongKeyedMap<V> {
+
+	private static final float LOAD_FACTOR = 0.5f;
+	private long[] keys;
+	private Object[] values;
+	private int size;
+
+	LongKeyedMap()
+	{
+		this(64);
+	}
+
+	LongKeyedMap(int expectedSize)
+	{
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key)
+	{
+		int mask = keys.length - 1;
+		for (int i = index(key, mask); values[i] != null; i = (i + 1) & mask)
+		{
+			if (keys[i] == key)
+			{
+				return (V) values[i];
+			}
+		}
+		return null;
+	}
+
+	void put(long key, V value)
+	{
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		while (values[i] != null)
+		{
+			if (keys[i] == key)
+			{
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size > keys.length * LOAD_FACTOR)
+		{
+			resize();
+		}
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private void resize()
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldValues.length * 2];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++)
+		{
+			if (oldValues[j] != null)
+			{
+				int i = index(oldKeys[j], mask);
+				while (values[i] != null)
+				{
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	// Spreads the bits of the key, since DB IDs are often sequential
+	private static int index(long key, int mask)
+	{
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}
@@ -4,6 +4,8 @@ import java.io.FileInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.logging.log4j.LogManager;
@@ -16,20 +18,25 @@ public class Main {
 	public static void main(String[] args) throws Exception {
 
 		String pathToConfig = Paths.get("src", "main", "resources", "config.properties").toString();
-		String speciesCode = "";
+		String speciesCodes = "";
 		if (args.length == 2) {
 			pathToConfig = args[0];
-			speciesCode = args[1];
-		} else if (args.length == 1 && args[0].length() == 4) {
-			speciesCode = args[0];
-		} else {
-			logger.fatal("Please include a 4-letter species code as the first argument (eg: mmus)");
-			System.exit(0);
+			speciesCodes = args[1];
+		} else if (args.length == 1) {
+			speciesCodes = args[0];
+		}
+		// Multiple species can be given as a comma-separated list (eg: mmus,rnor,cfam), in which case they are inferred concurrently
+		List<String> speciesList = Arrays.asList(speciesCodes.split(","));
+		for (String speciesCode : speciesList) {
+			if (speciesCode.length() != 4) {
+				logger.fatal("Please include a 4-letter species code, or a comma-separated list of them, as the first argument (eg: mmus or mmus,rnor)");
+				System.exit(0);
+			}
 		}
 
 		Properties props = new Properties();
 		props.load(new FileInputStream(pathToConfig));
-		EventsInferrer.inferEvents(props, speciesCode);
+		EventsInferrer.inferEvents(props, speciesList);
 
 		// Link report file to report_ortho_inference.txt in website_files_update directory
 		/*
@@ -0,0 +1,379 @@
+package org.reactome.orthoinference;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+
+import static org.gk.model.ReactomeJavaConstants.*;
+
+/**
+ * Writes to the release database through the species' MySQLAdaptor. The transaction uses READ COMMITTED, which avoids the gap locks that
+ * could otherwise deadlock the transactions of species that are being inferred concurrently.
+ *
+ * New instances are numbered from blocks of DB IDs reserved by the DbIdAllocator, and are only inserted when the transaction is committed.
+ * Their rows are then written with one multi-row INSERT per table (DatabaseObject, the tables of the instances' classes and superclasses, and
+ * the '_2_' tables of multi-value attributes), laid out as MySQLAdaptor.storeInstance lays them out. Until then, fetchInstance returns the
+ * pending instances, and fetchIdenticalInstances finds them by their defining values as well as querying the database. Outside of a
+ * transaction (eg: while the species' setup instances are created), instances are inserted as soon as they are stored.
+ *
+ * MySQLAdaptor doesn't know about the instances inserted here, so it doesn't cache them: fetching one of them through the adaptor after the
+ * commit reads it from the database.
+ */
+public class MySQLInstanceStore implements InstanceStore {
+
+	// Rows per INSERT statement, which keeps the statements well under MySQL's limits on placeholders and packet size
+	private static final int MAX_ROWS_PER_INSERT = 500;
+	private final MySQLAdaptor dba;
+	private final InferenceMetrics metrics;
+	private final DbIdAllocator dbIdAllocator;
+	private long nextDbId = 0;
+	private long lastReservedDbId = -1;
+	private boolean inTransaction = false;
+	// The instances stored since the last commit, keyed by DB ID in the order they were stored
+	private final Map<Long, GKInstance> pendingInstances = new LinkedHashMap<>();
+	// The pending instances by their class and superclasses, keyed by the 'all' defining values of that class
+	private final Map<String, Map<InstanceIdentityKey, List<GKInstance>>> pendingInstancesByClass = new LinkedHashMap<>();
+
+	public MySQLInstanceStore(MySQLAdaptor dba, InferenceMetrics metrics, DbIdAllocator dbIdAllocator)
+	{
+		this.dba = dba;
+		this.metrics = metrics;
+		this.dbIdAllocator = dbIdAllocator;
+	}
+
+	@Override
+	public void begin() throws Exception
+	{
+		Connection connection = dba.getConnection();
+		connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+		connection.setAutoCommit(false);
+		inTransaction = true;
+	}
+
+	// As with MySQLAdaptor.storeInstance, new instances that inst refers to are stored first
+	@Override
+	@SuppressWarnings("unchecked")
+	public void storeInstance(GKInstance inst) throws Exception
+	{
+		for (SchemaAttribute attribute : (Collection<SchemaAttribute>) inst.getSchemClass().getAttributes())
+		{
+			if (attribute.isInstanceTypeAttribute())
+			{
+				for (Object valueInst : (Collection<Object>) inst.getAttributeValuesList(attribute.getName()))
+				{
+					if (valueInst instanceof GKInstance && ((GKInstance) valueInst).getDBID() == null)
+					{
+						storeInstance((GKInstance) valueInst);
+					}
+				}
+			}
+		}
+		if (nextDbId > lastReservedDbId)
+		{
+			nextDbId = dbIdAllocator.reserveBlock(dba);
+			lastReservedDbId = nextDbId + dbIdAllocator.getBlockSize() - 1;
+		}
+		inst.setDBID(nextDbId++);
+		if (inst.getDbAdaptor() == null)
+		{
+			inst.setDbAdaptor(dba);
+		}
+		pendingInstances.put(inst.getDBID(), inst);
+		for (SchemaClass keyClass : getClassAndSuperClasses(inst.getSchemClass()))
+		{
+			if (!keyClass.getDefiningAttributes().isEmpty())
+			{
+				pendingInstancesByClass.computeIfAbsent(keyClass.getName(), k -> new LinkedHashMap<>())
+					.computeIfAbsent(InstanceIdentityKey.ofAllDefiningValues(inst, keyClass), k -> new ArrayList<>()).add(inst);
+			}
+		}
+		if (!inTransaction)
+		{
+			insertPendingInstances();
+		}
+	}
+
+	// The row of a pending instance is written with its in-memory values when it is inserted, so its updates aren't written separately
+	@Override
+	public void updateInstanceAttribute(GKInstance inst, String attribute) throws Exception
+	{
+		if (pendingInstances.get(inst.getDBID()) == inst)
+		{
+			return;
+		}
+		metrics.countSqlRoundTrip("updateInstanceAttribute");
+		dba.updateInstanceAttribute(inst, attribute);
+	}
+
+	@Override
+	public void loadInstanceAttributeValues(GKInstance inst, String attribute) throws Exception
+	{
+		if (pendingInstances.get(inst.getDBID()) == inst)
+		{
+			return;
+		}
+		metrics.countSqlRoundTrip("loadInstanceAttributeValues");
+		dba.loadInstanceAttributeValues(inst, inst.getSchemClass().getAttribute(attribute));
+	}
+
+	@Override
+	public GKInstance fetchInstance(long dbId) throws Exception
+	{
+		GKInstance pendingInst = pendingInstances.get(dbId);
+		if (pendingInst != null)
+		{
+			return pendingInst;
+		}
+		metrics.countSqlRoundTrip("fetchInstance");
+		return dba.fetchInstance(dbId);
+	}
+
+	// Returns the identical instances in the database, followed by any identical pending instances
+	@Override
+	@SuppressWarnings("unchecked")
+	public Collection<GKInstance> fetchIdenticalInstances(GKInstance inst) throws Exception
+	{
+		metrics.countSqlRoundTrip("fetchIdenticalInstances");
+		List<GKInstance> identicalInstances = new ArrayList<>();
+		Collection<GKInstance> databaseInstances = (Collection<GKInstance>) dba.fetchIdenticalInstances(inst);
+		if (databaseInstances != null)
+		{
+			identicalInstances.addAll(databaseInstances);
+		}
+		Map<InstanceIdentityKey, List<GKInstance>> classInstances = pendingInstancesByClass.get(inst.getSchemClass().getName());
+		List<GKInstance> candidateInstances = classInstances != null ? classInstances.get(InstanceIdentityKey.ofAllDefiningValues(inst, inst.getSchemClass())) : null;
+		if (candidateInstances != null)
+		{
+			for (GKInstance candidateInst : candidateInstances)
+			{
+				if (haveSharedAnyDefiningValues(inst, candidateInst))
+				{
+					identicalInstances.add(candidateInst);
+				}
+			}
+		}
+		return identicalInstances.isEmpty() ? null : identicalInstances;
+	}
+
+	// As with fetchIdenticalInstances, each 'any' defining attribute must either have a value in common or have no values in both instances
+	@SuppressWarnings("unchecked")
+	private static boolean haveSharedAnyDefiningValues(GKInstance inst, GKInstance candidateInst) throws Exception
+	{
+		for (SchemaAttribute definingAttr : (Collection<SchemaAttribute>) inst.getSchemClass().getDefiningAttributes())
+		{
+			if (definingAttr.getCategory() != SchemaAttribute.ANY_DEFINING)
+			{
+				continue;
+			}
+			Set<Object> values = getKeyValues(inst.getAttributeValuesList(definingAttr.getName()));
+			Set<Object> candidateValues = getKeyValues(candidateInst.getAttributeValuesList(definingAttr.getName()));
+			if (values.isEmpty() ? !candidateValues.isEmpty() : Collections.disjoint(values, candidateValues))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Set<Object> getKeyValues(Collection<?> attributeValues)
+	{
+		Set<Object> keyValues = new HashSet<>();
+		if (attributeValues != null)
+		{
+			for (Object attributeValue : attributeValues)
+			{
+				keyValues.add(attributeValue instanceof GKInstance ? ((GKInstance) attributeValue).getDBID() : attributeValue);
+			}
+		}
+		return keyValues;
+	}
+
+	@Override
+	public void commit() throws Exception
+	{
+		insertPendingInstances();
+		metrics.countSqlRoundTrip("commit");
+		dba.getConnection().commit();
+	}
+
+	// The DB IDs of the discarded instances aren't reused
+	@Override
+	public void rollback() throws Exception
+	{
+		clearPendingInstances();
+		dba.getConnection().rollback();
+	}
+
+	@Override
+	public void close() throws Exception
+	{
+		insertPendingInstances();
+		dba.getConnection().setAutoCommit(true);
+		inTransaction = false;
+	}
+
+	// Writes the rows of the pending instances, with one multi-row INSERT per table and set of columns
+	private void insertPendingInstances() throws Exception
+	{
+		if (pendingInstances.isEmpty())
+		{
+			return;
+		}
+		Map<String, List<List<Object>>> rowsByInsert = new LinkedHashMap<>();
+		for (GKInstance inst : pendingInstances.values())
+		{
+			addRows(inst, rowsByInsert);
+		}
+		Connection connection = dba.getConnection();
+		for (Map.Entry<String, List<List<Object>>> insertRows : rowsByInsert.entrySet())
+		{
+			List<List<Object>> rows = insertRows.getValue();
+			for (int start = 0; start < rows.size(); start += MAX_ROWS_PER_INSERT)
+			{
+				List<List<Object>> statementRows = rows.subList(start, Math.min(start + MAX_ROWS_PER_INSERT, rows.size()));
+				metrics.countSqlRoundTrip("insertInstances");
+				try (PreparedStatement statement = connection.prepareStatement(insertRows.getKey() + getValuesClause(statementRows.size(), statementRows.get(0).size())))
+				{
+					int parameterIndex = 1;
+					for (List<Object> row : statementRows)
+					{
+						for (Object value : row)
+						{
+							statement.setObject(parameterIndex++, value);
+						}
+					}
+					statement.executeUpdate();
+				}
+			}
+		}
+		clearPendingInstances();
+	}
+
+	// Adds the rows of an instance to the INSERTs they belong to, which are keyed by their 'INSERT INTO table (columns)' clause. Only
+	// attributes with values are written, as with MySQLAdaptor.storeInstance.
+	@SuppressWarnings("unchecked")
+	private static void addRows(GKInstance inst, Map<String, List<List<Object>>> rowsByInsert) throws Exception
+	{
+		for (SchemaClass tableClass : getClassAndSuperClasses(inst.getSchemClass()))
+		{
+			List<String> columns = new ArrayList<>();
+			List<Object> row = new ArrayList<>();
+			columns.add(DB_ID);
+			row.add(inst.getDBID());
+			if (tableClass.getSuperClasses() == null || tableClass.getSuperClasses().isEmpty())
+			{
+				columns.add("_class");
+				row.add(inst.getSchemClass().getName());
+				columns.add(_displayName);
+				row.add(inst.getDisplayName());
+			}
+			for (SchemaAttribute attribute : (Collection<SchemaAttribute>) tableClass.getAttributes())
+			{
+				String attributeName = attribute.getName();
+				SchemaClass originClass = ((GKSchemaAttribute) attribute).getOrigin();
+				if (attributeName.equals(DB_ID) || attributeName.equals(_displayName) || originClass == null || !originClass.getName().equals(tableClass.getName()))
+				{
+					continue;
+				}
+				List<Object> values = (List<Object>) inst.getAttributeValuesList(attributeName);
+				if (values == null || values.isEmpty())
+				{
+					continue;
+				}
+				if (attribute.isMultiple())
+				{
+					String insert = "INSERT INTO " + tableClass.getName() + "_2_" + attributeName + " (DB_ID, " + attributeName + "_rank, " + attributeName
+						+ (attribute.isInstanceTypeAttribute() ? ", " + attributeName + "_class)" : ")");
+					for (int rank = 0; rank < values.size(); rank++)
+					{
+						List<Object> valueRow = new ArrayList<>();
+						valueRow.add(inst.getDBID());
+						valueRow.add(rank);
+						addColumnValues(values.get(rank), attribute, valueRow);
+						rowsByInsert.computeIfAbsent(insert, k -> new ArrayList<>()).add(valueRow);
+					}
+				} else {
+					columns.add(attributeName);
+					if (attribute.isInstanceTypeAttribute())
+					{
+						columns.add(attributeName + "_class");
+					}
+					addColumnValues(values.get(0), attribute, row);
+				}
+			}
+			rowsByInsert.computeIfAbsent("INSERT INTO " + tableClass.getName() + " (" + String.join(", ", columns) + ")", k -> new ArrayList<>()).add(row);
+		}
+	}
+
+	// Instance values are written as their DB ID and class name, and booleans as the 'TRUE' and 'FALSE' of the schema's enum columns
+	private static void addColumnValues(Object value, SchemaAttribute attribute, List<Object> row)
+	{
+		if (attribute.isInstanceTypeAttribute())
+		{
+			GKInstance valueInst = (GKInstance) value;
+			row.add(valueInst.getDBID());
+			row.add(valueInst.getSchemClass().getName());
+		} else if (value instanceof Boolean)
+		{
+			row.add((Boolean) value ? "TRUE" : "FALSE");
+		} else {
+			row.add(value);
+		}
+	}
+
+	private static String getValuesClause(int rowCount, int columnCount)
+	{
+		StringBuilder rowPlaceholders = new StringBuilder("(");
+		for (int i = 0; i < columnCount; i++)
+		{
+			rowPlaceholders.append(i == 0 ? "?" : ", ?");
+		}
+		rowPlaceholders.append(")");
+		StringBuilder valuesClause = new StringBuilder(" VALUES ");
+		for (int i = 0; i < rowCount; i++)
+		{
+			valuesClause.append(i == 0 ? "" : ", ").append(rowPlaceholders);
+		}
+		return valuesClause.toString();
+	}
+
+	private void clearPendingInstances()
+	{
+		pendingInstances.clear();
+		pendingInstancesByClass.clear();
+	}
+
+	// The class followed by its superclasses, up to DatabaseObject
+	@SuppressWarnings("unchecked")
+	private static List<SchemaClass> getClassAndSuperClasses(SchemaClass instanceClass)
+	{
+		List<SchemaClass> classes = new ArrayList<>();
+		List<SchemaClass> pendingClasses = new ArrayList<>(Collections.singletonList(instanceClass));
+		while (!pendingClasses.isEmpty())
+		{
+			SchemaClass schemaClass = pendingClasses.remove(0);
+			if (!classes.contains(schemaClass))
+			{
+				classes.add(schemaClass);
+				if (schemaClass.getSuperClasses() != null)
+				{
+					pendingClasses.addAll((Collection<SchemaClass>) schemaClass.getSuperClasses());
+				}
+			}
+		}
+		return classes;
+	}
+}
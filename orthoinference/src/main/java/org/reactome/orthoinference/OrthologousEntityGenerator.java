@@ -2,8 +2,8 @@ package org.reactome.orthoinference;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -13,7 +13,6 @@ import org.apache.logging.log4j.Logger;
 import org.gk.model.GKInstance;
 import static org.gk.model.ReactomeJavaConstants.*;
 import org.gk.persistence.MySQLAdaptor;
-import org.gk.schema.GKSchemaClass;
 import org.gk.schema.InvalidAttributeException;
 import org.gk.schema.InvalidAttributeValueException;
 import org.gk.schema.SchemaClass;
@@ -21,28 +20,40 @@ import org.gk.schema.SchemaClass;
 public class OrthologousEntityGenerator {
 	
 	private static final Logger logger = LogManager.getLogger();
-	private static MySQLAdaptor dba;
-	private static GKInstance instanceEditInst;
-	private static GKInstance complexSummationInst;
-	private static GKInstance speciesInst;
 	private static GKInstance nullInst = null;
-	private static Map<GKInstance, GKInstance> orthologousEntityIdenticals = new HashMap<>();
-	private static Map<GKInstance, GKInstance> homolEWASIdenticals = new HashMap<>();
-	private static Map<GKInstance, GKInstance> complexPolymerIdenticals = new HashMap<>();
-	private static Map<GKInstance, GKInstance> inferredEntitySetIdenticals = new HashMap<>();
-	private static Map<String,GKInstance> definedSetIdenticals = new HashMap<>();
-	private static Map<String,GKInstance> complexIdenticals = new HashMap<>();
-	private static Map<String,GKInstance> entitySetIdenticals = new HashMap<>();
+	public static final int DEFAULT_COMPLEX_PROTEIN_THRESHOLD = 75;
+	private final InferenceContext context;
+	private final MySQLAdaptor dba;
+	private GKInstance instanceEditInst;
+	private GKInstance complexSummationInst;
+	private GKInstance speciesInst;
+	// The percent of a Complex/Polymer's distinct proteins that must be inferrable for it to be inferred
+	private int complexProteinThreshold = DEFAULT_COMPLEX_PROTEIN_THRESHOLD;
+	// Inferred instances by the DB ID of their source instance, shared with the other contexts of the species
+	private final InferredInstanceCache<Long> orthologousEntityIdenticals;
+	private final InferredInstanceCache<Long> homolEWASIdenticals;
+	private final InferredInstanceCache<Long> complexPolymerIdenticals;
+	private final InferredInstanceCache<Long> inferredEntitySetIdenticals;
+
+	public OrthologousEntityGenerator(InferenceContext context)
+	{
+		this.context = context;
+		this.dba = context.getDbAdaptor();
+		InferredInstanceCaches inferredInstanceCaches = context.getInferredInstanceCaches();
+		this.orthologousEntityIdenticals = inferredInstanceCaches.getCache("orthologousEntity", context);
+		this.homolEWASIdenticals = inferredInstanceCaches.getCache("homolEWAS", context);
+		this.complexPolymerIdenticals = inferredInstanceCaches.getCache("complexPolymer", context);
+		this.inferredEntitySetIdenticals = inferredInstanceCaches.getCache("entitySet", context);
+	}
 
 /** The heart of the OrthoInference process. This function takes PhysicalEntity (PE) instances and will infer those that are EWAS', Complexes/Polymers, or EntitySets.
 	 The function's arguments are an incoming PE instance and an override attribute. Instances that are comprised of PE's will often recursively call this createOrthoEntity function
 	 on constituent PE's with the override attribute set to 'true'. This ensures that these PE's are inferred, despite the fact that they might not pass some filter criteria.
 	 This is often handled using 'mock' instances (i.e. 'ghost instances' from Perl script), which allow a PE to be inferred without having to commit a 'real' instance to the DB.
 */
-	public static GKInstance createOrthoEntity(GKInstance entityInst, boolean override) throws Exception
+	public GKInstance createOrthoEntity(GKInstance entityInst, boolean override) throws Exception
 	{
 		logger.info("Attempting PE inference: " + entityInst);
-		GKInstance infEntityInst = null;
 		if (!entityInst.getSchemClass().isValidAttribute(species)) {
 			// This used to have a conditional statement based on the returned value of the 'check_intracellular' function.
 			// That function doesn't exist anymore (only seemed to apply to the 'mtub' species, which hasn't been inferred for a while).
@@ -51,13 +62,23 @@ public class OrthologousEntityGenerator {
 			return entityInst;
 		}
 
-		if (orthologousEntityIdenticals.get(entityInst) != null) {
-			logger.info("Inferred PE instance already exists");
-			return orthologousEntityIdenticals.get(entityInst);
+		// Instances inferred with override aren't cached, but an instance that was inferred without it is used if there is one
+		if (override)
+		{
+			GKInstance cachedInst = orthologousEntityIdenticals.get(entityInst.getDBID());
+			return cachedInst != null ? cachedInst : inferOrthoEntity(entityInst, true);
 		}
+		GKInstance infEntityInst = orthologousEntityIdenticals.computeIfAbsent(entityInst.getDBID(), () -> inferOrthoEntity(entityInst, false));
+		logger.info("PE inference completed: " + entityInst);
+		return infEntityInst;
+	}
 
+	private GKInstance inferOrthoEntity(GKInstance entityInst, boolean override) throws Exception
+	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		GKInstance infEntityInst = null;
 		// Checks that a species attribute exists in either the current instance or in constituent instances.
-		if (!SpeciesCheckUtility.checkForSpeciesAttribute(entityInst))
+		if (!hasSpeciesAttribute(entityInst))
 		{
 			logger.info("No species attribute found in PE, using original instance");
 			infEntityInst = entityInst;
@@ -72,7 +93,7 @@ public class OrthologousEntityGenerator {
 				if (override)
 				{
 					logger.info("Mock GEE instance needed");
-					GKInstance mockedInst = InstanceUtilities.createMockGKInstance(entityInst);
+					GKInstance mockedInst = instanceUtilities.createMockGKInstance(entityInst);
 					return mockedInst;
 				}
 			}
@@ -100,335 +121,321 @@ public class OrthologousEntityGenerator {
 		} else {
 			logger.warn("Unknown PhysicalEntity class: " + entityInst.getClass());
 		}
-		if (override)
-		{
-			return infEntityInst;
-		}
-		orthologousEntityIdenticals.put(entityInst, infEntityInst);
-			logger.info("PE inference completed: " + entityInst);
-			return infEntityInst;
+		return infEntityInst;
 	}
 	
 	// Function that first tries to infer any EWAS' associated with the instance. For those that have more than 1 returned EWAS instance, 
 	// it's re-structured to a DefinedSet instance. If there is no EWAS instances inferred, it will either return null or, if override is set, return a mock instance. 
-	private static GKInstance createInfEWAS(GKInstance ewasInst, boolean override) throws InvalidAttributeException, Exception
+	private GKInstance createInfEWAS(GKInstance ewasInst, boolean override) throws InvalidAttributeException, Exception
 	{
-		if (homolEWASIdenticals.get(ewasInst) == null)
+		GKInstance infEWASInst = homolEWASIdenticals.computeIfAbsent(ewasInst.getDBID(), () -> inferEWASInstance(ewasInst));
+		if (infEWASInst == null)
 		{
-			// Attempt to infer the EWAS 
-			List<GKInstance> infEWASInstances = EWASInferrer.inferEWAS(ewasInst);
-			// If number of EWAS instances is greater than 1, then it is considered a DefinedSet. A new inferred instance with definedSet class is created.
-			if (infEWASInstances.size() > 1)
-			{	
-				logger.info("Multiple EWAS homologues produced for single EWAS. Converting to DefinedSet");
-				SchemaClass definedSetClass = dba.getSchema().getClassByName(DefinedSet);
-				GKInstance infDefinedSetInst = new GKInstance(definedSetClass);
-				infDefinedSetInst.setDbAdaptor(dba);
-				infDefinedSetInst.addAttributeValue(created, instanceEditInst);
-				String definedSetName = "Homologues of " + ewasInst.getAttributeValue(name);
-				infDefinedSetInst.addAttributeValue(name, definedSetName);
-				
-				GKInstance compartmentInstGk = (GKInstance) ewasInst.getAttributeValue(compartment);
-				if (compartmentInstGk.getSchemClass().isa(Compartment)) {
-					infDefinedSetInst.addAttributeValue(compartment, ewasInst.getAttributeValue(compartment));
-				} else {
-					GKInstance newCompartmentInst = InstanceUtilities.createCompartmentInstance(compartmentInstGk);
-					infDefinedSetInst.addAttributeValue(compartment, newCompartmentInst);
-				}
-				
-				infDefinedSetInst.addAttributeValue(species, speciesInst);
-				infDefinedSetInst.addAttributeValue(hasMember, infEWASInstances);
-				String definedSetDisplayName = (String) infDefinedSetInst.getAttributeValue(name) + " [" +((GKInstance) ewasInst.getAttributeValue(compartment)).getDisplayName() + "]";
-				infDefinedSetInst.setAttributeValue(_displayName, definedSetDisplayName);
-				// Caching based on an instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
-				String cacheKey = InstanceUtilities.getCacheKey((GKSchemaClass) infDefinedSetInst.getSchemClass(), infDefinedSetInst);
-				if (definedSetIdenticals.get(cacheKey) != null)
-				{
-					infDefinedSetInst = definedSetIdenticals.get(cacheKey);
-				} else {
-					infDefinedSetInst = InstanceUtilities.checkForIdenticalInstances(infDefinedSetInst, ewasInst);
-					definedSetIdenticals.put(cacheKey, infDefinedSetInst);
-				}
-				infDefinedSetInst = InstanceUtilities.addAttributeValueIfNecessary(infDefinedSetInst, ewasInst, inferredFrom);
-				dba.updateInstanceAttribute(infDefinedSetInst, inferredFrom);
-				ewasInst = InstanceUtilities.addAttributeValueIfNecessary(ewasInst, infDefinedSetInst, inferredTo);
-				dba.updateInstanceAttribute(ewasInst, inferredTo);
-				homolEWASIdenticals.put(ewasInst, infDefinedSetInst);
-				logger.info("Successfully converted to DefinedSet");
-			} else if (infEWASInstances.size() == 1)
+			if (override)
 			{
-				homolEWASIdenticals.put(ewasInst, infEWASInstances.get(0));
+				logger.info("Mock EWAS instance needed");
+				return context.getInstanceUtilities().createMockGKInstance(ewasInst);
+			}
+			return nullInst;
+		}
+		return infEWASInst;
+	}
+
+	// Returns the inferred EWAS, a DefinedSet of the inferred EWASs if there are several, or null if there are none
+	private GKInstance inferEWASInstance(GKInstance ewasInst) throws Exception
+	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		// Attempt to infer the EWAS 
+		List<GKInstance> infEWASInstances = context.getEWASInferrer().inferEWAS(ewasInst);
+		// If number of EWAS instances is greater than 1, then it is considered a DefinedSet. A new inferred instance with definedSet class is created.
+		if (infEWASInstances.size() > 1)
+		{	
+			logger.info("Multiple EWAS homologues produced for single EWAS. Converting to DefinedSet");
+			SchemaClass definedSetClass = dba.getSchema().getClassByName(DefinedSet);
+			GKInstance infDefinedSetInst = new GKInstance(definedSetClass);
+			infDefinedSetInst.setDbAdaptor(dba);
+			infDefinedSetInst.addAttributeValue(created, instanceEditInst);
+			String definedSetName = "Homologues of " + ewasInst.getAttributeValue(name);
+			infDefinedSetInst.addAttributeValue(name, definedSetName);
+			
+			GKInstance compartmentInstGk = (GKInstance) ewasInst.getAttributeValue(compartment);
+			if (compartmentInstGk.getSchemClass().isa(Compartment)) {
+				infDefinedSetInst.addAttributeValue(compartment, ewasInst.getAttributeValue(compartment));
 			} else {
-				if (override) 
-				{
-					logger.info("Mock EWAS instance needed");
-					return InstanceUtilities.createMockGKInstance(ewasInst);
-				} else {
-					return nullInst;
-				}
+				GKInstance newCompartmentInst = instanceUtilities.createCompartmentInstance(compartmentInstGk);
+				infDefinedSetInst.addAttributeValue(compartment, newCompartmentInst);
 			}
-		} else {
-			logger.info("Inferred EWAS already exists");
+			
+			infDefinedSetInst.addAttributeValue(species, speciesInst);
+			infDefinedSetInst.addAttributeValue(hasMember, infEWASInstances);
+			String definedSetDisplayName = (String) infDefinedSetInst.getAttributeValue(name) + " [" +((GKInstance) ewasInst.getAttributeValue(compartment)).getDisplayName() + "]";
+			infDefinedSetInst.setAttributeValue(_displayName, definedSetDisplayName);
+			// Cached based on the instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
+			infDefinedSetInst = instanceUtilities.getIdenticalInstance(infDefinedSetInst, ewasInst);
+			context.getUnitOfWork().addAttributeValue(infDefinedSetInst, ewasInst, inferredFrom);
+			context.getUnitOfWork().addSourceAttributeValue(ewasInst, infDefinedSetInst, inferredTo);
+			logger.info("Successfully converted to DefinedSet");
+			return infDefinedSetInst;
+		} else if (infEWASInstances.size() == 1)
+		{
+			return infEWASInstances.get(0);
 		}
-		return homolEWASIdenticals.get(ewasInst);
+		return null;
 	}
 	// Infers Complex or Polymer instances. These instances are generally comprised of more than 1 PhysicalEntity, and calls 'createOrthoEntity' for each one. Complex/Polymer instances
-	// are also subject to the 'countDistinctProteins' function. The result from this needs to have at least 75% of total proteins to be inferrable for inference to continue. 
-	private static GKInstance createInfComplexPolymer(GKInstance complexInst, boolean override) throws InvalidAttributeException, InvalidAttributeValueException, Exception
+	// are also subject to the 'countDistinctProteins' function. The result from this needs to have at least the threshold percent (75% by default) of total proteins to be inferrable for inference to continue.
+	private GKInstance createInfComplexPolymer(GKInstance complexInst, boolean override) throws InvalidAttributeException, InvalidAttributeValueException, Exception
 	{
-		if (complexPolymerIdenticals.get(complexInst) == null)
+		// Instances inferred with override aren't cached, but an instance that was inferred without it is used if there is one
+		if (override)
 		{
-			List<Integer> complexProteinCounts = ProteinCountUtility.getDistinctProteinCounts(complexInst);
-			int complexTotalProteinCounts = complexProteinCounts.get(0);
-			int complexInferrableProteinCounts = complexProteinCounts.get(1);
-//			int complexMax = complexProteinCounts.get(2); // Doesn't get used, since MaxHomologue isn't a valid attribute anymore.
-			
-			// Filtering based on results of ProteinCounts and threshold (currently hard-coded at 75%).
-			int percent = 0;
-			if (complexTotalProteinCounts > 0)
-			{
-				percent = (complexInferrableProteinCounts * 100)/complexTotalProteinCounts;
-			}
-			if (!override)
-			{
-				if ((complexTotalProteinCounts > 0 && complexInferrableProteinCounts == 0) || percent < 75)
-				{
-					logger.info("Complex/Polymer protein count is below 75% threshold (" + percent + "%) -- terminating inference");
-					return nullInst;
-				}
-			}
-			logger.info("Complex protein counts. Total: " + complexTotalProteinCounts + "  Inferrable: " + complexInferrableProteinCounts);
-			GKInstance infComplexInst = InstanceUtilities.createNewInferredGKInstance(complexInst);
-			infComplexInst.addAttributeValue(summation, complexSummationInst);
-			infComplexInst.addAttributeValue(name, complexInst.getAttributeValue(name));
-			List<GKInstance> infComponentInstances = new ArrayList<>();
-			// Inference handling is different depending on if it is a Complex or a Polymer. Complexes will infer all 'components' while Polymers will infer all 'repeatedUnits'.
-			// TODO: Log the ratio of inferred complex/polyer from human?
-			if (complexInst.getSchemClass().isa(Complex))
-			{
-				Collection<GKInstance> componentInstances = complexInst.getAttributeValuesList(hasComponent);
-				logger.info("Complex components: " + componentInstances);
-				for (GKInstance componentInst : componentInstances)
-				{	
-					infComponentInstances.add(createOrthoEntity(componentInst, true));
-				}
-				infComplexInst.addAttributeValue(hasComponent, infComponentInstances);
-			} else  if (complexInst.getSchemClass().isa(Polymer))
+			GKInstance cachedInst = complexPolymerIdenticals.get(complexInst.getDBID());
+			return cachedInst != null ? cachedInst : inferComplexPolymer(complexInst, true);
+		}
+		return complexPolymerIdenticals.computeIfAbsent(complexInst.getDBID(), () -> inferComplexPolymer(complexInst, false));
+	}
+
+	private GKInstance inferComplexPolymer(GKInstance complexInst, boolean override) throws Exception
+	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		ProteinCounts complexProteinCounts = context.getProteinCountUtility().getDistinctProteinCounts(complexInst);
+		int complexTotalProteinCounts = complexProteinCounts.getTotal();
+		int complexInferrableProteinCounts = complexProteinCounts.getInferrable();
+//			int complexMax = complexProteinCounts.getMax(); // Doesn't get used, since MaxHomologue isn't a valid attribute anymore.
+		
+		// Filtering based on results of ProteinCounts and threshold (see ThresholdSweep for the effect of other thresholds).
+		int percent = 0;
+		if (complexTotalProteinCounts > 0)
+		{
+			percent = (complexInferrableProteinCounts * 100)/complexTotalProteinCounts;
+		}
+		if (!override)
+		{
+			if ((complexTotalProteinCounts > 0 && complexInferrableProteinCounts == 0) || percent < complexProteinThreshold)
 			{
-				Collection<GKInstance> repeatedUnitInstances = complexInst.getAttributeValuesList(repeatedUnit);
-				logger.info("Polymer repeated units: " + repeatedUnitInstances);
-				for (GKInstance repeatedUnitInst : repeatedUnitInstances)
-				{		
-					infComponentInstances.add(createOrthoEntity(repeatedUnitInst, true));
-				}
-				infComplexInst.addAttributeValue(repeatedUnit, infComponentInstances);
-			} else {
-				logger.warn(complexInst + " is not a Complex or a Polymer");
+				logger.info("Complex/Polymer protein count is below " + complexProteinThreshold + "% threshold (" + percent + "%) -- terminating inference");
 				return nullInst;
 			}
-			infComplexInst.setAttributeValue(_displayName, complexInst.getAttributeValue(_displayName));
-			
-			// Caching based on an instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
-			String cacheKey = InstanceUtilities.getCacheKey((GKSchemaClass) infComplexInst.getSchemClass(), infComplexInst);
-			if (complexIdenticals.get(cacheKey) != null)
-			{
-				infComplexInst = complexIdenticals.get(cacheKey);
-			} else {
-				infComplexInst = InstanceUtilities.checkForIdenticalInstances(infComplexInst, complexInst);
-				complexIdenticals.put(cacheKey, infComplexInst);
+		}
+		logger.info("Complex protein counts. Total: " + complexTotalProteinCounts + "  Inferrable: " + complexInferrableProteinCounts);
+		GKInstance infComplexInst = instanceUtilities.createNewInferredGKInstance(complexInst);
+		infComplexInst.addAttributeValue(summation, complexSummationInst);
+		infComplexInst.addAttributeValue(name, complexInst.getAttributeValue(name));
+		List<GKInstance> infComponentInstances = new ArrayList<>();
+		// Inference handling is different depending on if it is a Complex or a Polymer. Complexes will infer all 'components' while Polymers will infer all 'repeatedUnits'.
+		// TODO: Log the ratio of inferred complex/polyer from human?
+		if (complexInst.getSchemClass().isa(Complex))
+		{
+			Collection<GKInstance> componentInstances = complexInst.getAttributeValuesList(hasComponent);
+			logger.info("Complex components: " + componentInstances);
+			for (GKInstance componentInst : componentInstances)
+			{	
+				infComponentInstances.add(createOrthoEntity(componentInst, true));
 			}
-
-			infComplexInst = InstanceUtilities.addAttributeValueIfNecessary(infComplexInst, complexInst, inferredFrom);
-			dba.updateInstanceAttribute(infComplexInst, inferredFrom);
-			complexInst = InstanceUtilities.addAttributeValueIfNecessary(complexInst, infComplexInst, inferredTo);
-			dba.updateInstanceAttribute(complexInst, inferredTo);
-			
-			if (override)
-			{
-				return infComplexInst;
-			} 
-			complexPolymerIdenticals.put(complexInst, infComplexInst);
+			infComplexInst.addAttributeValue(hasComponent, infComponentInstances);
+		} else  if (complexInst.getSchemClass().isa(Polymer))
+		{
+			Collection<GKInstance> repeatedUnitInstances = complexInst.getAttributeValuesList(repeatedUnit);
+			logger.info("Polymer repeated units: " + repeatedUnitInstances);
+			for (GKInstance repeatedUnitInst : repeatedUnitInstances)
+			{		
+				infComponentInstances.add(createOrthoEntity(repeatedUnitInst, true));
+			}
+			infComplexInst.addAttributeValue(repeatedUnit, infComponentInstances);
 		} else {
-			logger.info("Inferred Complex/Polymer already exists");
+			logger.warn(complexInst + " is not a Complex or a Polymer");
+			return nullInst;
 		}
-		return complexPolymerIdenticals.get(complexInst);
+		infComplexInst.setAttributeValue(_displayName, complexInst.getAttributeValue(_displayName));
+		
+		// Cached based on the instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
+		infComplexInst = instanceUtilities.getIdenticalInstance(infComplexInst, complexInst);
+
+		context.getUnitOfWork().addAttributeValue(infComplexInst, complexInst, inferredFrom);
+		context.getUnitOfWork().addSourceAttributeValue(complexInst, infComplexInst, inferredTo);
+		
+		return infComplexInst;
 	}
 	
 	// EntitySet inference function. This function will initially call createOrthoEntity on all 'members' before filtering by the type of EntitySet (Open, Candidate, or Defined Sets) and completing a specific inference.
 	// Important to note is that while there are multiple cases where createOrthoEntity is called (for members and candidates) in createInfEntitySet, the override functionality is not used here. 
 	// Presumably, this is because the instances aren't a constituent part of a single instance (as in Complexes), but rather are stand-alone ones that also happen to be included in a Set. 
 	// This means they should be subject  to the stringency of a typical instance, rather then using override to create mock instances that allow an instance to be inferred more easily.
+	private GKInstance createInfEntitySet(GKInstance entitySetInst, boolean override) throws InvalidAttributeException, Exception
+	{
+		// Instances inferred with override aren't cached, but an instance that was inferred without it is used if there is one
+		if (override)
+		{
+			GKInstance cachedInst = inferredEntitySetIdenticals.get(entitySetInst.getDBID());
+			return cachedInst != null ? cachedInst : inferEntitySet(entitySetInst, true);
+		}
+		return inferredEntitySetIdenticals.computeIfAbsent(entitySetInst.getDBID(), () -> inferEntitySet(entitySetInst, false));
+	}
+
 	@SuppressWarnings("unchecked")
-	private static GKInstance createInfEntitySet(GKInstance entitySetInst, boolean override) throws InvalidAttributeException, Exception
+	private GKInstance inferEntitySet(GKInstance entitySetInst, boolean override) throws Exception
 	{
-		if (inferredEntitySetIdenticals.get(entitySetInst) == null)
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		// Equivalent to infer_members function in infer_events.pl
+		Set<String> existingMemberInstances = new HashSet<>();
+		List<GKInstance> infMembersList = new ArrayList<>();
+		Collection<GKInstance> memberInstances = (Collection<GKInstance>) entitySetInst.getAttributeValuesList(hasMember);
+		if (!entitySetInst.getSchemClass().isa(CandidateSet)) {
+			logger.info("Total member instances: " + memberInstances.size());
+			logger.info("Member instances: " + memberInstances);
+		}
+		for (GKInstance memberInst : memberInstances)
 		{
-			// Equivalent to infer_members function in infer_events.pl
-			Set<String> existingMemberInstances = new HashSet<>();
-			List<GKInstance> infMembersList = new ArrayList<>();
-			Collection<GKInstance> memberInstances = (Collection<GKInstance>) entitySetInst.getAttributeValuesList(hasMember);
-			if (!entitySetInst.getSchemClass().isa(CandidateSet)) {
-				logger.info("Total member instances: " + memberInstances.size());
-				logger.info("Member instances: " + memberInstances);
-			}
-			for (GKInstance memberInst : memberInstances)
+			GKInstance infMemberInst = createOrthoEntity(memberInst, false);
+			if (infMemberInst != null && !existingMemberInstances.contains(infMemberInst.getAttributeValue(name).toString()))
 			{
-				GKInstance infMemberInst = createOrthoEntity(memberInst, false);
-				if (infMemberInst != null && !existingMemberInstances.contains(infMemberInst.getAttributeValue(name).toString()))
-				{
-					existingMemberInstances.add(infMemberInst.getAttributeValue(name).toString());
-					infMembersList.add(infMemberInst);
-				}
-			}
-			if (!entitySetInst.getSchemClass().isa(CandidateSet)) {
-				logger.info("Total number of inferred members: " + infMembersList.size() + "/" + memberInstances.size());
+				existingMemberInstances.add(infMemberInst.getAttributeValue(name).toString());
+				infMembersList.add(infMemberInst);
 			}
+		}
+		if (!entitySetInst.getSchemClass().isa(CandidateSet)) {
+			logger.info("Total number of inferred members: " + infMembersList.size() + "/" + memberInstances.size());
+		}
 
-			// Begin inference of EntitySet
-			GKInstance infEntitySetInst = InstanceUtilities.createNewInferredGKInstance(entitySetInst);
-			infEntitySetInst.addAttributeValue(name, entitySetInst.getAttributeValuesList(name));
-			infEntitySetInst.addAttributeValue(hasMember, infMembersList);
+		// Begin inference of EntitySet
+		GKInstance infEntitySetInst = instanceUtilities.createNewInferredGKInstance(entitySetInst);
+		infEntitySetInst.addAttributeValue(name, entitySetInst.getAttributeValuesList(name));
+		infEntitySetInst.addAttributeValue(hasMember, infMembersList);
 
-			// Begin specific inference process for each type of DefinedSet entity.
-			List<Integer> entitySetProteinCounts = ProteinCountUtility.getDistinctProteinCounts(entitySetInst);
-			int entitySetTotalCount = entitySetProteinCounts.get(0);
-			int entitySetInferrableCount = entitySetProteinCounts.get(1);
-//				int entitySetMax = entitySetProteinCounts.get(2);  // Doesn't get used, since MaxHomologue isn't a valid attribute anymore
-			
-			// Filtering based on ProteinCount results
-			if (!override && entitySetTotalCount > 0 && entitySetInferrableCount == 0)
-			{
-				logger.info("No distinct proteins found in EntitySet -- terminating inference");
-				return nullInst;
-			}
-			
-			if (entitySetInst.getSchemClass().isa(CandidateSet))
+		// Begin specific inference process for each type of DefinedSet entity.
+		ProteinCounts entitySetProteinCounts = context.getProteinCountUtility().getDistinctProteinCounts(entitySetInst);
+		int entitySetTotalCount = entitySetProteinCounts.getTotal();
+		int entitySetInferrableCount = entitySetProteinCounts.getInferrable();
+//				int entitySetMax = entitySetProteinCounts.getMax();  // Doesn't get used, since MaxHomologue isn't a valid attribute anymore
+		
+		// Filtering based on ProteinCount results
+		if (!override && entitySetTotalCount > 0 && entitySetInferrableCount == 0)
+		{
+			logger.info("No distinct proteins found in EntitySet -- terminating inference");
+			return nullInst;
+		}
+		
+		if (entitySetInst.getSchemClass().isa(CandidateSet))
+		{
+			Set<String> existingCandidateInstances = new HashSet<>();
+			List<GKInstance> infCandidatesList = new ArrayList<>();
+			// Equivalent to infer_members function in infer_events.pl
+			Collection<GKInstance> candidateInstances = (Collection<GKInstance>) entitySetInst.getAttributeValuesList(hasCandidate);
+			logger.info("Total candidate instances: " + candidateInstances.size());
+			logger.info("Candidate instances: " + candidateInstances);
+			for (GKInstance candidateInst : candidateInstances)
 			{
-				Set<String> existingCandidateInstances = new HashSet<>();
-				List<GKInstance> infCandidatesList = new ArrayList<>();
-				// Equivalent to infer_members function in infer_events.pl
-				Collection<GKInstance> candidateInstances = (Collection<GKInstance>) entitySetInst.getAttributeValuesList(hasCandidate);
-				logger.info("Total candidate instances: " + candidateInstances.size());
-				logger.info("Candidate instances: " + candidateInstances);
-				for (GKInstance candidateInst : candidateInstances)
+				GKInstance infCandidateInst = createOrthoEntity(candidateInst, false);
+				if (infCandidateInst != null && !existingMemberInstances.contains(infCandidateInst.getAttributeValue(name).toString()) && !existingCandidateInstances.contains(infCandidateInst.getAttributeValue(name).toString()))
 				{
-					GKInstance infCandidateInst = createOrthoEntity(candidateInst, false);
-					if (infCandidateInst != null && !existingMemberInstances.contains(infCandidateInst.getAttributeValue(name).toString()) && !existingCandidateInstances.contains(infCandidateInst.getAttributeValue(name).toString()))
-					{
-						existingCandidateInstances.add(infCandidateInst.getAttributeValue(name).toString());
-						infCandidatesList.add(infCandidateInst);
-					}
+					existingCandidateInstances.add(infCandidateInst.getAttributeValue(name).toString());
+					infCandidatesList.add(infCandidateInst);
 				}
-				logger.info("Total number of inferred candidates: " + infCandidatesList.size() + "/" + candidateInstances.size());
-				// Handling of CandidateSets
-				if (infCandidatesList.size() > 0)
+			}
+			logger.info("Total number of inferred candidates: " + infCandidatesList.size() + "/" + candidateInstances.size());
+			// Handling of CandidateSets
+			if (infCandidatesList.size() > 0)
+			{
+				infEntitySetInst.addAttributeValue(hasCandidate, infCandidatesList);
+			} else {
+				if (infMembersList.size() != 0)
 				{
-					infEntitySetInst.addAttributeValue(hasCandidate, infCandidatesList);
-				} else {
-					if (infMembersList.size() != 0)
+					if (infMembersList.size() == 1)
 					{
-						if (infMembersList.size() == 1)
+						infEntitySetInst = infMembersList.get(0);
+					} else {
+						logger.info("No candidates inferred, but there are inferred members. Converting to DefinedSet");
+						SchemaClass definedSetClass = dba.getSchema().getClassByName(DefinedSet);
+						GKInstance infDefinedSetInst = new GKInstance(definedSetClass);
+						infDefinedSetInst.setDbAdaptor(dba);
+						infDefinedSetInst.addAttributeValue(created, instanceEditInst);
+						infDefinedSetInst.setAttributeValue(name, infEntitySetInst.getAttributeValuesList(name));
+						infDefinedSetInst.setAttributeValue(hasMember, infMembersList);
+						if (entitySetInst.getSchemClass().isValidAttribute(compartment) && entitySetInst.getAttributeValue(compartment) != null) 
 						{
-							infEntitySetInst = infMembersList.get(0);
-						} else {
-							logger.info("No candidates inferred, but there are inferred members. Converting to DefinedSet");
-							SchemaClass definedSetClass = dba.getSchema().getClassByName(DefinedSet);
-							GKInstance infDefinedSetInst = new GKInstance(definedSetClass);
-							infDefinedSetInst.setDbAdaptor(dba);
-							infDefinedSetInst.addAttributeValue(created, instanceEditInst);
-							infDefinedSetInst.setAttributeValue(name, infEntitySetInst.getAttributeValuesList(name));
-							infDefinedSetInst.setAttributeValue(hasMember, infMembersList);
-							if (entitySetInst.getSchemClass().isValidAttribute(compartment) && entitySetInst.getAttributeValue(compartment) != null) 
-							{
-								for (Object compartmentInst : entitySetInst.getAttributeValuesList(compartment)) {
-									GKInstance compartmentInstGk = (GKInstance) compartmentInst;
-									if (compartmentInstGk.getSchemClass().isa(Compartment)) 
-									{
-										infDefinedSetInst.addAttributeValue(compartment, compartmentInstGk);
-									} else {
-										GKInstance newCompartmentInst = InstanceUtilities.createCompartmentInstance(compartmentInstGk);
-										infDefinedSetInst.addAttributeValue(compartment, newCompartmentInst);
-									}
+							for (Object compartmentInst : entitySetInst.getAttributeValuesList(compartment)) {
+								GKInstance compartmentInstGk = (GKInstance) compartmentInst;
+								if (compartmentInstGk.getSchemClass().isa(Compartment)) 
+								{
+									infDefinedSetInst.addAttributeValue(compartment, compartmentInstGk);
+								} else {
+									GKInstance newCompartmentInst = instanceUtilities.createCompartmentInstance(compartmentInstGk);
+									infDefinedSetInst.addAttributeValue(compartment, newCompartmentInst);
 								}
 							}
-							infDefinedSetInst.addAttributeValue(species, speciesInst);
-							infEntitySetInst = infDefinedSetInst;
-							logger.info("Successfully converted to DefinedSet");
-						}
-					} else {
-						if (override)
-						{
-							logger.info("Mock CandidateSet instance needed");
-							infEntitySetInst = InstanceUtilities.createMockGKInstance(entitySetInst);
-						} else {
-							return nullInst;
 						}
+						infDefinedSetInst.addAttributeValue(species, speciesInst);
+						infEntitySetInst = infDefinedSetInst;
+						logger.info("Successfully converted to DefinedSet");
 					}
-				}	
-			} else if (entitySetInst.getSchemClass().isa(DefinedSet))
-			{
-				if (infMembersList.size() == 0)
-				{
+				} else {
 					if (override)
 					{
-						logger.info("Mock DefinedSet instance needed");
-						return InstanceUtilities.createMockGKInstance(entitySetInst);
+						logger.info("Mock CandidateSet instance needed");
+						infEntitySetInst = instanceUtilities.createMockGKInstance(entitySetInst);
 					} else {
-						logger.info("No member instances found -- terminating inference");
 						return nullInst;
 					}
-				} else if (infMembersList.size() == 1)
-				{
-					logger.info("Only 1 member from EntitySet was inferred, converting to PE: " + infMembersList.get(0));
-					infEntitySetInst = infMembersList.get(0);
 				}
-				// If it has more than 1 member (which is the logic that would theoretically go here), nothing happens; 
-				// All members are stored in this inferred instances 'hasMember' attribute near the beginning of this function.
-			}
-			infEntitySetInst.setAttributeValue(_displayName, entitySetInst.getAttributeValue(_displayName));
-			// Caching based on an instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
-			String cacheKey = InstanceUtilities.getCacheKey((GKSchemaClass) infEntitySetInst.getSchemClass(), infEntitySetInst);
-			if (entitySetIdenticals.get(cacheKey) != null)
-			{
-				infEntitySetInst = entitySetIdenticals.get(cacheKey);
-			} else {
-				infEntitySetInst = InstanceUtilities.checkForIdenticalInstances(infEntitySetInst, entitySetInst);
-				entitySetIdenticals.put(cacheKey, infEntitySetInst);
-			}
-			if (infEntitySetInst.getSchemClass().isValidAttribute(species) && entitySetInst.getAttributeValue(species) != null)
+			}	
+		} else if (entitySetInst.getSchemClass().isa(DefinedSet))
+		{
+			if (infMembersList.size() == 0)
 			{
-				infEntitySetInst = InstanceUtilities.addAttributeValueIfNecessary(infEntitySetInst, entitySetInst, inferredFrom);
-				dba.updateInstanceAttribute(infEntitySetInst, inferredFrom);
-				entitySetInst = InstanceUtilities.addAttributeValueIfNecessary(entitySetInst, infEntitySetInst, inferredTo);
-				dba.updateInstanceAttribute(entitySetInst, inferredTo);
-			}
-			if (override)
+				if (override)
+				{
+					logger.info("Mock DefinedSet instance needed");
+					return instanceUtilities.createMockGKInstance(entitySetInst);
+				} else {
+					logger.info("No member instances found -- terminating inference");
+					return nullInst;
+				}
+			} else if (infMembersList.size() == 1)
 			{
-			return infEntitySetInst;
+				logger.info("Only 1 member from EntitySet was inferred, converting to PE: " + infMembersList.get(0));
+				infEntitySetInst = infMembersList.get(0);
 			}
-			inferredEntitySetIdenticals.put(entitySetInst, infEntitySetInst);
-		} else {
-			logger.info("Inferred EntitySet already exists");
+			// If it has more than 1 member (which is the logic that would theoretically go here), nothing happens; 
+			// All members are stored in this inferred instances 'hasMember' attribute near the beginning of this function.
+		}
+		infEntitySetInst.setAttributeValue(_displayName, entitySetInst.getAttributeValue(_displayName));
+		// Cached based on the instance's defining attributes. This reduces the number of 'checkForIdenticalInstance' calls, which is slow.
+		infEntitySetInst = instanceUtilities.getIdenticalInstance(infEntitySetInst, entitySetInst);
+		if (infEntitySetInst.getSchemClass().isValidAttribute(species) && entitySetInst.getAttributeValue(species) != null)
+		{
+			context.getUnitOfWork().addAttributeValue(infEntitySetInst, entitySetInst, inferredFrom);
+			context.getUnitOfWork().addSourceAttributeValue(entitySetInst, infEntitySetInst, inferredTo);
 		}
-		return inferredEntitySetIdenticals.get(entitySetInst);
+		return infEntitySetInst;
 	}
-	
-	public static void setAdaptor(MySQLAdaptor dbAdaptor)
+
+	// Uses the species attribute flag from the inference plan when the PhysicalEntity is in it, otherwise checks the instance and its constituents.
+	private boolean hasSpeciesAttribute(GKInstance entityInst) throws Exception
 	{
-		dba = dbAdaptor;
+		Boolean speciesAttributeFlag = context.getSourceData().getInferencePlan().getSpeciesAttributeFlag(entityInst.getDBID());
+		if (speciesAttributeFlag != null)
+		{
+			return speciesAttributeFlag;
+		}
+		return SpeciesCheckUtility.checkForSpeciesAttribute(entityInst);
 	}
 	
-	public static void setSpeciesInstance(GKInstance speciesInstCopy)
+	public void setSpeciesInstance(GKInstance speciesInstCopy)
 	{
 		speciesInst = speciesInstCopy;
 	}
 	
-	public static void setInstanceEdit(GKInstance instanceEditCopy) 
+	public void setInstanceEdit(GKInstance instanceEditCopy) 
 	{
 		instanceEditInst = instanceEditCopy;
 	}
+
+	public void setComplexProteinThreshold(int complexProteinThresholdCopy)
+	{
+		complexProteinThreshold = complexProteinThresholdCopy;
+	}
 	
-	public static void setComplexSummationInstance() throws Exception
+	public void setComplexSummationInstance() throws Exception
 	{
 		complexSummationInst = new GKInstance(dba.getSchema().getClassByName(Summation));
 		complexSummationInst.setDbAdaptor(dba);
@@ -436,6 +443,27 @@ public class OrthologousEntityGenerator {
 		String complexSummationText = "This complex/polymer has been computationally inferred (based on PANTHER) from a complex/polymer involved in an event that has been demonstrated in another species.";
 		complexSummationInst.addAttributeValue(text, complexSummationText);
 		complexSummationInst.setAttributeValue(_displayName, complexSummationText);
-		complexSummationInst = InstanceUtilities.checkForIdenticalInstances(complexSummationInst, null);
+		complexSummationInst = context.getInstanceUtilities().checkForIdenticalInstances(complexSummationInst, null);
+	}
+
+	// Copies the setup instances of the species' context to a worker's context
+	void copySetup(OrthologousEntityGenerator source) throws Exception
+	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		instanceEditInst = instanceUtilities.refetch(source.instanceEditInst);
+		complexSummationInst = instanceUtilities.refetch(source.complexSummationInst);
+		speciesInst = instanceUtilities.refetch(source.speciesInst);
+		complexProteinThreshold = source.complexProteinThreshold;
+	}
+
+	// The caches of inferred PhysicalEntities, by name, for InferenceJournal
+	Map<String, InferredInstanceCache<Long>> getInstanceCaches()
+	{
+		Map<String, InferredInstanceCache<Long>> instanceCaches = new LinkedHashMap<>();
+		instanceCaches.put("orthologousEntity", orthologousEntityIdenticals);
+		instanceCaches.put("homolEWAS", homolEWASIdenticals);
+		instanceCaches.put("complexPolymer", complexPolymerIdenticals);
+		instanceCaches.put("entitySet", inferredEntitySetIdenticals);
+		return instanceCaches;
 	}
 }
@@ -7,17 +7,39 @@ import org.gk.model.ReactomeJavaConstants;
 import org.gk.pathwaylayout.PredictedPathwayDiagramGeneratorFromDB;
 import org.gk.persistence.MySQLAdaptor;
 
+import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class OrthologousPathwayDiagramGenerator {
 
     private static final Logger logger = LogManager.getLogger();
 
+    // Counts the PathwayDiagrams whose (first) represented Pathway is of the species
+    private static final String SPECIES_DIAGRAM_COUNT_QUERY = "SELECT COUNT(DISTINCT r.DB_ID) FROM PathwayDiagram_2_representedPathway r"
+        + " JOIN Event_2_species s ON s.DB_ID = r.representedPathway AND s.species_rank = 0"
+        + " WHERE r.representedPathway_rank = 0 AND s.species = ?";
+
     private MySQLAdaptor dba;
     private MySQLAdaptor dbaPrev;
     private GKInstance targetSpeciesInst;
     private long personId;
     private long referenceSpeciesId;
+    private int workerCount = 1;
+    private AdaptorFactory workerAdaptorFactory;
+
+    // Creates the database adaptor of a diagram generation worker
+    public interface AdaptorFactory {
+        MySQLAdaptor create() throws Exception;
+    }
 
     public OrthologousPathwayDiagramGenerator(MySQLAdaptor dba, MySQLAdaptor dbaPrev, GKInstance targetSpeciesInst, long personId, long referenceSpeciesId) {
         this.dba = dba;
@@ -27,37 +49,103 @@ public class OrthologousPathwayDiagramGenerator {
         this.referenceSpeciesId = referenceSpeciesId;
     }
 
+    // Generates the diagrams on workerCount workers, each with its own adaptor from the factory. Diagrams are generated on dba when workerCount is 1.
+    public void setWorkers(int workerCount, AdaptorFactory workerAdaptorFactory) {
+        this.workerCount = workerCount;
+        this.workerAdaptorFactory = workerAdaptorFactory;
+    }
+
     /**
      * This method will go through all reference species' PathwayDiagrams and finds the orthologous Pathway instances that are for the current target species and
      * generates the orthologous PathwayDiagram via the PredictedPathwayDiagramGeneratorFromDB method in the CuratorTool repository.
+     * The diagrams of different Pathways don't depend on each other, so they can be generated by several workers.
      * @throws Exception -- MySQLAdaptor exception
      */
     public void generateOrthologousPathwayDiagrams() throws Exception {
 
         logger.info("Generating pathway diagrams for inferred " + targetSpeciesInst.getDisplayName() + " Pathway instances");
-        // Create PredictedPathwayDiagramGeneratorFromDB object and set db adaptor and author ID.
-        PredictedPathwayDiagramGeneratorFromDB diagramGenerator = new PredictedPathwayDiagramGeneratorFromDB();
-        diagramGenerator.setMySQLAdaptor(dba);
-        diagramGenerator.setDefaultPersonId(personId);
-
         GKInstance referenceSpeciesInst = dba.fetchInstance(referenceSpeciesId);
 
         // Iterate through each PathwayDiagram instance looking for those associated with the reference species.
+        List<GKInstance[]> diagramTasks = new ArrayList<>();
         for (GKInstance diagramInst: (Collection<GKInstance>) dba.fetchInstancesByClass(ReactomeJavaConstants.PathwayDiagram)) {
             GKInstance pathwayInst = (GKInstance) diagramInst.getAttributeValue(ReactomeJavaConstants.representedPathway);
             if (isSameSpecies(pathwayInst, referenceSpeciesInst)) {
                 // When a PathwayDiagram instance associated with the reference species is found, iterate through all of it's OrthologousEvent instances.
                 for (GKInstance orthoPathwayInst : (Collection<GKInstance>) pathwayInst.getAttributeValuesList(ReactomeJavaConstants.orthologousEvent)) {
                     // Look for OrthologousEvent instances that match the current target species and that are electronically inferred.
-                    GKInstance orthoDiagram = generateOrthologousPathwayDiagram(orthoPathwayInst, pathwayInst, diagramInst, diagramGenerator);
+                    if (isSameSpecies(orthoPathwayInst, targetSpeciesInst) && isElectronicallyInferred(orthoPathwayInst)) {
+                        diagramTasks.add(new GKInstance[] {orthoPathwayInst, pathwayInst, diagramInst});
+                    }
                 }
             }
         }
 
-        comparePathwayDiagramCounts((Collection<GKInstance>) dba.fetchInstancesByClass(ReactomeJavaConstants.PathwayDiagram), (Collection<GKInstance>) dbaPrev.fetchInstancesByClass(ReactomeJavaConstants.PathwayDiagram));
+        if (workerCount > 1 && workerAdaptorFactory != null && diagramTasks.size() > 1) {
+            generateOrthologousPathwayDiagramsInParallel(diagramTasks);
+        } else {
+            PredictedPathwayDiagramGeneratorFromDB diagramGenerator = createDiagramGenerator(dba);
+            for (GKInstance[] diagramTask : diagramTasks) {
+                generateOrthologousPathwayDiagram(diagramTask[0], diagramTask[1], diagramTask[2], diagramGenerator);
+            }
+        }
+
+        comparePathwayDiagramCounts(getPathwayDiagramCountForSpecies(dba), getPathwayDiagramCountForSpecies(dbaPrev));
         logger.info("Finish pathway diagram generation for " + targetSpeciesInst.getDisplayName());
     }
 
+    // Create PredictedPathwayDiagramGeneratorFromDB object and set db adaptor and author ID.
+    private PredictedPathwayDiagramGeneratorFromDB createDiagramGenerator(MySQLAdaptor adaptor) {
+        PredictedPathwayDiagramGeneratorFromDB diagramGenerator = new PredictedPathwayDiagramGeneratorFromDB();
+        diagramGenerator.setMySQLAdaptor(adaptor);
+        diagramGenerator.setDefaultPersonId(personId);
+        return diagramGenerator;
+    }
+
+    // Each task holds the orthologous Pathway, the reference species Pathway and its PathwayDiagram. A worker fetches them again through its own adaptor.
+    private GKInstance generateDiagramTask(MySQLAdaptor workerDba, GKInstance[] diagramTask, PredictedPathwayDiagramGeneratorFromDB diagramGenerator) throws Exception {
+        return generateOrthologousPathwayDiagram(workerDba.fetchInstance(diagramTask[0].getDBID()), workerDba.fetchInstance(diagramTask[1].getDBID()),
+            workerDba.fetchInstance(diagramTask[2].getDBID()), diagramGenerator);
+    }
+
+    // Workers take diagram tasks from a shared queue until it is empty. A worker that fails empties the queue, so the others stop after their current diagram.
+    private void generateOrthologousPathwayDiagramsInParallel(List<GKInstance[]> diagramTasks) throws Exception {
+        int poolSize = Math.min(workerCount, diagramTasks.size());
+        logger.info("Generating " + diagramTasks.size() + " pathway diagrams using " + poolSize + " workers");
+        Queue<GKInstance[]> pendingTasks = new ConcurrentLinkedQueue<>(diagramTasks);
+        String threadName = Thread.currentThread().getName();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < poolSize; i++) {
+            String workerName = threadName + "-diagrams-" + i;
+            workers.add(executor.submit(() -> {
+                Thread.currentThread().setName(workerName);
+                MySQLAdaptor workerDba = workerAdaptorFactory.create();
+                try {
+                    PredictedPathwayDiagramGeneratorFromDB diagramGenerator = createDiagramGenerator(workerDba);
+                    GKInstance[] diagramTask;
+                    while ((diagramTask = pendingTasks.poll()) != null) {
+                        generateDiagramTask(workerDba, diagramTask, diagramGenerator);
+                    }
+                } catch (Exception e) {
+                    pendingTasks.clear();
+                    throw e;
+                } finally {
+                    workerDba.cleanUp();
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
     public GKInstance generateOrthologousPathwayDiagram(GKInstance orthoPathwayInst, GKInstance pathwayInst, GKInstance diagramInst, PredictedPathwayDiagramGeneratorFromDB diagramGenerator) throws Exception {
         GKInstance orthoDiagram = null;
         if (isSameSpecies(orthoPathwayInst, targetSpeciesInst) && isElectronicallyInferred(orthoPathwayInst)) {
@@ -82,11 +170,7 @@ public class OrthologousPathwayDiagramGenerator {
     }
 
     // This method checks that the PathwayDiagram count has not decreased since previous release.
-    private void comparePathwayDiagramCounts(Collection<GKInstance> currentPathwayDiagramInstances, Collection<GKInstance> previousPathwayDiagramInstances) throws Exception {
-
-        int currentPathwayDiagramCount = getPathwayDiagramCountsForSpecies(currentPathwayDiagramInstances);
-        int previousPathwayDiagramCount = getPathwayDiagramCountsForSpecies(previousPathwayDiagramInstances);
-
+    private void comparePathwayDiagramCounts(int currentPathwayDiagramCount, int previousPathwayDiagramCount) {
         if (hasFewerSpeciesDiagramCountsBetweenReleases(currentPathwayDiagramCount, previousPathwayDiagramCount)) {
             logger.warn("PathwayDiagram count for " + targetSpeciesInst.getDisplayName() + " has decreased since previous release from " + previousPathwayDiagramCount + " to " + currentPathwayDiagramCount);
         }
@@ -96,16 +180,14 @@ public class OrthologousPathwayDiagramGenerator {
         return currentPathwayDiagramCount < previousPathwayDiagramCount;
     }
 
-    // This method retrieves the PathwayDiagram instance count for a specific species
-    private int getPathwayDiagramCountsForSpecies(Collection<GKInstance> PathwayDiagramInstances) throws Exception {
-        int pathwayDiagramCount = 0;
-        for (GKInstance pathwayDiagramInst : PathwayDiagramInstances) {
-            GKInstance pathwayInst = (GKInstance) pathwayDiagramInst.getAttributeValue(ReactomeJavaConstants.representedPathway);
-            GKInstance pathwaySpeciesInst = (GKInstance) pathwayInst.getAttributeValue(ReactomeJavaConstants.species);
-            if (targetSpeciesInst.getDBID().equals(pathwaySpeciesInst.getDBID())) {
-                pathwayDiagramCount++;
-            }
+    // This method retrieves the PathwayDiagram instance count for a specific species with a single query, rather than fetching every PathwayDiagram
+    private int getPathwayDiagramCountForSpecies(MySQLAdaptor adaptor) throws Exception {
+        // executeQuery leaves the statement open, so it is closed along with its results
+        ResultSet results = adaptor.executeQuery(SPECIES_DIAGRAM_COUNT_QUERY, Collections.singletonList(targetSpeciesInst.getDBID()));
+        try {
+            return results.next() ? results.getInt(1) : 0;
+        } finally {
+            results.getStatement().close();
         }
-        return pathwayDiagramCount;
     }
 }
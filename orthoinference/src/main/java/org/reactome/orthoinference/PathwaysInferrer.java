@@ -7,89 +7,198 @@ import org.apache.logging.log4j.Logger;
 import org.gk.model.GKInstance;
 import static org.gk.model.ReactomeJavaConstants.*;
 import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaClass;
 
 public class PathwaysInferrer {
 
 	private static final Logger logger = LogManager.getLogger();
-	private static MySQLAdaptor dba;
-	private static String dateOfRelease = "";
-	private static GKInstance summationInst;
-	private static GKInstance evidenceTypeInst;
-	private static GKInstance instanceEditInst;
-	private static List<GKInstance> updatedInferrableHumanEvents = new ArrayList<>();
-	private static Map<GKInstance, GKInstance> inferredEventIdenticals = new HashMap<>();
+	private final InferenceContext context;
+	private final MySQLAdaptor dba;
+	private String dateOfRelease = "";
+	private GKInstance summationInst;
+	private GKInstance evidenceTypeInst;
+	private GKInstance instanceEditInst;
+	private List<GKInstance> updatedInferrableHumanEvents = new ArrayList<>();
+	private Map<GKInstance, GKInstance> inferredEventIdenticals = new HashMap<>();
+	// Inferred Pathways that haven't been stored yet, and the source species Pathways they were inferred from
+	private Map<GKInstance, GKInstance> newPathwayInstances = new LinkedHashMap<>();
+
+	public PathwaysInferrer(InferenceContext context)
+	{
+		this.context = context;
+		this.dba = context.getDbAdaptor();
+	}
 
 	// This class populates species pathways with the instances that have been inferred. This was copied heavily from the Perl, so my explanations are a little sparse here.
-	public static void inferPathways(List<GKInstance> inferrableHumanEvents) throws Exception
+	// The pathway phase is done as a set-based pass: the source species Pathway hierarchy is loaded once, the Pathways to infer and the hasEvent/precedingEvent
+	// values of the inferred Events are worked out in memory, and the new Pathways are stored with their values, leaving a single batch of updates for the next flush.
+	public void inferPathways(List<GKInstance> inferrableHumanEvents) throws Exception
 	{
 		logger.info("Beginning Pathway inference");
 		updatedInferrableHumanEvents.addAll(inferrableHumanEvents);
 
-		// First, go through each of the inferred RlE instances and generate the entire pathway hierarchy it is associated with. Inferred Reactions are not
-		// added to the Pathway at this point. This includes the immediate Pathway, but also all parent pathways up to its TopLevelPathway.
+		// First, find the entire pathway hierarchy of each inferred RlE, up to its TopLevelPathway, and generate the inferred Pathways.
+		// Inferred Events are not added to the Pathways at this point.
 		logger.info("Building inferred Pathway hierarchies");
-		Set<Long> seenPathwayHierarchy = new HashSet<>();
-		for (GKInstance inferrableInst : inferrableHumanEvents)
+		Map<Long, List<GKInstance>> parentPathways = loadParentPathways();
+		List<GKInstance> sourcePathwayInstances = findPathwayHierarchy(inferrableHumanEvents, parentPathways);
+		for (GKInstance sourcePathwayInst : sourcePathwayInstances)
 		{
-			logger.info("Building inferred pathways for RlE: " + inferrableInst);
-			if (!seenPathwayHierarchy.contains(inferrableInst.getDBID()))
+			logger.info("Generating inferred Pathway: " + sourcePathwayInst);
+			if (inferredEventIdenticals.get(sourcePathwayInst) == null)
 			{
-				createInferredPathwayHierarchy(inferrableInst);
-				seenPathwayHierarchy.add(inferrableInst.getDBID());
+				inferPathway(sourcePathwayInst);
 			} else {
-				logger.info("Inferred pathways already exist for RlE");
+				logger.info("Inferred Pathway instance already exists");
 			}
 		}
 		logger.info("Finished building inferred Pathway hierarchies");
 
+		// The inferred Events (RlEs & Pathways) of each inferred Event's hasEvent and precedingEvent attributes
+		loadEventAttributeValues();
+		Map<GKInstance, List<GKInstance>> inferredHasEvents = new LinkedHashMap<>();
+		Map<GKInstance, List<GKInstance>> inferredPrecedingEvents = new LinkedHashMap<>();
+		for (GKInstance humanEventInst : updatedInferrableHumanEvents)
+		{
+			GKInstance infEventInst = inferredEventIdenticals.get(humanEventInst);
+			if (humanEventInst.getSchemClass().isValidAttribute(hasEvent) && !inferredHasEvents.containsKey(infEventInst))
+			{
+				if (infEventInst.getSchemClass().isValidAttribute(hasEvent))
+				{
+					inferredHasEvents.put(infEventInst, getInferredEventInstances(humanEventInst, hasEvent));
+				} else {
+					logger.info(humanEventInst + " and " + infEventInst + " have different classes (likely connected via manual inference");
+				}
+			}
+			if (!inferredPrecedingEvents.containsKey(infEventInst))
+			{
+				inferredPrecedingEvents.put(infEventInst, getInferredEventInstances(humanEventInst, precedingEvent));
+			}
+		}
+
+		// The new Pathways are stored below the Pathways that contain them, so that their hasEvent values are written along with them. Values that
+		// haven't been stored yet (eg: a preceding Pathway that is stored later) are added once all Pathways have been stored.
+		logger.info("Storing " + newPathwayInstances.size() + " inferred Pathways");
+		for (GKInstance infPathwayInst : sortContainedPathwaysFirst(newPathwayInstances))
+		{
+			addStoredInferredEvents(infPathwayInst, hasEvent, inferredHasEvents.getOrDefault(infPathwayInst, Collections.emptyList()));
+			addStoredInferredEvents(infPathwayInst, precedingEvent, inferredPrecedingEvents.getOrDefault(infPathwayInst, Collections.emptyList()));
+			storePathway(infPathwayInst);
+		}
+
 		// After generating the inferred Pathways hierarchys, the associated inferred Events (RlEs & Pathways) need to be added to them.
 		logger.info("Populating inferred Pathways with inferred Events");
-		addInferredEventsToInferredPathways();
+		for (Map.Entry<GKInstance, List<GKInstance>> inferredHasEvent : inferredHasEvents.entrySet())
+		{
+			addStoredInferredEvents(inferredHasEvent.getKey(), hasEvent, inferredHasEvent.getValue());
+		}
 		logger.info("Finished populating inferred Pathways with inferred Events");
 
-		//TODO: LOG starting HERE
-
 		// Connect preceding events to RlEs, if they have any in the source species.
 		logger.info("Adding preceding events to inferred Events");
-		inferPrecedingEvents();
+		for (Map.Entry<GKInstance, List<GKInstance>> inferredPrecedingEvent : inferredPrecedingEvents.entrySet())
+		{
+			addStoredInferredEvents(inferredPrecedingEvent.getKey(), precedingEvent, inferredPrecedingEvent.getValue());
+		}
 		logger.info("Finished adding preceding events to inferred Events");
 
 		// Any source species Events (Pathway or RlEs) that were modified during Pathway inference are updated with a 'modified' instance edit.
 		updateModifiedAttributeIfNecessary();
 	}
 
+	// Loads the hasEvent values of every Event that has them (ie: Pathways) in one pass, and returns the Events that contain each Event, keyed by its DB ID.
+	// This replaces fetching the hasEvent referrers of each Event in the hierarchy separately.
 	@SuppressWarnings("unchecked")
-	// This generates the inferred Pathway of an inferred RlE. It iterates, inferring parent Pathways until reaching the TopLevelPathway.
-	// Inferred Reactions are not added to the Pathway at this step.
-	private static void createInferredPathwayHierarchy(GKInstance sourceEventInst) throws Exception
+	private Map<Long, List<GKInstance>> loadParentPathways() throws Exception
 	{
-		List<GKInstance> sourcePathwayReferralInstances = safeList(sourceEventInst.getReferers(hasEvent));
+		Map<Long, List<GKInstance>> parentPathways = new HashMap<>();
+		for (SchemaClass containerClass : getClassesDefining(hasEvent))
+		{
+			context.getMetrics().countSqlRoundTrip("fetchInstancesByClass");
+			Collection<GKInstance> containerInstances = (Collection<GKInstance>) dba.fetchInstancesByClass(containerClass.getName());
+			context.getMetrics().countSqlRoundTrip("loadInstanceAttributeValues");
+			dba.loadInstanceAttributeValues(containerInstances, new String[] {hasEvent});
+			for (GKInstance containerInst : containerInstances)
+			{
+				for (GKInstance eventInst : (Collection<GKInstance>) containerInst.getAttributeValuesList(hasEvent))
+				{
+					parentPathways.computeIfAbsent(eventInst.getDBID(), k -> new ArrayList<>()).add(containerInst);
+				}
+			}
+		}
+		// Parents are visited in DB ID order, which keeps the order that inferred Pathways are created in the same between runs
+		for (List<GKInstance> parents : parentPathways.values())
+		{
+			parents.sort(Comparator.comparing(GKInstance::getDBID));
+		}
+		return parentPathways;
+	}
 
-		if (sourcePathwayReferralInstances.isEmpty())
+	// The classes that define the attribute, rather than inheriting it
+	@SuppressWarnings("unchecked")
+	private List<SchemaClass> getClassesDefining(String attribute)
+	{
+		List<SchemaClass> definingClasses = new ArrayList<>();
+		for (SchemaClass schemaClass : (Collection<SchemaClass>) dba.getSchema().getClasses())
 		{
-			logger.info("Top Level Pathway inferred: " + sourceEventInst);
-			return;
+			if (!schemaClass.isValidAttribute(attribute))
+			{
+				continue;
+			}
+			boolean inherited = false;
+			for (SchemaClass superClass : (Collection<SchemaClass>) schemaClass.getSuperClasses())
+			{
+				inherited |= superClass.isValidAttribute(attribute);
+			}
+			if (!inherited)
+			{
+				definingClasses.add(schemaClass);
+			}
 		}
+		return definingClasses;
+	}
 
-		for (GKInstance sourcePathwayReferralInst : sourcePathwayReferralInstances)
+	// Returns every Pathway that contains one of the Events, directly or through other Pathways, in the order they are reached going up from each Event
+	private static List<GKInstance> findPathwayHierarchy(List<GKInstance> inferrableHumanEvents, Map<Long, List<GKInstance>> parentPathways)
+	{
+		Set<Long> seenEvents = new HashSet<>();
+		List<GKInstance> sourcePathwayInstances = new ArrayList<>();
+		Deque<GKInstance> pendingEvents = new ArrayDeque<>();
+		for (GKInstance inferrableInst : inferrableHumanEvents)
 		{
-			logger.info("Generating inferred Pathway: " + sourcePathwayReferralInst);
-			if (inferredEventIdenticals.get(sourcePathwayReferralInst) == null)
+			pendingEvents.push(inferrableInst);
+			while (!pendingEvents.isEmpty())
 			{
-				inferPathway(sourcePathwayReferralInst);
-			} else {
-				logger.info("Inferred Pathway instance already exists");
+				GKInstance eventInst = pendingEvents.pop();
+				if (!seenEvents.add(eventInst.getDBID()))
+				{
+					continue;
+				}
+				if (eventInst != inferrableInst)
+				{
+					sourcePathwayInstances.add(eventInst);
+				}
+				List<GKInstance> parents = parentPathways.getOrDefault(eventInst.getDBID(), Collections.emptyList());
+				for (int i = parents.size() - 1; i >= 0; i--)
+				{
+					pendingEvents.push(parents.get(i));
+				}
 			}
-			createInferredPathwayHierarchy(sourcePathwayReferralInst);
 		}
+		return sourcePathwayInstances;
 	}
 
-	private static <E> List<E> safeList(Collection<E> collection) {
-		return Optional.ofNullable((List<E>) collection).orElse(Collections.emptyList());
+	// Loads the attributes read from the source species Events below in one query per attribute, rather than per Event
+	private void loadEventAttributeValues() throws Exception
+	{
+		List<GKInstance> humanEventInstances = new ArrayList<>(new LinkedHashSet<>(updatedInferrableHumanEvents));
+		context.getMetrics().countSqlRoundTrip("loadInstanceAttributeValues");
+		dba.loadInstanceAttributeValues(humanEventInstances, new String[] {precedingEvent, created, modified});
 	}
 
-	private static void inferPathway(GKInstance sourcePathwayReferralInst) throws Exception {
-		GKInstance infPathwayInst = InstanceUtilities.createNewInferredGKInstance(sourcePathwayReferralInst);
+	@SuppressWarnings("unchecked")
+	private void inferPathway(GKInstance sourcePathwayReferralInst) throws Exception {
+		GKInstance infPathwayInst = context.getInstanceUtilities().createNewInferredGKInstance(sourcePathwayReferralInst);
 		infPathwayInst.addAttributeValue(name, sourcePathwayReferralInst.getAttributeValuesList(name));
 		infPathwayInst.addAttributeValue(summation, summationInst);
 		if (infPathwayInst.getSchemClass().isValidAttribute(releaseDate))
@@ -110,52 +219,67 @@ public class PathwaysInferrer {
 		}
 		infPathwayInst.setDisplayName(sourcePathwayReferralInst.getDisplayName());
 		inferredEventIdenticals.put(sourcePathwayReferralInst, infPathwayInst);
-		GKInstance orthoStableIdentifierInst = EventsInferrer.getStableIdentifierGenerator().generateOrthologousStableId(infPathwayInst, sourcePathwayReferralInst);
+		newPathwayInstances.put(infPathwayInst, sourcePathwayReferralInst);
+
+		//TODO: At this point, sourcePathwayReferralInst is always a Pathway. Perhaps move to its own data structure? Holdout from Perl...
+		updatedInferrableHumanEvents.add(sourcePathwayReferralInst);
+	}
+
+	private void storePathway(GKInstance infPathwayInst) throws Exception
+	{
+		GKInstance sourcePathwayReferralInst = newPathwayInstances.get(infPathwayInst);
+		GKInstance orthoStableIdentifierInst = context.getStableIdentifierGenerator().generateOrthologousStableId(infPathwayInst, sourcePathwayReferralInst);
 		infPathwayInst.addAttributeValue(stableIdentifier, orthoStableIdentifierInst);
-		dba.storeInstance(infPathwayInst);
+		context.getUnitOfWork().storeInstance(infPathwayInst);
 
 		// This was replaced with addAttributeValueIfNecessary due to a bug where a Pathway instance's 'OrthologousEvent' attribute was being replaced,
 		// instead of being added to the existing array when  the script was executed from a jar (rather than from Eclipse) (Justin Cook 2018)
-		sourcePathwayReferralInst = InstanceUtilities.addAttributeValueIfNecessary(sourcePathwayReferralInst, infPathwayInst, orthologousEvent);
-		dba.updateInstanceAttribute(sourcePathwayReferralInst, orthologousEvent);
-
-		//TODO: At this point, sourcePathwayReferralInst is always a Pathway. Perhaps move to its own data structure? Holdout from Perl...
-		updatedInferrableHumanEvents.add(sourcePathwayReferralInst);
+		context.getUnitOfWork().addSourceAttributeValue(sourcePathwayReferralInst, infPathwayInst, orthologousEvent);
 	}
 
-	// This populates the hasEvent slot of all inferred Pathways that were just generated with corresponding inferred reactions
-	private static void addInferredEventsToInferredPathways() throws Exception {
-		Set<Long> seenInferredPathway = new HashSet<>();
-		for (GKInstance humanPathwayInst : updatedInferrableHumanEvents)
+	// Orders the new Pathways so that each is preceded by the new Pathways in its hasEvent, which is a post-order walk of the hierarchy
+	@SuppressWarnings("unchecked")
+	private List<GKInstance> sortContainedPathwaysFirst(Map<GKInstance, GKInstance> newPathways) throws Exception
+	{
+		List<GKInstance> sortedPathways = new ArrayList<>();
+		Set<GKInstance> visitedPathways = new HashSet<>();
+		for (GKInstance infPathwayInst : newPathways.keySet())
 		{
-			if (humanPathwayInst.getSchemClass().isValidAttribute(hasEvent)) {
-				if (!seenInferredPathway.contains(humanPathwayInst.getDBID())) {
-					List<GKInstance> inferredEventInstances = getInferredEventInstances(humanPathwayInst);
-					if (inferredEventIdenticals.get(humanPathwayInst).getSchemClass().isValidAttribute(hasEvent)) {
-						// Add inferred Events to inferred Pathway
-						logger.info("Adding " + inferredEventInstances.size() + " inferred Event(s) to inferred Pathway: " + inferredEventIdenticals.get(humanPathwayInst));
-						for (GKInstance infEventInst : inferredEventInstances) {
-							GKInstance infPathwayInst = inferredEventIdenticals.get(humanPathwayInst);
-							infPathwayInst = InstanceUtilities.addAttributeValueIfNecessary(infPathwayInst, infEventInst, hasEvent);
-							inferredEventIdenticals.remove(humanPathwayInst);
-							inferredEventIdenticals.put(humanPathwayInst, infPathwayInst);
-						}
-						dba.updateInstanceAttribute(inferredEventIdenticals.get(humanPathwayInst), hasEvent);
-					} else {
-						logger.info(humanPathwayInst + " and " + inferredEventIdenticals.get(humanPathwayInst) + " have different classes (likely connected via manual inference");
-					}
-					seenInferredPathway.add(humanPathwayInst.getDBID());
-				} else {
-					logger.info("Inferred Pathway has already been populated with inferred Events");
+			if (!visitedPathways.add(infPathwayInst))
+			{
+				continue;
+			}
+			// Each stack entry is a Pathway and the index of the next of its hasEvent values to visit
+			Deque<Object[]> pendingPathways = new ArrayDeque<>();
+			pendingPathways.push(new Object[] {infPathwayInst, 0});
+			while (!pendingPathways.isEmpty())
+			{
+				Object[] pendingPathway = pendingPathways.peek();
+				GKInstance pathwayInst = (GKInstance) pendingPathway[0];
+				List<GKInstance> sourceEventInstances = (List<GKInstance>) newPathways.get(pathwayInst).getAttributeValuesList(hasEvent);
+				int eventIndex = (Integer) pendingPathway[1];
+				if (eventIndex == sourceEventInstances.size())
+				{
+					pendingPathways.pop();
+					sortedPathways.add(pathwayInst);
+					continue;
+				}
+				pendingPathway[1] = eventIndex + 1;
+				GKInstance containedInst = inferredEventIdenticals.get(sourceEventInstances.get(eventIndex));
+				if (containedInst != null && newPathways.containsKey(containedInst) && visitedPathways.add(containedInst))
+				{
+					pendingPathways.push(new Object[] {containedInst, 0});
 				}
 			}
 		}
+		return sortedPathways;
 	}
 
 	// Collect inferred Events associated with source Event
-	private static List<GKInstance> getInferredEventInstances(GKInstance humanPathwayInst) throws Exception {
+	@SuppressWarnings("unchecked")
+	private List<GKInstance> getInferredEventInstances(GKInstance humanEventInst, String attribute) throws Exception {
 		List<GKInstance> inferredEventInstances = new ArrayList<>();
-		for (GKInstance eventInst : (Collection<GKInstance>) humanPathwayInst.getAttributeValuesList(hasEvent)) {
+		for (GKInstance eventInst : (Collection<GKInstance>) humanEventInst.getAttributeValuesList(attribute)) {
 			if (inferredEventIdenticals.get(eventInst) != null) {
 				inferredEventInstances.add(inferredEventIdenticals.get(eventInst));
 			}
@@ -163,55 +287,37 @@ public class PathwaysInferrer {
 		return inferredEventInstances;
 	}
 
-
+	// Adds the inferred Events that have been stored to the attribute of the inferred Event, skipping any it already has (don't want to add any redundant events).
+	// If the inferred Event has already been stored, the attribute is marked for the next flush.
 	@SuppressWarnings("unchecked")
-	private static void inferPrecedingEvents() throws Exception
+	private void addStoredInferredEvents(GKInstance infEventInst, String attribute, List<GKInstance> inferredEventInstances) throws Exception
 	{
-		Set<GKInstance> seenPrecedingEvent = new HashSet<>();
-		for (GKInstance inferrableEventInst : updatedInferrableHumanEvents)
+		Set<Long> existingEventDbIds = new HashSet<>();
+		for (GKInstance existingEventInst : (Collection<GKInstance>) infEventInst.getAttributeValuesList(attribute))
 		{
-			if (!seenPrecedingEvent.contains(inferrableEventInst))
+			existingEventDbIds.add(existingEventInst.getDBID());
+		}
+		List<GKInstance> addedEventInstances = new ArrayList<>();
+		for (GKInstance inferredEventInst : inferredEventInstances)
+		{
+			if (inferredEventInst.getDBID() != null && existingEventDbIds.add(inferredEventInst.getDBID()))
 			{
-				if (inferrableEventInst.getAttributeValue(precedingEvent)!= null)
-				{
-					logger.info("Adding preceding event to " + inferrableEventInst);
-					List<GKInstance> precedingEventInstances = new ArrayList<>();
-					// Find all preceding events for source instance that have an inferred counterpart
-					for (GKInstance precedingEventInst : (Collection<GKInstance>) inferrableEventInst.getAttributeValuesList(precedingEvent))
-					{
-						if (inferredEventIdenticals.get(precedingEventInst) != null)
-						{
-							precedingEventInstances.add(inferredEventIdenticals.get(precedingEventInst));
-						}
-					}
-					Set<String> inferredPrecedingEvents = new HashSet<>();
-					// Find any inferred preceding events that already exist for the inferred instance (don't want to add any redundant preceding events)
-					for (GKInstance precedingEventInst : (Collection<GKInstance>) inferredEventIdenticals.get(inferrableEventInst).getAttributeValuesList(precedingEvent))
-					{
-						inferredPrecedingEvents.add(precedingEventInst.getDBID().toString());
-					}
-					List<GKInstance> updatedPrecedingEventInstances = new ArrayList<>();
-					// Find existing preceding events that haven't already been attached to the inferred instance
-					for (GKInstance precedingEventInst : precedingEventInstances)
-					{
-						if (!inferredPrecedingEvents.contains(precedingEventInst.getDBID().toString()))
-						{
-							updatedPrecedingEventInstances.add(precedingEventInst);
-						}
-					}
-					// Add preceding event to inferred instance
-					if (updatedPrecedingEventInstances != null && updatedPrecedingEventInstances.size() > 0)
-					{
-						inferredEventIdenticals.get(inferrableEventInst).addAttributeValue(precedingEvent, updatedPrecedingEventInstances);
-						dba.updateInstanceAttribute(inferredEventIdenticals.get(inferrableEventInst), precedingEvent);
-					}
-				}
-				seenPrecedingEvent.add(inferrableEventInst);
+				addedEventInstances.add(inferredEventInst);
 			}
 		}
+		if (addedEventInstances.isEmpty())
+		{
+			return;
+		}
+		infEventInst.addAttributeValue(attribute, addedEventInstances);
+		if (infEventInst.getDBID() != null)
+		{
+			context.getUnitOfWork().updateAttribute(infEventInst, attribute);
+		}
 	}
 
-	private static void updateModifiedAttributeIfNecessary() throws Exception {
+	@SuppressWarnings("unchecked")
+	private void updateModifiedAttributeIfNecessary() throws Exception {
 
 		Set<Long> seenInstanceEditInst = new HashSet<>();
 		for (GKInstance humanPathwayInst : updatedInferrableHumanEvents)
@@ -232,8 +338,7 @@ public class PathwaysInferrer {
 					}
 					if (!modifiedExists)
 					{
-						humanPathwayInst.addAttributeValue(modified, instanceEditInst);
-						dba.updateInstanceAttribute(humanPathwayInst, modified);
+						context.getUnitOfWork().addSourceAttributeValue(humanPathwayInst, instanceEditInst, modified);
 					}
 					seenInstanceEditInst.add(humanPathwayInst.getDBID());
 				}
@@ -241,31 +346,26 @@ public class PathwaysInferrer {
 		}
 	}
 
-	public static void setAdaptor(MySQLAdaptor dbAdaptor)
-	{
-		dba = dbAdaptor;
-	}
-
-	public static void setReleaseDate(String dateOfReleaseCopy) {
+	public void setReleaseDate(String dateOfReleaseCopy) {
 		dateOfRelease = dateOfReleaseCopy;
 	}
 
-	public static void setSummationInstance(GKInstance summationInstCopy)
+	public void setSummationInstance(GKInstance summationInstCopy)
 	{
 		summationInst = summationInstCopy;
 	}
 
-	public static void setEvidenceTypeInstance(GKInstance evidenceTypeInstCopy)
+	public void setEvidenceTypeInstance(GKInstance evidenceTypeInstCopy)
 	{
 		evidenceTypeInst = evidenceTypeInstCopy;
 	}
 
-	public static void setInstanceEdit(GKInstance instanceEditCopy)
+	public void setInstanceEdit(GKInstance instanceEditCopy)
 	{
 		instanceEditInst = instanceEditCopy;
 	}
 
-	public static void setInferredEvent(Map<GKInstance,GKInstance> inferredEventCopy)
+	public void setInferredEvent(Map<GKInstance,GKInstance> inferredEventCopy)
 	{
 		inferredEventIdenticals = inferredEventCopy;
 	}
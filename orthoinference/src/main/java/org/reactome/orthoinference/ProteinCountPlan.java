@@ -0,0 +1,168 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.gk.model.ClassAttributeFollowingInstruction;
+import org.gk.model.GKInstance;
+import org.gk.model.InstanceUtilities;
+import static org.gk.model.ReactomeJavaConstants.*;
+
+/**
+ * The species-independent part of a protein count (see ProteinCountUtility). It holds the result of the AttributeQueryRequests made for an instance:
+ * the identifiers of the ReferenceGeneProducts it contains, and the members of its EntitySets that still need to be counted, in DB ID order.
+ * Only the homologue mappings differ between species, so a plan can be built once from the source species and evaluated for every species.
+ * Complex/Polymer members refer to the plan of that Complex/Polymer by DB ID.
+ */
+public class ProteinCountPlan {
+
+	final String[] referenceGeneProductIdentifiers;
+	final EntitySetPlan[] entitySetPlans;
+
+	ProteinCountPlan(String[] referenceGeneProductIdentifiers, EntitySetPlan[] entitySetPlans)
+	{
+		this.referenceGeneProductIdentifiers = referenceGeneProductIdentifiers;
+		this.entitySetPlans = entitySetPlans;
+	}
+
+	// An EntitySet whose members are counted. If 'candidates' is true, the members are the candidates of a CandidateSet without any members.
+	static class EntitySetPlan {
+		final boolean candidates;
+		final Member[] members;
+
+		EntitySetPlan(boolean candidates, Member[] members)
+		{
+			this.candidates = candidates;
+			this.members = members;
+		}
+	}
+
+	// Either a Complex/Polymer, which is counted using its own plan, or a ReferenceGeneProduct identifier.
+	static class Member {
+		final long complexDbId;
+		final String referenceGeneProductIdentifier;
+
+		Member(long complexDbId, String referenceGeneProductIdentifier)
+		{
+			this.complexDbId = complexDbId;
+			this.referenceGeneProductIdentifier = referenceGeneProductIdentifier;
+		}
+
+		boolean isComplex()
+		{
+			return referenceGeneProductIdentifier == null;
+		}
+	}
+
+	// Builds the plan of instanceToBeCounted, along with the plans of any Complex/Polymer it refers to, and adds them to plans.
+	// The AttributeQueryRequests are the same ones that were previously made by ProteinCountUtility each time proteins were counted.
+	public static ProteinCountPlan build(GKInstance instanceToBeCounted, Map<Long, ProteinCountPlan> plans) throws Exception
+	{
+		ProteinCountPlan existingPlan = plans.get(instanceToBeCounted.getDBID());
+		if (existingPlan != null)
+		{
+			return existingPlan;
+		}
+		List<ClassAttributeFollowingInstruction> classesToFollow = new ArrayList<>();
+		classesToFollow.add(new ClassAttributeFollowingInstruction(ReactionlikeEvent, new String[]{input, output, catalystActivity}, new String[]{}));
+		classesToFollow.add(new ClassAttributeFollowingInstruction(CatalystActivity, new String[]{physicalEntity}, new String[]{}));
+		classesToFollow.add(new ClassAttributeFollowingInstruction(Complex, new String[]{hasComponent}, new String[]{}));
+		classesToFollow.add(new ClassAttributeFollowingInstruction(Polymer, new String[]{repeatedUnit}, new String[]{}));
+		classesToFollow.add(new ClassAttributeFollowingInstruction(EntityWithAccessionedSequence, new String[]{referenceEntity}, new String[]{}));
+		String[] outClasses = new String[] {ReferenceGeneProduct, EntitySet};
+		List<GKInstance> sortedFollowedInstances = followAndSortInstances(instanceToBeCounted, classesToFollow, outClasses);
+
+		List<String> referenceGeneProductIdentifiers = new ArrayList<>();
+		for (GKInstance entityInst : sortedFollowedInstances)
+		{
+			if (entityInst.getSchemClass().isa(ReferenceGeneProduct))
+			{
+				referenceGeneProductIdentifiers.add(entityInst.getAttributeValue(identifier).toString());
+			}
+		}
+		List<EntitySetPlan> entitySetPlans = new ArrayList<>();
+		for (GKInstance entityInst : sortedFollowedInstances)
+		{
+			if (entityInst.getSchemClass().isa(EntitySet))
+			{
+				List<ClassAttributeFollowingInstruction> entitySetsInstancesToFollow = new ArrayList<ClassAttributeFollowingInstruction>();
+				entitySetsInstancesToFollow.add(new ClassAttributeFollowingInstruction(DefinedSet, new String[]{hasMember}, new String[]{}));
+				entitySetsInstancesToFollow.add(new ClassAttributeFollowingInstruction(CandidateSet, new String[]{hasMember}, new String[]{}));
+				entitySetsInstancesToFollow.add(new ClassAttributeFollowingInstruction(EntityWithAccessionedSequence, new String[]{referenceEntity}, new String[]{}));
+				String[] entitySetsOutClasses = new String[] {Complex, Polymer, ReferenceSequence};
+				List<GKInstance> entitySetsSortedInstances = followAndSortInstances(entityInst, entitySetsInstancesToFollow, entitySetsOutClasses);
+
+				if (entitySetsSortedInstances.size() == 0 && entityInst.getSchemClass().isa(CandidateSet))
+				{
+					// Candidates are only counted if the CandidateSet has any. The Perl version's check for already counted candidates
+					// never skips anything, so every candidate is kept.
+					if (entityInst.getAttributeValue(hasCandidate) != null)
+					{
+						List<ClassAttributeFollowingInstruction> candidateSetInstancesToFollow = new ArrayList<>();
+						candidateSetInstancesToFollow.add(new ClassAttributeFollowingInstruction(CandidateSet, new String[]{hasCandidate}, new String[]{}));
+						candidateSetInstancesToFollow.add(new ClassAttributeFollowingInstruction(EntityWithAccessionedSequence, new String[]{referenceEntity}, new String[]{}));
+						String[] candidateSetOutClasses = new String[] {Complex, Polymer, ReferenceSequence};
+						List<GKInstance> sortedCandidateSetInstances = followAndSortInstances(entityInst, candidateSetInstancesToFollow, candidateSetOutClasses);
+						if (sortedCandidateSetInstances.size() > 0)
+						{
+							entitySetPlans.add(new EntitySetPlan(true, getMembers(sortedCandidateSetInstances, plans)));
+						}
+					}
+					continue;
+				}
+				// Members are only counted if at least one of them wasn't already found by the first AttributeQueryRequest
+				boolean uncountedInstances = false;
+				outerloop:
+				for (GKInstance physicalEntityInst : entitySetsSortedInstances)
+				{
+					for (GKInstance earlyFollowedInst : sortedFollowedInstances)
+					{
+						if (physicalEntityInst.getAttributeValue(DB_ID) == earlyFollowedInst.getAttributeValue(DB_ID))
+						{
+							continue outerloop;
+						}
+					}
+					uncountedInstances = true;
+				}
+				if (uncountedInstances)
+				{
+					entitySetPlans.add(new EntitySetPlan(false, getMembers(entitySetsSortedInstances, plans)));
+				}
+			}
+		}
+		ProteinCountPlan plan = new ProteinCountPlan(referenceGeneProductIdentifiers.toArray(new String[0]), entitySetPlans.toArray(new EntitySetPlan[0]));
+		plans.put(instanceToBeCounted.getDBID(), plan);
+		return plan;
+	}
+
+	// Keeps the Complex/Polymer and ReferenceGeneProduct instances, which are the only ones that contribute to protein counts, building plans for any Complex/Polymer.
+	private static Member[] getMembers(List<GKInstance> sortedInstances, Map<Long, ProteinCountPlan> plans) throws Exception
+	{
+		List<Member> members = new ArrayList<>();
+		for (GKInstance physicalEntityInst : sortedInstances)
+		{
+			if (physicalEntityInst.getSchemClass().isa(Complex) || physicalEntityInst.getSchemClass().isa(Polymer))
+			{
+				build(physicalEntityInst, plans);
+				members.add(new Member(physicalEntityInst.getDBID(), null));
+			} else if (physicalEntityInst.getSchemClass().isa(ReferenceGeneProduct))
+			{
+				members.add(new Member(0, physicalEntityInst.getAttributeValue(identifier).toString()));
+			}
+		}
+		return members.toArray(new Member[0]);
+	}
+
+	// Performs an AttributeQueryRequest and sorts the returned instances by DB ID
+	@SuppressWarnings("unchecked")
+	private static List<GKInstance> followAndSortInstances(GKInstance inst, List<ClassAttributeFollowingInstruction> classesToFollow, String[] outClasses) throws Exception
+	{
+		Collection<GKInstance> followedInstances = InstanceUtilities.followInstanceAttributes(inst, classesToFollow, outClasses);
+		List<GKInstance> sortedInstances = new ArrayList<>(followedInstances);
+		sortedInstances.sort(Comparator.comparing(GKInstance::getDBID));
+		return sortedInstances;
+	}
+}
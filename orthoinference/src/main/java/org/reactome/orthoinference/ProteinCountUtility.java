@@ -1,20 +1,28 @@
 package org.reactome.orthoinference;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import org.gk.model.ClassAttributeFollowingInstruction;
 import org.gk.model.GKInstance;
-import org.gk.model.InstanceUtilities;
-import static org.gk.model.ReactomeJavaConstants.*;
+import org.reactome.orthoinference.ProteinCountPlan.EntitySetPlan;
+import org.reactome.orthoinference.ProteinCountPlan.Member;
 
 public class ProteinCountUtility {
 	
-	private static Map<String, String[]> homologueMappings = new HashMap<>();
+	private final InferencePlan inferencePlan;
+	private final InferenceMetrics metrics;
+	// Plans of instances that weren't part of the inference plan
+	private final Map<Long, ProteinCountPlan> unplannedProteinCounts = new HashMap<>();
+	// Protein counts of this species, keyed by DB ID
+	private final LongKeyedMap<ProteinCounts> proteinCountsCache = new LongKeyedMap<>();
+	private IdentifierMappings homologueMappings = new IdentifierMappings.Builder().build();
+
+	public ProteinCountUtility(InferencePlan inferencePlan, InferenceMetrics metrics)
+	{
+		this.inferencePlan = inferencePlan;
+		this.metrics = metrics;
+	}
 	
 	/** This function is meant to emulate the count_distinct_proteins function found in infer_events.pl.
 	 A crucial note is that the Perl version seems to be depend on the order by which instance groups are taken from the DB. Often the DB IDs are ordered smallest to largest, 
@@ -24,301 +32,208 @@ public class ProteinCountUtility {
 	 See the bottom of ProteinCount.checkCandidates for further elaboration. 
 	*/
 	
-	public static List<Integer> getDistinctProteinCounts (GKInstance instanceToBeInferred) throws Exception
+	public ProteinCounts getDistinctProteinCounts(GKInstance instanceToBeInferred) throws Exception
 	{
-		// Perform an AttributeQueryRequest with specified input attributes (ReactionlikeEvent, CatalystActivity, Complex, Polymer, EWAS) and output attributes (ReferenceGeneProduct, EntitySet).
-		List<ClassAttributeFollowingInstruction> classesToFollow = new ArrayList<>();
-		classesToFollow.add(new ClassAttributeFollowingInstruction(ReactionlikeEvent, new String[]{input, output, catalystActivity}, new String[]{}));
-		classesToFollow.add(new ClassAttributeFollowingInstruction(CatalystActivity, new String[]{physicalEntity}, new String[]{}));
-		classesToFollow.add(new ClassAttributeFollowingInstruction(Complex, new String[]{hasComponent}, new String[]{}));
-		classesToFollow.add(new ClassAttributeFollowingInstruction(Polymer, new String[]{repeatedUnit}, new String[]{}));
-		classesToFollow.add(new ClassAttributeFollowingInstruction(EntityWithAccessionedSequence, new String[]{referenceEntity}, new String[]{}));
-		
-		String[] outClasses = new String[] {ReferenceGeneProduct, EntitySet};
-		@SuppressWarnings("unchecked")
-		Collection<GKInstance> followedInstances = InstanceUtilities.followInstanceAttributes(instanceToBeInferred, classesToFollow, outClasses);	
-		
-		// Sort instances by DB ID
-		List<Long> dbIds = new ArrayList<>();
-		Collection<GKInstance> sortedFollowedInstances = new ArrayList<>();
-		Map<Long,GKInstance> instances = new HashMap<>();
-		for (GKInstance instance : followedInstances) 
+		long dbId = instanceToBeInferred.getDBID();
+		ProteinCounts proteinCounts = proteinCountsCache.get(dbId);
+		metrics.recordCacheLookup("proteinCounts", proteinCounts != null);
+		if (proteinCounts != null)
 		{
-			dbIds.add(instance.getDBID());
-			instances.put(instance.getDBID(), instance);
+			return proteinCounts;
 		}
-		Collections.sort(dbIds);
-		for (Long id : dbIds) 
+		// The AttributeQueryRequests are only made if the instance's plan wasn't built ahead of time (see InferencePlan)
+		if (getPlan(dbId) == null)
 		{
-			sortedFollowedInstances.add(instances.get(id));
+			ProteinCountPlan.build(instanceToBeInferred, unplannedProteinCounts);
 		}
-		
-		// With the output instances saved in followedInstances, begin the protein count process, which is based on the homologue mappings (orthopairs) files.
-		List<Integer> distinctProteinCounts = new ArrayList<>();
-		int total = 0;
-		int inferrable = 0;
-		int max = 0;
-		// If it is a ReferenceGene Product, the inferrable and max values are incremented depending on the number of homologue mappings, while total is incremented for each entity. 
-		for (GKInstance entityInst : sortedFollowedInstances)
+		return countProteins(dbId);
+	}
+
+	private ProteinCountPlan getPlan(long dbId)
+	{
+		ProteinCountPlan plan = inferencePlan.getProteinCountPlan(dbId);
+		return plan != null ? plan : unplannedProteinCounts.get(dbId);
+	}
+
+	// Counts the proteins of the instance with the DB ID, along with any Complex/Polymer it contains that hasn't been counted yet. Rather than recursing,
+	// an instance stays on the stack until the counts of all Complex/Polymer members of its EntitySets are cached, and is then counted.
+	// Since counts only depend on the plan and the homologue mappings, each instance is counted once per species.
+	private ProteinCounts countProteins(long rootDbId)
+	{
+		long[] stack = new long[16];
+		int stackSize = 0;
+		stack[stackSize++] = rootDbId;
+		while (stackSize > 0)
 		{
-			if (entityInst.getSchemClass().isa(ReferenceGeneProduct))
+			long dbId = stack[stackSize - 1];
+			if (proteinCountsCache.get(dbId) != null)
 			{
-				int count = 0;
-				String identifierName = entityInst.getAttributeValue(identifier).toString();
-				if (homologueMappings.get(identifierName) != null)
-				{
-					count = homologueMappings.get(identifierName).length;
-				}
-				total++;
-				if (count > max)
-				{
-					max = count;
-				}
-				if (count > 0)
-				{
-					inferrable++;
-				}
+				stackSize--;
+				continue;
 			}
-		}
-		// For EntitySets, another AttributeQueryRequest is completed. This time the output classes are Complex, Polymer, and ReferenceSequence.
-		for (GKInstance entityInst : sortedFollowedInstances)
-		{
-			if (entityInst.getSchemClass().isa(EntitySet))
+			ProteinCountPlan plan = getPlan(dbId);
+			boolean membersCounted = true;
+			for (EntitySetPlan entitySetPlan : plan.entitySetPlans)
 			{
-				List<ClassAttributeFollowingInstruction> entitySetsInstancesToFollow = new ArrayList<ClassAttributeFollowingInstruction>();
-				entitySetsInstancesToFollow.add(new ClassAttributeFollowingInstruction(DefinedSet, new String[]{hasMember}, new String[]{}));
-				entitySetsInstancesToFollow.add(new ClassAttributeFollowingInstruction(CandidateSet, new String[]{hasMember}, new String[]{}));
-				entitySetsInstancesToFollow.add(new ClassAttributeFollowingInstruction(EntityWithAccessionedSequence, new String[]{referenceEntity}, new String[]{}));
-				
-				String[] entitySetsOutClasses = new String[] {Complex, Polymer, ReferenceSequence};
-				@SuppressWarnings("unchecked")
-				Collection<GKInstance> entitySetsFollowedInstances = InstanceUtilities.followInstanceAttributes(entityInst, entitySetsInstancesToFollow, entitySetsOutClasses);
-				
-				// Sort instances by DB ID
-				List<Long> entitySetsDbIds = new ArrayList<>();
-				Collection<GKInstance> entitySetsSortedInstances = new ArrayList<>();
-				Map<Long,GKInstance> entitySetInstances = new HashMap<>();
-				for (GKInstance instance : entitySetsFollowedInstances) 
-				{
-					entitySetsDbIds.add(instance.getDBID());
-					entitySetInstances.put(instance.getDBID(), instance);
-				}
-				Collections.sort(entitySetsDbIds);
-				for (Long id : entitySetsDbIds) 
+				for (Member member : entitySetPlan.members)
 				{
-					entitySetsSortedInstances.add(entitySetInstances.get(id));
-				}
-				
-				if (entitySetsFollowedInstances.size() == 0 && entityInst.getSchemClass().isa(CandidateSet))
-				{	
-					// Protein counts are incremented depending on the number and types of candidates
-					List<Integer> checkedCandidateInstances = getCandidateProteinCounts(entityInst, sortedFollowedInstances);
-					if (checkedCandidateInstances.size() > 0) 
+					if (member.isComplex() && proteinCountsCache.get(member.complexDbId) == null)
 					{
-						total += checkedCandidateInstances.get(0);
-						if (checkedCandidateInstances.size() > 1) 
-						{
-							inferrable += checkedCandidateInstances.get(1);
-						}
-						if (checkedCandidateInstances.size() > 2) 
+						if (stackSize == stack.length)
 						{
-							max += checkedCandidateInstances.get(2);
+							stack = Arrays.copyOf(stack, stackSize * 2);
 						}
+						stack[stackSize++] = member.complexDbId;
+						membersCounted = false;
 					}
-					continue;
-				}
-				if (entitySetsFollowedInstances.size() > 0)
-				{
-					boolean uncountedInstances = false;
-					// Little trick for breaking out of a nested loop
-					outerloop:
-					for (GKInstance physicalEntityInst : entitySetsSortedInstances)
-					{
-						for (GKInstance earlyFollowedInst : sortedFollowedInstances)
-						{
-							if (physicalEntityInst.getAttributeValue(DB_ID) == earlyFollowedInst.getAttributeValue(DB_ID))
-							{
-								continue outerloop;
-							}
-						}
-						uncountedInstances = true;
-					}
-					if (!uncountedInstances)
-					{
-						continue;
-					}
-					// For Complexes and Polymers, the flag and flagInferred variables determine both if and by how much the values are incremented.
-					// These values are determined by the result of a recursive ProteinCount call for each entity in the second followedInstances array. 
-					int flag = 0;
-					int flagInferred = 0;
-					for (GKInstance physicalEntityInst : entitySetsSortedInstances)
-					{
-						if (physicalEntityInst.getSchemClass().isa(Complex) || physicalEntityInst.getSchemClass().isa(Polymer))
-						{
-							List<Integer> complexProteinCounts = getDistinctProteinCounts(physicalEntityInst);
-							if (complexProteinCounts != null)
-							{
-								int subTotal = complexProteinCounts.get(0);
-								int subInferred = complexProteinCounts.get(1);
-								int subMax = complexProteinCounts.get(2);
-								if (subTotal > flag)
-								{
-									flag = subTotal;
-								}
-								if (subInferred > flagInferred)
-								{
-									flagInferred = subInferred;
-								}
-								if (subMax > max)
-								{
-									max = subMax;
-								}
-							}
-						} else if (physicalEntityInst.getSchemClass().isa(ReferenceGeneProduct)) 
-						{
-							flag = 1;
-							String identifierName = physicalEntityInst.getAttributeValue(identifier).toString();
-							int count = 0;
-							if (homologueMappings.get(identifierName) != null)
-							{
-								count = homologueMappings.get(identifierName).length;
-							}
-							if (count > max)
-							{
-								max = count;
-							}
-							if (count > 0)
-							{
-								flagInferred = 1;
-							}
-						} 
-					}
-					// After going through the logic for Complexes/Polymers and ReferenceGeneProduct, the total and inferrable values are incremented by their respective flag totals.
-					total += flag;
-					inferrable += flagInferred;
 				}
 			}
+			if (membersCounted)
+			{
+				proteinCountsCache.put(dbId, countProteins(plan));
+				stackSize--;
+			}
 		}
-		distinctProteinCounts.add(total);
-		distinctProteinCounts.add(inferrable);
-		distinctProteinCounts.add(max);
-		return distinctProteinCounts;
+		return proteinCountsCache.get(rootDbId);
 	}
-	// Function that determines protein counts of CandidateSets. Incoming arguments are the candidateSet of interest, as well as the output array from the very first AttributeQueryRequest (AQR).
-	// This 'output array from the first AQR' is used to prevent redundant counts, such as if a Candidate instance has already undergone a protein count.
-	private static List<Integer> getCandidateProteinCounts(GKInstance candidateSetInst, Collection<GKInstance> sortedFollowedInstances) throws Exception
+
+	// With the output instances of the AttributeQueryRequests saved in the plan, begin the protein count process, which is based on the homologue mappings (orthopairs) files.
+	// The counts of any Complex/Polymer members have already been cached.
+	private ProteinCounts countProteins(ProteinCountPlan plan)
 	{
-		List<Integer> checkedCandidateCounts = new ArrayList<>();
-		if (candidateSetInst.getAttributeValue(hasCandidate) != null)
+		int total = 0;
+		int inferrable = 0;
+		int max = 0;
+		// If it is a ReferenceGene Product, the inferrable and max values are incremented depending on the number of homologue mappings, while total is incremented for each entity. 
+		for (String identifierName : plan.referenceGeneProductIdentifiers)
 		{
-			// AttributeQueryRequest for candidateSets, where the output instances are Complex, Polymer, and ReferenceSequence
-			int candidateTotal = 0;
-			int candidateInferrable = 0;
-			int candidateMax = 0;
-			int flag = 0;
-			List<ClassAttributeFollowingInstruction> candidateSetInstancesToFollow = new ArrayList<>();
-			candidateSetInstancesToFollow.add(new ClassAttributeFollowingInstruction(CandidateSet, new String[]{hasCandidate}, new String[]{}));
-			candidateSetInstancesToFollow.add(new ClassAttributeFollowingInstruction(EntityWithAccessionedSequence, new String[]{referenceEntity}, new String[]{}));
-			String[] candidateSetOutClasses = new String[] {Complex, Polymer, ReferenceSequence};
-			@SuppressWarnings("unchecked")
-			Collection<GKInstance> candidateSetFollowedInstances = InstanceUtilities.followInstanceAttributes(candidateSetInst, candidateSetInstancesToFollow, candidateSetOutClasses);
-			
-			List<Long> dbIdsCandidateSet = new ArrayList<>();
-			Collection<GKInstance> sortedCandidateSetFollowedInstances = new ArrayList<>();
-			Map<Long,GKInstance> candidateSetInstances = new HashMap<>();
-			for (GKInstance instance : candidateSetFollowedInstances) 
-			{
-				dbIdsCandidateSet.add(instance.getDBID());
-				candidateSetInstances.put(instance.getDBID(), instance);
-			}
-			Collections.sort(dbIdsCandidateSet);
-			for (Long id : dbIdsCandidateSet) 
+			int count = getHomologueCount(identifierName);
+			total++;
+			if (count > max)
 			{
-				sortedCandidateSetFollowedInstances.add(candidateSetInstances.get(id));
+				max = count;
 			}
-			
-			boolean uncountedInstances = false;
-			for (GKInstance physicalEntityInst : sortedCandidateSetFollowedInstances)
+			if (count > 0)
 			{
-				for (GKInstance earlyFollowedInst : sortedFollowedInstances)
-				{
-					if (physicalEntityInst.getAttributeValue(DB_ID) == earlyFollowedInst.getAttributeValue(DB_ID))
-					{
-						continue;
-					}
-				}
-				uncountedInstances = true;
+				inferrable++;
 			}
-			if (!uncountedInstances)
+		}
+		// For EntitySets, the members found by another AttributeQueryRequest are counted. This time the output classes are Complex, Polymer, and ReferenceSequence.
+		for (EntitySetPlan entitySetPlan : plan.entitySetPlans)
+		{
+			if (entitySetPlan.candidates)
 			{
-				return checkedCandidateCounts;
+				// Protein counts are incremented depending on the number and types of candidates
+				ProteinCounts candidateProteinCounts = getCandidateProteinCounts(entitySetPlan);
+				total += candidateProteinCounts.getTotal();
+				inferrable += candidateProteinCounts.getInferrable();
+				max += candidateProteinCounts.getMax();
+				continue;
 			}
-			// For instances that are Complex or Polymer, the total, inferrable and max are incremented according to the results of a recursive countDistinctProteins call.
-			for (GKInstance physicalEntityInst : sortedCandidateSetFollowedInstances)
+			// For Complexes and Polymers, the flag and flagInferred variables determine both if and by how much the values are incremented.
+			// These values are determined by the counts of each Complex/Polymer member of the EntitySet.
+			int flag = 0;
+			int flagInferred = 0;
+			for (Member member : entitySetPlan.members)
 			{
-				if (physicalEntityInst.getSchemClass().isa(Complex) || physicalEntityInst.getSchemClass().isa(Polymer))
+				if (member.isComplex())
 				{
-					List<Integer> candidateComplexCounts = getDistinctProteinCounts(physicalEntityInst);
-					if (candidateComplexCounts.size() > 0)
+					ProteinCounts complexProteinCounts = proteinCountsCache.get(member.complexDbId);
+					if (complexProteinCounts.getTotal() > flag)
 					{
-						if (candidateComplexCounts.get(0) > 0 && candidateComplexCounts.get(1) == 0)
-						{
-							flag++;
-						}
-						if (candidateTotal > 0 && candidateComplexCounts.get(0) > candidateTotal)
-						{
-							candidateTotal = candidateComplexCounts.get(0);
-						}
-						if (candidateInferrable > 0 && candidateComplexCounts.get(1) > candidateInferrable)
-						{
-							candidateInferrable = candidateComplexCounts.get(1);
-						}
-						if (candidateMax > 0 && candidateComplexCounts.get(2) > candidateMax)
-						{
-							candidateMax = candidateComplexCounts.get(2);
-						}
+						flag = complexProteinCounts.getTotal();
 					}
-					// ReferenceGeneProduct instances can only have an inferrable of 1 (So says the Perl version)
-				} else if (physicalEntityInst.getSchemClass().isa(ReferenceGeneProduct))
-				{
-					candidateTotal = 1;
-					String identifierName = physicalEntityInst.getAttributeValue(identifier).toString();
-					int count = 0;
-					if (homologueMappings.get(identifierName) != null)
+					if (complexProteinCounts.getInferrable() > flagInferred)
 					{
-						count = homologueMappings.get(identifierName).length;
+						flagInferred = complexProteinCounts.getInferrable();
 					}
-					if (count > 0)
+					if (complexProteinCounts.getMax() > max)
 					{
-						candidateInferrable = 1;
+						max = complexProteinCounts.getMax();
 					}
-					if (candidateInferrable == 0)
+				} else {
+					flag = 1;
+					int count = getHomologueCount(member.referenceGeneProductIdentifier);
+					if (count > max)
 					{
-						flag++;
+						max = count;
 					}
-				}
-			} 
-			// This was the tricky bit between Perl and Java. The flag is meant to drop any CandidateSet counts that don't all have an inferrable protein. 
-			// In the Perl version, instance order makes a big difference here, since the flag value persists through the for-loop. 
-			// Example: If a complex of 4 PEs has an inferrable in PE 1, 2, and 4, but not in 3, then the flag wouldn't be raised (incorrect, I believe). Alternatively, 
-			// if 1 doesn't have an inferrable, but 2, 3, 4 do, then the flag would be raised (correctly). The second example given exemplifies how I believe the function 
-			// is meant to work, but the Perl version doesn't handle it. Currently this emulates the Perl version.
-			if (flag > 0)
+					if (count > 0)
+					{
+						flagInferred = 1;
+					}
+				} 
+			}
+			// After going through the logic for Complexes/Polymers and ReferenceGeneProduct, the total and inferrable values are incremented by their respective flag totals.
+			total += flag;
+			inferrable += flagInferred;
+		}
+		return new ProteinCounts(total, inferrable, max);
+	}
+	// Function that determines protein counts of CandidateSets, using the candidates found by the AttributeQueryRequest made for the CandidateSet.
+	// Candidates that were already counted by the very first AttributeQueryRequest were meant to be dropped, but the Perl version never did, so they are all kept.
+	private ProteinCounts getCandidateProteinCounts(EntitySetPlan candidateSetPlan)
+	{
+		int candidateTotal = 0;
+		int candidateInferrable = 0;
+		int candidateMax = 0;
+		int flag = 0;
+		// For instances that are Complex or Polymer, the total, inferrable and max are incremented according to the cached counts of the Complex/Polymer.
+		for (Member member : candidateSetPlan.members)
+		{
+			if (member.isComplex())
 			{
-				checkedCandidateCounts.add(candidateTotal);
-				checkedCandidateCounts.add(0); // candidateInferred value is dropped, 0 is returned instead
-				return checkedCandidateCounts;
+				ProteinCounts candidateComplexCounts = proteinCountsCache.get(member.complexDbId);
+				if (candidateComplexCounts.getTotal() > 0 && candidateComplexCounts.getInferrable() == 0)
+				{
+					flag++;
+				}
+				if (candidateTotal > 0 && candidateComplexCounts.getTotal() > candidateTotal)
+				{
+					candidateTotal = candidateComplexCounts.getTotal();
+				}
+				if (candidateInferrable > 0 && candidateComplexCounts.getInferrable() > candidateInferrable)
+				{
+					candidateInferrable = candidateComplexCounts.getInferrable();
+				}
+				if (candidateMax > 0 && candidateComplexCounts.getMax() > candidateMax)
+				{
+					candidateMax = candidateComplexCounts.getMax();
+				}
+				// ReferenceGeneProduct instances can only have an inferrable of 1 (So says the Perl version)
+			} else {
+				candidateTotal = 1;
+				if (getHomologueCount(member.referenceGeneProductIdentifier) > 0)
+				{
+					candidateInferrable = 1;
+				}
+				if (candidateInferrable == 0)
+				{
+					flag++;
+				}
 			}
-			checkedCandidateCounts.add(candidateTotal);
-			checkedCandidateCounts.add(candidateInferrable);
-			checkedCandidateCounts.add(candidateMax);
-			return checkedCandidateCounts;
+		} 
+		// This was the tricky bit between Perl and Java. The flag is meant to drop any CandidateSet counts that don't all have an inferrable protein. 
+		// In the Perl version, instance order makes a big difference here, since the flag value persists through the for-loop. 
+		// Example: If a complex of 4 PEs has an inferrable in PE 1, 2, and 4, but not in 3, then the flag wouldn't be raised (incorrect, I believe). Alternatively, 
+		// if 1 doesn't have an inferrable, but 2, 3, 4 do, then the flag would be raised (correctly). The second example given exemplifies how I believe the function 
+		// is meant to work, but the Perl version doesn't handle it. Currently this emulates the Perl version.
+		if (flag > 0)
+		{
+			// candidateInferred value is dropped, and candidateMax isn't added to the max
+			return new ProteinCounts(candidateTotal, 0, 0);
 		}
-		return checkedCandidateCounts;
+		return new ProteinCounts(candidateTotal, candidateInferrable, candidateMax);
+	}
+
+	private int getHomologueCount(String identifierName)
+	{
+		return homologueMappings.getValueCount(identifierName);
 	}
 	
-	public static void setHomologueMappingFile(Map<String, String[]> homologueMappingsCopy)
+	public void setHomologueMappingFile(IdentifierMappings homologueMappingsCopy)
 	{
 		homologueMappings = homologueMappingsCopy;
+		proteinCountsCache.clear();
 	}
 }
@@ -0,0 +1,62 @@
+package org.reactome.orthoinference;
+
+/**
+ * The result of a protein count (see ProteinCountUtility): the total number of distinct proteins associated with an instance,
+ * the number of those that can be inferred, and the maximum number of homologues of any of them. Instances are immutable.
+ */
+public final class ProteinCounts {
+
+	public static final ProteinCounts NONE = new ProteinCounts(0, 0, 0);
+	private final int total;
+	private final int inferrable;
+	private final int max;
+
+	public ProteinCounts(int total, int inferrable, int max)
+	{
+		this.total = total;
+		this.inferrable = inferrable;
+		this.max = max;
+	}
+
+	public int getTotal()
+	{
+		return total;
+	}
+
+	public int getInferrable()
+	{
+		return inferrable;
+	}
+
+	public int getMax()
+	{
+		return max;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+		if (!(obj instanceof ProteinCounts))
+		{
+			return false;
+		}
+		ProteinCounts other = (ProteinCounts) obj;
+		return total == other.total && inferrable == other.inferrable && max == other.max;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (total * 31 + inferrable) * 31 + max;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "[" + total + ", " + inferrable + ", " + max + "]";
+	}
+}
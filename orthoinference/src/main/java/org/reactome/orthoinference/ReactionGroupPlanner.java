@@ -0,0 +1,128 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gk.model.ClassAttributeFollowingInstruction;
+import org.gk.model.GKInstance;
+import org.gk.model.InstanceUtilities;
+import static org.gk.model.ReactomeJavaConstants.*;
+
+/**
+ * Partitions ReactionlikeEvents into groups that can be inferred independently of each other. Two RlEs are put in the same group if the
+ * inference of one could reuse or modify an instance created by the inference of the other: when they share a PhysicalEntity, CatalystActivity,
+ * Regulation or ReferenceGeneProduct, or when their ReferenceGeneProducts share a homologue or homologue gene in the species being inferred.
+ * PhysicalEntities that the inference returns unchanged (SimpleEntities, and those without a species in them or their constituents, see
+ * SpeciesCheckUtility) are never written, so sharing them doesn't group RlEs. Otherwise common small molecules such as ATP would join most RlEs.
+ * Each group holds its RlE DB IDs in ascending order, and groups are ordered by their first DB ID, so the plan is the same on every run.
+ */
+public class ReactionGroupPlanner {
+
+	private static final List<ClassAttributeFollowingInstruction> CLASSES_TO_FOLLOW = new ArrayList<>();
+	static
+	{
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(ReactionlikeEvent, new String[]{input, output, catalystActivity, regulatedBy}, new String[]{}));
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(CatalystActivity, new String[]{physicalEntity, activeUnit}, new String[]{}));
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(Regulation, new String[]{regulator}, new String[]{}));
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(Complex, new String[]{hasComponent}, new String[]{}));
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(Polymer, new String[]{repeatedUnit}, new String[]{}));
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(DefinedSet, new String[]{hasMember}, new String[]{}));
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(CandidateSet, new String[]{hasMember, hasCandidate}, new String[]{}));
+		CLASSES_TO_FOLLOW.add(new ClassAttributeFollowingInstruction(EntityWithAccessionedSequence, new String[]{referenceEntity}, new String[]{}));
+	}
+	private static final String[] OUT_CLASSES = new String[] {PhysicalEntity, CatalystActivity, Regulation, ReferenceGeneProduct};
+
+	private ReactionGroupPlanner()
+	{
+	}
+
+	// The PhysicalEntities, CatalystActivities, Regulations and ReferenceGeneProducts that the inference of the RlE reads
+	@SuppressWarnings("unchecked")
+	static Collection<GKInstance> followInferenceInputs(GKInstance reactionInst) throws Exception
+	{
+		return (Collection<GKInstance>) InstanceUtilities.followInstanceAttributes(reactionInst, CLASSES_TO_FOLLOW, OUT_CLASSES);
+	}
+
+	public static List<List<Long>> partition(List<Long> reactionDbIds, Map<Long, GKInstance> reactionMap, IdentifierMappings homologueMappings,
+		IdentifierMappings ensgMappings) throws Exception
+	{
+		// Union-find over the RlEs. Each shared instance or homologue is owned by the first RlE it was found in.
+		int[] parents = new int[reactionDbIds.size()];
+		Map<Object, Integer> owners = new HashMap<>();
+		Map<Long, Boolean> speciesAgnosticEntities = new HashMap<>();
+		for (int i = 0; i < reactionDbIds.size(); i++)
+		{
+			parents[i] = i;
+			GKInstance reactionInst = reactionMap.get(reactionDbIds.get(i));
+			for (GKInstance followedInst : followInferenceInputs(reactionInst))
+			{
+				if (isSpeciesAgnostic(followedInst, speciesAgnosticEntities))
+				{
+					continue;
+				}
+				union(parents, owners, i, followedInst.getDBID());
+				if (followedInst.getSchemClass().isa(ReferenceGeneProduct))
+				{
+					for (String homologueId : homologueMappings.getValues((String) followedInst.getAttributeValue(identifier)))
+					{
+						union(parents, owners, i, "homologue:" + homologueId);
+						for (String ensgId : ensgMappings.getValues(homologueId))
+						{
+							union(parents, owners, i, "gene:" + ensgId);
+						}
+					}
+				}
+			}
+		}
+
+		// The RlEs are visited in DB ID order, so each group is sorted and the groups are ordered by their first RlE
+		Map<Integer, List<Long>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < reactionDbIds.size(); i++)
+		{
+			groups.computeIfAbsent(find(parents, i), k -> new ArrayList<>()).add(reactionDbIds.get(i));
+		}
+		return new ArrayList<>(groups.values());
+	}
+
+	// True for PhysicalEntities that are returned unchanged by the inference (see OrthologousEntityGenerator)
+	private static boolean isSpeciesAgnostic(GKInstance followedInst, Map<Long, Boolean> speciesAgnosticEntities) throws Exception
+	{
+		if (!followedInst.getSchemClass().isa(PhysicalEntity))
+		{
+			return false;
+		}
+		Boolean speciesAgnostic = speciesAgnosticEntities.get(followedInst.getDBID());
+		if (speciesAgnostic == null)
+		{
+			speciesAgnostic = followedInst.getSchemClass().isa(SimpleEntity) || !SpeciesCheckUtility.checkForSpeciesAttribute(followedInst);
+			speciesAgnosticEntities.put(followedInst.getDBID(), speciesAgnostic);
+		}
+		return speciesAgnostic;
+	}
+
+	private static void union(int[] parents, Map<Object, Integer> owners, int reactionIndex, Object sharedKey)
+	{
+		Integer ownerIndex = owners.putIfAbsent(sharedKey, reactionIndex);
+		if (ownerIndex != null)
+		{
+			int ownerRoot = find(parents, ownerIndex);
+			int reactionRoot = find(parents, reactionIndex);
+			// The smaller index becomes the root, which keeps the result independent of the order of the unions
+			parents[Math.max(ownerRoot, reactionRoot)] = Math.min(ownerRoot, reactionRoot);
+		}
+	}
+
+	private static int find(int[] parents, int index)
+	{
+		while (parents[index] != index)
+		{
+			parents[index] = parents[parents[index]];
+			index = parents[index];
+		}
+		return index;
+	}
+}
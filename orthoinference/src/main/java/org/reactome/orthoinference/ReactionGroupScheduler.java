@@ -0,0 +1,238 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import static org.gk.model.ReactomeJavaConstants.*;
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * Infers a species' ReactionlikeEvents on several workers. The RlEs are partitioned into independent groups (see ReactionGroupPlanner), and each
+ * worker takes groups from a shared queue, inferring the RlEs of a group in DB ID order with its own InferenceContext and database connection.
+ * Workers commit at group boundaries only, so each group's writes are committed or rolled back together. Identical instances that different
+ * groups could still both create are checked and stored one at a time, and a worker that needs one that another worker hasn't committed yet
+ * infers its uncommitted groups again once it has been (see IdentityLocks). So does a worker that needs a cached instance that another worker
+ * is inferring or hasn't committed yet (see InferredInstanceCache).
+ *
+ * Each time a worker commits, the outcomes of its groups are passed to the Checkpointer, so an interrupted run can resume without inferring them again.
+ * Once all groups are done, the eligible and inferred RlEs are recorded by the species' ReactionInferrer in DB ID order, so the 'eligible' and
+ * 'inferred' files list the same reactions in the same order as a sequential run. The DB IDs of new instances depend on the order in which the
+ * workers stored them, so they differ between runs.
+ */
+public class ReactionGroupScheduler {
+
+	private static final Logger logger = LogManager.getLogger();
+	private final InferenceContext context;
+	private final Properties props;
+	private final int workerCount;
+	private final int persistenceBatchSize;
+	private final Checkpointer checkpointer;
+
+	// Infers a single ReactionlikeEvent with the context of the worker it is run on
+	public interface ReactionTask
+	{
+		void infer(InferenceContext workerContext, GKInstance reactionInst) throws Exception;
+	}
+
+	// Records the outcomes of the RlEs whose inference a worker has just committed (eg: in the species' InferenceJournal). Called from the workers' threads.
+	public interface Checkpointer
+	{
+		void checkpoint(Map<Long, ReactionOutcome> committedOutcomes) throws Exception;
+	}
+
+	// The result of a single ReactionlikeEvent's inference
+	static class ReactionOutcome
+	{
+		final boolean eligible;
+		final Long inferredReactionDbId;
+
+		ReactionOutcome(boolean eligible, Long inferredReactionDbId)
+		{
+			this.eligible = eligible;
+			this.inferredReactionDbId = inferredReactionDbId;
+		}
+	}
+
+	public ReactionGroupScheduler(InferenceContext context, Properties props, int workerCount, int persistenceBatchSize, Checkpointer checkpointer)
+	{
+		this.context = context;
+		this.props = props;
+		this.workerCount = workerCount;
+		this.persistenceBatchSize = persistenceBatchSize;
+		this.checkpointer = checkpointer;
+	}
+
+	// Infers the RlEs on the workers. committedOutcomes are those of RlEs that an interrupted run committed, which aren't in reactionDbIds but are
+	// recorded along with the others. The setup instances of the species' context must have been committed, since the workers fetch them.
+	public void inferReactions(List<Long> reactionDbIds, Map<Long, GKInstance> reactionMap, Map<Long, ReactionOutcome> committedOutcomes, ReactionTask task) throws Exception
+	{
+		EWASInferrer ewasInferrer = context.getEWASInferrer();
+		List<List<Long>> groups = ReactionGroupPlanner.partition(reactionDbIds, reactionMap, ewasInferrer.getHomologueMappings(), ewasInferrer.getEnsgMappings());
+		logger.info("Inferring " + reactionDbIds.size() + " ReactionlikeEvents in " + groups.size() + " independent groups using " + workerCount + " workers");
+
+		Queue<List<Long>> pendingGroups = new ConcurrentLinkedQueue<>(groups);
+		Map<Long, ReactionOutcome> outcomes = new ConcurrentHashMap<>(committedOutcomes);
+		IdentityLocks identityLocks = new IdentityLocks();
+		String threadName = Thread.currentThread().getName();
+		ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+		List<Future<?>> workers = new ArrayList<>();
+		for (int i = 0; i < workerCount; i++)
+		{
+			String workerName = threadName + "-worker-" + i;
+			workers.add(executor.submit(() -> {
+				Thread.currentThread().setName(workerName);
+				inferGroups(pendingGroups, outcomes, identityLocks, task);
+				return null;
+			}));
+		}
+		executor.shutdown();
+		try {
+			for (Future<?> worker : workers)
+			{
+				worker.get();
+			}
+		} catch (ExecutionException e) {
+			pendingGroups.clear();
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+
+		// The workers' results are recorded in DB ID order
+		for (Map.Entry<Long, ReactionOutcome> outcome : new TreeMap<>(outcomes).entrySet())
+		{
+			recordOutcome(context, reactionMap.get(outcome.getKey()), outcome.getValue());
+		}
+	}
+
+	// Records the outcome of an RlE with the species' ReactionInferrer, using the inferred RlE fetched through the species' store
+	static void recordOutcome(InferenceContext context, GKInstance reactionInst, ReactionOutcome outcome) throws Exception
+	{
+		ReactionInferrer reactionInferrer = context.getReactionInferrer();
+		if (outcome.eligible)
+		{
+			reactionInferrer.recordEligibleReaction(reactionInst);
+		}
+		if (outcome.inferredReactionDbId != null)
+		{
+			reactionInferrer.recordInferredReaction(reactionInst, context.getInstanceStore().fetchInstance(outcome.inferredReactionDbId));
+		}
+	}
+
+	// Run by each worker until there are no groups left. A worker commits its writes at group boundaries, once it has attempted at least
+	// persistenceBatchSize RlEs since its last commit, so a group is committed or rolled back as a whole. If an identical or cached instance it needs is
+	// pending in another worker, its uncommitted groups are rolled back and inferred again with a new context and connection once that worker has committed or rolled back.
+	// A worker that fails rolls back its uncommitted writes and empties the queue, so the other workers stop after their current group.
+	private void inferGroups(Queue<List<Long>> pendingGroups, Map<Long, ReactionOutcome> outcomes, IdentityLocks identityLocks, ReactionTask task) throws Exception
+	{
+		MySQLAdaptor workerDba = EventsInferrer.createDbAdaptor(props, props.getProperty("release_current.name"));
+		InferenceContext workerContext = null;
+		// The groups that were rolled back after a conflict, which are inferred again before any new ones
+		Deque<List<Long>> retriedGroups = new ArrayDeque<>();
+		List<List<Long>> uncommittedGroups = new ArrayList<>();
+		Map<Long, ReactionOutcome> uncommittedOutcomes = new HashMap<>();
+		int uncommittedReactionCount = 0;
+		try {
+			workerContext = beginWorkerContext(workerDba, identityLocks);
+			List<Long> group;
+			while ((group = !retriedGroups.isEmpty() ? retriedGroups.poll() : pendingGroups.poll()) != null)
+			{
+				uncommittedGroups.add(group);
+				try {
+					inferGroup(workerContext, workerDba, group, uncommittedOutcomes, task);
+				} catch (IdentityLocks.ConflictException e) {
+					logger.info("Rolling back " + uncommittedGroups.size() + " uncommitted group(s) to wait for another worker: " + e.getMessage());
+					workerContext.getUnitOfWork().rollback();
+					for (int i = uncommittedGroups.size() - 1; i >= 0; i--)
+					{
+						retriedGroups.addFirst(uncommittedGroups.get(i));
+					}
+					uncommittedGroups.clear();
+					uncommittedOutcomes.clear();
+					uncommittedReactionCount = 0;
+					e.awaitRelease();
+					// The caches of the old context and adaptor may hold instances that were rolled back, or source instances that refer to them
+					workerContext = null;
+					workerDba.cleanUp();
+					workerDba = EventsInferrer.createDbAdaptor(props, props.getProperty("release_current.name"));
+					workerContext = beginWorkerContext(workerDba, identityLocks);
+					continue;
+				}
+				uncommittedReactionCount += group.size();
+				if (uncommittedReactionCount >= persistenceBatchSize)
+				{
+					commit(workerContext, uncommittedOutcomes, outcomes);
+					uncommittedGroups.clear();
+					uncommittedReactionCount = 0;
+				}
+			}
+			commit(workerContext, uncommittedOutcomes, outcomes);
+			workerContext.getUnitOfWork().close();
+		} catch (Exception e) {
+			pendingGroups.clear();
+			if (workerContext != null)
+			{
+				workerContext.getUnitOfWork().rollback();
+			}
+			throw e;
+		} finally {
+			workerDba.cleanUp();
+		}
+	}
+
+	// Creates a worker context on the worker's connection, and starts its transaction
+	private InferenceContext beginWorkerContext(MySQLAdaptor workerDba, IdentityLocks identityLocks) throws Exception
+	{
+		InferenceContext workerContext = context.createWorkerContext(workerDba, identityLocks);
+		workerContext.getUnitOfWork().begin();
+		return workerContext;
+	}
+
+	// Infers the RlEs of a group in DB ID order, adding their outcomes to groupOutcomes
+	@SuppressWarnings("unchecked")
+	private void inferGroup(InferenceContext workerContext, MySQLAdaptor workerDba, List<Long> group, Map<Long, ReactionOutcome> groupOutcomes, ReactionTask task) throws Exception
+	{
+		if (Boolean.valueOf(props.getProperty("prefetchSourceInstances", "false")))
+		{
+			SourceInstancePrefetcher.prefetch(workerDba, (Collection<GKInstance>) workerDba.fetchInstancesByClass(ReactionlikeEvent, group), workerContext.getMetrics());
+		}
+		ReactionInferrer reactionInferrer = workerContext.getReactionInferrer();
+		for (Long dbId : group)
+		{
+			GKInstance reactionInst = workerDba.fetchInstance(dbId);
+			int eligibleCount = reactionInferrer.getEligibleCount();
+			int inferredCount = reactionInferrer.getInferredCount();
+			task.infer(workerContext, reactionInst);
+			GKInstance infReactionInst = reactionInferrer.getInferredCount() > inferredCount ? reactionInferrer.getInferredEvent().get(reactionInst) : null;
+			groupOutcomes.put(dbId, new ReactionOutcome(reactionInferrer.getEligibleCount() > eligibleCount, infReactionInst != null ? infReactionInst.getDBID() : null));
+		}
+	}
+
+	// Commits the worker's groups, after which their outcomes and skipped reactions are added to those of the species and checkpointed
+	private void commit(InferenceContext workerContext, Map<Long, ReactionOutcome> uncommittedOutcomes, Map<Long, ReactionOutcome> outcomes) throws Exception
+	{
+		workerContext.getUnitOfWork().flush();
+		context.getSummary().addSkippedReactions(workerContext.getSummary());
+		outcomes.putAll(uncommittedOutcomes);
+		if (!uncommittedOutcomes.isEmpty())
+		{
+			checkpointer.checkpoint(new HashMap<>(uncommittedOutcomes));
+		}
+		uncommittedOutcomes.clear();
+	}
+}
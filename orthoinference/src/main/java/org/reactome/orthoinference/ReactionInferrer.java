@@ -1,11 +1,11 @@
 package org.reactome.orthoinference;
 
-import java.nio.file.Files;
+import java.io.IOException;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -19,33 +19,45 @@ import org.gk.schema.InvalidAttributeException;
 public class ReactionInferrer {
 
 	private static final Logger logger = LogManager.getLogger();
-	private static MySQLAdaptor dba;
-	private static String dateOfRelease = "";
-	private static String eligibleFilehandle;
-	private static String inferredFilehandle;
-	private static GKInstance summationInst;
-	private static GKInstance evidenceTypeInst;
-	private static Map<GKInstance, GKInstance> inferredCatalyst = new HashMap<>();
-	private static Map<GKInstance, GKInstance> inferredEvent = new HashMap<>();
-	private static Integer eligibleCount = 0;
-	private static Integer inferredCount = 0;
-	private static List<GKInstance> inferrableHumanEvents = new ArrayList<>();
-	
+	private final InferenceContext context;
+	private final MySQLAdaptor dba;
+	private String dateOfRelease = "";
+	private ReportWriter eligibleReport;
+	private ReportWriter inferredReport;
+	private GKInstance summationInst;
+	private GKInstance evidenceTypeInst;
+	private Map<GKInstance, GKInstance> inferredCatalyst = new HashMap<>();
+	private Map<GKInstance, GKInstance> inferredEvent = new HashMap<>();
+	private Integer eligibleCount = 0;
+	private Integer inferredCount = 0;
+	private List<GKInstance> inferrableHumanEvents = new ArrayList<>();
+
+	public ReactionInferrer(InferenceContext context)
+	{
+		this.context = context;
+		this.dba = context.getDbAdaptor();
+	}
+
 	// Infers PhysicalEntity instances of input, output, catalyst activity, and regulations that are associated with incoming reactionInst.
-	public static void inferReaction(GKInstance reactionInst) throws Exception
+	public void inferReaction(GKInstance reactionInst) throws Exception
 	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
 		// Checks if an instance's inference should be skipped, based on a variety of factors such as a manual skip list, if it's chimeric, etc.
-		if (SkipInstanceChecker.checkIfInstanceShouldBeSkipped(reactionInst))
+		String skipReason = context.getSkipInstanceChecker().checkSkipReason(reactionInst);
+		if (skipReason != null)
 		{
+			context.getSummary().recordSkippedReaction(skipReason);
 			return;
 		}
 		logger.info("Passed skip tests, RlE eligible for inference");
 		// HashMaps are used to prevent redundant inferences.
+		InferenceMetrics metrics = context.getMetrics();
+		metrics.recordCacheLookup("inferredEvent", inferredEvent.get(reactionInst) != null);
 		if (inferredEvent.get(reactionInst) == null)
 		{
 			///// The beginning of an inference process:
 			// Creates inferred instance of reaction.
-			GKInstance infReactionInst = InstanceUtilities.createNewInferredGKInstance(reactionInst);
+			GKInstance infReactionInst = instanceUtilities.createNewInferredGKInstance(reactionInst);
 			infReactionInst.addAttributeValue(name, reactionInst.getAttributeValuesList(name));
 			infReactionInst.addAttributeValue(goBiologicalProcess, reactionInst.getAttributeValue(goBiologicalProcess));
 			infReactionInst.addAttributeValue(summation, summationInst);
@@ -53,34 +65,33 @@ public class ReactionInferrer {
 			infReactionInst.addAttributeValue(_displayName, reactionInst.getAttributeValue(_displayName));
 
 			// This function finds the total number of distinct proteins associated with an instance, as well as the number that can be inferred.
-			// Total proteins are stored in reactionProteinCounts[0], inferrable proteins in [1], and the maximum number of homologues for any entity involved in index [2].
+			// The counts hold the total proteins, the inferrable proteins, and the maximum number of homologues for any entity involved.
 			// Reactions with no proteins/EWAS (Total = 0) are not inferred.
-			List<Integer> reactionProteinCounts = ProteinCountUtility.getDistinctProteinCounts(reactionInst);
-			int reactionTotalProteinCounts = reactionProteinCounts.get(0);
+			ProteinCounts reactionProteinCounts = metrics.time("getDistinctProteinCounts", () -> context.getProteinCountUtility().getDistinctProteinCounts(reactionInst));
+			int reactionTotalProteinCounts = reactionProteinCounts.getTotal();
 			if (reactionTotalProteinCounts > 0) 
 			{
 				logger.info("Total protein count for RlE: " + reactionTotalProteinCounts);
-				String eligibleEventName = reactionInst.getAttributeValue(DB_ID).toString() + "\t" + reactionInst.getDisplayName() + "\n";	
 				// Having passed all tests/filters until now, the reaction is recorded in the 'eligible reactions' file, meaning inference is continued.
-				eligibleCount++;
-				Files.write(Paths.get(eligibleFilehandle), eligibleEventName.getBytes(), StandardOpenOption.APPEND);
+				recordEligibleReaction(reactionInst);
 				// Attempt to infer all PhysicalEntities associated with this reaction's Input, Output, CatalystActivity and RegulatedBy attributes.
 				// Failure to successfully infer any of these attributes will end inference for this reaction.
 				logger.info("Inferring inputs...");
-				if (inferReactionInputsOrOutputs(reactionInst, infReactionInst, input))
+				if (metrics.time("inferInputs", () -> inferReactionInputsOrOutputs(reactionInst, infReactionInst, input)))
 				{
 					logger.info("Inferring outputs...");
-					if (inferReactionInputsOrOutputs(reactionInst, infReactionInst, output))
+					if (metrics.time("inferOutputs", () -> inferReactionInputsOrOutputs(reactionInst, infReactionInst, output)))
 					{
 						logger.info("Inferring catalysts...");
-						if (inferReactionCatalysts(reactionInst, infReactionInst))
+						if (metrics.time("inferCatalysts", () -> inferReactionCatalysts(reactionInst, infReactionInst)))
 						{
 							// Many reactions are not regulated at all, meaning inference is attempted but will not end the process if there is nothing to infer. 
 							// The inference process will end though if inferRegulations returns an invalid value.
 							logger.info("Inferring regulations...");
-							List<GKInstance> inferredRegulations = inferReactionRegulations(reactionInst);
+							List<GKInstance> inferredRegulations = metrics.time("inferRegulations", () -> inferReactionRegulations(reactionInst));
 							if (inferredRegulations.size() == 1 && inferredRegulations.get(0) == null)
 							{
+								context.getSummary().recordSkippedReaction("requirement inference unsuccessful");
 								return;
 							}
 							if (infReactionInst.getSchemClass().isValidAttribute(releaseDate)) 
@@ -89,20 +100,17 @@ public class ReactionInferrer {
 							}
 							// FetchIdenticalInstances would just return the instance being inferred. Since this step is meant to always
 							// add a new inferred instance, the storeInstance method is just called here.
-							GKInstance orthoStableIdentifierInst = EventsInferrer.getStableIdentifierGenerator().generateOrthologousStableId(infReactionInst, reactionInst);
+							GKInstance orthoStableIdentifierInst = context.getStableIdentifierGenerator().generateOrthologousStableId(infReactionInst, reactionInst);
 							infReactionInst.addAttributeValue(stableIdentifier, orthoStableIdentifierInst);
-							dba.storeInstance(infReactionInst);
+							context.getUnitOfWork().storeInstance(infReactionInst);
 							logger.info("Inferred RlE instance: " + infReactionInst);
 
 							if (infReactionInst.getSchemClass().isValidAttribute(inferredFrom))
 							{
-								infReactionInst = InstanceUtilities.addAttributeValueIfNecessary(infReactionInst, reactionInst, inferredFrom);
-								dba.updateInstanceAttribute(infReactionInst, inferredFrom);
+								context.getUnitOfWork().addAttributeValue(infReactionInst, reactionInst, inferredFrom);
 							}
-							infReactionInst = InstanceUtilities.addAttributeValueIfNecessary(infReactionInst, reactionInst, orthologousEvent);
-							dba.updateInstanceAttribute(infReactionInst, orthologousEvent);
-							reactionInst.addAttributeValue(orthologousEvent, infReactionInst);
-							dba.updateInstanceAttribute(reactionInst, orthologousEvent);
+							context.getUnitOfWork().addAttributeValue(infReactionInst, reactionInst, orthologousEvent);
+							context.getUnitOfWork().addSourceAttributeValue(reactionInst, infReactionInst, orthologousEvent);
 							
 							inferredEvent.put(reactionInst, infReactionInst);
 							
@@ -112,34 +120,58 @@ public class ReactionInferrer {
 								logger.info("Number of regulator(s) inferred: " + inferredRegulations.size());
 								for (GKInstance infRegulation : inferredRegulations)
 								{
-									infRegulation = InstanceUtilities.checkForIdenticalInstances(infRegulation, null);
+									infRegulation = instanceUtilities.checkForIdenticalInstances(infRegulation, null);
 									infReactionInst.addAttributeValue("regulatedBy", infRegulation);
-									dba.updateInstanceAttribute(infReactionInst, "regulatedBy");
+									context.getUnitOfWork().updateAttribute(infReactionInst, "regulatedBy");
 								}
 							}
 							// After successfully adding a new inferred instance to the DB, it is recorded in the 'inferred reactions' file
-							inferredCount++;
-							inferrableHumanEvents.add(reactionInst);
-							String inferredEvent = infReactionInst.getAttributeValue(DB_ID).toString() + "\t" + infReactionInst.getDisplayName() + "\n";	
-							Files.write(Paths.get(inferredFilehandle), inferredEvent.getBytes(), StandardOpenOption.APPEND);
+							recordInferredReaction(reactionInst, infReactionInst);
 						} else {
 							logger.info("Catalyst inference unsuccessful -- terminating inference for " + reactionInst);
+							context.getSummary().recordSkippedReaction("catalyst inference unsuccessful");
 						}
 					} else {
 						logger.info("Output inference unsuccessful -- terminating inference for " + reactionInst);
+						context.getSummary().recordSkippedReaction("output inference unsuccessful");
 					}
 				} else {
 					logger.info("Input inference unsuccessful -- terminating inference for " + reactionInst);
+					context.getSummary().recordSkippedReaction("input inference unsuccessful");
 				}
 			} else {
 				logger.info("No distinct proteins found in instance -- terminating inference for " + reactionInst);
+				context.getSummary().recordSkippedReaction("no distinct proteins");
 			}
 		}
 	}
 	
+	// Counts a reaction that passed all filters and records it in the 'eligible reactions' file. The workers that infer ReactionlikeEvent groups
+	// in parallel have no file; their results are recorded by the species' ReactionInferrer afterwards, in DB ID order (see ReactionGroupScheduler).
+	void recordEligibleReaction(GKInstance reactionInst) throws Exception
+	{
+		eligibleCount++;
+		if (eligibleReport != null)
+		{
+			eligibleReport.writeLine(reactionInst.getAttributeValue(DB_ID).toString() + "\t" + reactionInst.getDisplayName());
+		}
+	}
+
+	// Counts a successfully inferred reaction and records it in the 'inferred reactions' file
+	void recordInferredReaction(GKInstance reactionInst, GKInstance infReactionInst) throws Exception
+	{
+		inferredEvent.put(reactionInst, infReactionInst);
+		inferredCount++;
+		inferrableHumanEvents.add(reactionInst);
+		if (inferredReport != null)
+		{
+			inferredReport.writeLine(infReactionInst.getAttributeValue(DB_ID).toString() + "\t" + infReactionInst.getDisplayName());
+		}
+	}
+
 	// Function used to create inferred PhysicalEntities contained in the 'input' or 'output' attributes of the current reaction instance.
 	@SuppressWarnings("unchecked")
-	private static boolean inferReactionInputsOrOutputs(GKInstance reactionInst, GKInstance infReactionInst, String attribute) throws Exception
+	private boolean inferReactionInputsOrOutputs(GKInstance reactionInst, GKInstance infReactionInst, String attribute) throws Exception
 	{
 		List<GKInstance> infAttributeInstances = new ArrayList<>();
 		Collection<GKInstance> attributeInstances = (Collection<GKInstance>) reactionInst.getAttributeValuesList(attribute);
@@ -147,7 +179,7 @@ public class ReactionInferrer {
 		logger.info(attribute.substring(0,1).toUpperCase() + attribute.substring(1) + " instances: " + attributeInstances);
 		for (GKInstance attributeInst : attributeInstances)
 		{
-			GKInstance infAttributeInst = OrthologousEntityGenerator.createOrthoEntity(attributeInst, false);
+			GKInstance infAttributeInst = context.getOrthologousEntityGenerator().createOrthoEntity(attributeInst, false);
 			if (infAttributeInst == null)
 			{
 				return false;
@@ -162,8 +194,9 @@ public class ReactionInferrer {
 	// Function used to create inferred catalysts associated with the current reaction instance.
 	// Infers all PhysicalEntity's associated with the reaction's 'catalystActivity' and 'activeUnit' attributes
 	@SuppressWarnings("unchecked")
-	private static boolean inferReactionCatalysts(GKInstance reactionInst, GKInstance infReactionInst) throws Exception
+	private boolean inferReactionCatalysts(GKInstance reactionInst, GKInstance infReactionInst) throws Exception
 	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
 		Collection<GKInstance> catalystInstances = (Collection<GKInstance>) reactionInst.getAttributeValuesList(catalystActivity);
 		logger.info("Total CatalystActivity instances: " + catalystInstances.size());
 		if (catalystInstances.size() > 0) {
@@ -172,16 +205,17 @@ public class ReactionInferrer {
 		for (GKInstance catalystInst : catalystInstances)
 		{
 			logger.info("Attempting catalyst inference: " + catalystInst);
+			context.getMetrics().recordCacheLookup("inferredCatalyst", inferredCatalyst.get(catalystInst) != null);
 			if (inferredCatalyst.get(catalystInst) == null)
 			{
-				GKInstance infCatalystInst = InstanceUtilities.createNewInferredGKInstance(catalystInst);
+				GKInstance infCatalystInst = instanceUtilities.createNewInferredGKInstance(catalystInst);
 				infCatalystInst.setDbAdaptor(dba);
 				infCatalystInst.addAttributeValue(activity, catalystInst.getAttributeValue(activity));
 				GKInstance catalystPEInst = (GKInstance) catalystInst.getAttributeValue(physicalEntity);
 				if (catalystPEInst != null)
 				{
 					logger.info("Catalyst PE instance: " + catalystPEInst);
-					GKInstance infCatalystPEInst = OrthologousEntityGenerator.createOrthoEntity(catalystPEInst, false);
+					GKInstance infCatalystPEInst = context.getOrthologousEntityGenerator().createOrthoEntity(catalystPEInst, false);
 					if (infCatalystPEInst != null)
 					{
 						infCatalystInst.addAttributeValue(physicalEntity, infCatalystPEInst);
@@ -197,7 +231,7 @@ public class ReactionInferrer {
 					logger.info("Active unit instance(s): " + activeUnitInstances);
 					for (GKInstance activeUnitInst : activeUnitInstances) {
 						logger.info("Active Unit instance: " + activeUnitInst);
-						GKInstance infActiveUnitInst = OrthologousEntityGenerator.createOrthoEntity(activeUnitInst, false);
+						GKInstance infActiveUnitInst = context.getOrthologousEntityGenerator().createOrthoEntity(activeUnitInst, false);
 						if (infActiveUnitInst != null) {
 							activeUnits.add(infActiveUnitInst);
 						}
@@ -205,7 +239,7 @@ public class ReactionInferrer {
 				}
 				infCatalystInst.addAttributeValue(activeUnit, activeUnits);
 				infCatalystInst.addAttributeValue(_displayName, catalystInst.getAttributeValue(_displayName));
-				infCatalystInst = InstanceUtilities.checkForIdenticalInstances(infCatalystInst, null);
+				infCatalystInst = instanceUtilities.checkForIdenticalInstances(infCatalystInst, null);
 				inferredCatalyst.put(catalystInst, infCatalystInst);
 			} else {
 				logger.info("Inferred catalyst already exists");
@@ -218,8 +252,9 @@ public class ReactionInferrer {
 	
 	@SuppressWarnings("unchecked")
 	// Function used to infer regulation instances. Logic existed for regulators that had CatalystActivity and Event instances, but they have never come up in the many times this has been run.
-	private static List<GKInstance> inferReactionRegulations(GKInstance reactionInst) throws Exception
+	private List<GKInstance> inferReactionRegulations(GKInstance reactionInst) throws Exception
 	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
 		List<GKInstance> inferredRegulations = new ArrayList<>();
 		Collection<GKInstance> regulationInstances = (Collection<GKInstance>) reactionInst.getAttributeValuesList("regulatedBy");
 		logger.info("Total RegulatedBy instances: " + regulationInstances.size());
@@ -231,7 +266,7 @@ public class ReactionInferrer {
 				logger.info("Regulator: " + regulatorInst);
 				GKInstance infRegulatorInst = null;
 				if (regulatorInst.getSchemClass().isa(PhysicalEntity)) {
-					infRegulatorInst = OrthologousEntityGenerator.createOrthoEntity(regulatorInst, false);
+					infRegulatorInst = context.getOrthologousEntityGenerator().createOrthoEntity(regulatorInst, false);
 				} else if (regulatorInst.getSchemClass().isa(CatalystActivity)) {
 					// This has never happened since running the new orthoinference (JCook 2019)
 					logger.warn(regulatorInst + " is a CatalystActivity, which is unexpected -- refer to infer_events.pl");
@@ -252,7 +287,7 @@ public class ReactionInferrer {
 						continue;
 					}
 				}
-				GKInstance infRegulationInst = InstanceUtilities.createNewInferredGKInstance(regulationInst);
+				GKInstance infRegulationInst = instanceUtilities.createNewInferredGKInstance(regulationInst);
 				infRegulationInst.setDbAdaptor(dba);
 				infRegulationInst.addAttributeValue(regulator, infRegulatorInst);
 				infRegulationInst.addAttributeValue(_displayName, regulationInst.getAttributeValue(_displayName));
@@ -263,54 +298,98 @@ public class ReactionInferrer {
 		return inferredRegulations;
 	}
 	
-	public static void setReleaseDate(String dateOfReleaseCopy) 
+	public void setReleaseDate(String dateOfReleaseCopy) 
 	{
 		dateOfRelease = dateOfReleaseCopy;
 	}
-	
-	public static void setAdaptor(MySQLAdaptor dbAdaptor)
+
+	String getReleaseDate()
 	{
-		dba = dbAdaptor;
+		return dateOfRelease;
 	}
 	
-	public static void setEligibleFilename(String eligibleFilename)
+	public void setEligibleFilename(String eligibleFilename)
 	{
-		eligibleFilehandle = eligibleFilename;
+		eligibleReport = new ReportWriter(Paths.get(eligibleFilename));
 	}
 	
-	public static void setInferredFilename(String inferredFilename)
+	public void setInferredFilename(String inferredFilename)
 	{
-		inferredFilehandle = inferredFilename;
+		inferredReport = new ReportWriter(Paths.get(inferredFilename));
 	}
 	
-	public static void setEvidenceTypeInstance(GKInstance evidenceTypeInstCopy)
+	public void setEvidenceTypeInstance(GKInstance evidenceTypeInstCopy)
 	{
 		evidenceTypeInst = evidenceTypeInstCopy;
 	}
 	
-	public static void setSummationInstance(GKInstance summationInstCopy)
+	public void setSummationInstance(GKInstance summationInstCopy)
 	{
 		summationInst = summationInstCopy;
 	}
 	
-	public static Map<GKInstance, GKInstance> getInferredEvent()
+	public Map<GKInstance, GKInstance> getInferredEvent()
 	{
 		return inferredEvent;
 	}
 	
-	public static List<GKInstance> getInferrableHumanEvents()
+	public List<GKInstance> getInferrableHumanEvents()
 	{
 		return inferrableHumanEvents;
 	}
 
-	public static int getEligibleCount()
+	public int getEligibleCount()
 	{
 		return eligibleCount;
 	}
 	
-	public static int getInferredCount()
+	public int getInferredCount()
 	{
 		return inferredCount;
 	}
 
+	// Writes the buffered lines of the eligible and inferred reports to their files
+	public void flushReports() throws IOException
+	{
+		if (eligibleReport != null)
+		{
+			eligibleReport.flush();
+			inferredReport.flush();
+		}
+	}
+
+	public void closeReports() throws IOException
+	{
+		if (eligibleReport != null)
+		{
+			eligibleReport.close();
+			inferredReport.close();
+		}
+	}
+
+	// Copies the setup of the species' context to a worker's context
+	void copySetup(ReactionInferrer source) throws Exception
+	{
+		InstanceUtilities instanceUtilities = context.getInstanceUtilities();
+		dateOfRelease = source.dateOfRelease;
+		summationInst = instanceUtilities.refetch(source.summationInst);
+		evidenceTypeInst = instanceUtilities.refetch(source.evidenceTypeInst);
+	}
+
+	// Used by InferenceJournal when a run is resumed
+	void restoreCounts(int eligibleCountCopy, int inferredCountCopy)
+	{
+		eligibleCount = eligibleCountCopy;
+		inferredCount = inferredCountCopy;
+	}
+
+	// The caches of inferred ReactionlikeEvents and CatalystActivities, by name, for InferenceJournal
+	Map<String, Map<GKInstance, GKInstance>> getInstanceCaches()
+	{
+		Map<String, Map<GKInstance, GKInstance>> instanceCaches = new LinkedHashMap<>();
+		instanceCaches.put("inferredEvent", inferredEvent);
+		instanceCaches.put("inferredCatalyst", inferredCatalyst);
+		return instanceCaches;
+	}
+
 }
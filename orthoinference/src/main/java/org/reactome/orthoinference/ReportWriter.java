@@ -0,0 +1,52 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A report file that lines are appended to during orthoinference, such as the eligible_* and inferred_* files. Lines are buffered and only
+ * written when the buffer is full or the writer is flushed, which happens at each checkpoint (see InferenceJournal) and when the species is done.
+ * The file is opened on the first write, so it can be created or truncated beforehand.
+ */
+public class ReportWriter implements Closeable {
+
+	private final Path path;
+	private BufferedWriter writer;
+
+	public ReportWriter(Path path)
+	{
+		this.path = path;
+	}
+
+	public synchronized void writeLine(String line) throws IOException
+	{
+		if (writer == null)
+		{
+			writer = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+		writer.write(line);
+		writer.write('\n');
+	}
+
+	public synchronized void flush() throws IOException
+	{
+		if (writer != null)
+		{
+			writer.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (writer != null)
+		{
+			writer.close();
+			writer = null;
+		}
+	}
+}
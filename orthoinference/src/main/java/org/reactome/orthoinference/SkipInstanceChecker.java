@@ -21,12 +21,19 @@ import org.gk.persistence.MySQLAdaptor;
 public class SkipInstanceChecker {
 
 	private static final Logger logger = LogManager.getLogger();
-	private static MySQLAdaptor dba;
-	private static Set<String> skipList = new HashSet<>();
+	private final Set<String> skipList;
+	private final InferencePlan inferencePlan;
+
+	public SkipInstanceChecker(Set<String> skipList, InferencePlan inferencePlan)
+	{
+		this.skipList = skipList;
+		this.inferencePlan = inferencePlan;
+	}
 
 	// Skiplist was traditionally provided in a file, but since it's currently just 3 instances, I've just hard-coded them here.
-	public static void getSkipList(String pathToSkipList) throws NumberFormatException, Exception
+	public static Set<String> readSkipList(MySQLAdaptor dba, String pathToSkipList) throws NumberFormatException, Exception
 	{
+		Set<String> skipList = new HashSet<>();
 		String[] pathwayIdsToSkip = {"162906","168254","977225"};
 		for (String pathwayId : pathwayIdsToSkip)
 		{
@@ -56,51 +63,63 @@ public class SkipInstanceChecker {
 		}
 		br.close();
 		fr.close();
+		return skipList;
+	}
+	// Checks if the orthoinference of this instance should be skipped. The verdict is taken from the inference plan when it has one for the instance.
+	public boolean checkIfInstanceShouldBeSkipped(GKInstance reactionInst) throws Exception
+	{
+		return checkSkipReason(reactionInst) != null;
 	}
-	// Skip orthoinference of this instance if:
-	public static boolean checkIfInstanceShouldBeSkipped(GKInstance reactionInst) throws Exception
+
+	// Returns the reason the orthoinference of this instance should be skipped, or null if it shouldn't be
+	public String checkSkipReason(GKInstance reactionInst) throws Exception
+	{
+		String skipReason = inferencePlan.hasSkipVerdict(reactionInst.getDBID()) ? inferencePlan.getSkipReason(reactionInst.getDBID()) : getSkipReason(reactionInst, skipList);
+		if (skipReason != null)
+		{
+			logger.info(reactionInst + " " + skipReason + " -- skipping");
+		}
+		return skipReason;
+	}
+
+	// Returns the reason for skipping the orthoinference of this instance, or null if it shouldn't be skipped. Skip if:
+	static String getSkipReason(GKInstance reactionInst, Set<String> skipList) throws Exception
 	{
 		// it is found in skiplist array
 		if (skipList.contains(reactionInst.getDBID().toString()))
 		{
-			logger.info(reactionInst + " is in skipList -- skipping");
-			return true;
+			return "is in skipList";
 		}
 		// it is chimeric
 		if (reactionInst.getAttributeValue(isChimeric) != null)
 		{
 			if ((boolean) reactionInst.getAttributeValue(isChimeric))
 			{
-				logger.info(reactionInst + " is chimeric -- skipping");
-				return true;
+				return "is chimeric";
 			}
 		}
 		// it has related species
 		if (reactionInst.getAttributeValue("relatedSpecies") != null)
 		{
-			logger.info(reactionInst + " has related species -- skipping");
-			return true;
+			return "has related species";
 		}
 		// it is a disease reaction
 		if (reactionInst.getAttributeValue(disease) != null)
 		{
-			logger.info(reactionInst + " is a disease reaction -- skipping");
-			return true;
+			return "is a disease reaction";
 		}
 		// it is manually inferred
 		if (reactionInst.getAttributeValue(inferredFrom) != null)
 		{
-			logger.info(reactionInst + " is manually inferred -- skipping");
-			return true;
+			return "is manually inferred";
 		}
 		// it contains multiple species
 		Collection<GKInstance> speciesInstances = checkIfEntitiesContainMultipleSpecies(reactionInst);
 		if (speciesInstances.size() > 1)
 		{
-			logger.info(reactionInst + " has multiple species -- skipping");
-			return true;
+			return "has multiple species";
 		}
-		return false;
+		return null;
 	}
 
 	// Goes through all input/output/catalystActivity/regulatedBy attribute instances, and captures all species associates with them. Returns a collection of species instances.
@@ -213,9 +232,4 @@ public class SkipInstanceChecker {
 		}
 		return null;
 	}
-
-	public static void setAdaptor(MySQLAdaptor dbAdaptor)
-	{
-		dba = dbAdaptor;
-	}
 }
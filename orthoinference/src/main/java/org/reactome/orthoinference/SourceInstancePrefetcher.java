@@ -0,0 +1,121 @@
+package org.reactome.orthoinference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import static org.gk.model.ReactomeJavaConstants.*;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaClass;
+
+/**
+ * Loads the attributes of the source species instances that the inference of ReactionlikeEvents walks through (their PhysicalEntities,
+ * CatalystActivities, Regulations, ReferenceEntities, Compartments and ModifiedResidues) before the inference starts. Instances are loaded
+ * class by class, in batches of BATCH_SIZE, so each attribute costs one 'IN (...)' query per batch rather than one query per instance, which
+ * is how the instances' attributes are otherwise loaded as they are first read. The loaded instances are held in the adaptor's cache, so the
+ * inference reads the same instances as before, without going back to the DB.
+ */
+public class SourceInstancePrefetcher {
+
+	private static final Logger logger = LogManager.getLogger();
+	private static final int BATCH_SIZE = 1000;
+	// The classes whose instances are loaded, and the attributes that are followed to reach them from the ReactionlikeEvents
+	private static final String[] PREFETCHED_CLASSES = {ReactionlikeEvent, PhysicalEntity, CatalystActivity, Regulation, ReferenceEntity, GO_CellularComponent, "AbstractModifiedResidue"};
+	private static final String[] FOLLOWED_ATTRIBUTES = {input, output, catalystActivity, "regulatedBy", physicalEntity, activeUnit, regulator, hasComponent, hasMember,
+		hasCandidate, repeatedUnit, referenceEntity, compartment, hasModifiedResidue};
+
+	// Loads the attributes of the ReactionlikeEvents and of every instance of a prefetched class that can be reached from them. Returns the number of instances loaded.
+	public static int prefetch(MySQLAdaptor dba, Collection<GKInstance> reactionInstances, InferenceMetrics metrics) throws Exception
+	{
+		long startNanos = System.nanoTime();
+		Set<Long> visitedDbIds = new HashSet<>();
+		List<GKInstance> pendingInstances = new ArrayList<>(reactionInstances);
+		int loadedCount = 0;
+		// Each pass loads the instances reached by the previous one, so the instances of a class are loaded together as far as possible
+		while (!pendingInstances.isEmpty())
+		{
+			Map<SchemaClass, List<GKInstance>> instancesByClass = new LinkedHashMap<>();
+			for (GKInstance inst : pendingInstances)
+			{
+				if (visitedDbIds.add(inst.getDBID()) && isPrefetched(inst.getSchemClass()))
+				{
+					instancesByClass.computeIfAbsent(inst.getSchemClass(), k -> new ArrayList<>()).add(inst);
+				}
+			}
+			List<GKInstance> reachedInstances = new ArrayList<>();
+			for (List<GKInstance> classInstances : instancesByClass.values())
+			{
+				loadedCount += load(dba, classInstances, metrics);
+				for (GKInstance inst : classInstances)
+				{
+					addFollowedValues(inst, reachedInstances);
+				}
+			}
+			pendingInstances = reachedInstances;
+		}
+		metrics.recordTime("prefetchSourceInstances", startNanos);
+		logger.info("Prefetched the attributes of " + loadedCount + " source instances reachable from " + reactionInstances.size() + " ReactionlikeEvents");
+		return loadedCount;
+	}
+
+	// Loads all attributes of the instances that haven't been loaded yet, which are then marked as inflated so they aren't loaded again
+	private static int load(MySQLAdaptor dba, List<GKInstance> classInstances, InferenceMetrics metrics) throws Exception
+	{
+		List<GKInstance> uninflatedInstances = new ArrayList<>();
+		for (GKInstance inst : classInstances)
+		{
+			if (!inst.isInflated())
+			{
+				uninflatedInstances.add(inst);
+			}
+		}
+		for (int batchStart = 0; batchStart < uninflatedInstances.size(); batchStart += BATCH_SIZE)
+		{
+			List<GKInstance> batch = uninflatedInstances.subList(batchStart, Math.min(batchStart + BATCH_SIZE, uninflatedInstances.size()));
+			metrics.countSqlRoundTrip("loadInstanceAttributeValues");
+			dba.loadInstanceAttributeValues(batch);
+			for (GKInstance inst : batch)
+			{
+				inst.setIsInflated(true);
+			}
+		}
+		return uninflatedInstances.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void addFollowedValues(GKInstance inst, List<GKInstance> reachedInstances) throws Exception
+	{
+		for (String attribute : FOLLOWED_ATTRIBUTES)
+		{
+			if (inst.getSchemClass().isValidAttribute(attribute))
+			{
+				for (Object value : (Collection<Object>) inst.getAttributeValuesList(attribute))
+				{
+					if (value instanceof GKInstance)
+					{
+						reachedInstances.add((GKInstance) value);
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isPrefetched(SchemaClass instanceClass)
+	{
+		for (String prefetchedClass : PREFETCHED_CLASSES)
+		{
+			if (instanceClass.isa(prefetchedClass))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+}
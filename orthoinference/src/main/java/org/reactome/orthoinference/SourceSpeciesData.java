@@ -0,0 +1,111 @@
+package org.reactome.orthoinference;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * Holds the source species (Human) information that is the same for every species being inferred: the Human Species DB ID,
+ * the sorted DB IDs of all Human ReactionlikeEvents, the skip list and the inference plan. It is built once and is only read afterwards, allowing it to be
+ * shared between species that are inferred concurrently. It also provides the lock that guards writes to instances that are shared
+ * between species (eg: the inferredTo/orthologousEvent attributes of Human instances), and the DbIdAllocator that numbers the instances
+ * inserted for every species.
+ */
+public class SourceSpeciesData {
+
+	private static final Logger logger = LogManager.getLogger();
+	private final long sourceSpeciesDbId;
+	private final String sourceSpeciesName;
+	private final List<Long> reactionlikeEventDbIds;
+	private final Set<String> skipList;
+	private final InferencePlan inferencePlan;
+	private final boolean sharedBetweenSpecies;
+	private final Object writeLock = new Object();
+	private final DbIdAllocator dbIdAllocator = new DbIdAllocator(DbIdAllocator.DEFAULT_BLOCK_SIZE);
+
+	private SourceSpeciesData(long sourceSpeciesDbId, String sourceSpeciesName, List<Long> reactionlikeEventDbIds, Set<String> skipList, InferencePlan inferencePlan, boolean sharedBetweenSpecies)
+	{
+		this.sourceSpeciesDbId = sourceSpeciesDbId;
+		this.sourceSpeciesName = sourceSpeciesName;
+		this.reactionlikeEventDbIds = Collections.unmodifiableList(reactionlikeEventDbIds);
+		this.skipList = Collections.unmodifiableSet(skipList);
+		this.inferencePlan = inferencePlan;
+		this.sharedBetweenSpecies = sharedBetweenSpecies;
+	}
+
+	// Retrieves the Human Species instance, all Human ReactionlikeEvents (sorted by DB ID), the skip list and the inference plan (which is built if pathToInferencePlan
+	// doesn't hold one for this database, release, skip list and these ReactionlikeEvents). Returns null if there is no Human Species instance.
+	@SuppressWarnings("unchecked")
+	public static SourceSpeciesData load(MySQLAdaptor dba, String releaseNumber, String pathToSkipList, Path pathToInferencePlan, boolean sharedBetweenSpecies) throws Exception
+	{
+		Collection<GKInstance> sourceSpeciesInst = (Collection<GKInstance>) dba.fetchInstanceByAttribute("Species", "name", "=", "Homo sapiens");
+		if (sourceSpeciesInst.isEmpty())
+		{
+			logger.info("Could not find Species instance for Homo sapiens");
+			return null;
+		}
+		GKInstance humanInst = sourceSpeciesInst.iterator().next();
+		Collection<GKInstance> reactionInstances = (Collection<GKInstance>) dba.fetchInstanceByAttribute("ReactionlikeEvent", "species", "=", humanInst.getDBID());
+		List<Long> dbids = new ArrayList<>();
+		for (GKInstance reactionInst : reactionInstances)
+		{
+			dbids.add(reactionInst.getDBID());
+		}
+		Collections.sort(dbids);
+		logger.info(humanInst.getDisplayName() + " ReactionlikeEvent instances: " + dbids.size());
+
+		Set<String> skipList = SkipInstanceChecker.readSkipList(dba, pathToSkipList);
+		String databaseName = dba.getDBHost() + ":" + dba.getDBPort() + "/" + dba.getDBName();
+		InferencePlan inferencePlan = InferencePlan.loadOrBuild(pathToInferencePlan, databaseName, releaseNumber, humanInst.getDBID(), reactionInstances, skipList);
+		return new SourceSpeciesData(humanInst.getDBID(), humanInst.getDisplayName(), dbids, skipList, inferencePlan, sharedBetweenSpecies);
+	}
+
+	public long getSourceSpeciesDbId()
+	{
+		return sourceSpeciesDbId;
+	}
+
+	public String getSourceSpeciesName()
+	{
+		return sourceSpeciesName;
+	}
+
+	public List<Long> getReactionlikeEventDbIds()
+	{
+		return reactionlikeEventDbIds;
+	}
+
+	public Set<String> getSkipList()
+	{
+		return skipList;
+	}
+
+	public InferencePlan getInferencePlan()
+	{
+		return inferencePlan;
+	}
+
+	// True when more than one species is being inferred in this JVM, meaning shared instances can be modified by another species' connection.
+	public boolean isSharedBetweenSpecies()
+	{
+		return sharedBetweenSpecies;
+	}
+
+	public Object getWriteLock()
+	{
+		return writeLock;
+	}
+
+	public DbIdAllocator getDbIdAllocator()
+	{
+		return dbIdAllocator;
+	}
+}
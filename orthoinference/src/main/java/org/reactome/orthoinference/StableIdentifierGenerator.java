@@ -5,63 +5,90 @@ import org.apache.logging.log4j.Logger;
 import org.gk.model.GKInstance;
 import org.gk.persistence.MySQLAdaptor;
 
-import java.util.Collection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.gk.model.ReactomeJavaConstants.*;
 
 /*
- *  All PhysicalEntitys, ReactionlikeEvents and Pathways are routed to this class to generate their stable identifiers
+ *  All PhysicalEntitys, ReactionlikeEvents and Pathways are routed to this class to generate their stable identifiers.
+ *  The existing stable identifiers of the species are loaded with a single query the first time one is generated, after which identifiers
+ *  are allocated from memory. New StableIdentifier instances are stored through the context's InstanceStore, which buffers them with the
+ *  rest of the unit of work's new instances and inserts them with its multi-row INSERTs when the writes are committed (see MySQLInstanceStore).
+ *  Identifiers can be generated from multiple threads.
  */
 public class StableIdentifierGenerator {
     private static final Logger logger = LogManager.getLogger();
-    private static Map<String,Integer> seenOrthoIds = new HashMap<>();
 
     private MySQLAdaptor dba;
     private String speciesAbbreviation;
+    private InstanceUtilities instanceUtilities;
+    private Map<String,Integer> seenOrthoIds = new ConcurrentHashMap<>();
+    // DB IDs of the species' StableIdentifier instances, keyed by identifier
+    private Map<String,Long> stableIdentifierDbIds;
+    // Guards stableIdentifierDbIds, which is shared with any worker generators
+    private Object stableIdentifierLock = new Object();
+    // Identifiers of the StableIdentifiers this generator has stored since its context's last commit
+    private final List<String> pendingIdentifiers = new ArrayList<>();
+    private InferenceMetrics metrics = new InferenceMetrics();
+    private InstanceStore instanceStore;
 
-    public StableIdentifierGenerator(MySQLAdaptor dba, String speciesAbbreviation) {
+    public StableIdentifierGenerator(MySQLAdaptor dba, String speciesAbbreviation, InstanceUtilities instanceUtilities) {
         this.dba = dba;
         this.speciesAbbreviation = speciesAbbreviation;
+        this.instanceUtilities = instanceUtilities;
+    }
+
+    // Creates a generator whose species' existing stable identifiers are already known, so that it doesn't query a database. Used by the benchmarks.
+    StableIdentifierGenerator(String speciesAbbreviation, Map<String,Long> stableIdentifierDbIds, InstanceStore instanceStore) {
+        this.speciesAbbreviation = speciesAbbreviation;
+        this.stableIdentifierDbIds = stableIdentifierDbIds;
+        this.instanceStore = instanceStore;
+    }
+
+    public void setMetrics(InferenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // New StableIdentifier instances are written to the store, which is also used to fetch them back
+    public void setInstanceStore(InstanceStore instanceStore) {
+        this.instanceStore = instanceStore;
     }
 
     public GKInstance generateOrthologousStableId(GKInstance inferredInst, GKInstance originalInst) throws Exception {
+        return metrics.time("generateOrthologousStableId", () -> generateOrthologousStableIdInstance(inferredInst, originalInst));
+    }
+
+    private GKInstance generateOrthologousStableIdInstance(GKInstance inferredInst, GKInstance originalInst) throws Exception {
 
         // Sometimes there already exists a StableIdentifier value for an instance, if there are multiple instances that can create one instance.
         GKInstance orthoStableIdentifierInst = null;
         if (inferredInst.getAttributeValue(stableIdentifier) == null) {
             // All Human PhysicalEntitys and Events will have a StableIdentifier instance in the stableIdentifier attribute
             GKInstance stableIdentifierInst = (GKInstance) originalInst.getAttributeValue(stableIdentifier);
-            logger.info("Generating orthologous stable identifier for " + stableIdentifierInst.getDisplayName());
             if (stableIdentifierInst == null) {
                 String missingStableIdentifierMsg = "No stable identifier instance found for " + originalInst;
                 logger.fatal(missingStableIdentifierMsg);
                 throw new RuntimeException(missingStableIdentifierMsg);
             }
+            logger.info("Generating orthologous stable identifier for " + stableIdentifierInst.getDisplayName());
 
             // For now, Human is hard-coded as the source species, so we replace the stableIdentifier source species based on that assumption
             String sourceIdentifier = (String) stableIdentifierInst.getAttributeValue(identifier);
             String targetIdentifier = sourceIdentifier.replace("HSA", speciesAbbreviation);
             // Paralogs will have the same base stable identifier, but we want to denote when that happens.
-            // We pull the value from `seenOrthoIds`, increment it and then add it to the stable identifier name (eg: R-MMU-123456-2)
-            int paralogCount = Optional.ofNullable(seenOrthoIds.get(targetIdentifier)).orElse(0) + 1;
-            seenOrthoIds.put(targetIdentifier, paralogCount);
+            // We increment the value in `seenOrthoIds` and then add it to the stable identifier name (eg: R-MMU-123456-2)
+            int paralogCount = seenOrthoIds.merge(targetIdentifier, 1, Integer::sum);
             if (paralogCount > 1) {
                 targetIdentifier += "-" + paralogCount;
             }
 
-            // Check that the stable identifier instance does not already exist in DB
-            Collection<GKInstance> existingStableIdentifier = (Collection<GKInstance>) dba.fetchInstanceByAttribute("StableIdentifier", "identifier", "=", targetIdentifier);
-            
-            if (existingStableIdentifier.size() == 0) {
-                // Create new StableIdentifier instance
-                orthoStableIdentifierInst = createOrthologousStableIdentifierInstance(stableIdentifierInst, targetIdentifier);
-                dba.storeInstance(orthoStableIdentifierInst);
-            } else {
-                orthoStableIdentifierInst = existingStableIdentifier.iterator().next();
-            }
+            orthoStableIdentifierInst = getOrCreateStableIdentifierInstance(stableIdentifierInst, targetIdentifier);
 
             // Populate inferred instance with new StableIdentifier instance
             logger.info("Stable identifier generated: " + orthoStableIdentifierInst.getDisplayName());
@@ -69,9 +96,83 @@ public class StableIdentifierGenerator {
         return orthoStableIdentifierInst;
     }
 
+    // Number of StableIdentifiers generated so far for each orthologous identifier, which the journal records so that a resumed run continues the
+    // paralog numbering instead of reusing the identifiers of the interrupted run's instances
+    public Map<String,Integer> getParalogCounts() {
+        return Collections.unmodifiableMap(seenOrthoIds);
+    }
+
+    public void restoreParalogCount(String targetIdentifier, int paralogCount) {
+        seenOrthoIds.merge(targetIdentifier, paralogCount, Math::max);
+    }
+
+    // Returns a generator for a worker that infers some of the species' ReactionlikeEvent groups on its own connection (see ReactionGroupScheduler).
+    // It shares the paralog counts and known stable identifiers with this generator.
+    public StableIdentifierGenerator createWorkerGenerator(MySQLAdaptor workerDba, InstanceUtilities workerInstanceUtilities) throws Exception {
+        StableIdentifierGenerator workerGenerator = new StableIdentifierGenerator(workerDba, speciesAbbreviation, workerInstanceUtilities);
+        synchronized (stableIdentifierLock) {
+            if (stableIdentifierDbIds == null) {
+                stableIdentifierDbIds = loadStableIdentifierDbIds();
+            }
+            workerGenerator.seenOrthoIds = seenOrthoIds;
+            workerGenerator.stableIdentifierDbIds = stableIdentifierDbIds;
+            workerGenerator.stableIdentifierLock = stableIdentifierLock;
+        }
+        return workerGenerator;
+    }
+
+    // Returns the StableIdentifier instance with the identifier if it already exists in the DB, otherwise creates and stores it
+    private GKInstance getOrCreateStableIdentifierInstance(GKInstance stableIdentifierInst, String targetIdentifier) throws Exception {
+        synchronized (stableIdentifierLock) {
+            if (stableIdentifierDbIds == null) {
+                stableIdentifierDbIds = loadStableIdentifierDbIds();
+            }
+            Long existingStableIdentifierDbId = stableIdentifierDbIds.get(targetIdentifier);
+            if (existingStableIdentifierDbId != null) {
+                return instanceStore.fetchInstance(existingStableIdentifierDbId);
+            }
+            // Create new StableIdentifier instance
+            GKInstance orthoStableIdentifierInst = createOrthologousStableIdentifierInstance(stableIdentifierInst, targetIdentifier);
+            instanceStore.storeInstance(orthoStableIdentifierInst);
+            stableIdentifierDbIds.put(targetIdentifier, orthoStableIdentifierInst.getDBID());
+            pendingIdentifiers.add(targetIdentifier);
+            return orthoStableIdentifierInst;
+        }
+    }
+
+    // Called when the context's writes are committed or rolled back. The identifiers of rolled back StableIdentifiers are forgotten,
+    // so that they are created again rather than fetched. Their paralog counts are kept, since other generators may have counted past them.
+    public void releasePending(boolean committed) {
+        synchronized (stableIdentifierLock) {
+            if (!committed) {
+                for (String targetIdentifier : pendingIdentifiers) {
+                    stableIdentifierDbIds.remove(targetIdentifier);
+                }
+            }
+            pendingIdentifiers.clear();
+        }
+    }
+
+    // Retrieves the identifiers and DB IDs of all StableIdentifier instances of the species (eg: R-MMU-*) in one query
+    private Map<String,Long> loadStableIdentifierDbIds() throws Exception {
+        Map<String,Long> dbIds = new HashMap<>();
+        String query = "SELECT DB_ID, identifier FROM StableIdentifier WHERE identifier LIKE ?";
+        metrics.countSqlRoundTrip("loadStableIdentifiers");
+        ResultSet results = dba.executeQuery(query, Collections.singletonList("R-" + speciesAbbreviation + "-%"));
+        try {
+            while (results.next()) {
+                dbIds.put(results.getString(2), results.getLong(1));
+            }
+        } finally {
+            results.getStatement().close();
+        }
+        logger.info("Loaded " + dbIds.size() + " existing R-" + speciesAbbreviation + " stable identifiers");
+        return dbIds;
+    }
+
     // Generates a new stable identifier instance
     private GKInstance createOrthologousStableIdentifierInstance(GKInstance stableIdentifierInst, String targetIdentifier) throws Exception {
-        GKInstance orthoStableIdentifierInst = InstanceUtilities.createNewInferredGKInstance(stableIdentifierInst);
+        GKInstance orthoStableIdentifierInst = instanceUtilities.createNewInferredGKInstance(stableIdentifierInst);
         orthoStableIdentifierInst.addAttributeValue(identifier, targetIdentifier);
         String identifierVersionNumber = "1";
         orthoStableIdentifierInst.addAttributeValue(identifierVersion, identifierVersionNumber);
@@ -0,0 +1,308 @@
+package org.reactome.orthoinference;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import static org.gk.model.ReactomeJavaConstants.*;
+
+/**
+ * Reports how many ReactionlikeEvents would be inferred for each species at a range of Complex/Polymer protein thresholds (the percent of a
+ * Complex/Polymer's distinct proteins that must be inferrable, see OrthologousEntityGenerator), without inferring anything or writing to the database.
+ *
+ * A PhysicalEntity's inference only depends on the threshold through the Complexes/Polymers it contains, and raising the threshold can only make
+ * fewer of them inferrable. So each PhysicalEntity has a cutoff: the highest threshold at which it would be inferred. For a Complex/Polymer this is
+ * the percent of its proteins that are inferrable, for an EntitySet the highest cutoff of its members and candidates, and for a ReactionlikeEvent
+ * the lowest cutoff of the entities its inference requires. The cutoffs are computed once, with the protein counts of ProteinCountUtility,
+ * in a single pass over the ReactionlikeEvents for all species, and each threshold is then evaluated against the counts of each cutoff.
+ * The counts are those of an inference into a release database that doesn't contain any inferred events yet.
+ */
+public class ThresholdSweep {
+
+	private static final Logger logger = LogManager.getLogger();
+	// The cutoff of an entity that isn't inferred at any threshold, and of one that is inferred at every threshold
+	static final int NOT_INFERRED = -1;
+	static final int ALL_THRESHOLDS = 100;
+	private final InferencePlan inferencePlan;
+	private final IdentifierMappings homologueMappings;
+	private final IdentifierMappings ensgMappings;
+	private final ProteinCountUtility proteinCountUtility;
+	private final LongKeyedMap<Integer> entityCutoffs = new LongKeyedMap<>();
+	private final ReactionCutoffs reactionCutoffs = new ReactionCutoffs();
+
+	ThresholdSweep(InferencePlan inferencePlan, IdentifierMappings homologueMappings, IdentifierMappings ensgMappings)
+	{
+		this.inferencePlan = inferencePlan;
+		this.homologueMappings = homologueMappings;
+		this.ensgMappings = ensgMappings;
+		this.proteinCountUtility = new ProteinCountUtility(inferencePlan, new InferenceMetrics());
+		this.proteinCountUtility.setHomologueMappingFile(homologueMappings);
+	}
+
+	// Runs the sweep given by the 'thresholdSweep' property for the species, and writes the results to threshold_sweep_<release>.tsv
+	@SuppressWarnings("unchecked")
+	public static void run(Properties props, List<String> speciesCodes, SourceSpeciesData sourceData, MySQLAdaptor dba) throws Exception
+	{
+		int[] thresholds = parseThresholds(props.getProperty("thresholdSweep"));
+		String releaseVersion = props.getProperty("releaseNumber");
+		String pathToOrthopairs = Paths.get(props.getProperty("pathToOrthopairs") + releaseVersion).toString();
+		Map<String, ThresholdSweep> speciesSweeps = new LinkedHashMap<>();
+		for (String speciesCode : speciesCodes)
+		{
+			try {
+				IdentifierMappings homologueMappings = EventsInferrer.readHomologueMappingFile(speciesCode, "hsap", pathToOrthopairs);
+				IdentifierMappings ensgMappings = EWASInferrer.readENSGMappings(speciesCode, pathToOrthopairs);
+				speciesSweeps.put(speciesCode, new ThresholdSweep(sourceData.getInferencePlan(), homologueMappings, ensgMappings));
+			} catch (FileNotFoundException e) {
+				logger.fatal("Unable to locate the " + speciesCode + " mapping files, it is left out of the sweep", e);
+			}
+		}
+
+		logger.info("Sweeping Complex/Polymer protein thresholds " + thresholds[0] + "-" + thresholds[thresholds.length - 1] + "% for " + speciesSweeps.keySet());
+		SkipInstanceChecker skipInstanceChecker = new SkipInstanceChecker(sourceData.getSkipList(), sourceData.getInferencePlan());
+		Collection<GKInstance> reactionInstances = (Collection<GKInstance>) dba.fetchInstanceByAttribute(ReactionlikeEvent, species, "=", sourceData.getSourceSpeciesDbId());
+		Map<Long, GKInstance> reactionMap = new HashMap<>();
+		for (GKInstance reactionInst : reactionInstances)
+		{
+			reactionMap.put(reactionInst.getDBID(), reactionInst);
+		}
+		for (Long dbId : sourceData.getReactionlikeEventDbIds())
+		{
+			GKInstance reactionInst = reactionMap.get(dbId);
+			if (skipInstanceChecker.checkSkipReason(reactionInst) != null)
+			{
+				continue;
+			}
+			for (ThresholdSweep speciesSweep : speciesSweeps.values())
+			{
+				speciesSweep.addReaction(reactionInst);
+			}
+		}
+
+		Path pathToSweep = Paths.get(props.getProperty("pathToInferenceSummaries", "."), "threshold_sweep_" + releaseVersion + ".tsv");
+		try (BufferedWriter writer = Files.newBufferedWriter(pathToSweep))
+		{
+			writer.write("species\tthreshold\teligibleReactions\tinferredReactions\tpercentInferred");
+			writer.newLine();
+			for (Map.Entry<String, ThresholdSweep> speciesSweep : speciesSweeps.entrySet())
+			{
+				ReactionCutoffs speciesCutoffs = speciesSweep.getValue().reactionCutoffs;
+				for (int threshold : thresholds)
+				{
+					int eligibleCount = speciesCutoffs.getEligibleCount();
+					int inferredCount = speciesCutoffs.getInferredCount(threshold);
+					double percentInferred = eligibleCount > 0 ? Math.round(10000.0 * inferredCount / eligibleCount) / 100.0 : 0.0;
+					writer.write(speciesSweep.getKey() + "\t" + threshold + "\t" + eligibleCount + "\t" + inferredCount + "\t" + percentInferred);
+					writer.newLine();
+					logger.info("hsap to " + speciesSweep.getKey() + " at " + threshold + "%:\t" + inferredCount + " out of " + eligibleCount + " eligible reactions");
+				}
+			}
+		}
+		logger.info("Threshold sweep written to " + pathToSweep);
+	}
+
+	// Parses a comma-separated list of thresholds and ranges, where a range is 'from-to' or 'from-to:step' (eg: '50-100:5' or '50,75,90-100:2')
+	static int[] parseThresholds(String thresholdSpec)
+	{
+		TreeSet<Integer> thresholds = new TreeSet<>();
+		for (String item : thresholdSpec.split(","))
+		{
+			String range = item.trim();
+			int step = 1;
+			int stepIndex = range.indexOf(':');
+			if (stepIndex >= 0)
+			{
+				step = Integer.parseInt(range.substring(stepIndex + 1).trim());
+				range = range.substring(0, stepIndex);
+			}
+			int dashIndex = range.indexOf('-');
+			int from = Integer.parseInt((dashIndex >= 0 ? range.substring(0, dashIndex) : range).trim());
+			int to = dashIndex >= 0 ? Integer.parseInt(range.substring(dashIndex + 1).trim()) : from;
+			if (from < 0 || to > 100 || from > to || step < 1)
+			{
+				throw new IllegalArgumentException("Invalid threshold sweep '" + item + "', thresholds must be percents from 0 to 100");
+			}
+			for (int threshold = from; threshold <= to; threshold += step)
+			{
+				thresholds.add(threshold);
+			}
+		}
+		int[] sortedThresholds = new int[thresholds.size()];
+		int i = 0;
+		for (int threshold : thresholds)
+		{
+			sortedThresholds[i++] = threshold;
+		}
+		return sortedThresholds;
+	}
+
+	// Mirrors ReactionInferrer.inferReaction: RlEs without proteins aren't eligible, and the inputs, outputs, catalyst PhysicalEntities and
+	// Requirement regulators must all be inferred. Active units and other regulators don't stop an inference.
+	@SuppressWarnings("unchecked")
+	void addReaction(GKInstance reactionInst) throws Exception
+	{
+		if (proteinCountUtility.getDistinctProteinCounts(reactionInst).getTotal() == 0)
+		{
+			return;
+		}
+		List<GKInstance> requiredEntities = new ArrayList<>();
+		requiredEntities.addAll((Collection<GKInstance>) reactionInst.getAttributeValuesList(input));
+		requiredEntities.addAll((Collection<GKInstance>) reactionInst.getAttributeValuesList(output));
+		for (GKInstance catalystInst : (Collection<GKInstance>) reactionInst.getAttributeValuesList(catalystActivity))
+		{
+			GKInstance catalystPEInst = (GKInstance) catalystInst.getAttributeValue(physicalEntity);
+			if (catalystPEInst != null)
+			{
+				requiredEntities.add(catalystPEInst);
+			}
+		}
+		for (GKInstance regulationInst : (Collection<GKInstance>) reactionInst.getAttributeValuesList("regulatedBy"))
+		{
+			GKInstance regulatorInst = (GKInstance) regulationInst.getAttributeValue(regulator);
+			if (regulationInst.getSchemClass().isa(Requirement) && regulatorInst != null && regulatorInst.getSchemClass().isa(PhysicalEntity))
+			{
+				requiredEntities.add(regulatorInst);
+			}
+		}
+		int reactionCutoff = ALL_THRESHOLDS;
+		for (GKInstance entityInst : requiredEntities)
+		{
+			reactionCutoff = Math.min(reactionCutoff, getCutoff(entityInst));
+		}
+		reactionCutoffs.add(reactionCutoff);
+	}
+
+	// The highest threshold at which the PhysicalEntity would be inferred by OrthologousEntityGenerator.createOrthoEntity without override
+	int getCutoff(GKInstance entityInst) throws Exception
+	{
+		Integer cutoff = entityCutoffs.get(entityInst.getDBID());
+		if (cutoff == null)
+		{
+			cutoff = computeCutoff(entityInst);
+			entityCutoffs.put(entityInst.getDBID(), cutoff);
+		}
+		return cutoff;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int computeCutoff(GKInstance entityInst) throws Exception
+	{
+		if (!entityInst.getSchemClass().isValidAttribute(species) || !hasSpeciesAttribute(entityInst))
+		{
+			return ALL_THRESHOLDS;
+		}
+		if (entityInst.getSchemClass().isa(GenomeEncodedEntity))
+		{
+			// An EWAS is inferred if any of its homologues is a protein of the species (see EWASInferrer), other GenomeEncodedEntities aren't
+			if (!entityInst.getSchemClass().isa(EntityWithAccessionedSequence))
+			{
+				return NOT_INFERRED;
+			}
+			String referenceEntityId = ((GKInstance) entityInst.getAttributeValue(referenceEntity)).getAttributeValue(identifier).toString();
+			for (String homologueId : homologueMappings.getValues(referenceEntityId))
+			{
+				if (ensgMappings.containsKey(homologueId))
+				{
+					return ALL_THRESHOLDS;
+				}
+			}
+			return NOT_INFERRED;
+		}
+		if (entityInst.getSchemClass().isa(Complex) || entityInst.getSchemClass().isa(Polymer))
+		{
+			// Components are inferred with override, so only the Complex/Polymer's own protein counts matter
+			ProteinCounts proteinCounts = proteinCountUtility.getDistinctProteinCounts(entityInst);
+			if (proteinCounts.getTotal() > 0 && proteinCounts.getInferrable() == 0)
+			{
+				return NOT_INFERRED;
+			}
+			return proteinCounts.getTotal() > 0 ? proteinCounts.getInferrable() * 100 / proteinCounts.getTotal() : 0;
+		}
+		if (entityInst.getSchemClass().isa(EntitySet))
+		{
+			if (entityInst.getAttributeValue(species) == null)
+			{
+				return ALL_THRESHOLDS;
+			}
+			ProteinCounts proteinCounts = proteinCountUtility.getDistinctProteinCounts(entityInst);
+			if (proteinCounts.getTotal() > 0 && proteinCounts.getInferrable() == 0)
+			{
+				return NOT_INFERRED;
+			}
+			if (!entityInst.getSchemClass().isa(CandidateSet) && !entityInst.getSchemClass().isa(DefinedSet))
+			{
+				return ALL_THRESHOLDS;
+			}
+			// A DefinedSet needs an inferred member, and a CandidateSet an inferred member or candidate
+			List<GKInstance> memberInstances = new ArrayList<>((Collection<GKInstance>) entityInst.getAttributeValuesList(hasMember));
+			if (entityInst.getSchemClass().isa(CandidateSet))
+			{
+				memberInstances.addAll((Collection<GKInstance>) entityInst.getAttributeValuesList(hasCandidate));
+			}
+			int cutoff = NOT_INFERRED;
+			for (GKInstance memberInst : memberInstances)
+			{
+				cutoff = Math.max(cutoff, getCutoff(memberInst));
+			}
+			return cutoff;
+		}
+		if (entityInst.getSchemClass().isa(SimpleEntity))
+		{
+			return ALL_THRESHOLDS;
+		}
+		return NOT_INFERRED;
+	}
+
+	private boolean hasSpeciesAttribute(GKInstance entityInst) throws Exception
+	{
+		Boolean speciesAttributeFlag = inferencePlan.getSpeciesAttributeFlag(entityInst.getDBID());
+		if (speciesAttributeFlag != null)
+		{
+			return speciesAttributeFlag;
+		}
+		return SpeciesCheckUtility.checkForSpeciesAttribute(entityInst);
+	}
+
+	// The number of eligible ReactionlikeEvents with each cutoff, from which the number inferred at any threshold is summed
+	static class ReactionCutoffs
+	{
+		// Index 0 holds the RlEs that aren't inferred at any threshold
+		private final int[] cutoffCounts = new int[ALL_THRESHOLDS + 2];
+		private int eligibleCount;
+
+		void add(int cutoff)
+		{
+			cutoffCounts[cutoff + 1]++;
+			eligibleCount++;
+		}
+
+		int getEligibleCount()
+		{
+			return eligibleCount;
+		}
+
+		int getInferredCount(int threshold)
+		{
+			int inferredCount = 0;
+			for (int cutoff = threshold; cutoff <= ALL_THRESHOLDS; cutoff++)
+			{
+				inferredCount += cutoffCounts[cutoff + 1];
+			}
+			return inferredCount;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.reactome.orthoinference;
+
+import org.gk.persistence.MySQLAdaptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DbIdAllocatorTest {
+
+    @Mock
+    MySQLAdaptor mockAdaptor;
+
+    @Mock
+    MySQLAdaptor mockReservationAdaptor;
+
+    @Mock
+    Connection mockConnection;
+
+    @Mock
+    PreparedStatement mockPreparedStatement;
+
+    @Mock
+    ResultSet mockResultSet;
+
+    @Mock
+    Statement mockStatement;
+
+    DbIdAllocator dbIdAllocator;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockReservationAdaptor.executeQuery(Mockito.anyString(), Mockito.anyList())).thenReturn(mockResultSet);
+        Mockito.when(mockResultSet.next()).thenReturn(true);
+        Mockito.when(mockResultSet.getStatement()).thenReturn(mockStatement);
+        Mockito.when(mockReservationAdaptor.getConnection()).thenReturn(mockConnection);
+        Mockito.when(mockConnection.prepareStatement(Mockito.anyString())).thenReturn(mockPreparedStatement);
+        dbIdAllocator = new DbIdAllocator(10, mockReservationAdaptor);
+    }
+
+    @Test
+    public void blocksStartAboveTheLargestDbIdAndEarlierBlocks() throws Exception {
+        Mockito.when(mockResultSet.getLong(1)).thenReturn(100L);
+
+        assertThat(dbIdAllocator.reserveBlock(mockAdaptor), is(equalTo(101L)));
+        // Nothing has been inserted into the first block yet, so the largest DB ID hasn't changed
+        assertThat(dbIdAllocator.reserveBlock(mockAdaptor), is(equalTo(111L)));
+        Mockito.verify(mockStatement, Mockito.times(2)).close();
+    }
+
+    @Test
+    public void blocksStartAboveDbIdsInsertedElsewhere() throws Exception {
+        Mockito.when(mockResultSet.getLong(1)).thenReturn(100L, 500L);
+
+        dbIdAllocator.reserveBlock(mockAdaptor);
+        assertThat(dbIdAllocator.reserveBlock(mockAdaptor), is(equalTo(501L)));
+    }
+
+    @Test
+    public void lastDbIdOfTheBlockIsInsertedAndDeletedToMoveTheAutoIncrement() throws Exception {
+        Mockito.when(mockResultSet.getLong(1)).thenReturn(100L);
+        dbIdAllocator.reserveBlock(mockAdaptor);
+
+        Mockito.verify(mockConnection).prepareStatement("INSERT INTO DatabaseObject (DB_ID, _class, _displayName) VALUES (?, 'DatabaseObject', 'DB ID reservation')");
+        Mockito.verify(mockConnection).prepareStatement("DELETE FROM DatabaseObject WHERE DB_ID = ?");
+        Mockito.verify(mockPreparedStatement, Mockito.times(2)).setLong(1, 110L);
+        Mockito.verify(mockPreparedStatement, Mockito.times(2)).executeUpdate();
+        Mockito.verify(mockAdaptor, Mockito.never()).getConnection();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockSizeMustBePositive() {
+        new DbIdAllocator(0);
+    }
+}
@@ -0,0 +1,161 @@
+package org.reactome.orthoinference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.reactome.release.common.orthopairs.OrthopairsIndex;
+import org.reactome.release.common.orthopairs.OrthopairsIndexWriter;
+
+public class IdentifierMappingsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void homologuesAreSplitIntoSourceAndId() throws Exception {
+        Path mappingFile = temporaryFolder.newFile("hsap_mmus_mapping.txt").toPath();
+        Files.write(mappingFile, Arrays.asList("P1\tENSP:ENSMUSP1 Q8", "P2\tQ8"));
+
+        IdentifierMappings homologueMappings = IdentifierMappings.readHomologueMappings(mappingFile);
+        int index = homologueMappings.indexOf("P1");
+        int start = homologueMappings.getValueStart(index);
+
+        assertThat(homologueMappings.getValueCount("P1"), is(equalTo(2)));
+        assertThat(homologueMappings.getSource(start), is(equalTo("ENSP")));
+        assertThat(homologueMappings.getValue(start), is(equalTo("ENSMUSP1")));
+        assertThat(homologueMappings.getQualifiedValue(start + 1), is(equalTo("Q8")));
+        assertThat(homologueMappings.getValues("P2").get(0), is(sameInstance(homologueMappings.getValue(start + 1))));
+        assertThat(homologueMappings.containsKey("P3"), is(false));
+    }
+
+    @Test
+    public void proteinsAreMappedToTheirGenesInFileOrder() throws Exception {
+        Path mappingFile = temporaryFolder.newFile("mmus_gene_protein_mapping.txt").toPath();
+        Files.write(mappingFile, Arrays.asList("ENSMUSG2\tENSP:ENSMUSP1", "ENSMUSG1\tENSMUSP1 ENSMUSP2"));
+
+        IdentifierMappings ensgMappings = IdentifierMappings.readProteinGeneMappings(mappingFile);
+
+        assertThat(ensgMappings.getValues("ENSMUSP1"), contains("ENSMUSG2", "ENSMUSG1"));
+        assertThat(ensgMappings.getValues("ENSMUSP2"), contains("ENSMUSG1"));
+        assertThat(ensgMappings.getValues("ENSMUSP3"), is(empty()));
+    }
+
+    @Test
+    public void homologueMappingsMatchTheHashMapTheyReplace() throws Exception {
+        Path mappingFile = temporaryFolder.newFile("hsap_mmus_mapping.txt").toPath();
+        // P1 is on two lines, P2 has repeated and trailing spaces, and P3 has a leading space
+        Files.write(mappingFile, Arrays.asList("P1\tQ1 Q2", "P2\tQ3  ENSP:ENSMUSP1 ", "P1\tQ4", "P3\t Q5"));
+
+        IdentifierMappings homologueMappings = IdentifierMappings.readHomologueMappings(mappingFile);
+        Map<String, String[]> previousHomologueMappings = readHomologueMappingsIntoHashMap(mappingFile);
+
+        assertThat(homologueMappings.size(), is(equalTo(previousHomologueMappings.size())));
+        for (Map.Entry<String, String[]> previousMapping : previousHomologueMappings.entrySet()) {
+            assertThat(homologueMappings.getQualifiedValues(previousMapping.getKey()), is(equalTo(Arrays.asList(previousMapping.getValue()))));
+            assertThat(homologueMappings.getValueCount(previousMapping.getKey()), is(equalTo(previousMapping.getValue().length)));
+        }
+        // The last line of a protein replaces its earlier lines
+        assertThat(homologueMappings.getValues("P1"), contains("Q4"));
+        assertThat(homologueMappings.getValues("P2"), contains("Q3", "", "ENSMUSP1"));
+    }
+
+    @Test
+    public void proteinGeneMappingsMatchTheHashMapTheyReplace() throws Exception {
+        Path mappingFile = temporaryFolder.newFile("mmus_gene_protein_mapping.txt").toPath();
+        // ENSMUSG1 is on two lines, and its second line has repeated spaces
+        Files.write(mappingFile, Arrays.asList("ENSMUSG1\tENSMUSP1", "ENSMUSG2\tENSP:ENSMUSP1 ENSMUSP2", "ENSMUSG1\tENSMUSP2  ENSMUSP3"));
+
+        IdentifierMappings ensgMappings = IdentifierMappings.readProteinGeneMappings(mappingFile);
+        Map<String, List<String>> previousEnsgMappings = readProteinGeneMappingsIntoHashMap(mappingFile);
+
+        assertThat(ensgMappings.size(), is(equalTo(previousEnsgMappings.size())));
+        for (Map.Entry<String, List<String>> previousMapping : previousEnsgMappings.entrySet()) {
+            assertThat(ensgMappings.getValues(previousMapping.getKey()), is(equalTo(previousMapping.getValue())));
+        }
+        assertThat(ensgMappings.getValues("ENSMUSP1"), contains("ENSMUSG1", "ENSMUSG2"));
+        assertThat(ensgMappings.getValues("ENSMUSP2"), contains("ENSMUSG2", "ENSMUSG1"));
+    }
+
+    @Test
+    public void indexedMappingsAreLookedUpInPlace() throws Exception {
+        Path indexFile = temporaryFolder.newFile("hsap_mmus_mapping.bin").toPath();
+        OrthopairsIndexWriter indexWriter = new OrthopairsIndexWriter();
+        indexWriter.addLine("P1\tENSP:ENSMUSP1 Q8\n");
+        indexWriter.addLine("P2\tQ8\n");
+        indexWriter.write(indexFile);
+
+        IdentifierMappings homologueMappings = IdentifierMappings.of(OrthopairsIndex.open(indexFile));
+        int start = homologueMappings.getValueStart(homologueMappings.indexOf("P1"));
+
+        assertThat(homologueMappings.getValueCount("P1"), is(equalTo(2)));
+        assertThat(homologueMappings.getSource(start), is(equalTo("ENSP")));
+        assertThat(homologueMappings.getValue(start), is(equalTo("ENSMUSP1")));
+        assertThat(homologueMappings.getSource(start + 1), is(equalTo("")));
+        assertThat(homologueMappings.getQualifiedValues("P1"), contains("ENSP:ENSMUSP1", "Q8"));
+        assertThat(homologueMappings.getValues("P2"), contains("Q8"));
+        assertThat(homologueMappings.containsKey("P3"), is(false));
+    }
+
+    @Test
+    public void indexedMappingsMatchTheMappingsOfTheTextFile() throws Exception {
+        List<String> mappingLines = Arrays.asList("P1\tQ1 Q2", "P2\tQ3  ENSP:ENSMUSP1 ", "P1\tQ4");
+        Path mappingFile = temporaryFolder.newFile("hsap_mmus_mapping.txt").toPath();
+        Files.write(mappingFile, mappingLines);
+        Path indexFile = temporaryFolder.newFile("hsap_mmus_mapping.bin").toPath();
+        OrthopairsIndexWriter indexWriter = new OrthopairsIndexWriter();
+        for (String mappingLine : mappingLines) {
+            indexWriter.addLine(mappingLine + "\n");
+        }
+        indexWriter.write(indexFile);
+
+        IdentifierMappings textMappings = IdentifierMappings.readHomologueMappings(mappingFile);
+        IdentifierMappings indexedMappings = IdentifierMappings.of(OrthopairsIndex.open(indexFile));
+
+        assertThat(indexedMappings.size(), is(equalTo(textMappings.size())));
+        for (String key : Arrays.asList("P1", "P2")) {
+            assertThat(indexedMappings.getQualifiedValues(key), is(equalTo(textMappings.getQualifiedValues(key))));
+        }
+    }
+
+    // The homologue mappings as they were read before IdentifierMappings, by EventsInferrer.readHomologueMappingFile
+    private static Map<String, String[]> readHomologueMappingsIntoHashMap(Path mappingFile) throws Exception {
+        Map<String, String[]> homologueMappings = new HashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(mappingFile)) {
+            String currentLine;
+            while ((currentLine = br.readLine()) != null) {
+                String[] tabSplit = currentLine.split("\t");
+                homologueMappings.put(tabSplit[0], tabSplit[1].split(" "));
+            }
+        }
+        return homologueMappings;
+    }
+
+    // The protein-gene mappings as they were read before IdentifierMappings, by EWASInferrer.readENSGMappingFile
+    private static Map<String, List<String>> readProteinGeneMappingsIntoHashMap(Path mappingFile) throws Exception {
+        Map<String, List<String>> ensgMappings = new HashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(mappingFile)) {
+            String currentLine;
+            while ((currentLine = br.readLine()) != null) {
+                String[] tabSplit = currentLine.split("\t");
+                for (String protein : tabSplit[1].split(" ")) {
+                    String proteinId = protein.contains(":") ? protein.split(":")[1] : protein;
+                    ensgMappings.computeIfAbsent(proteinId, k -> new ArrayList<>()).add(tabSplit[0]);
+                }
+            }
+        }
+        return ensgMappings;
+    }
+}
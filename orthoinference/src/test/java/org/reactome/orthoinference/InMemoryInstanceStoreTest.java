@@ -0,0 +1,200 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.Schema;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InMemoryInstanceStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    MySQLAdaptor mockAdaptor;
+
+    @Mock
+    ResultSet mockResultSet;
+
+    @Mock
+    Statement mockStatement;
+
+    @Mock
+    Schema mockSchema;
+
+    @Mock
+    SchemaClass mockSummationClass;
+
+    @Mock
+    SchemaAttribute mockTextAttribute;
+
+    @Mock
+    SchemaClass mockReactionClass;
+
+    InMemoryInstanceStore inMemoryStore;
+    InstanceStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockAdaptor.executeQuery(Mockito.anyString(), Mockito.anyList())).thenReturn(mockResultSet);
+        Mockito.when(mockResultSet.next()).thenReturn(true);
+        Mockito.when(mockResultSet.getLong(1)).thenReturn(100L);
+        Mockito.when(mockResultSet.getStatement()).thenReturn(mockStatement);
+        Mockito.when(mockAdaptor.getSchema()).thenReturn(mockSchema);
+        Mockito.when(mockSchema.getClassByName("Summation")).thenReturn(mockSummationClass);
+        Mockito.when(mockTextAttribute.getName()).thenReturn("text");
+        Mockito.when(mockSummationClass.getName()).thenReturn("Summation");
+        Mockito.when(mockSummationClass.getAttributes()).thenReturn(Collections.singletonList(mockTextAttribute));
+        Mockito.when(mockSummationClass.getDefiningAttributes()).thenReturn(Collections.singletonList(mockTextAttribute));
+        inMemoryStore = InMemoryInstanceStore.seed(mockAdaptor);
+        store = inMemoryStore.createStore(mockAdaptor);
+    }
+
+    @Test
+    public void storedInstancesAreFoundWithoutWritingToTheDatabase() throws Exception {
+        GKInstance summationInst = mockSummation("inferred");
+        store.storeInstance(summationInst);
+
+        assertThat(summationInst.getDBID(), is(equalTo(101L)));
+        assertThat(store.fetchInstance(101L), is(sameInstance(summationInst)));
+        assertThat(store.fetchIdenticalInstances(mockSummation("inferred")), contains(summationInst));
+        assertThat(store.fetchIdenticalInstances(mockSummation("other")), is(nullValue()));
+        Mockito.verify(mockAdaptor, Mockito.never()).storeInstance(Mockito.any(GKInstance.class));
+    }
+
+    @Test
+    public void rollbackRemovesUncommittedInstances() throws Exception {
+        GKInstance committedInst = mockSummation("committed");
+        store.storeInstance(committedInst);
+        store.commit();
+        GKInstance rolledBackInst = mockSummation("rolled back");
+        store.storeInstance(rolledBackInst);
+        store.rollback();
+
+        assertThat(store.fetchIdenticalInstances(mockSummation("committed")), contains(committedInst));
+        assertThat(store.fetchIdenticalInstances(mockSummation("rolled back")), is(nullValue()));
+    }
+
+    @Test
+    public void seedingClosesTheQueryStatement() throws Exception {
+        Mockito.verify(mockStatement).close();
+    }
+
+    @Test
+    public void updatesOfDatabaseInstancesAreRecordedUntilRolledBack() throws Exception {
+        GKInstance inferredInst = mockSummation("inferred");
+        store.storeInstance(inferredInst);
+        List<Object> inferredToValues = new ArrayList<>(Collections.singletonList(inferredInst));
+        GKInstance sourceInst = mockSourceInstance(5L, inferredToValues);
+        store.updateInstanceAttribute(sourceInst, "inferredTo");
+        store.commit();
+        GKInstance otherInferredInst = mockSummation("other");
+        store.storeInstance(otherInferredInst);
+        inferredToValues.add(otherInferredInst);
+        store.updateInstanceAttribute(sourceInst, "inferredTo");
+
+        assertThat(inMemoryStore.getAttributeValues(5L, "inferredTo"), contains(inferredInst, otherInferredInst));
+        store.rollback();
+        assertThat(inMemoryStore.getAttributeValues(5L, "inferredTo"), contains(inferredInst));
+        assertThat(inMemoryStore.getAttributeValues(5L, "orthologousEvent"), is(nullValue()));
+        Mockito.verify(mockAdaptor, Mockito.never()).updateInstanceAttribute(Mockito.any(GKInstance.class), Mockito.anyString());
+    }
+
+    @Test
+    public void loadedValuesOfUpdatedAttributesAreTheRecordedValues() throws Exception {
+        GKInstance inferredInst = mockSummation("inferred");
+        store.storeInstance(inferredInst);
+        GKInstance sourceInst = mockSourceInstance(5L, Collections.singletonList(inferredInst));
+        store.updateInstanceAttribute(sourceInst, "inferredTo");
+        store.commit();
+
+        // Another species' copy of the source instance, which has the database's values
+        GKInstance otherSourceInst = mockSourceInstance(5L, Collections.emptyList());
+        inMemoryStore.createStore(mockAdaptor).loadInstanceAttributeValues(otherSourceInst, "inferredTo");
+
+        Mockito.verify(otherSourceInst).setAttributeValueNoCheck("inferredTo", Collections.singletonList(inferredInst));
+    }
+
+    @Test
+    public void storedInstancesAreFoundByTheirUpdatedDefiningValues() throws Exception {
+        AtomicReference<String> text = new AtomicReference<>("before");
+        GKInstance summationInst = mockSummation(text);
+        store.storeInstance(summationInst);
+        text.set("after");
+        store.updateInstanceAttribute(summationInst, "text");
+
+        assertThat(store.fetchIdenticalInstances(mockSummation("after")), contains(summationInst));
+        assertThat(store.fetchIdenticalInstances(mockSummation("before")), is(nullValue()));
+    }
+
+    @Test
+    public void snapshotIsLoadedIntoANewStore() throws Exception {
+        GKInstance summationInst = mockSummation("tab\tand\\backslash");
+        store.storeInstance(summationInst);
+        store.updateInstanceAttribute(mockSourceInstance(5L, Arrays.asList(summationInst, "text")), "inferredTo");
+        store.commit();
+        Path snapshotPath = temporaryFolder.newFile("snapshot.tsv").toPath();
+        inMemoryStore.writeSnapshot(snapshotPath);
+
+        InMemoryInstanceStore loadedStore = InMemoryInstanceStore.load(mockAdaptor, snapshotPath);
+        InstanceStore loadedInstanceStore = loadedStore.createStore(mockAdaptor);
+        GKInstance loadedInst = loadedInstanceStore.fetchInstance(101L);
+
+        assertThat(loadedInst.getSchemClass(), is(sameInstance(mockSummationClass)));
+        assertThat(loadedInst.getDisplayName(), is(equalTo("Summation tab\tand\\backslash")));
+        assertThat(loadedInst.getAttributeValue("text"), is(equalTo("tab\tand\\backslash")));
+        assertThat(loadedInstanceStore.fetchIdenticalInstances(mockSummation("tab\tand\\backslash")), contains(loadedInst));
+        assertThat(loadedStore.getAttributeValues(5L, "inferredTo"), contains(loadedInst, "text"));
+        GKInstance newInst = mockSummation("new");
+        loadedInstanceStore.storeInstance(newInst);
+        assertThat(newInst.getDBID(), is(equalTo(102L)));
+    }
+
+    private GKInstance mockSummation(String text) throws Exception {
+        return mockSummation(new AtomicReference<>(text));
+    }
+
+    private GKInstance mockSummation(AtomicReference<String> text) throws Exception {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        AtomicReference<Long> dbId = new AtomicReference<>();
+        Mockito.doAnswer(invocation -> {
+            dbId.set((Long) invocation.getArguments()[0]);
+            return null;
+        }).when(mockInst).setDBID(Mockito.anyLong());
+        Mockito.when(mockInst.getDBID()).thenAnswer(invocation -> dbId.get());
+        Mockito.when(mockInst.getSchemClass()).thenReturn(mockSummationClass);
+        Mockito.when(mockInst.getAttributeValue("text")).thenAnswer(invocation -> text.get());
+        Mockito.when(mockInst.getAttributeValuesList("text")).thenAnswer(invocation -> Collections.singletonList(text.get()));
+        Mockito.when(mockInst.getDisplayName()).thenAnswer(invocation -> "Summation " + text.get());
+        return mockInst;
+    }
+
+    private GKInstance mockSourceInstance(long dbId, List<?> inferredToValues) throws Exception {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        Mockito.when(mockInst.getSchemClass()).thenReturn(mockReactionClass);
+        Mockito.when(mockInst.getAttributeValuesList("inferredTo")).thenReturn(inferredToValues);
+        return mockInst;
+    }
+}
@@ -0,0 +1,39 @@
+package org.reactome.orthoinference;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InferenceMetricsTest {
+
+    @Test
+    public void callsRoundTripsAndCacheLookupsAreCounted() throws Exception {
+        InferenceMetrics metrics = new InferenceMetrics();
+        assertThat(metrics.time("checkForIdenticalInstances", () -> "identical"), is(equalTo("identical")));
+        metrics.recordTime("checkForIdenticalInstances", System.nanoTime());
+        metrics.countSqlRoundTrip("storeInstance");
+        metrics.recordCacheLookup("identityIndex", true);
+        metrics.recordCacheLookup("identityIndex", false);
+        metrics.recordCacheLookup("identityIndex", true);
+
+        assertThat(metrics.getCallCount("checkForIdenticalInstances"), is(equalTo(2L)));
+        assertThat(metrics.getSqlRoundTrips("storeInstance"), is(equalTo(1L)));
+        assertThat(metrics.getCacheStatistics().get("identityIndex"), is(equalTo(new long[] {2, 1})));
+        assertThat(metrics.getSnapshotLines(), hasItems("timer.checkForIdenticalInstances\tcount\t2", "sql.storeInstance\troundTrips\t1", "cache.identityIndex\tmisses\t1"));
+    }
+
+    @Test
+    public void timedCallsAreRecordedWhenTheyFail() {
+        InferenceMetrics metrics = new InferenceMetrics();
+        try {
+            metrics.time("inferEWAS", () -> {
+                throw new IllegalStateException();
+            });
+        } catch (Exception e) {
+            assertThat(e, is(instanceOf(IllegalStateException.class)));
+        }
+
+        assertThat(metrics.getCallCount("inferEWAS"), is(equalTo(1L)));
+    }
+}
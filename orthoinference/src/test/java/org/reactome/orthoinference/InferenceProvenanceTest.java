@@ -0,0 +1,46 @@
+package org.reactome.orthoinference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class InferenceProvenanceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void fingerprintIsIndependentOfLineOrder() {
+        String fingerprint = InferenceProvenance.fingerprint(Arrays.asList("homologue\tP1\tENSP:ENSP1", "gene\tENSP1\tENSG1"));
+
+        assertThat(InferenceProvenance.fingerprint(Arrays.asList("gene\tENSP1\tENSG1", "homologue\tP1\tENSP:ENSP1")), is(equalTo(fingerprint)));
+        assertThat(InferenceProvenance.fingerprint(Arrays.asList("homologue\tP1\tENSP:ENSP2", "gene\tENSP1\tENSG1")), is(not(equalTo(fingerprint))));
+    }
+
+    @Test
+    public void provenanceIsReadAsWritten() throws Exception {
+        InferenceProvenance provenance = new InferenceProvenance();
+        provenance.addInputs(2L, "content2", "mapping2", Arrays.asList("homologue\tP1", "gene\tENSP1"));
+        provenance.addInputs(1L, "content1", "mapping1", Arrays.asList());
+        provenance.setOutcome(2L, true, 200L);
+        provenance.setOutcome(1L, true, null);
+        Path provenancePath = temporaryFolder.getRoot().toPath().resolve("orthoinference_provenance_mmus_75.tsv");
+        provenance.write(provenancePath);
+
+        InferenceProvenance readProvenance = InferenceProvenance.read(provenancePath);
+
+        InferenceProvenance.Record inferredRecord = readProvenance.getRecord(2L);
+        assertThat(inferredRecord.getInferredReactionDbId(), is(equalTo(200L)));
+        assertThat(inferredRecord.getMappingKeys(), contains("homologue\tP1", "gene\tENSP1"));
+        assertThat(inferredRecord.hasSameInputs(provenance.getRecord(2L)), is(true));
+        assertThat(readProvenance.getRecord(1L).isEligible(), is(true));
+        assertThat(readProvenance.getRecord(1L).getInferredReactionDbId(), is(nullValue()));
+        assertThat(readProvenance.getRecord(1L).hasSameInputs(inferredRecord), is(false));
+    }
+}
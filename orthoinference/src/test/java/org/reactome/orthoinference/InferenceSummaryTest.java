@@ -0,0 +1,56 @@
+package org.reactome.orthoinference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class InferenceSummaryTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void skippedReactionsAndCacheStatisticsAreSummarised() {
+        InferenceSummary summary = new InferenceSummary("mmus");
+        summary.setReactionCounts(4, 1);
+        summary.recordSkippedReaction("no distinct proteins");
+        summary.recordSkippedReaction("no distinct proteins");
+        summary.recordSkippedReaction("input inference unsuccessful");
+        summary.addCacheStatistics("identityIndex", 3, 0);
+        summary.addCacheStatistics("identityIndex", 0, 1);
+
+        assertThat(summary.getMetrics(), hasEntry("percentInferred", (Object) 25.0));
+        assertThat(summary.getMetrics(), hasEntry("skipped.no distinct proteins", (Object) 2));
+        assertThat(summary.getMetrics(), hasEntry("cacheHitRate.identityIndex", (Object) 0.75));
+    }
+
+    @Test
+    public void tsvHeaderIsOnlyWrittenToNewFiles() throws Exception {
+        Path tsvPath = temporaryFolder.getRoot().toPath().resolve("orthoinference_summary_75.tsv");
+        new InferenceSummary("mmus").writeTsv(tsvPath);
+        new InferenceSummary("rnor").writeTsv(tsvPath);
+
+        assertThat(Files.readAllLines(tsvPath), hasItems("species\tmetric\tvalue", "mmus\teligibleReactions\t0", "rnor\teligibleReactions\t0"));
+        assertThat(Files.readAllLines(tsvPath).lastIndexOf("species\tmetric\tvalue"), is(equalTo(0)));
+    }
+
+    @Test
+    public void rerunSpeciesReplaceTheirRows() throws Exception {
+        Path tsvPath = temporaryFolder.getRoot().toPath().resolve("orthoinference_summary_75.tsv");
+        new InferenceSummary("mmus").writeTsv(tsvPath);
+        new InferenceSummary("rnor").writeTsv(tsvPath);
+        InferenceSummary rerunSummary = new InferenceSummary("mmus");
+        rerunSummary.setReactionCounts(4, 1);
+        rerunSummary.writeTsv(tsvPath);
+
+        assertThat(Files.readAllLines(tsvPath), hasItems("mmus\teligibleReactions\t4", "rnor\teligibleReactions\t0"));
+        assertThat(Files.readAllLines(tsvPath), not(hasItem("mmus\teligibleReactions\t0")));
+        assertThat(Files.readAllLines(tsvPath).stream().filter(line -> line.startsWith("mmus\t")).count(), is(equalTo((long) rerunSummary.getMetrics().size())));
+    }
+}
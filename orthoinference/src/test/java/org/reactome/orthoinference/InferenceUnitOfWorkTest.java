@@ -0,0 +1,72 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+
+public class InferenceUnitOfWorkTest {
+
+    @Mock
+    InferenceContext mockContext;
+
+    @Mock
+    InstanceStore mockInstanceStore;
+
+    @Mock
+    InferredInstanceCaches mockInferredInstanceCaches;
+
+    InferenceUnitOfWork unitOfWork;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockContext.getInstanceStore()).thenReturn(mockInstanceStore);
+        Mockito.when(mockContext.getInferredInstanceCaches()).thenReturn(mockInferredInstanceCaches);
+        Mockito.when(mockContext.getMetrics()).thenReturn(new InferenceMetrics());
+        unitOfWork = new InferenceUnitOfWork(mockContext);
+    }
+
+    @Test
+    public void rollbackRestoresTheValuesOfInMemoryInstances() throws Exception {
+        GKInstance committedInst = mockInstance(10L);
+        GKInstance sourceInst = mockInstance(1L);
+        Mockito.when(sourceInst.getAttributeValuesList("inferredTo")).thenReturn(Collections.singletonList(committedInst));
+        GKInstance inferredInst = mockInstance(2L);
+        Mockito.when(inferredInst.getAttributeValuesList("inferredFrom")).thenReturn(Collections.emptyList());
+        unitOfWork.begin();
+        unitOfWork.addSourceAttributeValue(sourceInst, mockInstance(11L), "inferredTo");
+        unitOfWork.addAttributeValue(inferredInst, mockInstance(12L), "inferredFrom");
+        unitOfWork.rollback();
+
+        Mockito.verify(sourceInst).setAttributeValueNoCheck("inferredTo", Collections.singletonList(committedInst));
+        Mockito.verify(inferredInst).setAttributeValueNoCheck("inferredFrom", Collections.emptyList());
+        Mockito.verify(mockInstanceStore).rollback();
+        Mockito.verify(mockInstanceStore, Mockito.never()).updateInstanceAttribute(Mockito.any(GKInstance.class), Mockito.anyString());
+    }
+
+    @Test
+    public void flushedValuesAreNotRestored() throws Exception {
+        GKInstance sourceInst = mockInstance(1L);
+        Mockito.when(sourceInst.getAttributeValuesList("inferredTo")).thenReturn(Collections.emptyList());
+        SourceSpeciesData mockSourceData = Mockito.mock(SourceSpeciesData.class);
+        Mockito.when(mockSourceData.getWriteLock()).thenReturn(new Object());
+        Mockito.when(mockContext.getSourceData()).thenReturn(mockSourceData);
+        unitOfWork.begin();
+        unitOfWork.addSourceAttributeValue(sourceInst, mockInstance(11L), "inferredTo");
+        unitOfWork.flush();
+        unitOfWork.rollback();
+
+        Mockito.verify(sourceInst, Mockito.never()).setAttributeValueNoCheck(Mockito.anyString(), Mockito.any());
+    }
+
+    private static GKInstance mockInstance(long dbId) {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        return mockInst;
+    }
+}
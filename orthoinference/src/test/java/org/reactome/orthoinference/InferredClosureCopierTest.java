@@ -0,0 +1,202 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.gk.model.ReactomeJavaConstants.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InferredClosureCopierTest {
+
+    @Mock
+    MySQLAdaptor mockDbaPrev;
+
+    @Mock
+    InferenceContext mockContext;
+
+    @Mock
+    InstanceStore mockStore;
+
+    @Mock
+    InstanceUtilities mockInstanceUtilities;
+
+    @Mock
+    InferenceUnitOfWork mockUnitOfWork;
+
+    @Mock
+    StableIdentifierGenerator mockStableIdentifierGenerator;
+
+    @Mock
+    ReactionInferrer mockReactionInferrer;
+
+    SchemaClass reactionClass;
+    SchemaClass ewasClass;
+    SchemaClass referenceGeneProductClass;
+    SchemaClass compartmentClass;
+    GKInstance previousInferenceEditInst;
+    GKInstance previousCuratorEditInst;
+
+    // Instances of the current release
+    GKInstance humanReactionInst;
+    GKInstance humanEwasInst;
+    GKInstance compartmentInst;
+
+    // Instances of the previous release
+    GKInstance previousInfReactionInst;
+    GKInstance previousInfEwasInst;
+    GKInstance previousInfRgpInst;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockContext.getInstanceStore()).thenReturn(mockStore);
+        Mockito.when(mockContext.getInstanceUtilities()).thenReturn(mockInstanceUtilities);
+        Mockito.when(mockContext.getUnitOfWork()).thenReturn(mockUnitOfWork);
+        Mockito.when(mockContext.getStableIdentifierGenerator()).thenReturn(mockStableIdentifierGenerator);
+        Mockito.when(mockContext.getReactionInferrer()).thenReturn(mockReactionInferrer);
+        Mockito.when(mockReactionInferrer.getReleaseDate()).thenReturn("2025-06-01");
+        Mockito.when(mockInstanceUtilities.getIdenticalInstance(Mockito.any(GKInstance.class), Mockito.any(GKInstance.class)))
+            .thenAnswer(invocation -> invocation.getArguments()[0]);
+
+        reactionClass = mockSchemaClass("Reaction", Arrays.asList(ReactionlikeEvent, Event),
+            DB_ID, created, name, input, inferredFrom, orthologousEvent, stableIdentifier, releaseDate);
+        ewasClass = mockSchemaClass("EntityWithAccessionedSequence", Arrays.asList(PhysicalEntity),
+            DB_ID, created, name, inferredFrom, inferredTo, compartment, referenceEntity, stableIdentifier);
+        referenceGeneProductClass = mockSchemaClass("ReferenceGeneProduct", Collections.emptyList(), DB_ID, created, identifier);
+        compartmentClass = mockSchemaClass("Compartment", Collections.emptyList(), DB_ID, created, name);
+        previousInferenceEditInst = mockInstance(50L, null, "inference edit");
+        previousCuratorEditInst = mockInstance(10L, null, "curator edit");
+
+        humanReactionInst = mockInstance(100L, reactionClass, "Glucose transport");
+        humanEwasInst = mockInstance(101L, ewasClass, "GLUT1 [plasma membrane]");
+        compartmentInst = mockInstance(70L, compartmentClass, "plasma membrane");
+        Mockito.when(mockStore.fetchInstance(100L)).thenReturn(humanReactionInst);
+        Mockito.when(mockStore.fetchInstance(101L)).thenReturn(humanEwasInst);
+        Mockito.when(mockStore.fetchInstance(70L)).thenReturn(compartmentInst);
+
+        GKInstance previousHumanReactionInst = mockPreviousInstance(100L, reactionClass, "Glucose transport", previousCuratorEditInst);
+        GKInstance previousHumanEwasInst = mockPreviousInstance(101L, ewasClass, "GLUT1 [plasma membrane]", previousCuratorEditInst);
+        GKInstance previousCompartmentInst = mockPreviousInstance(70L, compartmentClass, "plasma membrane", previousCuratorEditInst);
+        previousInfRgpInst = mockPreviousInstance(902L, referenceGeneProductClass, "ENSEMBL:ENSMUSP1", previousInferenceEditInst);
+        setValues(previousInfRgpInst, identifier, "ENSMUSP1");
+        previousInfEwasInst = mockPreviousInstance(901L, ewasClass, "Slc2a1 [plasma membrane]", previousInferenceEditInst);
+        setValues(previousInfEwasInst, name, "Slc2a1");
+        setValues(previousInfEwasInst, inferredFrom, previousHumanEwasInst);
+        setValues(previousInfEwasInst, compartment, previousCompartmentInst);
+        setValues(previousInfEwasInst, referenceEntity, previousInfRgpInst);
+        setValues(previousInfEwasInst, stableIdentifier, Mockito.mock(GKInstance.class));
+        previousInfReactionInst = mockPreviousInstance(900L, reactionClass, "Glucose transport", previousInferenceEditInst);
+        setValues(previousInfReactionInst, name, "Glucose transport");
+        setValues(previousInfReactionInst, input, previousInfEwasInst);
+        setValues(previousInfReactionInst, inferredFrom, previousHumanReactionInst);
+        setValues(previousInfReactionInst, orthologousEvent, previousHumanReactionInst);
+        setValues(previousInfReactionInst, releaseDate, "2025-03-01");
+        Mockito.when(mockDbaPrev.fetchInstance(900L)).thenReturn(previousInfReactionInst);
+    }
+
+    @Test
+    public void inferredClosureIsCopiedWithCuratedInstancesOfTheCurrentRelease() throws Exception {
+        GKInstance infRgpCopy = mockCopy(referenceGeneProductClass);
+        GKInstance infEwasCopy = mockCopy(ewasClass);
+        Mockito.when(infEwasCopy.getAttributeValuesList(inferredFrom)).thenReturn(Arrays.asList(humanEwasInst));
+        GKInstance infReactionCopy = mockCopy(reactionClass);
+        Mockito.when(mockInstanceUtilities.createInferredGKInstance("ReferenceGeneProduct")).thenReturn(infRgpCopy);
+        Mockito.when(mockInstanceUtilities.createInferredGKInstance("EntityWithAccessionedSequence")).thenReturn(infEwasCopy);
+        Mockito.when(mockInstanceUtilities.createInferredGKInstance("Reaction")).thenReturn(infReactionCopy);
+        GKInstance stableIdentifierInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockStableIdentifierGenerator.generateOrthologousStableId(infReactionCopy, humanReactionInst)).thenReturn(stableIdentifierInst);
+
+        GKInstance copiedInst = new InferredClosureCopier(mockDbaPrev).copyInferredReaction(mockContext, humanReactionInst, 900L);
+
+        assertThat(copiedInst, is(sameInstance(infReactionCopy)));
+        Mockito.verify(infRgpCopy).addAttributeValue(identifier, "ENSMUSP1");
+        Mockito.verify(mockInstanceUtilities).getIdenticalInstance(infRgpCopy, null);
+        Mockito.verify(infEwasCopy).addAttributeValue(referenceEntity, infRgpCopy);
+        Mockito.verify(infEwasCopy).addAttributeValue(inferredFrom, humanEwasInst);
+        Mockito.verify(infEwasCopy).addAttributeValue(compartment, compartmentInst);
+        Mockito.verify(infEwasCopy, Mockito.never()).addAttributeValue(Mockito.eq(stableIdentifier), Mockito.any());
+        Mockito.verify(mockInstanceUtilities).getIdenticalInstance(infEwasCopy, humanEwasInst);
+        Mockito.verify(mockUnitOfWork).addSourceAttributeValue(humanEwasInst, infEwasCopy, inferredTo);
+        Mockito.verify(infReactionCopy).addAttributeValue(input, infEwasCopy);
+        Mockito.verify(infReactionCopy).addAttributeValue(inferredFrom, humanReactionInst);
+        Mockito.verify(infReactionCopy).addAttributeValue(releaseDate, "2025-06-01");
+        Mockito.verify(infReactionCopy).addAttributeValue(stableIdentifier, stableIdentifierInst);
+        Mockito.verify(mockUnitOfWork).storeInstance(infReactionCopy);
+        Mockito.verify(mockUnitOfWork).addSourceAttributeValue(humanReactionInst, infReactionCopy, orthologousEvent);
+    }
+
+    @Test
+    public void closureIsNotCopiedIfACuratedInstanceHasChanged() throws Exception {
+        GKInstance renamedCompartmentInst = mockInstance(70L, compartmentClass, "cell membrane");
+        Mockito.when(mockStore.fetchInstance(70L)).thenReturn(renamedCompartmentInst);
+
+        assertThat(new InferredClosureCopier(mockDbaPrev).copyInferredReaction(mockContext, humanReactionInst, 900L), is(nullValue()));
+        Mockito.verify(mockInstanceUtilities, Mockito.never()).createInferredGKInstance(Mockito.anyString());
+        Mockito.verify(mockUnitOfWork, Mockito.never()).storeInstance(Mockito.any(GKInstance.class));
+    }
+
+    @Test
+    public void closureIsNotCopiedIfItRefersToAnotherInferredEvent() throws Exception {
+        GKInstance otherInfReactionInst = mockPreviousInstance(950L, reactionClass, "Glucose export", previousInferenceEditInst);
+        setValues(previousInfRgpInst, identifier, "ENSMUSP1");
+        setValues(previousInfEwasInst, inferredFrom, otherInfReactionInst);
+
+        assertThat(new InferredClosureCopier(mockDbaPrev).copyInferredReaction(mockContext, humanReactionInst, 900L), is(nullValue()));
+        Mockito.verify(mockUnitOfWork, Mockito.never()).storeInstance(Mockito.any(GKInstance.class));
+    }
+
+    private static SchemaClass mockSchemaClass(String className, List<String> superClassNames, String... attributeNames) {
+        SchemaClass mockClass = Mockito.mock(SchemaClass.class);
+        Mockito.when(mockClass.getName()).thenReturn(className);
+        for (String superClassName : superClassNames) {
+            Mockito.when(mockClass.isa(superClassName)).thenReturn(true);
+        }
+        List<GKSchemaAttribute> attributes = new ArrayList<>();
+        for (String attributeName : attributeNames) {
+            GKSchemaAttribute mockAttribute = Mockito.mock(GKSchemaAttribute.class);
+            Mockito.when(mockAttribute.getName()).thenReturn(attributeName);
+            attributes.add(mockAttribute);
+            Mockito.when(mockClass.isValidAttribute(attributeName)).thenReturn(true);
+        }
+        Mockito.when(mockClass.getAttributes()).thenReturn(attributes);
+        return mockClass;
+    }
+
+    private static GKInstance mockInstance(long dbId, SchemaClass schemaClass, String displayName) {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        Mockito.when(mockInst.getSchemClass()).thenReturn(schemaClass);
+        Mockito.when(mockInst.getDisplayName()).thenReturn(displayName);
+        return mockInst;
+    }
+
+    private static GKInstance mockPreviousInstance(long dbId, SchemaClass schemaClass, String displayName, GKInstance createdInst) throws Exception {
+        GKInstance mockInst = mockInstance(dbId, schemaClass, displayName);
+        Mockito.when(mockInst.getAttributeValue(created)).thenReturn(createdInst);
+        return mockInst;
+    }
+
+    private static void setValues(GKInstance mockInst, String attribute, Object... values) throws Exception {
+        Mockito.when(mockInst.getAttributeValuesList(attribute)).thenReturn(Arrays.asList(values));
+        Mockito.when(mockInst.getAttributeValue(attribute)).thenReturn(values[0]);
+    }
+
+    private static GKInstance mockCopy(SchemaClass schemaClass) {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getSchemClass()).thenReturn(schemaClass);
+        return mockInst;
+    }
+}
@@ -0,0 +1,172 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InferredInstanceCacheTest {
+
+    @Mock
+    InferenceContext mockContext;
+
+    @Mock
+    InferenceContext mockWorkerContext;
+
+    @Mock
+    InferenceUnitOfWork mockUnitOfWork;
+
+    @Mock
+    InferenceUnitOfWork mockWorkerUnitOfWork;
+
+    @Mock
+    InstanceStore mockWorkerStore;
+
+    InferredInstanceCaches caches;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockContext.getUnitOfWork()).thenReturn(mockUnitOfWork);
+        Mockito.when(mockWorkerContext.getUnitOfWork()).thenReturn(mockWorkerUnitOfWork);
+        Mockito.when(mockWorkerContext.getInstanceStore()).thenReturn(mockWorkerStore);
+        caches = new InferredInstanceCaches(new InferenceMetrics());
+    }
+
+    @Test
+    public void instancesAreInferredOnceAndNullResultsAreNotCached() throws Exception {
+        InferredInstanceCache<Long> cache = caches.getCache("orthologousEntity", mockContext);
+        GKInstance inferredInst = mockInstance(101L);
+        AtomicInteger inferenceCount = new AtomicInteger();
+
+        assertThat(cache.computeIfAbsent(1L, () -> countInference(inferenceCount, inferredInst)), is(sameInstance(inferredInst)));
+        assertThat(cache.computeIfAbsent(1L, () -> countInference(inferenceCount, null)), is(sameInstance(inferredInst)));
+        assertThat(cache.computeIfAbsent(2L, () -> countInference(inferenceCount, null)), is(nullValue()));
+        assertThat(cache.get(2L), is(nullValue()));
+        assertThat(inferenceCount.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void otherContextsOnlyUsePersistedInstances() throws Exception {
+        InferredInstanceCache<Long> cache = caches.getCache("orthologousEntity", mockContext);
+        InferredInstanceCache<Long> workerCache = caches.getCache("orthologousEntity", mockWorkerContext);
+        GKInstance inferredInst = mockInstance(101L);
+        GKInstance fetchedInst = mockInstance(101L);
+        Mockito.when(mockWorkerStore.fetchInstance(101L)).thenReturn(fetchedInst);
+        cache.computeIfAbsent(1L, () -> inferredInst);
+
+        assertThat(workerCache.get(1L), is(nullValue()));
+        assertThat(cache.getPersistedDbIds().isEmpty(), is(true));
+
+        caches.markPersisted(mockUnitOfWork);
+
+        assertThat(workerCache.get(1L), is(sameInstance(fetchedInst)));
+        assertThat(cache.getPersistedDbIds(), hasEntry(1L, 101L));
+    }
+
+    @Test
+    public void instancesPendingInAnotherContextAreWaitedForInsteadOfInferred() throws Exception {
+        InferredInstanceCache<Long> cache = caches.getCache("orthologousEntity", mockContext);
+        InferredInstanceCache<Long> workerCache = caches.getCache("orthologousEntity", mockWorkerContext);
+        GKInstance fetchedInst = mockInstance(101L);
+        Mockito.when(mockWorkerStore.fetchInstance(101L)).thenReturn(fetchedInst);
+        AtomicInteger inferenceCount = new AtomicInteger();
+        cache.computeIfAbsent(1L, () -> mockInstance(101L));
+
+        IdentityLocks.ConflictException conflict = null;
+        try {
+            workerCache.computeIfAbsent(1L, () -> countInference(inferenceCount, mockInstance(102L)));
+        } catch (IdentityLocks.ConflictException e) {
+            conflict = e;
+        }
+        assertThat(conflict, is(notNullValue()));
+
+        caches.markPersisted(mockUnitOfWork);
+        conflict.awaitRelease();
+
+        assertThat(workerCache.computeIfAbsent(1L, () -> countInference(inferenceCount, mockInstance(102L))), is(sameInstance(fetchedInst)));
+        assertThat(inferenceCount.get(), is(equalTo(0)));
+    }
+
+    @Test
+    public void instancesBeingInferredInAnotherContextAreNotInferredAgain() throws Exception {
+        InferredInstanceCache<Long> cache = caches.getCache("orthologousEntity", mockContext);
+        InferredInstanceCache<Long> workerCache = caches.getCache("orthologousEntity", mockWorkerContext);
+        AtomicInteger inferenceCount = new AtomicInteger();
+        IdentityLocks.ConflictException[] conflict = new IdentityLocks.ConflictException[1];
+
+        cache.computeIfAbsent(1L, () -> {
+            try {
+                workerCache.computeIfAbsent(1L, () -> countInference(inferenceCount, mockInstance(102L)));
+            } catch (IdentityLocks.ConflictException e) {
+                conflict[0] = e;
+            }
+            return null;
+        });
+        // The instance couldn't be inferred, so its entry is discarded and the worker can claim it
+        conflict[0].awaitRelease();
+
+        assertThat(inferenceCount.get(), is(equalTo(0)));
+        assertThat(workerCache.computeIfAbsent(1L, () -> countInference(inferenceCount, mockInstance(102L))).getDBID(), is(equalTo(102L)));
+    }
+
+    @Test
+    public void rolledBackInstancesAreDiscarded() throws Exception {
+        InferredInstanceCache<Long> cache = caches.getCache("orthologousEntity", mockContext);
+        cache.computeIfAbsent(1L, () -> mockInstance(101L));
+        caches.discardPending(mockUnitOfWork);
+
+        assertThat(cache.get(1L), is(nullValue()));
+    }
+
+    @Test
+    public void releasedInstancesAreFetchedAgain() throws Exception {
+        InferredInstanceCache<Long> cache = caches.getCache("orthologousEntity", mockContext);
+        InstanceStore mockStore = Mockito.mock(InstanceStore.class);
+        Mockito.when(mockContext.getInstanceStore()).thenReturn(mockStore);
+        GKInstance fetchedInst = mockInstance(101L);
+        Mockito.when(mockStore.fetchInstance(101L)).thenReturn(fetchedInst);
+        caches.setMaxResidentInstances(0);
+        cache.computeIfAbsent(1L, () -> mockInstance(101L));
+        caches.markPersisted(mockUnitOfWork);
+
+        assertThat(cache.computeIfAbsent(1L, () -> null), is(sameInstance(fetchedInst)));
+    }
+
+    @Test
+    public void instancesWithoutDbIdsDontCountTowardsTheBound() throws Exception {
+        InferredInstanceCache<Long> cache = caches.getCache("orthologousEntity", mockContext);
+        InstanceStore mockStore = Mockito.mock(InstanceStore.class);
+        Mockito.when(mockContext.getInstanceStore()).thenReturn(mockStore);
+        Mockito.when(mockStore.fetchInstance(102L)).thenReturn(mockInstance(102L));
+        caches.setMaxResidentInstances(1);
+        GKInstance ghostInst = Mockito.mock(GKInstance.class);
+        Mockito.when(ghostInst.getDBID()).thenReturn(null);
+        GKInstance inferredInst = mockInstance(102L);
+        cache.computeIfAbsent(1L, () -> ghostInst);
+        caches.markPersisted(mockUnitOfWork);
+        cache.computeIfAbsent(2L, () -> inferredInst);
+        caches.markPersisted(mockUnitOfWork);
+
+        assertThat(cache.get(1L), is(sameInstance(ghostInst)));
+        assertThat(cache.get(2L), is(sameInstance(inferredInst)));
+    }
+
+    private static GKInstance countInference(AtomicInteger inferenceCount, GKInstance inferredInst) {
+        inferenceCount.incrementAndGet();
+        return inferredInst;
+    }
+
+    private static GKInstance mockInstance(long dbId) {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        return mockInst;
+    }
+}
@@ -0,0 +1,82 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class InstanceIdentityKeyTest {
+
+    @Mock
+    SchemaClass mockSchemaClass;
+
+    @Mock
+    SchemaAttribute mockHasMemberAttribute;
+
+    @Mock
+    GKInstance mockFirstInst;
+
+    @Mock
+    GKInstance mockSecondInst;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockSchemaClass.getName()).thenReturn("DefinedSet");
+        Mockito.when(mockSchemaClass.getDefiningAttributes()).thenReturn(Collections.singletonList(mockHasMemberAttribute));
+        Mockito.when(mockHasMemberAttribute.getName()).thenReturn("hasMember");
+        Mockito.when(mockHasMemberAttribute.isMultiple()).thenReturn(true);
+        Mockito.when(mockFirstInst.getSchemClass()).thenReturn(mockSchemaClass);
+        Mockito.when(mockSecondInst.getSchemClass()).thenReturn(mockSchemaClass);
+    }
+
+    @Test
+    public void keysOfInstancesWithSameDefiningValuesAreEqual() throws Exception {
+        setMembers(mockFirstInst, 12L, 3L);
+        setMembers(mockSecondInst, 12L, 3L);
+
+        InstanceIdentityKey firstKey = InstanceIdentityKey.of(mockFirstInst);
+        InstanceIdentityKey secondKey = InstanceIdentityKey.of(mockSecondInst);
+
+        assertThat(firstKey, is(equalTo(secondKey)));
+        assertThat(firstKey.hashCode(), is(equalTo(secondKey.hashCode())));
+    }
+
+    @Test
+    public void keysOfInstancesWithConcatenatedDbIdsInCommonAreNotEqual() throws Exception {
+        setMembers(mockFirstInst, 12L, 3L);
+        setMembers(mockSecondInst, 1L, 23L);
+
+        assertThat(InstanceIdentityKey.of(mockFirstInst), is(not(equalTo(InstanceIdentityKey.of(mockSecondInst)))));
+    }
+
+    @Test
+    public void indexReturnsInstanceStoredWithEqualKey() throws Exception {
+        setMembers(mockFirstInst, 12L, 3L);
+        setMembers(mockSecondInst, 12L, 3L);
+        InstanceIdentityIndex identityIndex = new InstanceIdentityIndex();
+
+        identityIndex.put(InstanceIdentityKey.of(mockFirstInst), mockFirstInst);
+
+        assertThat(identityIndex.get(InstanceIdentityKey.of(mockSecondInst)), is(sameInstance(mockFirstInst)));
+    }
+
+    private void setMembers(GKInstance mockInst, long... memberDbIds) throws Exception {
+        GKInstance[] memberInstances = new GKInstance[memberDbIds.length];
+        for (int i = 0; i < memberDbIds.length; i++) {
+            memberInstances[i] = Mockito.mock(GKInstance.class);
+            Mockito.when(memberInstances[i].getDBID()).thenReturn(memberDbIds[i]);
+        }
+        Mockito.when(mockInst.getAttributeValuesList("hasMember")).thenReturn(Arrays.asList(memberInstances));
+    }
+}
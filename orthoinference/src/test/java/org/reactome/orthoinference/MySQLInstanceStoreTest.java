@@ -0,0 +1,186 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MySQLInstanceStoreTest {
+
+    @Mock
+    MySQLAdaptor mockAdaptor;
+
+    @Mock
+    Connection mockConnection;
+
+    @Mock
+    PreparedStatement mockStatement;
+
+    @Mock
+    DbIdAllocator mockDbIdAllocator;
+
+    @Mock
+    SchemaClass mockDatabaseObjectClass;
+
+    @Mock
+    SchemaClass mockSummationClass;
+
+    @Mock
+    SchemaClass mockLiteratureReferenceClass;
+
+    @Mock
+    GKSchemaAttribute mockDbIdAttribute;
+
+    @Mock
+    GKSchemaAttribute mockDisplayNameAttribute;
+
+    @Mock
+    GKSchemaAttribute mockTextAttribute;
+
+    @Mock
+    GKSchemaAttribute mockLiteratureReferenceAttribute;
+
+    MySQLInstanceStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockAdaptor.getConnection()).thenReturn(mockConnection);
+        Mockito.when(mockConnection.prepareStatement(Mockito.anyString())).thenReturn(mockStatement);
+        Mockito.when(mockDbIdAllocator.reserveBlock(mockAdaptor)).thenReturn(101L, 201L);
+        Mockito.when(mockDbIdAllocator.getBlockSize()).thenReturn(2);
+
+        mockAttribute(mockDbIdAttribute, "DB_ID", mockDatabaseObjectClass);
+        mockAttribute(mockDisplayNameAttribute, "_displayName", mockDatabaseObjectClass);
+        mockAttribute(mockTextAttribute, "text", mockSummationClass);
+        Mockito.when(mockTextAttribute.getCategory()).thenReturn(SchemaAttribute.ALL_DEFINING);
+        mockAttribute(mockLiteratureReferenceAttribute, "literatureReference", mockSummationClass);
+        Mockito.when(mockLiteratureReferenceAttribute.isMultiple()).thenReturn(true);
+        Mockito.when(mockLiteratureReferenceAttribute.isInstanceTypeAttribute()).thenReturn(true);
+
+        Mockito.when(mockDatabaseObjectClass.getName()).thenReturn("DatabaseObject");
+        Mockito.when(mockDatabaseObjectClass.getAttributes()).thenReturn(Arrays.asList(mockDbIdAttribute, mockDisplayNameAttribute));
+        Mockito.when(mockSummationClass.getName()).thenReturn("Summation");
+        Mockito.when(mockSummationClass.getSuperClasses()).thenReturn(Collections.singletonList(mockDatabaseObjectClass));
+        Mockito.when(mockSummationClass.getAttributes()).thenReturn(Arrays.asList(mockDbIdAttribute, mockDisplayNameAttribute, mockTextAttribute, mockLiteratureReferenceAttribute));
+        Mockito.when(mockSummationClass.getDefiningAttributes()).thenReturn(Collections.singletonList(mockTextAttribute));
+        for (GKSchemaAttribute mockAttribute : Arrays.asList(mockDbIdAttribute, mockDisplayNameAttribute, mockTextAttribute, mockLiteratureReferenceAttribute)) {
+            Mockito.when(mockSummationClass.isValidAttribute(mockAttribute.getName())).thenReturn(true);
+            Mockito.when(mockSummationClass.getAttribute(mockAttribute.getName())).thenReturn(mockAttribute);
+        }
+        Mockito.when(mockLiteratureReferenceClass.getName()).thenReturn("LiteratureReference");
+        store = new MySQLInstanceStore(mockAdaptor, new InferenceMetrics(), mockDbIdAllocator);
+    }
+
+    @Test
+    public void storedInstancesAreInsertedWithMultiRowInsertsWhenCommitted() throws Exception {
+        store.begin();
+        GKInstance firstInst = createSummation("first");
+        GKInstance secondInst = createSummation("second");
+        store.storeInstance(firstInst);
+        store.storeInstance(secondInst);
+
+        assertThat(firstInst.getDBID(), is(equalTo(101L)));
+        assertThat(secondInst.getDBID(), is(equalTo(102L)));
+        Mockito.verify(mockConnection, Mockito.never()).prepareStatement(Mockito.anyString());
+        store.commit();
+
+        Mockito.verify(mockConnection).prepareStatement("INSERT INTO Summation (DB_ID, text) VALUES (?, ?), (?, ?)");
+        Mockito.verify(mockConnection).prepareStatement("INSERT INTO DatabaseObject (DB_ID, _class, _displayName) VALUES (?, ?, ?), (?, ?, ?)");
+        Mockito.verify(mockStatement, Mockito.times(2)).setObject(1, 101L);
+        Mockito.verify(mockStatement).setObject(2, "first");
+        Mockito.verify(mockStatement).setObject(3, 102L);
+        Mockito.verify(mockStatement).setObject(4, "second");
+        Mockito.verify(mockStatement).setObject(2, "Summation");
+        Mockito.verify(mockStatement, Mockito.times(2)).executeUpdate();
+        Mockito.verify(mockConnection).commit();
+        Mockito.verify(mockDbIdAllocator, Mockito.times(1)).reserveBlock(mockAdaptor);
+        Mockito.verify(mockAdaptor, Mockito.never()).storeInstance(Mockito.any(GKInstance.class));
+    }
+
+    @Test
+    public void multiValueAttributesAreInsertedIntoTheirRankedTable() throws Exception {
+        store.begin();
+        GKInstance literatureReferenceInst = new GKInstance(mockLiteratureReferenceClass);
+        literatureReferenceInst.setDBID(5L);
+        GKInstance summationInst = createSummation("text");
+        summationInst.addAttributeValueNoCheck("literatureReference", literatureReferenceInst);
+        store.storeInstance(summationInst);
+        store.commit();
+
+        Mockito.verify(mockConnection).prepareStatement("INSERT INTO Summation_2_literatureReference (DB_ID, literatureReference_rank, literatureReference, literatureReference_class) VALUES (?, ?, ?, ?)");
+        Mockito.verify(mockStatement).setObject(2, 0);
+        Mockito.verify(mockStatement).setObject(3, 5L);
+        Mockito.verify(mockStatement).setObject(4, "LiteratureReference");
+    }
+
+    @Test
+    public void pendingInstancesAreFetchedAndFoundAsIdentical() throws Exception {
+        store.begin();
+        GKInstance summationInst = createSummation("inferred");
+        store.storeInstance(summationInst);
+
+        assertThat(store.fetchInstance(101L), is(sameInstance(summationInst)));
+        assertThat(store.fetchIdenticalInstances(createSummation("inferred")), contains(summationInst));
+        assertThat(store.fetchIdenticalInstances(createSummation("other")), is(nullValue()));
+        Mockito.verify(mockAdaptor, Mockito.never()).fetchInstance(101L);
+    }
+
+    @Test
+    public void rollbackDiscardsPendingInstances() throws Exception {
+        store.begin();
+        store.storeInstance(createSummation("rolled back"));
+        store.rollback();
+        store.commit();
+
+        assertThat(store.fetchIdenticalInstances(createSummation("rolled back")), is(nullValue()));
+        Mockito.verify(mockConnection, Mockito.never()).prepareStatement(Mockito.anyString());
+        Mockito.verify(mockConnection).rollback();
+    }
+
+    @Test
+    public void instancesStoredOutsideATransactionAreInsertedImmediately() throws Exception {
+        store.storeInstance(createSummation("setup"));
+
+        Mockito.verify(mockConnection).prepareStatement("INSERT INTO Summation (DB_ID, text) VALUES (?, ?)");
+        Mockito.verify(mockConnection).prepareStatement("INSERT INTO DatabaseObject (DB_ID, _class, _displayName) VALUES (?, ?, ?)");
+    }
+
+    @Test
+    public void newBlocksAreReservedWhenTheCurrentOneIsUsedUp() throws Exception {
+        store.begin();
+        store.storeInstance(createSummation("first"));
+        store.storeInstance(createSummation("second"));
+        GKInstance thirdInst = createSummation("third");
+        store.storeInstance(thirdInst);
+
+        assertThat(thirdInst.getDBID(), is(equalTo(201L)));
+        Mockito.verify(mockDbIdAllocator, Mockito.times(2)).reserveBlock(mockAdaptor);
+    }
+
+    private static void mockAttribute(GKSchemaAttribute mockAttribute, String name, SchemaClass originClass) {
+        Mockito.when(mockAttribute.getName()).thenReturn(name);
+        Mockito.when(mockAttribute.getOrigin()).thenReturn(originClass);
+    }
+
+    private GKInstance createSummation(String text) throws Exception {
+        GKInstance summationInst = new GKInstance(mockSummationClass);
+        summationInst.setAttributeValueNoCheck("text", text);
+        summationInst.setDisplayName(text);
+        return summationInst;
+    }
+}
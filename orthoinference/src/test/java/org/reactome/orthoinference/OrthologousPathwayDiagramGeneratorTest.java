@@ -16,8 +16,12 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -49,6 +53,12 @@ public class OrthologousPathwayDiagramGeneratorTest {
     GKInstance mockOrthoDiagramInst;
     @Mock
     PredictedPathwayDiagramGeneratorFromDB mockDiagramGenerator;
+    @Mock
+    MySQLAdaptor mockWorkerAdaptor;
+    @Mock
+    ResultSet mockCountResults;
+    @Mock
+    Statement mockCountStatement;
 
     long mockId = 12345L;
 
@@ -80,7 +90,65 @@ public class OrthologousPathwayDiagramGeneratorTest {
         Mockito.when(mockOrthoEventInst.getAttributeValue(ReactomeJavaConstants.species)).thenReturn(mockSpeciesInst);
         Mockito.when(mockOrthoEventInst.getAttributeValue(ReactomeJavaConstants.evidenceType)).thenReturn(mockEvidenceTypeInst);
         Mockito.when(mockDiagramGenerator.generatePredictedDiagram(mockOrthoEventInst, mockPathwayInst, mockDiagramInst)).thenReturn(mockOrthoDiagramInst);
+        mockDiagramCounts();
+        testDiagramGenerator.generateOrthologousPathwayDiagrams();
+        Mockito.verify(mockDiagramGenerator).generatePredictedDiagram(mockOrthoEventInst, mockPathwayInst, mockDiagramInst);
+        // The count queries of the current and previous releases close their statements
+        Mockito.verify(mockCountStatement, Mockito.times(2)).close();
+    }
+
+    @Test
+    public void parallelWorkersGenerateDiagramsOnTheirOwnAdaptors() throws Exception {
+        GKInstance mockDiagramInst2 = mockInstance(3L);
+        GKInstance mockPathwayInst2 = mockInstance(4L);
+        GKInstance mockOrthoEventInst2 = mockInstance(5L);
+        mockDiagramInstances.add(mockDiagramInst);
+        mockDiagramInstances.add(mockDiagramInst2);
+        mockOrthoEventInstances.add(mockOrthoEventInst);
+
+        PowerMockito.whenNew(PredictedPathwayDiagramGeneratorFromDB.class).withNoArguments().thenReturn(mockDiagramGenerator);
+        Mockito.when(mockAdaptor.fetchInstance(mockId)).thenReturn(mockSpeciesInst);
+        Mockito.when(mockAdaptor.fetchInstancesByClass(ReactomeJavaConstants.PathwayDiagram)).thenReturn(mockDiagramInstances);
+        Mockito.when(mockDiagramInst.getDBID()).thenReturn(1L);
+        Mockito.when(mockPathwayInst.getDBID()).thenReturn(2L);
+        Mockito.when(mockOrthoEventInst.getDBID()).thenReturn(6L);
+        Mockito.when(mockDiagramInst.getAttributeValue(ReactomeJavaConstants.representedPathway)).thenReturn(mockPathwayInst);
+        Mockito.when(mockDiagramInst2.getAttributeValue(ReactomeJavaConstants.representedPathway)).thenReturn(mockPathwayInst2);
+        Mockito.when(mockPathwayInst.getAttributeValue(ReactomeJavaConstants.species)).thenReturn(mockSpeciesInst);
+        Mockito.when(mockPathwayInst2.getAttributeValue(ReactomeJavaConstants.species)).thenReturn(mockSpeciesInst);
+        Mockito.when(mockPathwayInst.getAttributeValuesList(ReactomeJavaConstants.orthologousEvent)).thenReturn(mockOrthoEventInstances);
+        Mockito.when(mockPathwayInst2.getAttributeValuesList(ReactomeJavaConstants.orthologousEvent)).thenReturn(Collections.singletonList(mockOrthoEventInst2));
+        for (GKInstance orthoEventInst : Arrays.asList(mockOrthoEventInst, mockOrthoEventInst2)) {
+            Mockito.when(orthoEventInst.getAttributeValue(ReactomeJavaConstants.species)).thenReturn(mockSpeciesInst);
+            Mockito.when(orthoEventInst.getAttributeValue(ReactomeJavaConstants.evidenceType)).thenReturn(mockEvidenceTypeInst);
+        }
+        for (GKInstance inst : Arrays.asList(mockDiagramInst, mockPathwayInst, mockOrthoEventInst, mockDiagramInst2, mockPathwayInst2, mockOrthoEventInst2)) {
+            Mockito.when(mockWorkerAdaptor.fetchInstance(inst.getDBID())).thenReturn(inst);
+        }
+        mockDiagramCounts();
+
+        testDiagramGenerator.setWorkers(2, () -> mockWorkerAdaptor);
         testDiagramGenerator.generateOrthologousPathwayDiagrams();
+
+        Mockito.verify(mockDiagramGenerator).generatePredictedDiagram(mockOrthoEventInst, mockPathwayInst, mockDiagramInst);
+        Mockito.verify(mockDiagramGenerator).generatePredictedDiagram(mockOrthoEventInst2, mockPathwayInst2, mockDiagramInst2);
+        Mockito.verify(mockWorkerAdaptor, Mockito.times(2)).cleanUp();
+    }
+
+    private GKInstance mockInstance(long dbId) {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        return mockInst;
+    }
+
+    private void mockDiagramCounts() throws Exception {
+        Mockito.when(mockSpeciesInst.getDisplayName()).thenReturn("Species");
+        Mockito.when(mockSpeciesInst.getDBID()).thenReturn(mockId);
+        Mockito.when(mockAdaptor.executeQuery(Mockito.anyString(), Mockito.anyList())).thenReturn(mockCountResults);
+        Mockito.when(mockPrevAdaptor.executeQuery(Mockito.anyString(), Mockito.anyList())).thenReturn(mockCountResults);
+        Mockito.when(mockCountResults.next()).thenReturn(true);
+        Mockito.when(mockCountResults.getInt(1)).thenReturn(1);
+        Mockito.when(mockCountResults.getStatement()).thenReturn(mockCountStatement);
     }
 
     @Test
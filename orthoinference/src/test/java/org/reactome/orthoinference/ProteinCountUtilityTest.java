@@ -0,0 +1,82 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.reactome.orthoinference.ProteinCountPlan.EntitySetPlan;
+import org.reactome.orthoinference.ProteinCountPlan.Member;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ProteinCountUtilityTest {
+
+    @Mock
+    InferencePlan mockInferencePlan;
+
+    @Mock
+    GKInstance mockInst;
+
+    ProteinCountUtility proteinCountUtility;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        IdentifierMappings homologueMappings = new IdentifierMappings.Builder()
+                .add("P1", "ENSP1").add("P1", "ENSP2")
+                .add("P3", "ENSP3")
+                .add("P4", "ENSP4")
+                .build();
+        proteinCountUtility = new ProteinCountUtility(mockInferencePlan, new InferenceMetrics());
+        proteinCountUtility.setHomologueMappingFile(homologueMappings);
+
+        ProteinCountPlan complexPlan = new ProteinCountPlan(new String[]{"P4", "P5"}, new EntitySetPlan[0]);
+        Mockito.when(mockInferencePlan.getProteinCountPlan(10L)).thenReturn(complexPlan);
+    }
+
+    @Test
+    public void entitySetReferenceGeneProductMemberOverridesEarlierComplexMember() throws Exception {
+        EntitySetPlan entitySetPlan = new EntitySetPlan(false, new Member[]{new Member(10L, null), new Member(0, "P3")});
+        setPlan(1L, new ProteinCountPlan(new String[]{"P1", "P2"}, new EntitySetPlan[]{entitySetPlan}));
+
+        ProteinCounts proteinCounts = proteinCountUtility.getDistinctProteinCounts(mockInst);
+
+        assertThat(proteinCounts, is(equalTo(new ProteinCounts(3, 2, 2))));
+    }
+
+    @Test
+    public void candidateWithoutHomologueBeforeInferrableCandidateDropsInferrableCount() throws Exception {
+        EntitySetPlan candidatePlan = new EntitySetPlan(true, new Member[]{new Member(0, "P2"), new Member(0, "P1")});
+        setPlan(2L, new ProteinCountPlan(new String[0], new EntitySetPlan[]{candidatePlan}));
+
+        assertThat(proteinCountUtility.getDistinctProteinCounts(mockInst), is(equalTo(new ProteinCounts(1, 0, 0))));
+    }
+
+    @Test
+    public void candidateWithoutHomologueAfterInferrableCandidateKeepsInferrableCount() throws Exception {
+        EntitySetPlan candidatePlan = new EntitySetPlan(true, new Member[]{new Member(0, "P1"), new Member(0, "P2")});
+        setPlan(3L, new ProteinCountPlan(new String[0], new EntitySetPlan[]{candidatePlan}));
+
+        assertThat(proteinCountUtility.getDistinctProteinCounts(mockInst), is(equalTo(new ProteinCounts(1, 1, 0))));
+    }
+
+    @Test
+    public void proteinCountsAreMemoizedByDbId() throws Exception {
+        setPlan(10L, null);
+
+        ProteinCounts proteinCounts = proteinCountUtility.getDistinctProteinCounts(mockInst);
+
+        assertThat(proteinCounts, is(equalTo(new ProteinCounts(2, 1, 1))));
+        assertThat(proteinCountUtility.getDistinctProteinCounts(mockInst), is(sameInstance(proteinCounts)));
+    }
+
+    private void setPlan(long dbId, ProteinCountPlan plan) {
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        if (plan != null) {
+            Mockito.when(mockInferencePlan.getProteinCountPlan(dbId)).thenReturn(plan);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.gk.model.InstanceUtilities;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.schema.SchemaClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({InstanceUtilities.class})
+@PowerMockIgnore({"org.apache.logging.log4j.*", "javax.management.*", "javax.script.*",
+        "javax.xml.*", "com.sun.org.apache.xerces.*", "org.xml.sax.*", "com.sun.xml.*", "org.w3c.dom.*", "org.mockito.*"})
+public class ReactionGroupPlannerTest {
+
+    @Mock
+    SchemaClass mockComplexClass;
+
+    @Mock
+    SchemaClass mockReferenceGeneProductClass;
+
+    @Mock
+    SchemaClass mockSimpleEntityClass;
+
+    @Mock
+    GKInstance mockSpeciesInst;
+
+    Map<Long, GKInstance> reactionMap = new HashMap<>();
+    IdentifierMappings.Builder homologueMappings = new IdentifierMappings.Builder();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(InstanceUtilities.class);
+        Mockito.when(mockReferenceGeneProductClass.isa(ReactomeJavaConstants.ReferenceGeneProduct)).thenReturn(true);
+        Mockito.when(mockComplexClass.isa(ReactomeJavaConstants.PhysicalEntity)).thenReturn(true);
+        Mockito.when(mockComplexClass.isValidAttribute(ReactomeJavaConstants.species)).thenReturn(true);
+        Mockito.when(mockSimpleEntityClass.isa(ReactomeJavaConstants.PhysicalEntity)).thenReturn(true);
+        Mockito.when(mockSimpleEntityClass.isa(ReactomeJavaConstants.SimpleEntity)).thenReturn(true);
+    }
+
+    @Test
+    public void reactionsSharingAnEntityOrHomologueAreGrouped() throws Exception {
+        GKInstance sharedComplex = mockInstance(100L, mockComplexClass);
+        Mockito.when(sharedComplex.getAttributeValue(ReactomeJavaConstants.species)).thenReturn(mockSpeciesInst);
+        GKInstance firstReferenceGeneProduct = mockInstance(200L, mockReferenceGeneProductClass);
+        GKInstance secondReferenceGeneProduct = mockInstance(201L, mockReferenceGeneProductClass);
+        Mockito.when(firstReferenceGeneProduct.getAttributeValue(ReactomeJavaConstants.identifier)).thenReturn("P1");
+        Mockito.when(secondReferenceGeneProduct.getAttributeValue(ReactomeJavaConstants.identifier)).thenReturn("P2");
+        homologueMappings.add("P1", "ENSP:ENSP1").add("P2", "ENSP1");
+
+        mockReaction(1L, sharedComplex);
+        mockReaction(2L, firstReferenceGeneProduct);
+        mockReaction(3L, sharedComplex);
+        mockReaction(4L, secondReferenceGeneProduct);
+        mockReaction(5L);
+
+        List<List<Long>> groups = ReactionGroupPlanner.partition(Arrays.asList(1L, 2L, 3L, 4L, 5L), reactionMap, homologueMappings.build(), new IdentifierMappings.Builder().build());
+
+        assertThat(groups, contains(Arrays.asList(1L, 3L), Arrays.asList(2L, 4L), Arrays.asList(5L)));
+    }
+
+    @Test
+    public void reactionsSharingOnlySpeciesAgnosticEntitiesAreNotGrouped() throws Exception {
+        GKInstance sharedSimpleEntity = mockInstance(300L, mockSimpleEntityClass);
+        GKInstance sharedComplexWithoutSpecies = mockInstance(301L, mockComplexClass);
+
+        mockReaction(1L, sharedSimpleEntity, sharedComplexWithoutSpecies);
+        mockReaction(2L, sharedSimpleEntity);
+        mockReaction(3L, sharedComplexWithoutSpecies);
+
+        List<List<Long>> groups = ReactionGroupPlanner.partition(Arrays.asList(1L, 2L, 3L), reactionMap, homologueMappings.build(), new IdentifierMappings.Builder().build());
+
+        assertThat(groups, contains(Arrays.asList(1L), Arrays.asList(2L), Arrays.asList(3L)));
+    }
+
+    private GKInstance mockInstance(long dbId, SchemaClass schemaClass) {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        Mockito.when(mockInst.getSchemClass()).thenReturn(schemaClass);
+        return mockInst;
+    }
+
+    private void mockReaction(long dbId, GKInstance... followedInstances) throws Exception {
+        GKInstance mockReactionInst = Mockito.mock(GKInstance.class);
+        reactionMap.put(dbId, mockReactionInst);
+        PowerMockito.when(InstanceUtilities.followInstanceAttributes(Mockito.eq(mockReactionInst), Mockito.anyList(), Mockito.any(String[].class)))
+                .thenReturn(new HashSet<>(Arrays.asList(followedInstances)));
+    }
+}
@@ -0,0 +1,79 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.gk.model.ReactomeJavaConstants.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SourceInstancePrefetcherTest {
+
+    @Mock
+    MySQLAdaptor mockAdaptor;
+
+    @Mock
+    SchemaClass mockReactionClass;
+
+    @Mock
+    SchemaClass mockComplexClass;
+
+    @Mock
+    SchemaClass mockSpeciesClass;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockReactionClass.isa(ReactionlikeEvent)).thenReturn(true);
+        Mockito.when(mockReactionClass.isValidAttribute(input)).thenReturn(true);
+        Mockito.when(mockComplexClass.isa(PhysicalEntity)).thenReturn(true);
+        Mockito.when(mockComplexClass.isValidAttribute(hasComponent)).thenReturn(true);
+    }
+
+    @Test
+    public void reachableInstancesAreLoadedClassByClass() throws Exception {
+        GKInstance speciesInst = mockInstance(4L, mockSpeciesClass);
+        GKInstance componentInst = mockInstance(3L, mockComplexClass);
+        GKInstance complexInst = mockInstance(2L, mockComplexClass);
+        GKInstance reactionInst = mockInstance(1L, mockReactionClass);
+        Mockito.when(reactionInst.getAttributeValuesList(input)).thenReturn(Arrays.asList(complexInst, speciesInst));
+        Mockito.when(complexInst.getAttributeValuesList(hasComponent)).thenReturn(Arrays.asList(componentInst, complexInst));
+        Mockito.when(componentInst.getAttributeValuesList(hasComponent)).thenReturn(Collections.emptyList());
+
+        int loadedCount = SourceInstancePrefetcher.prefetch(mockAdaptor, Collections.singletonList(reactionInst), new InferenceMetrics());
+
+        assertThat(loadedCount, is(equalTo(3)));
+        Mockito.verify(mockAdaptor).loadInstanceAttributeValues((Collection) Collections.singletonList(reactionInst));
+        Mockito.verify(mockAdaptor).loadInstanceAttributeValues((Collection) Collections.singletonList(complexInst));
+        Mockito.verify(mockAdaptor).loadInstanceAttributeValues((Collection) Collections.singletonList(componentInst));
+        Mockito.verify(complexInst).setIsInflated(true);
+        Mockito.verify(speciesInst, Mockito.never()).setIsInflated(true);
+    }
+
+    @Test
+    public void inflatedInstancesAreNotLoadedAgain() throws Exception {
+        GKInstance reactionInst = mockInstance(1L, mockReactionClass);
+        Mockito.when(reactionInst.isInflated()).thenReturn(true);
+        Mockito.when(reactionInst.getAttributeValuesList(input)).thenReturn(Collections.emptyList());
+
+        assertThat(SourceInstancePrefetcher.prefetch(mockAdaptor, Collections.singletonList(reactionInst), new InferenceMetrics()), is(equalTo(0)));
+        Mockito.verify(mockAdaptor, Mockito.never()).loadInstanceAttributeValues(Mockito.anyCollection());
+    }
+
+    private static GKInstance mockInstance(long dbId, SchemaClass schemaClass) {
+        GKInstance mockInst = Mockito.mock(GKInstance.class);
+        Mockito.when(mockInst.getDBID()).thenReturn(dbId);
+        Mockito.when(mockInst.getSchemClass()).thenReturn(schemaClass);
+        return mockInst;
+    }
+}
@@ -2,6 +2,7 @@ package org.reactome.orthoinference;
 
 import org.gk.model.GKInstance;
 import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaClass;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -10,7 +11,6 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
-import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -18,7 +18,11 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
-import java.util.Collection;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({StableIdentifierGenerator.class, InstanceUtilities.class})
@@ -31,11 +35,20 @@ public class StableIdentifierGeneratorTest {
     @Mock
     MySQLAdaptor mockAdaptor;
 
+    @Mock
+    InstanceUtilities mockInstanceUtilities;
+
+    @Mock
+    InstanceStore mockInstanceStore;
+
     @Mock
     GKInstance mockInferredInst;
 
     @Mock
-    Collection<GKInstance> mockInstanceCollection;
+    ResultSet mockResultSet;
+
+    @Mock
+    Statement mockStatement;
     @Mock
     GKInstance mockOriginalInst;
 
@@ -48,20 +61,92 @@ public class StableIdentifierGeneratorTest {
     StableIdentifierGenerator stIdGenerator;
 
     @Before
-    public void setUp() {
+    public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
-        stIdGenerator = new StableIdentifierGenerator(mockAdaptor, "ABC");
+        stIdGenerator = new StableIdentifierGenerator(mockAdaptor, "ABC", mockInstanceUtilities);
+        stIdGenerator.setInstanceStore(mockInstanceStore);
+        Mockito.when(mockResultSet.getStatement()).thenReturn(mockStatement);
     }
 
     @Test
     public void generateOrthologousStableIdReturnsStableIdentifierInst() throws Exception {
 
-        PowerMockito.mockStatic(InstanceUtilities.class);
         Mockito.when(mockOriginalInst.getAttributeValue("stableIdentifier")).thenReturn(mockStableIdentifierInst);
         Mockito.when(mockStableIdentifierInst.getAttributeValue("identifier")).thenReturn(identifier);
-        Mockito.when(mockAdaptor.fetchInstanceByAttribute("StableIdentifier", "identifier", "=", "R-ABC-123456")).thenReturn(mockInstanceCollection);
-        PowerMockito.when(InstanceUtilities.createNewInferredGKInstance(mockStableIdentifierInst)).thenReturn(mockOrthoStableIdentifierInst);
+        Mockito.when(mockAdaptor.executeQuery(Mockito.anyString(), Mockito.eq(Collections.singletonList("R-ABC-%")))).thenReturn(mockResultSet);
+        Mockito.when(mockInstanceUtilities.createNewInferredGKInstance(mockStableIdentifierInst)).thenReturn(mockOrthoStableIdentifierInst);
+        assertThat(stIdGenerator.generateOrthologousStableId(mockInferredInst, mockOriginalInst), is(equalTo(mockOrthoStableIdentifierInst)));
+    }
+
+    @Test
+    public void generateOrthologousStableIdReturnsExistingStableIdentifierInst() throws Exception {
+
+        Mockito.when(mockOriginalInst.getAttributeValue("stableIdentifier")).thenReturn(mockStableIdentifierInst);
+        Mockito.when(mockStableIdentifierInst.getAttributeValue("identifier")).thenReturn(identifier);
+        Mockito.when(mockAdaptor.executeQuery(Mockito.anyString(), Mockito.eq(Collections.singletonList("R-ABC-%")))).thenReturn(mockResultSet);
+        Mockito.when(mockResultSet.next()).thenReturn(true, false);
+        Mockito.when(mockResultSet.getLong(1)).thenReturn(98765L);
+        Mockito.when(mockResultSet.getString(2)).thenReturn("R-ABC-123456");
+        Mockito.when(mockInstanceStore.fetchInstance(98765L)).thenReturn(mockOrthoStableIdentifierInst);
         assertThat(stIdGenerator.generateOrthologousStableId(mockInferredInst, mockOriginalInst), is(equalTo(mockOrthoStableIdentifierInst)));
+        Mockito.verify(mockInstanceStore, Mockito.never()).storeInstance(Mockito.any(GKInstance.class));
+    }
+
+    @Test
+    public void paralogsReceiveNumberedStableIdentifiers() throws Exception {
+
+        Mockito.when(mockOriginalInst.getAttributeValue("stableIdentifier")).thenReturn(mockStableIdentifierInst);
+        Mockito.when(mockStableIdentifierInst.getAttributeValue("identifier")).thenReturn(identifier);
+        Mockito.when(mockAdaptor.executeQuery(Mockito.anyString(), Mockito.eq(Collections.singletonList("R-ABC-%")))).thenReturn(mockResultSet);
+        Mockito.when(mockInstanceUtilities.createNewInferredGKInstance(mockStableIdentifierInst)).thenReturn(mockOrthoStableIdentifierInst);
+        stIdGenerator.generateOrthologousStableId(mockInferredInst, mockOriginalInst);
+        stIdGenerator.generateOrthologousStableId(mockInferredInst, mockOriginalInst);
+        Mockito.verify(mockOrthoStableIdentifierInst).addAttributeValue("identifier", "R-ABC-123456");
+        Mockito.verify(mockOrthoStableIdentifierInst).addAttributeValue("identifier", "R-ABC-123456-2");
+        Mockito.verify(mockAdaptor, Mockito.times(1)).executeQuery(Mockito.anyString(), Mockito.anyList());
+        Mockito.verify(mockStatement).close();
+    }
+
+    @Test
+    public void restoredParalogCountsContinueNumbering() throws Exception {
+
+        Mockito.when(mockOriginalInst.getAttributeValue("stableIdentifier")).thenReturn(mockStableIdentifierInst);
+        Mockito.when(mockStableIdentifierInst.getAttributeValue("identifier")).thenReturn(identifier);
+        Mockito.when(mockAdaptor.executeQuery(Mockito.anyString(), Mockito.eq(Collections.singletonList("R-ABC-%")))).thenReturn(mockResultSet);
+        Mockito.when(mockInstanceUtilities.createNewInferredGKInstance(mockStableIdentifierInst)).thenReturn(mockOrthoStableIdentifierInst);
+        stIdGenerator.restoreParalogCount("R-ABC-123456", 2);
+        stIdGenerator.generateOrthologousStableId(mockInferredInst, mockOriginalInst);
+        Mockito.verify(mockOrthoStableIdentifierInst).addAttributeValue("identifier", "R-ABC-123456-3");
+        assertThat(stIdGenerator.getParalogCounts(), hasEntry("R-ABC-123456", 3));
+    }
+
+    @Test
+    public void newStableIdentifiersAreInsertedWhenTheWritesAreCommitted() throws Exception {
+        Connection mockConnection = Mockito.mock(Connection.class);
+        PreparedStatement mockPreparedStatement = Mockito.mock(PreparedStatement.class);
+        DbIdAllocator mockDbIdAllocator = Mockito.mock(DbIdAllocator.class);
+        SchemaClass mockStableIdentifierClass = Mockito.mock(SchemaClass.class);
+        Mockito.when(mockAdaptor.getConnection()).thenReturn(mockConnection);
+        Mockito.when(mockConnection.prepareStatement(Mockito.anyString())).thenReturn(mockPreparedStatement);
+        Mockito.when(mockDbIdAllocator.reserveBlock(mockAdaptor)).thenReturn(101L);
+        Mockito.when(mockDbIdAllocator.getBlockSize()).thenReturn(1000);
+        Mockito.when(mockStableIdentifierClass.getName()).thenReturn("StableIdentifier");
+        Mockito.when(mockOrthoStableIdentifierInst.getSchemClass()).thenReturn(mockStableIdentifierClass);
+        Mockito.when(mockOriginalInst.getAttributeValue("stableIdentifier")).thenReturn(mockStableIdentifierInst);
+        Mockito.when(mockStableIdentifierInst.getAttributeValue("identifier")).thenReturn(identifier);
+        Mockito.when(mockAdaptor.executeQuery(Mockito.anyString(), Mockito.eq(Collections.singletonList("R-ABC-%")))).thenReturn(mockResultSet);
+        Mockito.when(mockInstanceUtilities.createNewInferredGKInstance(mockStableIdentifierInst)).thenReturn(mockOrthoStableIdentifierInst);
+        MySQLInstanceStore instanceStore = new MySQLInstanceStore(mockAdaptor, new InferenceMetrics(), mockDbIdAllocator);
+        stIdGenerator.setInstanceStore(instanceStore);
+
+        instanceStore.begin();
+        stIdGenerator.generateOrthologousStableId(mockInferredInst, mockOriginalInst);
+        Mockito.verify(mockOrthoStableIdentifierInst).setDBID(101L);
+        Mockito.verify(mockConnection, Mockito.never()).prepareStatement(Mockito.anyString());
+        instanceStore.commit();
+
+        Mockito.verify(mockConnection).prepareStatement("INSERT INTO StableIdentifier (DB_ID, _class, _displayName) VALUES (?, ?, ?)");
+        Mockito.verify(mockAdaptor, Mockito.never()).storeInstance(Mockito.any(GKInstance.class));
     }
 
     @Rule
@@ -0,0 +1,223 @@
+package org.reactome.orthoinference;
+
+import org.gk.model.GKInstance;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.schema.SchemaClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ThresholdSweepTest {
+
+    // Thresholds at and either side of the fixture entities' cutoffs, including the default
+    private static final int[] THRESHOLDS = {0, 1, 50, 51, 66, 67, 75, 76, 99, 100};
+
+    @Mock
+    InferencePlan mockInferencePlan;
+    @Mock
+    SourceSpeciesData mockSourceData;
+    @Mock
+    InstanceUtilities mockInstanceUtilities;
+    @Mock
+    EWASInferrer mockEWASInferrer;
+    @Mock
+    InferenceUnitOfWork mockUnitOfWork;
+    @Mock
+    GKInstance mockSpeciesInst;
+    @Mock
+    GKInstance mockGhostInst;
+
+    // P1, P4 and P6 have homologues that are proteins of the species. P3's homologue isn't, but it still counts as an inferrable protein.
+    IdentifierMappings homologueMappings = new IdentifierMappings.Builder()
+            .add("P1", "ENSP1").add("P3", "ENSP3").add("P4", "ENSP4").add("P6", "ENSP6")
+            .build();
+    IdentifierMappings ensgMappings = new IdentifierMappings.Builder()
+            .add("ENSP1", "ENSG1").add("ENSP4", "ENSG4").add("ENSP6", "ENSG6")
+            .build();
+    Map<Long, GKInstance> inferredInstances = new HashMap<>();
+    List<GKInstance> entities = new ArrayList<>();
+    Map<String, GKInstance> entitiesByName = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mockSourceData.getInferencePlan()).thenReturn(mockInferencePlan);
+        Mockito.when(mockInstanceUtilities.createMockGKInstance(Mockito.any(GKInstance.class))).thenReturn(mockGhostInst);
+        Mockito.when(mockInstanceUtilities.getIdenticalInstance(Mockito.any(GKInstance.class), Mockito.any(GKInstance.class)))
+                .thenAnswer(invocation -> invocation.getArguments()[0]);
+
+        SchemaClass ewasClass = schemaClass(ReactomeJavaConstants.EntityWithAccessionedSequence, ReactomeJavaConstants.GenomeEncodedEntity);
+        SchemaClass geeClass = schemaClass(ReactomeJavaConstants.GenomeEncodedEntity);
+        SchemaClass complexClass = schemaClass(ReactomeJavaConstants.Complex);
+        SchemaClass polymerClass = schemaClass(ReactomeJavaConstants.Polymer);
+        SchemaClass definedSetClass = schemaClass(ReactomeJavaConstants.DefinedSet, ReactomeJavaConstants.EntitySet);
+        SchemaClass candidateSetClass = schemaClass(ReactomeJavaConstants.CandidateSet, ReactomeJavaConstants.EntitySet);
+        SchemaClass openSetClass = schemaClass(ReactomeJavaConstants.OpenSet, ReactomeJavaConstants.EntitySet);
+        SchemaClass simpleEntityClass = schemaClass(ReactomeJavaConstants.SimpleEntity);
+
+        GKInstance ewas1 = ewas("ewas1", 1L, ewasClass, "P1");
+        GKInstance ewas2 = ewas("ewas2", 2L, ewasClass, "P2");
+        GKInstance ewas3 = ewas("ewas3", 3L, ewasClass, "P3");
+        GKInstance ewas4 = ewas("ewas4", 4L, ewasClass, "P4");
+        entity("gee", 5L, geeClass);
+        GKInstance simpleEntity = entity("simpleEntity", 30L, simpleEntityClass);
+        Mockito.when(mockInferencePlan.getSpeciesAttributeFlag(30L)).thenReturn(false);
+
+        GKInstance complex50 = complex("complex50", 10L, complexClass, ReactomeJavaConstants.hasComponent, Arrays.asList(ewas1, ewas2), "P1", "P2");
+        GKInstance complex75 = complex("complex75", 11L, complexClass, ReactomeJavaConstants.hasComponent, Arrays.asList(ewas1, ewas2, ewas3, ewas4), "P1", "P2", "P3", "P4");
+        complex("complex100", 12L, complexClass, ReactomeJavaConstants.hasComponent, Arrays.asList(ewas1, ewas4), "P1", "P4");
+        complex("complexWithoutInferrableProteins", 13L, complexClass, ReactomeJavaConstants.hasComponent, Collections.singletonList(ewas2), "P2");
+        complex("polymer66", 14L, polymerClass, ReactomeJavaConstants.repeatedUnit, Collections.singletonList(ewas1), "P1", "P4", "P2");
+        complex("complexWithoutProteins", 15L, complexClass, ReactomeJavaConstants.hasComponent, Collections.singletonList(simpleEntity));
+
+        entitySet("definedSet75", 20L, definedSetClass, Arrays.asList(complex50, complex75), Collections.emptyList(), "P1", "P2");
+        entitySet("candidateSet50", 21L, candidateSetClass, Collections.singletonList(ewas2), Collections.singletonList(complex50), "P1", "P2");
+        entitySet("definedSetWithoutInferrableProteins", 22L, definedSetClass, Collections.singletonList(ewas3), Collections.emptyList(), "P2");
+        entitySet("openSet", 23L, openSetClass, Collections.singletonList(ewas2), Collections.emptyList(), "P1");
+    }
+
+    @Test
+    public void thresholdsAndRangesAreParsedInOrder() {
+        assertThat(ThresholdSweep.parseThresholds("90-100:5, 50,75"), is(equalTo(new int[] {50, 75, 90, 95, 100})));
+        assertThat(ThresholdSweep.parseThresholds("98-100"), is(equalTo(new int[] {98, 99, 100})));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thresholdsAbove100AreRejected() {
+        ThresholdSweep.parseThresholds("50-150:10");
+    }
+
+    @Test
+    public void reactionsAreInferredAtThresholdsUpToTheirCutoff() {
+        ThresholdSweep.ReactionCutoffs reactionCutoffs = new ThresholdSweep.ReactionCutoffs();
+        reactionCutoffs.add(ThresholdSweep.NOT_INFERRED);
+        reactionCutoffs.add(66);
+        reactionCutoffs.add(75);
+        reactionCutoffs.add(ThresholdSweep.ALL_THRESHOLDS);
+
+        assertThat(reactionCutoffs.getEligibleCount(), is(equalTo(4)));
+        assertThat(reactionCutoffs.getInferredCount(0), is(equalTo(3)));
+        assertThat(reactionCutoffs.getInferredCount(66), is(equalTo(3)));
+        assertThat(reactionCutoffs.getInferredCount(75), is(equalTo(2)));
+        assertThat(reactionCutoffs.getInferredCount(100), is(equalTo(1)));
+    }
+
+    @Test
+    public void cutoffsAreTheHighestThresholdsAtWhichEntitiesAreInferred() throws Exception {
+        ThresholdSweep thresholdSweep = new ThresholdSweep(mockInferencePlan, homologueMappings, ensgMappings);
+
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("ewas1")), is(equalTo(ThresholdSweep.ALL_THRESHOLDS)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("ewas3")), is(equalTo(ThresholdSweep.NOT_INFERRED)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("complex50")), is(equalTo(50)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("complex75")), is(equalTo(75)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("polymer66")), is(equalTo(66)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("complexWithoutProteins")), is(equalTo(0)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("complexWithoutInferrableProteins")), is(equalTo(ThresholdSweep.NOT_INFERRED)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("definedSet75")), is(equalTo(75)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("candidateSet50")), is(equalTo(50)));
+        assertThat(thresholdSweep.getCutoff(entitiesByName.get("openSet")), is(equalTo(ThresholdSweep.ALL_THRESHOLDS)));
+    }
+
+    // The sweep re-implements the threshold checks of OrthologousEntityGenerator, so both are run on the same entities: at each threshold, an
+    // entity must be inferred by the generator exactly when the sweep's cutoff for it is at least the threshold.
+    @Test
+    public void cutoffsMatchTheInferencesOfOrthologousEntityGenerator() throws Exception {
+        ThresholdSweep thresholdSweep = new ThresholdSweep(mockInferencePlan, homologueMappings, ensgMappings);
+
+        for (int threshold : THRESHOLDS) {
+            OrthologousEntityGenerator entityGenerator = createEntityGenerator(threshold);
+            for (GKInstance entityInst : entities) {
+                boolean inferredBySweep = thresholdSweep.getCutoff(entityInst) >= threshold;
+                boolean inferredByGenerator = entityGenerator.createOrthoEntity(entityInst, false) != null;
+                assertThat(entityInst + " at " + threshold + "%", inferredBySweep, is(equalTo(inferredByGenerator)));
+            }
+        }
+    }
+
+    // A generator with its own caches, so that entities are inferred again at each threshold
+    private OrthologousEntityGenerator createEntityGenerator(int threshold) {
+        InferenceContext mockContext = Mockito.mock(InferenceContext.class);
+        ProteinCountUtility proteinCountUtility = new ProteinCountUtility(mockInferencePlan, new InferenceMetrics());
+        proteinCountUtility.setHomologueMappingFile(homologueMappings);
+        Mockito.when(mockContext.getSourceData()).thenReturn(mockSourceData);
+        Mockito.when(mockContext.getUnitOfWork()).thenReturn(mockUnitOfWork);
+        Mockito.when(mockContext.getInferredInstanceCaches()).thenReturn(new InferredInstanceCaches(new InferenceMetrics()));
+        Mockito.when(mockContext.getInstanceUtilities()).thenReturn(mockInstanceUtilities);
+        Mockito.when(mockContext.getProteinCountUtility()).thenReturn(proteinCountUtility);
+        Mockito.when(mockContext.getEWASInferrer()).thenReturn(mockEWASInferrer);
+        OrthologousEntityGenerator entityGenerator = new OrthologousEntityGenerator(mockContext);
+        entityGenerator.setComplexProteinThreshold(threshold);
+        return entityGenerator;
+    }
+
+    private SchemaClass schemaClass(String className, String... superClassNames) {
+        SchemaClass schemaClass = Mockito.mock(SchemaClass.class);
+        Mockito.when(schemaClass.toString()).thenReturn(className);
+        Mockito.when(schemaClass.isValidAttribute(ReactomeJavaConstants.species)).thenReturn(true);
+        Mockito.when(schemaClass.isa(className)).thenReturn(true);
+        for (String superClassName : superClassNames) {
+            Mockito.when(schemaClass.isa(superClassName)).thenReturn(true);
+        }
+        return schemaClass;
+    }
+
+    // A source entity with a species, and the instance that is inferred from it, which is named after it so that EntitySets can tell their inferred members apart
+    private GKInstance entity(String entityName, long dbId, SchemaClass schemaClass) throws Exception {
+        GKInstance entityInst = Mockito.mock(GKInstance.class);
+        Mockito.when(entityInst.getDBID()).thenReturn(dbId);
+        Mockito.when(entityInst.getSchemClass()).thenReturn(schemaClass);
+        Mockito.when(entityInst.getAttributeValue(ReactomeJavaConstants.species)).thenReturn(mockSpeciesInst);
+        Mockito.when(entityInst.toString()).thenReturn(entityName);
+        Mockito.when(mockInferencePlan.getSpeciesAttributeFlag(dbId)).thenReturn(true);
+        GKInstance inferredInst = Mockito.mock(GKInstance.class);
+        Mockito.when(inferredInst.getSchemClass()).thenReturn(schemaClass);
+        Mockito.when(inferredInst.getAttributeValue(ReactomeJavaConstants.name)).thenReturn("inferred " + entityName);
+        Mockito.when(mockInstanceUtilities.createNewInferredGKInstance(entityInst)).thenReturn(inferredInst);
+        inferredInstances.put(dbId, inferredInst);
+        entities.add(entityInst);
+        entitiesByName.put(entityName, entityInst);
+        return entityInst;
+    }
+
+    // EWASInferrer infers an EWAS if one of its homologues is a protein of the species, which is what the sweep checks
+    private GKInstance ewas(String entityName, long dbId, SchemaClass ewasClass, String identifier) throws Exception {
+        GKInstance ewasInst = entity(entityName, dbId, ewasClass);
+        GKInstance referenceEntityInst = Mockito.mock(GKInstance.class);
+        Mockito.when(referenceEntityInst.getAttributeValue(ReactomeJavaConstants.identifier)).thenReturn(identifier);
+        Mockito.when(ewasInst.getAttributeValue(ReactomeJavaConstants.referenceEntity)).thenReturn(referenceEntityInst);
+        boolean inferrable = homologueMappings.getValues(identifier).stream().anyMatch(ensgMappings::containsKey);
+        Mockito.when(mockEWASInferrer.inferEWAS(ewasInst)).thenReturn(inferrable ? Collections.singletonList(inferredInstances.get(dbId)) : Collections.emptyList());
+        return ewasInst;
+    }
+
+    private GKInstance complex(String entityName, long dbId, SchemaClass schemaClass, String componentAttribute, List<GKInstance> components, String... proteins) throws Exception {
+        GKInstance complexInst = entity(entityName, dbId, schemaClass);
+        Mockito.when(complexInst.getAttributeValuesList(componentAttribute)).thenReturn(components);
+        setProteins(dbId, proteins);
+        return complexInst;
+    }
+
+    private GKInstance entitySet(String entityName, long dbId, SchemaClass schemaClass, List<GKInstance> members, List<GKInstance> candidates, String... proteins) throws Exception {
+        GKInstance entitySetInst = entity(entityName, dbId, schemaClass);
+        Mockito.when(entitySetInst.getAttributeValuesList(ReactomeJavaConstants.hasMember)).thenReturn(members);
+        Mockito.when(entitySetInst.getAttributeValuesList(ReactomeJavaConstants.hasCandidate)).thenReturn(candidates);
+        setProteins(dbId, proteins);
+        return entitySetInst;
+    }
+
+    private void setProteins(long dbId, String... proteins) {
+        Mockito.when(mockInferencePlan.getProteinCountPlan(dbId)).thenReturn(new ProteinCountPlan(proteins, new ProteinCountPlan.EntitySetPlan[0]));
+    }
+}
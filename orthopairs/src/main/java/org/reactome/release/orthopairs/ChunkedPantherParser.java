@@ -0,0 +1,126 @@
+package org.reactome.release.orthopairs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Parses PANTHER ortholog files on a fork-join pool. The decompressed input is read into line-aligned chunks, and each chunk is scanned by a
+ * worker into that worker's own graph builders, which number identifiers with the worker's own dictionary. The workers' builders are merged
+ * once all chunks have been scanned. The chunks waiting to be scanned are bounded, so the input is never held in memory in full. The merged
+ * graphs are the same as when the files are parsed one line at a time, since the LDO-over-O precedence of the builders doesn't depend on the
+ * order in which the lines are read. The parser owns its pool, so it must be closed, including when parsing fails.
+ */
+public class ChunkedPantherParser implements AutoCloseable {
+    private static final int CHUNK_SIZE = 8 << 20;
+    private final String sourceSpeciesPantherName;
+    private final Set<String> targetSpeciesNames;
+    private final ForkJoinPool pool;
+    private final Semaphore pendingChunks;
+    private final Map<Thread, PartialGraphs> partialGraphs = new ConcurrentHashMap<>();
+    private final List<ForkJoinTask<?>> chunkTasks = new ArrayList<>();
+
+    // The orthologs found by a single worker
+    private static class PartialGraphs {
+        private final IdentifierDictionary identifiers = new IdentifierDictionary();
+        private final Map<String, OrthologGraph.Builder> proteinHomologBuilders = new HashMap<>();
+        private final Map<String, OrthologGraph.Builder> geneProteinBuilders = new HashMap<>();
+        private final PantherOrthologScanner scanner;
+
+        private PartialGraphs(String sourceSpeciesPantherName, Set<String> targetSpeciesNames) {
+            this.scanner = new PantherOrthologScanner(sourceSpeciesPantherName, targetSpeciesNames, (targetSpecies, sourceProtein, targetGene, targetProtein, orthologType) -> {
+                OrthologyFileParser.MapId(targetSpecies, sourceProtein, targetProtein, proteinHomologBuilders, identifiers, orthologType);
+                OrthologyFileParser.MapId(targetSpecies, targetGene, targetProtein, geneProteinBuilders, identifiers, orthologType);
+            });
+        }
+    }
+
+    public ChunkedPantherParser(String sourceSpeciesPantherName, Set<String> targetSpeciesNames, int parallelism) {
+        this.sourceSpeciesPantherName = sourceSpeciesPantherName;
+        this.targetSpeciesNames = targetSpeciesNames;
+        this.pool = new ForkJoinPool(parallelism);
+        this.pendingChunks = new Semaphore(parallelism * 2);
+    }
+
+    // Reads the stream to its end, submitting its chunks to the pool. The stream isn't closed, so it can be the entry of an archive.
+    public void parse(InputStream inputStream) throws IOException {
+        byte[] remainder = new byte[0];
+        while (true) {
+            // A chunk starts with the incomplete last line of the previous one, and grows if a single line fills it
+            byte[] chunk = new byte[Math.max(CHUNK_SIZE, remainder.length * 2)];
+            System.arraycopy(remainder, 0, chunk, 0, remainder.length);
+            int length = remainder.length + readFully(inputStream, chunk, remainder.length);
+            if (length == remainder.length) {
+                if (length > 0) {
+                    submit(chunk, length);
+                }
+                return;
+            }
+            int chunkEnd = length;
+            while (chunkEnd > 0 && chunk[chunkEnd - 1] != '\n') {
+                chunkEnd--;
+            }
+            remainder = Arrays.copyOfRange(chunk, chunkEnd, length);
+            if (chunkEnd > 0) {
+                submit(chunk, chunkEnd);
+            }
+        }
+    }
+
+    // Waits for all chunks to be scanned and merges the workers' builders into the given builders, which number identifiers with the given dictionary
+    public void mergeInto(IdentifierDictionary identifiers, Map<String, OrthologGraph.Builder> proteinHomologBuilders, Map<String, OrthologGraph.Builder> geneProteinBuilders) {
+        for (ForkJoinTask<?> chunkTask : chunkTasks) {
+            chunkTask.join();
+        }
+        for (PartialGraphs workerGraphs : partialGraphs.values()) {
+            OrthologyFileParser.mergeIds(proteinHomologBuilders, workerGraphs.proteinHomologBuilders, identifiers);
+            OrthologyFileParser.mergeIds(geneProteinBuilders, workerGraphs.geneProteinBuilders, identifiers);
+        }
+    }
+
+    // Stops the pool's workers. Chunks that haven't been scanned yet, if parsing failed, are discarded.
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private void submit(byte[] chunk, int length) throws IOException {
+        try {
+            pendingChunks.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to submit a PANTHER chunk");
+        }
+        chunkTasks.add(pool.submit(() -> {
+            try {
+                PantherOrthologScanner scanner = partialGraphs.computeIfAbsent(Thread.currentThread(), k -> new PartialGraphs(sourceSpeciesPantherName, targetSpeciesNames)).scanner;
+                // The last chunk of a stream may end without a newline
+                int lastLineStart = scanner.scanLines(chunk, 0, length);
+                if (lastLineStart < length) {
+                    scanner.scanLine(chunk, lastLineStart, length);
+                }
+            } finally {
+                pendingChunks.release();
+            }
+        }));
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer, int offset) throws IOException {
+        int length = 0;
+        int read;
+        while (offset + length < buffer.length && (read = inputStream.read(buffer, offset + length, buffer.length - offset - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+}
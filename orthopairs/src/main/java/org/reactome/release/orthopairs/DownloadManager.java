@@ -0,0 +1,327 @@
+package org.reactome.release.orthopairs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads the PANTHER archives and the alternate ID mapping files in parallel, through a local cache directory. The cache holds each downloaded
+ * file once, named by its SHA-256 checksum (objects/{checksum}), and for each URL a properties file ({URL checksum}.properties) with the checksum of
+ * its content and the ETag and Last-Modified validators that the server sent with it. HTTP(S) downloads are made conditional on those validators,
+ * so a file that hasn't changed isn't downloaded again. An interrupted download is kept in partial/, and is resumed with a Range request if the
+ * server still has the same version of the file. Requests for other URLs, such as the FTP ones, can't be made conditional, so like before the
+ * cache, they are only downloaded if there is no intact cached copy of them. For all URLs, the cached copy is used if the download fails. Cached
+ * files are checked against their checksum before they are used.
+ */
+public class DownloadManager {
+    private static final Logger logger = LogManager.getLogger();
+    private static final int TIMEOUT_MILLIS = 60 * 1000;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    // Keys of the properties file of a URL
+    private static final String CHECKSUM = "checksum";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String PARTIAL_VALIDATOR = "partialValidator";
+    private final Path cacheDirectory;
+    private final Path objectDirectory;
+    private final Path partialDirectory;
+    private final int parallelism;
+    // Guards the properties files and the removal of objects that they no longer refer to
+    private final Object metadataLock = new Object();
+
+    public DownloadManager(Path cacheDirectory, int parallelism) throws IOException {
+        this.cacheDirectory = cacheDirectory;
+        this.objectDirectory = cacheDirectory.resolve("objects");
+        this.partialDirectory = cacheDirectory.resolve("partial");
+        this.parallelism = parallelism;
+        Files.createDirectories(objectDirectory);
+        Files.createDirectories(partialDirectory);
+    }
+
+    // Downloads each URL to its destination, downloading up to 'parallelism' URLs at a time
+    public void downloadAll(Map<String, Path> urlDestinations) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, urlDestinations.size())));
+        try {
+            List<Future<Path>> downloads = new ArrayList<>();
+            for (Map.Entry<String, Path> urlDestination : urlDestinations.entrySet()) {
+                downloads.add(executor.submit(() -> download(urlDestination.getKey(), urlDestination.getValue())));
+            }
+            for (Future<Path> download : downloads) {
+                try {
+                    download.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Downloads the URL to the destination, unless the cached copy is still current or the URL isn't HTTP(S) and has an intact cached copy
+    public Path download(String url, Path destination) throws IOException {
+        Path metadataPath = cacheDirectory.resolve(toHex(digest(url.getBytes(StandardCharsets.UTF_8))) + ".properties");
+        Properties metadata = readMetadata(metadataPath);
+        String cachedChecksum = metadata.getProperty(CHECKSUM);
+        boolean cached = cachedChecksum != null && isIntact(cachedChecksum);
+        if (cachedChecksum != null && !cached) {
+            logger.warn("Cached copy of " + url + " is missing or doesn't match its checksum");
+        }
+
+        String checksum;
+        try {
+            if (isHttp(url)) {
+                checksum = downloadHttp(url, metadataPath, metadata, cached);
+            } else if (cached) {
+                // There is no way of asking whether these files have changed without downloading them, so the cached copy is kept
+                logger.info(url + " is already cached");
+                checksum = cachedChecksum;
+            } else {
+                checksum = downloadOther(url, metadataPath, metadata);
+            }
+        } catch (IOException e) {
+            if (!cached) {
+                throw e;
+            }
+            logger.warn("Could not download " + url + ", using the cached copy instead", e);
+            checksum = cachedChecksum;
+        }
+        if (cachedChecksum != null && !cachedChecksum.equals(checksum)) {
+            removeIfUnreferenced(cachedChecksum);
+        }
+        copyToDestination(checksum, destination);
+        return destination;
+    }
+
+    // Sends a request that is conditional on the cached copy, and that resumes the partial download if there is one. Returns the checksum of the content.
+    private String downloadHttp(String url, Path metadataPath, Properties metadata, boolean cached) throws IOException {
+        Path partialPath = getPartialPath(metadataPath);
+        String partialValidator = metadata.getProperty(PARTIAL_VALIDATOR);
+        long resumeOffset = partialValidator != null && Files.exists(partialPath) ? Files.size(partialPath) : 0;
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (cached) {
+            setRequestPropertyIfPresent(connection, "If-None-Match", metadata.getProperty(ETAG));
+            setRequestPropertyIfPresent(connection, "If-Modified-Since", metadata.getProperty(LAST_MODIFIED));
+        }
+        if (resumeOffset > 0) {
+            // If-Range makes the server send the whole file instead, if it has changed since the partial download
+            connection.setRequestProperty("Range", "bytes=" + resumeOffset + "-");
+            connection.setRequestProperty("If-Range", partialValidator);
+        }
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached) {
+                logger.info(url + " hasn't changed since it was cached");
+                return metadata.getProperty(CHECKSUM);
+            }
+            if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && resumeOffset > 0) {
+                logger.info("Can't resume the download of " + url + ", downloading it again");
+                Files.delete(partialPath);
+                metadata.remove(PARTIAL_VALIDATOR);
+                writeMetadata(metadataPath, metadata);
+                return downloadHttp(url, metadataPath, metadata, cached);
+            }
+            boolean resumed = responseCode == HttpURLConnection.HTTP_PARTIAL && resumeOffset > 0 && isResponseRangeFrom(connection, resumeOffset);
+            if (responseCode != HttpURLConnection.HTTP_OK && !resumed) {
+                throw new IOException("Unexpected response '" + responseCode + " " + connection.getResponseMessage() + "' for " + url);
+            }
+            if (resumed) {
+                logger.info("Resuming the download of " + url + " from byte " + resumeOffset);
+            } else {
+                logger.info("Downloading " + url);
+                // The validator that a later request must match to resume this download, if it is interrupted
+                String validator = connection.getHeaderField("ETag") != null ? connection.getHeaderField("ETag") : connection.getHeaderField("Last-Modified");
+                setOrRemove(metadata, PARTIAL_VALIDATOR, validator);
+                writeMetadata(metadataPath, metadata);
+            }
+            String checksum = receive(connection.getInputStream(), partialPath, resumed, connection.getContentLengthLong());
+            metadata.setProperty(CHECKSUM, checksum);
+            setOrRemove(metadata, ETAG, connection.getHeaderField("ETag"));
+            setOrRemove(metadata, LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+            metadata.remove(PARTIAL_VALIDATOR);
+            writeMetadata(metadataPath, metadata);
+            return checksum;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Downloads a URL whose protocol has no conditional requests or ranges. Returns the checksum of the content.
+    private String downloadOther(String url, Path metadataPath, Properties metadata) throws IOException {
+        logger.info("Downloading " + url);
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        String checksum = receive(connection.getInputStream(), getPartialPath(metadataPath), false, connection.getContentLengthLong());
+        metadata.setProperty(CHECKSUM, checksum);
+        writeMetadata(metadataPath, metadata);
+        return checksum;
+    }
+
+    // Writes the body to the partial file, appending it to what was downloaded before if the download is resumed, and moves the complete file into
+    // the objects directory. Returns the checksum of the whole file. The partial file is kept if the body ends before its expected length.
+    private String receive(InputStream body, Path partialPath, boolean append, long expectedLength) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        if (append) {
+            try (InputStream partialIn = Files.newInputStream(partialPath)) {
+                while ((read = partialIn.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        long receivedLength = 0;
+        try (InputStream in = body;
+             OutputStream out = Files.newOutputStream(partialPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                receivedLength += read;
+            }
+        }
+        if (expectedLength >= 0 && receivedLength != expectedLength) {
+            throw new IOException("Download ended after " + receivedLength + " of " + expectedLength + " bytes");
+        }
+        String checksum = toHex(digest.digest());
+        Files.move(partialPath, objectDirectory.resolve(checksum), StandardCopyOption.ATOMIC_MOVE);
+        return checksum;
+    }
+
+    // The destination is a copy of the cached file rather than a link to it, so that writing to the destination can't change the cached file
+    private void copyToDestination(String checksum, Path destination) throws IOException {
+        Files.copy(objectDirectory.resolve(checksum), destination, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private boolean isIntact(String checksum) throws IOException {
+        Path objectPath = objectDirectory.resolve(checksum);
+        if (!Files.exists(objectPath)) {
+            return false;
+        }
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        try (InputStream objectIn = Files.newInputStream(objectPath)) {
+            while ((read = objectIn.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest()).equals(checksum);
+    }
+
+    // Removes a cached file once no URL's content has its checksum, such as the previous version of a file that has changed
+    private void removeIfUnreferenced(String checksum) throws IOException {
+        synchronized (metadataLock) {
+            try (DirectoryStream<Path> metadataPaths = Files.newDirectoryStream(cacheDirectory, "*.properties")) {
+                for (Path metadataPath : metadataPaths) {
+                    if (checksum.equals(readMetadata(metadataPath).getProperty(CHECKSUM))) {
+                        return;
+                    }
+                }
+            }
+            Files.deleteIfExists(objectDirectory.resolve(checksum));
+        }
+    }
+
+    private Properties readMetadata(Path metadataPath) throws IOException {
+        Properties metadata = new Properties();
+        synchronized (metadataLock) {
+            if (Files.exists(metadataPath)) {
+                try (InputStream metadataIn = Files.newInputStream(metadataPath)) {
+                    metadata.load(metadataIn);
+                }
+            }
+        }
+        return metadata;
+    }
+
+    // The properties file is replaced in one move, so it is never left half-written
+    private void writeMetadata(Path metadataPath, Properties metadata) throws IOException {
+        synchronized (metadataLock) {
+            Path temporaryPath = metadataPath.resolveSibling(metadataPath.getFileName() + ".tmp");
+            try (OutputStream metadataOut = Files.newOutputStream(temporaryPath)) {
+                metadata.store(metadataOut, null);
+            }
+            Files.move(temporaryPath, metadataPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private Path getPartialPath(Path metadataPath) {
+        return partialDirectory.resolve(metadataPath.getFileName().toString().replace(".properties", ".part"));
+    }
+
+    // A 206 response is only appended to the partial file if it starts where the partial file ends, eg: 'Content-Range: bytes 1024-2047/2048'
+    private static boolean isResponseRangeFrom(HttpURLConnection connection, long offset) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        return contentRange != null && contentRange.startsWith("bytes " + offset + "-");
+    }
+
+    private static boolean isHttp(String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    private static void setRequestPropertyIfPresent(URLConnection connection, String header, String value) {
+        if (value != null) {
+            connection.setRequestProperty(header, value);
+        }
+    }
+
+    private static void setOrRemove(Properties metadata, String key, String value) {
+        if (value != null) {
+            metadata.setProperty(key, value);
+        } else {
+            metadata.remove(key);
+        }
+    }
+
+    private static byte[] digest(byte[] content) {
+        return newDigest().digest(content);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,41 @@
+package org.reactome.release.orthopairs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the gene and protein identifiers found in the PANTHER files, numbering each distinct identifier from 0. The ortholog graphs of all
+ * species refer to identifiers by these numbers, so each identifier String is held once no matter how many orthologs it is part of.
+ * A dictionary isn't thread-safe; each thread that parses PANTHER lines keeps its own.
+ */
+public class IdentifierDictionary {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> identifiers = new ArrayList<>();
+
+    // Returns the number of the identifier, numbering it if it hasn't been seen before
+    public int intern(String identifier) {
+        Integer id = ids.get(identifier);
+        if (id == null) {
+            id = identifiers.size();
+            ids.put(identifier, id);
+            identifiers.add(identifier);
+        }
+        return id;
+    }
+
+    // Returns the number of the identifier, or -1 if it hasn't been interned
+    public int indexOf(String identifier) {
+        Integer id = ids.get(identifier);
+        return id != null ? id : -1;
+    }
+
+    public String get(int id) {
+        return identifiers.get(id);
+    }
+
+    public int size() {
+        return identifiers.size();
+    }
+}
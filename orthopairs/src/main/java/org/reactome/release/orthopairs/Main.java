@@ -1,17 +1,12 @@
 package org.reactome.release.orthopairs;
 
 import java.io.*;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
 
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.simple.JSONArray;
@@ -61,6 +56,9 @@ public class Main
         String RGDFileURL = props.get("RGDFileURL").toString();
         String XenbaseFileURL = props.get("XenbaseFileURL").toString();
         String ZFINFileURL = props.get("ZFINFileURL").toString();
+        // Downloads are cached in 'downloadCacheDirectory', and up to 'downloadThreads' files are downloaded at a time
+        Path downloadCacheDirectory = Paths.get(props.getProperty("downloadCacheDirectory", "downloadCache"));
+        int downloadThreads = Integer.parseInt(props.getProperty("downloadThreads", "4"));
 
         if (releaseNumber.isEmpty()) {
             logger.fatal("Please populate config.properties file with releaseNumber");
@@ -69,41 +67,33 @@ public class Main
         new File(releaseNumber).mkdir();
 
         logger.info("Starting Orthopairs file generation");
-        // Download and extract homology files from Panther
+        // Download homology files from Panther. They are read straight from the tar.gz archives, so they aren't extracted.
+        Map<String, Path> downloadDestinations = new LinkedHashMap<>();
         List<String> pantherFiles = new ArrayList<String>(Arrays.asList(pantherQfOFilename, pantherHCOPFilename));
         for (String pantherFilename : pantherFiles) {
-            downloadAndExtractTarFile(pantherFilename, pantherFilepath);
-        }
-        // QfO_Genome_Orthologs.tar.gz extracts a file named 'QfO_Genome_Orthologs_pairwise', which is unexpected.
-        // This just prunes the '_pairwise' string from the filename.
-        Path extractedPantherQfOFilePath = Paths.get(pantherQfOFilename.replace(".tar.gz", ""));
-        if (!Files.exists(extractedPantherQfOFilePath)) {
-            Files.move(Paths.get(extractedPantherQfOFilePath + "_pairwise"), extractedPantherQfOFilePath);
+            downloadDestinations.put(pantherFilepath + pantherFilename, Paths.get(pantherFilename));
         }
 
         // Download ID files from various model organism databases (Mouse Genome Informatics, Rat Genome Database, Xenbase (frog), ZFIN (Zebrafish))
         // HGNC identifier file is downloaded as well.
         List<String> alternativeIdMappingURLs = new ArrayList<>(Arrays.asList(MGIFileURL,RGDFileURL,XenbaseFileURL,ZFINFileURL));
         for (String altIdURL : alternativeIdMappingURLs) {
-            File altIdFilepath = Paths.get(altIdURL).getFileName().toFile();
-            if (!altIdFilepath.exists()) {
-                logger.info("Downloading " + altIdURL);
-                FileUtils.copyURLToFile(new URL(altIdURL), altIdFilepath);
-            } else {
-                logger.info(altIdFilepath + " already exists");
-            }
+            downloadDestinations.put(altIdURL, Paths.get(altIdURL).getFileName());
         }
+        new DownloadManager(downloadCacheDirectory, downloadThreads).downloadAll(downloadDestinations);
 
         JSONParser parser = new JSONParser();
         JSONObject speciesJSONFile = (JSONObject) parser.parse(new FileReader(pathToSpeciesConfig));
 
-        // This method will produce two multi-level Maps, sourceTargetProteinHomologs and targetGeneProteinMap
-        // sourceTargetProteinHomologs structure: {TargetSpecies-->{SourceProteinId-->[TargetHomologousProteinIds]}}
-        // targetGeneProteinMap structure: {TargetSpecies-->{TargetGeneId-->[targetProteinIds]}}
-        // The lower-level structure is a Set to reduce redundancy.
-        OrthologyFileParser.parsePantherOrthologFiles(pantherFiles, sourceMappingSpecies, speciesJSONFile);
-        Map<String,Map<String,Set<String>>> sourceTargetProteinHomologs = OrthologyFileParser.getSourceAndTargetProteinHomologs();
-        Map<String,Map<String,Set<String>>> targetGeneProteinMap = OrthologyFileParser.getTargetGeneProteinMap();
+        // This method will produce an ortholog graph per species for sourceTargetProteinHomologs and for targetGeneProteinMap
+        // sourceTargetProteinHomologs structure: {TargetSpecies-->SourceProteinId-->[TargetHomologousProteinIds]}
+        // targetGeneProteinMap structure: {TargetSpecies-->TargetGeneId-->[targetProteinIds]}
+        // Each graph holds the distinct values of each key, with identifiers interned in a dictionary shared by all graphs.
+        // Setting 'pantherParsingThreads' above 1 parses the decompressed PANTHER lines on that many threads
+        int pantherParsingThreads = Integer.parseInt(props.getProperty("pantherParsingThreads", "1"));
+        OrthologyFileParser.parsePantherOrthologArchives(pantherFiles, sourceMappingSpecies, speciesJSONFile, pantherParsingThreads);
+        Map<String,OrthologGraph> sourceTargetProteinHomologs = OrthologyFileParser.getSourceAndTargetProteinHomologGraphs();
+        Map<String,OrthologGraph> targetGeneProteinMap = OrthologyFileParser.getTargetGeneProteinGraphs();
         // Produces the protein homology and species gene-protein files
         for (Object speciesKey : speciesJSONFile.keySet()) {
             // No point in the source species mapping to itself
@@ -114,11 +104,11 @@ public class Main
                 String speciesPantherName = speciesJSON.get("panther_name").toString();
                 // Produces the {sourceSpecies}_{targetspecies}_mapping.txt file
                 String sourceTargetProteinMappingFilename = releaseNumber + "/" + sourceMappingSpecies + "_" + speciesKey + "_mapping.txt";
-                Map<String,Set<String>> speciesProteinHomologs = sourceTargetProteinHomologs.get(speciesPantherName);
+                OrthologGraph speciesProteinHomologs = sourceTargetProteinHomologs.get(speciesPantherName);
                 OrthopairFileGenerator.createProteinHomologyFile(sourceTargetProteinMappingFilename, speciesProteinHomologs);
                 // Produces the {targetSpecies}_gene_protein_mapping.txt file
                 String targetGeneProteinMappingFilename = releaseNumber + "/" + speciesKey + "_gene_protein_mapping.txt";
-                Map<String,Set<String>> speciesGeneProteinMap = targetGeneProteinMap.get(speciesPantherName);
+                OrthologGraph speciesGeneProteinMap = targetGeneProteinMap.get(speciesPantherName);
                 OrthopairFileGenerator.createSpeciesGeneProteinFile(speciesKey.toString(), targetGeneProteinMappingFilename, speciesJSON, speciesGeneProteinMap);
             }
         }
@@ -127,40 +117,6 @@ public class Main
         logger.info("Finished Orthopairs file generation");
     }
 
-    private static void downloadAndExtractTarFile(String pantherFilename, String pantherFilepath) throws IOException {
-
-        URL pantherFileURL = new URL(pantherFilepath + pantherFilename);
-        File pantherTarFile = new File(pantherFilename);
-
-        // Download files
-        if (!pantherTarFile.exists()) {
-            logger.info("Downloading " + pantherFileURL);
-            FileUtils.copyURLToFile(pantherFileURL, new File(pantherFilename));
-        } else {
-            logger.info(pantherTarFile + " already exists");
-        }
-
-        // Extract tar files
-        File extractedPantherFile = new File(pantherFilename.replace(".tar.gz", ""));
-        if (!extractedPantherFile.exists()) {
-            logger.info("Extracting " + pantherTarFile);
-            TarArchiveInputStream tarIn = new TarArchiveInputStream(new GzipCompressorInputStream(new FileInputStream(pantherTarFile)));
-            TarArchiveEntry tarFile;
-            while ((tarFile = (TarArchiveEntry) tarIn.getNextEntry()) != null) {
-                int count;
-                byte data[] = new byte[1024];
-                FileOutputStream fos = new FileOutputStream(tarFile.getName(), false);
-                try (BufferedOutputStream dest = new BufferedOutputStream(fos, 1024)) {
-                    while ((count = tarIn.read(data, 0, 1024)) != -1) {
-                        dest.write(data, 0, count);
-                    }
-                }
-            }
-        } else {
-            logger.info(pantherTarFile + " has already been extracted");
-        }
-    }
-
     private static void removePantherFiles(List<String> pantherFiles) {
         for (String pantherFile : pantherFiles) {
             String unzippedPantherFile = pantherFile.replace(".tar.gz", "");
@@ -0,0 +1,201 @@
+package org.reactome.release.orthopairs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The orthologs of a single species, held as adjacency lists of identifier numbers (see IdentifierDictionary) in a compressed sparse row layout.
+ * Each row is a key entity (a source protein, or a target gene) with its values (target proteins) in valueIds[offsets[row]] to valueIds[offsets[row + 1]].
+ * Rows are ordered by the number of their key. Whether a row's values are Least Diverged Orthologs (LDO) or plain Orthologs (O) is a bit of
+ * leastDivergedRows, rather than the 'LDO' element that the nested-map form of the orthologs keeps in each Set.
+ */
+public class OrthologGraph {
+    private static final String LEAST_DIVERGED_ORTHOLOG = "LDO";
+    private final IdentifierDictionary identifiers;
+    private final int[] keyIds;
+    private final int[] offsets;
+    private final int[] valueIds;
+    private final BitSet leastDivergedRows;
+
+    private OrthologGraph(IdentifierDictionary identifiers, int[] keyIds, int[] offsets, int[] valueIds, BitSet leastDivergedRows) {
+        this.identifiers = identifiers;
+        this.keyIds = keyIds;
+        this.offsets = offsets;
+        this.valueIds = valueIds;
+        this.leastDivergedRows = leastDivergedRows;
+    }
+
+    // Returns the number of rows, which is the number of distinct keys
+    public int size() {
+        return keyIds.length;
+    }
+
+    public String getKey(int row) {
+        return identifiers.get(keyIds[row]);
+    }
+
+    public List<String> getValues(int row) {
+        List<String> values = new ArrayList<>(offsets[row + 1] - offsets[row]);
+        for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+            values.add(identifiers.get(valueIds[i]));
+        }
+        return values;
+    }
+
+    public boolean isLeastDiverged(int row) {
+        return leastDivergedRows.get(row);
+    }
+
+    // Returns the row of the key, or -1 if it has no orthologs
+    public int indexOf(String key) {
+        int keyId = identifiers.indexOf(key);
+        int row = keyId >= 0 ? Arrays.binarySearch(keyIds, keyId) : -1;
+        return row >= 0 ? row : -1;
+    }
+
+    // Returns the orthologs in the nested-map form, where the Set of a key holds an 'LDO' element if its values are Least Diverged Orthologs
+    public Map<String, Set<String>> toMap() {
+        Map<String, Set<String>> entityMap = new HashMap<>();
+        for (int row = 0; row < size(); row++) {
+            Set<String> targetEntitys = new HashSet<>(getValues(row));
+            if (isLeastDiverged(row)) {
+                targetEntitys.add(LEAST_DIVERGED_ORTHOLOG);
+            }
+            entityMap.put(getKey(row), targetEntitys);
+        }
+        return entityMap;
+    }
+
+    // Creates the graph of orthologs in the nested-map form
+    public static OrthologGraph fromMap(Map<String, Set<String>> entityMap) {
+        Builder builder = new Builder(new IdentifierDictionary());
+        for (Map.Entry<String, Set<String>> entity : entityMap.entrySet()) {
+            boolean leastDiverged = entity.getValue().contains(LEAST_DIVERGED_ORTHOLOG);
+            for (String targetEntity : entity.getValue()) {
+                if (!targetEntity.equals(LEAST_DIVERGED_ORTHOLOG)) {
+                    builder.add(entity.getKey(), targetEntity, leastDiverged);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects the orthologs of a species, one key-value pair at a time. Each pair is packed into a long of the key's number, the value's number
+     * and the LDO bit, so sorting the pairs groups them by key. When the pairs fill their array they are sorted and compacted: duplicates are dropped,
+     * and the O values of keys that have LDO values are dropped. As with the nested maps, a key's values are then its LDO values if it has any,
+     * and its O values otherwise, whatever the order in which the pairs were added.
+     */
+    public static class Builder {
+        private static final int INITIAL_CAPACITY = 1 << 10;
+        private final IdentifierDictionary identifiers;
+        private long[] pairs = new long[INITIAL_CAPACITY];
+        private int pairCount;
+
+        public Builder(IdentifierDictionary identifiers) {
+            this.identifiers = identifiers;
+        }
+
+        public void add(String key, String value, boolean leastDiverged) {
+            add(identifiers.intern(key), identifiers.intern(value), leastDiverged);
+        }
+
+        // Adds the pairs of another builder, which may number its identifiers with another dictionary
+        public void addAll(Builder other) {
+            other.compact();
+            int[] translatedIds = new int[other.identifiers.size()];
+            Arrays.fill(translatedIds, -1);
+            for (int i = 0; i < other.pairCount; i++) {
+                long pair = other.pairs[i];
+                add(translate(other, translatedIds, keyId(pair)), translate(other, translatedIds, valueId(pair)), isLeastDiverged(pair));
+            }
+        }
+
+        public OrthologGraph build() {
+            compact();
+            int rowCount = 0;
+            for (int i = 0; i < pairCount; i++) {
+                if (i == 0 || keyId(pairs[i]) != keyId(pairs[i - 1])) {
+                    rowCount++;
+                }
+            }
+            int[] keyIds = new int[rowCount];
+            int[] offsets = new int[rowCount + 1];
+            int[] valueIds = new int[pairCount];
+            BitSet leastDivergedRows = new BitSet(rowCount);
+            int row = -1;
+            for (int i = 0; i < pairCount; i++) {
+                long pair = pairs[i];
+                if (row < 0 || keyId(pair) != keyIds[row]) {
+                    row++;
+                    keyIds[row] = keyId(pair);
+                    offsets[row] = i;
+                    // Once compacted, the values of a key are either all LDO or all O
+                    leastDivergedRows.set(row, isLeastDiverged(pair));
+                }
+                valueIds[i] = valueId(pair);
+            }
+            offsets[rowCount] = pairCount;
+            return new OrthologGraph(identifiers, keyIds, offsets, valueIds, leastDivergedRows);
+        }
+
+        private void add(int keyId, int valueId, boolean leastDiverged) {
+            if (pairCount == pairs.length) {
+                compact();
+                // The array only grows if compacting it didn't free at least half of it
+                if (pairCount > pairs.length / 2) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+            }
+            pairs[pairCount++] = ((long) keyId << 32) | ((long) valueId << 1) | (leastDiverged ? 1 : 0);
+        }
+
+        private void compact() {
+            Arrays.sort(pairs, 0, pairCount);
+            int keptCount = 0;
+            int keyStart = 0;
+            while (keyStart < pairCount) {
+                int keyId = keyId(pairs[keyStart]);
+                int keyEnd = keyStart;
+                boolean leastDiverged = false;
+                while (keyEnd < pairCount && keyId(pairs[keyEnd]) == keyId) {
+                    leastDiverged |= isLeastDiverged(pairs[keyEnd]);
+                    keyEnd++;
+                }
+                for (int i = keyStart; i < keyEnd; i++) {
+                    long pair = pairs[i];
+                    if (isLeastDiverged(pair) == leastDiverged && (keptCount == 0 || pairs[keptCount - 1] != pair)) {
+                        pairs[keptCount++] = pair;
+                    }
+                }
+                keyStart = keyEnd;
+            }
+            pairCount = keptCount;
+        }
+
+        private int translate(Builder other, int[] translatedIds, int otherId) {
+            if (translatedIds[otherId] < 0) {
+                translatedIds[otherId] = identifiers.intern(other.identifiers.get(otherId));
+            }
+            return translatedIds[otherId];
+        }
+
+        private static int keyId(long pair) {
+            return (int) (pair >>> 32);
+        }
+
+        private static int valueId(long pair) {
+            return (int) (pair >>> 1) & Integer.MAX_VALUE;
+        }
+
+        private static boolean isLeastDiverged(long pair) {
+            return (pair & 1) != 0;
+        }
+    }
+}
@@ -1,21 +1,76 @@
 package org.reactome.release.orthopairs;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.simple.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 public class OrthologyFileParser {
     private static final Logger logger = LogManager.getLogger();
-    private static Map<String,Map<String, Set<String>>> sourceTargetProteinHomologs = new HashMap<>();
-    private static Map<String,Map<String, Set<String>>> targetGeneProteinMap = new HashMap<>();
+    private static Map<String, OrthologGraph> sourceTargetProteinHomologs = new HashMap<>();
+    private static Map<String, OrthologGraph> targetGeneProteinMap = new HashMap<>();
+
+    // Reads the lines of a PANTHER file into the maps
+    private interface PantherStreamParser {
+        void parse(InputStream pantherStream) throws IOException;
+    }
+
+    // Passes the stream of each PANTHER file to the parser
+    private interface PantherSource {
+        void read(PantherStreamParser parser) throws IOException;
+    }
 
     public static void parsePantherOrthologFiles(List<String> pantherFiles, String sourceMappingSpecies, JSONObject speciesJSONFile) throws IOException {
+        parsePantherOrthologFiles(pantherFiles, sourceMappingSpecies, speciesJSONFile, 1);
+    }
+
+    // Parses the extracted PANTHER ortholog files, on parsingThreads threads if there is more than one
+    public static void parsePantherOrthologFiles(List<String> pantherFiles, String sourceMappingSpecies, JSONObject speciesJSONFile, int parsingThreads) throws IOException {
+
+        parse(sourceMappingSpecies, speciesJSONFile, parsingThreads, parser -> {
+            for (String pantherFileTar : pantherFiles) {
+                String extractedPantherFile = pantherFileTar.replace(".tar.gz", "");
+                try (InputStream pantherFileStream = new FileInputStream(extractedPantherFile)) {
+                    parser.parse(pantherFileStream);
+                }
+            }
+        });
+    }
+
+    public static void parsePantherOrthologArchives(List<String> pantherTarFiles, String sourceMappingSpecies, JSONObject speciesJSONFile) throws IOException {
+        parsePantherOrthologArchives(pantherTarFiles, sourceMappingSpecies, speciesJSONFile, 1);
+    }
+
+    // Parses the PANTHER ortholog files straight from the downloaded tar.gz archives, without extracting them to disk. The archives are
+    // decompressed on the calling thread, while their lines are parsed on parsingThreads threads if there is more than one.
+    public static void parsePantherOrthologArchives(List<String> pantherTarFiles, String sourceMappingSpecies, JSONObject speciesJSONFile, int parsingThreads) throws IOException {
+
+        parse(sourceMappingSpecies, speciesJSONFile, parsingThreads, parser -> {
+            for (String pantherFileTar : pantherTarFiles) {
+                logger.info("Reading " + pantherFileTar);
+                try (TarArchiveInputStream tarIn = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(new FileInputStream(pantherFileTar))))) {
+                    TarArchiveEntry tarEntry;
+                    while ((tarEntry = tarIn.getNextTarEntry()) != null) {
+                        if (tarEntry.isFile()) {
+                            parser.parse(tarIn);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // Builds the ortholog graphs of the source species, replacing those of any previous call. There are 2 Panther files at time of writing since Sus Scrofa (PIG)
+    // info is found in a seperate file. Both are parsed, since for overlapping species they produce the same data structure. The builders drop the redundant pairs.
+    private static void parse(String sourceMappingSpecies, JSONObject speciesJSONFile, int parsingThreads, PantherSource pantherSource) throws IOException {
 
         logger.info("Parsing homolog information from PANTHER files");
         // Panther uses different naming conventions for species, which needs to be mapped to Reactome's 4-letter species keys
@@ -30,77 +85,83 @@ public class OrthologyFileParser {
             }
         }
 
-        if (!sourceSpeciesPantherName.equals("")) {
-            // There are 2 Panther files at time of writing since Sus Scrofa (PIG) info is found in a seperate file.
-            // The program iterates through both since for overlapping species it produces the same data structure. This is where the redundancy reduction of Sets comes in handy.
-            for (String pantherFileTar : pantherFiles) {
-                String extractedPantherFile = pantherFileTar.replace(".tar.gz", "");
-                String line;
-                BufferedReader br = new BufferedReader(new FileReader(extractedPantherFile));
-                while ((line = br.readLine()) != null) {
-                    // Sample line: HUMAN|HGNC=10663|UniProtKB=O60524	MOUSE|MGI=MGI=1918305|UniProtKB=Q8CCP0	LDO	Euarchontoglires	PTHR15239
-                    // Tab-seperated sections: Human gene and protein info, Species gene and protein info, Ortholog type, last common ancestor for homolog (verify), pantherID
-                    // For Ortholog type, we only want to look at the Least Divered Ortholog(LDO) and Ortholog(O) lines.
-                    if (line.startsWith(sourceSpeciesPantherName)) {
-                        String[] tabSplit = line.split("\t");
-                        String sourceInfo = tabSplit[0];
-                        String[] sourceSplit = sourceInfo.split("\\|");
-                        String sourceGene = sourceSplit[1];
-                        String sourceProtein = sourceSplit[2];
-
-                        String targetInfo = tabSplit[1];
-                        String[] targetSplit = targetInfo.split("\\|");
-                        String targetSpecies = targetSplit[0];
-                        String targetGene = targetSplit[1];
-                        String targetProtein = targetSplit[2];
-
-                        String orthologType = tabSplit[2];
-
-                        // We don't look at lines that contain species that aren't in Reactome, or lines where the gene value starts with Gene (Gene|GeneID|Gene_Name|Gene_ORFName|Gene_OrderedLocusName)
-                        // since these are often just names, not IDs. Additionally, we only want lines where orthologType is either an 'LDO' or 'O', and not a 'P', 'X', or 'LDX'.
-                        if (pantherSpeciesNames.contains(targetSpecies) && !sourceGene.startsWith("Gene") && !targetGene.startsWith("Gene") && orthologType.contains("O")) {
-                            sourceTargetProteinHomologs = MapId(targetSpecies, sourceProtein, targetProtein, sourceTargetProteinHomologs, orthologType);
-                            targetGeneProteinMap = MapId(targetSpecies, targetGene, targetProtein, targetGeneProteinMap, orthologType);
-                        }
-
-                    }
-                }
-                br.close();
+        if (sourceSpeciesPantherName.equals("")) {
+            logger.warn("Could not find source species in Species.json");
+            return;
+        }
+        // All species' graphs share one dictionary, since the same identifiers appear in the protein homologs and the gene-protein mappings
+        IdentifierDictionary identifiers = new IdentifierDictionary();
+        Map<String, OrthologGraph.Builder> proteinHomologBuilders = new HashMap<>();
+        Map<String, OrthologGraph.Builder> geneProteinBuilders = new HashMap<>();
+        if (parsingThreads > 1) {
+            logger.info("Parsing PANTHER lines on " + parsingThreads + " threads");
+            try (ChunkedPantherParser chunkedParser = new ChunkedPantherParser(sourceSpeciesPantherName, pantherSpeciesNames, parsingThreads)) {
+                pantherSource.read(chunkedParser::parse);
+                chunkedParser.mergeInto(identifiers, proteinHomologBuilders, geneProteinBuilders);
             }
         } else {
-            logger.warn("Could not find source species in Species.json");
+            PantherOrthologScanner scanner = new PantherOrthologScanner(sourceSpeciesPantherName, pantherSpeciesNames, (targetSpecies, sourceProtein, targetGene, targetProtein, orthologType) -> {
+                MapId(targetSpecies, sourceProtein, targetProtein, proteinHomologBuilders, identifiers, orthologType);
+                MapId(targetSpecies, targetGene, targetProtein, geneProteinBuilders, identifiers, orthologType);
+            });
+            pantherSource.read(scanner::scan);
         }
+        sourceTargetProteinHomologs = buildGraphs(proteinHomologBuilders);
+        targetGeneProteinMap = buildGraphs(geneProteinBuilders);
+        logger.info("Interned " + identifiers.size() + " distinct PANTHER identifiers");
     }
 
-    private static Map<String, Map<String, Set<String>>> MapId(String targetSpecies, String keyEntity, String valueEntity, Map<String,Map<String,Set<String>>> entityMap, String orthologType) {
-        
-        entityMap.computeIfAbsent(targetSpecies, k -> new HashMap<>());
-        // Lines with an orthologType equal to 'LDO' mean that we only want that value in the Set since its the Least Diverged Ortholog, meaning we have a
-        // high degree of confidence in its homology. We remove all other values from the Set unless an 'LDO' value already exists. In this rare case,
+    static void MapId(String targetSpecies, String keyEntity, String valueEntity, Map<String, OrthologGraph.Builder> entityBuilders, IdentifierDictionary identifiers, String orthologType) {
+
+        // Lines with an orthologType equal to 'LDO' mean that we only want that value for the key since its the Least Diverged Ortholog, meaning we have a
+        // high degree of confidence in its homology. The builder drops all other values unless they are 'LDO' values too. In this rare case,
         // we will keep multiple LDOs.
-        Set<String> targetEntitys = Optional.ofNullable(entityMap.get(targetSpecies).get(keyEntity)).orElse(new HashSet<>());
+        entityBuilders.computeIfAbsent(targetSpecies, k -> new OrthologGraph.Builder(identifiers)).add(keyEntity, valueEntity, orthologType.equals("LDO"));
+    }
 
-        if (orthologType.equals("LDO")) {
-            if (!targetEntitys.contains("LDO")) {
-                targetEntitys.clear();
-                targetEntitys.add(valueEntity);
-                targetEntitys.add("LDO");
-            } else {
-                targetEntitys.add(valueEntity);
-            }
-            entityMap.get(targetSpecies).put(keyEntity, targetEntitys);
-        } else if (orthologType.equals("O") && !targetEntitys.contains("LDO")) {
-            targetEntitys.add(valueEntity);
-            entityMap.get(targetSpecies).put(keyEntity, targetEntitys);
+    // Merges builders filled from different lines of the PANTHER files. As with MapId, only the LDO values of an entity are kept if it has any.
+    static void mergeIds(Map<String, OrthologGraph.Builder> entityBuilders, Map<String, OrthologGraph.Builder> partialEntityBuilders, IdentifierDictionary identifiers) {
+
+        for (Map.Entry<String, OrthologGraph.Builder> partialSpeciesBuilder : partialEntityBuilders.entrySet()) {
+            entityBuilders.computeIfAbsent(partialSpeciesBuilder.getKey(), k -> new OrthologGraph.Builder(identifiers)).addAll(partialSpeciesBuilder.getValue());
         }
-        return entityMap;
     }
 
-    public static Map<String, Map<String, Set<String>>> getSourceAndTargetProteinHomologs() {
+    private static Map<String, OrthologGraph> buildGraphs(Map<String, OrthologGraph.Builder> entityBuilders) {
+
+        Map<String, OrthologGraph> entityGraphs = new HashMap<>();
+        for (Map.Entry<String, OrthologGraph.Builder> speciesBuilder : entityBuilders.entrySet()) {
+            entityGraphs.put(speciesBuilder.getKey(), speciesBuilder.getValue().build());
+        }
+        return entityGraphs;
+    }
+
+    // sourceTargetProteinHomologs structure: {TargetSpecies-->SourceProteinId-->[TargetHomologousProteinIds]}
+    public static Map<String, OrthologGraph> getSourceAndTargetProteinHomologGraphs() {
         return sourceTargetProteinHomologs;
     }
 
-    public static Map<String, Map<String, Set<String>>> getTargetGeneProteinMap() {
+    // targetGeneProteinMap structure: {TargetSpecies-->TargetGeneId-->[targetProteinIds]}
+    public static Map<String, OrthologGraph> getTargetGeneProteinGraphs() {
         return targetGeneProteinMap;
     }
+
+    // The getters below return the graphs in the nested-map form, where the Sets of LDO values hold an 'LDO' element
+
+    public static Map<String, Map<String, Set<String>>> getSourceAndTargetProteinHomologs() {
+        return toMaps(sourceTargetProteinHomologs);
+    }
+
+    public static Map<String, Map<String, Set<String>>> getTargetGeneProteinMap() {
+        return toMaps(targetGeneProteinMap);
+    }
+
+    private static Map<String, Map<String, Set<String>>> toMaps(Map<String, OrthologGraph> entityGraphs) {
+
+        Map<String, Map<String, Set<String>>> entityMap = new HashMap<>();
+        for (Map.Entry<String, OrthologGraph> speciesGraph : entityGraphs.entrySet()) {
+            entityMap.put(speciesGraph.getKey(), speciesGraph.getValue().toMap());
+        }
+        return entityMap;
+    }
 }
@@ -3,39 +3,52 @@ package org.reactome.release.orthopairs;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.simple.JSONObject;
+import org.reactome.release.common.orthopairs.OrthopairsIndexWriter;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
 public class OrthopairFileGenerator {
     private static final Logger logger = LogManager.getLogger();
-    // Create source-target protein mapping file
+    // Create source-target protein mapping file from orthologs in the nested-map form
     public static void createProteinHomologyFile(String sourceTargetProteinMappingFilename, Map<String,Set<String>> speciesProteinHomologs ) throws IOException {
+        createProteinHomologyFile(sourceTargetProteinMappingFilename, OrthologGraph.fromMap(speciesProteinHomologs));
+    }
 
-        logger.info("\tGenerating " + sourceTargetProteinMappingFilename);
+    // Create source-target protein mapping file
+    public static void createProteinHomologyFile(String sourceTargetProteinMappingFilename, OrthologGraph speciesProteinHomologs) throws IOException {
 
-        Files.deleteIfExists(Paths.get(sourceTargetProteinMappingFilename));
+        logger.info("\tGenerating " + sourceTargetProteinMappingFilename);
 
-        List<String> sourceProteinIds = new ArrayList<>(speciesProteinHomologs.keySet());
-        Collections.sort(sourceProteinIds);
-        for (String sourceProteinId : sourceProteinIds) {
-            String targetProteinIds = getTargetProteinsAsString(speciesProteinHomologs.get(sourceProteinId));
-            String proteinOrthologLine = getProteinId(sourceProteinId);
+        List<Integer> sourceProteinRows = new ArrayList<>();
+        for (int row = 0; row < speciesProteinHomologs.size(); row++) {
+            sourceProteinRows.add(row);
+        }
+        sourceProteinRows.sort(Comparator.comparing(speciesProteinHomologs::getKey));
+        List<String> proteinOrthologLines = new ArrayList<>();
+        for (int sourceProteinRow : sourceProteinRows) {
+            String targetProteinIds = getTargetProteinsAsString(speciesProteinHomologs.getValues(sourceProteinRow));
+            String proteinOrthologLine = getProteinId(speciesProteinHomologs.getKey(sourceProteinRow));
             proteinOrthologLine += "\t" + targetProteinIds + "\n";
-            Files.write(Paths.get(sourceTargetProteinMappingFilename), proteinOrthologLine.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            proteinOrthologLines.add(proteinOrthologLine);
         }
+        writeMappingFiles(sourceTargetProteinMappingFilename, proteinOrthologLines);
     }
 
-    // Create target species gene-protein mapping file
+    // Create target species gene-protein mapping file from gene-protein mappings in the nested-map form
     public static void createSpeciesGeneProteinFile(String speciesKey, String targetGeneProteinMappingFilename, JSONObject speciesJSON, Map<String,Set<String>> speciesGeneProteinMap) throws IOException {
+        createSpeciesGeneProteinFile(speciesKey, targetGeneProteinMappingFilename, speciesJSON, OrthologGraph.fromMap(speciesGeneProteinMap));
+    }
+
+    // Create target species gene-protein mapping file
+    public static void createSpeciesGeneProteinFile(String speciesKey, String targetGeneProteinMappingFilename, JSONObject speciesJSON, OrthologGraph speciesGeneProteinMap) throws IOException {
 
         logger.info("\tGenerating " + targetGeneProteinMappingFilename);
-        Files.deleteIfExists(Paths.get(targetGeneProteinMappingFilename));
         Map<String, Set<String>> altIdToEnsemblMap = new HashMap<>();
         if (altIdMappingExists(speciesJSON)) {
             logger.info("\tAlternate ID-Ensembl ID mapping required");
@@ -43,11 +56,12 @@ public class OrthopairFileGenerator {
         }
 
         List<String> targetGeneProteinLines = new ArrayList<>();
-        for (String targetGeneId : speciesGeneProteinMap.keySet()) {
+        for (int targetGeneRow = 0; targetGeneRow < speciesGeneProteinMap.size(); targetGeneRow++) {
+            String targetGeneId = speciesGeneProteinMap.getKey(targetGeneRow);
             String[] geneSplit = targetGeneId.split("=");
             String geneSource = geneSplit[0];
             String geneId = geneSplit[geneSplit.length - 1];
-            String targetProteinIds = getTargetProteinsAsString(speciesGeneProteinMap.get(targetGeneId));
+            String targetProteinIds = getTargetProteinsAsString(speciesGeneProteinMap.getValues(targetGeneRow));
             if (!targetProteinIds.isEmpty()) {
                 if (!geneSource.startsWith("Ensembl") && altIdMappingExists(speciesJSON)) {
                     if (altIdToEnsemblMap.get(geneId) != null) {
@@ -61,15 +75,78 @@ public class OrthopairFileGenerator {
             }
         }
         Collections.sort(targetGeneProteinLines);
-        for (String targetGeneProteinLine : targetGeneProteinLines) {
-            Files.write(Paths.get(targetGeneProteinMappingFilename), targetGeneProteinLine.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        writeMappingFiles(targetGeneProteinMappingFilename, targetGeneProteinLines);
+        writeInvertedIndexFile(targetGeneProteinMappingFilename, targetGeneProteinLines);
+    }
+
+    // Writes the lines to the text mapping file through a single buffered writer, and writes the binary index of the same mappings next to it.
+    // As when the lines were appended one at a time, no files are created if there are no lines.
+    private static void writeMappingFiles(String mappingFilename, List<String> mappingLines) throws IOException {
+
+        Path mappingFilePath = Paths.get(mappingFilename);
+        Path indexFilePath = Paths.get(getIndexFilename(mappingFilename));
+        Files.deleteIfExists(mappingFilePath);
+        Files.deleteIfExists(indexFilePath);
+        if (mappingLines.isEmpty()) {
+            return;
+        }
+        OrthopairsIndexWriter indexWriter = new OrthopairsIndexWriter();
+        try (BufferedWriter mappingFileWriter = Files.newBufferedWriter(mappingFilePath)) {
+            for (String mappingLine : mappingLines) {
+                mappingFileWriter.write(mappingLine);
+                indexWriter.addLine(mappingLine);
+            }
         }
+        indexWriter.write(indexFilePath);
+    }
+
+    // Writes a binary index keyed by the values of the mapping lines rather than their keys (eg: of each protein's genes), so that Orthoinference
+    // can look up proteins in place. Values are keyed without their source DB, and a key's values are in the order of the lines.
+    private static void writeInvertedIndexFile(String mappingFilename, List<String> mappingLines) throws IOException {
+
+        Path invertedIndexFilePath = Paths.get(getInvertedIndexFilename(mappingFilename));
+        Files.deleteIfExists(invertedIndexFilePath);
+        if (mappingLines.isEmpty()) {
+            return;
+        }
+        OrthopairsIndexWriter indexWriter = new OrthopairsIndexWriter();
+        for (String mappingLine : mappingLines) {
+            // Split as Orthoinference splits the lines of the text file
+            String[] tabSplit = mappingLine.replace("\n", "").split("\t");
+            for (String value : tabSplit[1].split(" ")) {
+                indexWriter.add(getMappedProteinId(value), tabSplit[0]);
+            }
+        }
+        indexWriter.write(invertedIndexFilePath);
+    }
+
+    // The ID of a mapped protein given as 'DB:ID' or 'ID', which is the text between its first and second colons if it has any
+    private static String getMappedProteinId(String protein) {
+        int colonIndex = protein.indexOf(':');
+        if (colonIndex < 0) {
+            return protein;
+        }
+        int nextColonIndex = protein.indexOf(':', colonIndex + 1);
+        return protein.substring(colonIndex + 1, nextColonIndex >= 0 ? nextColonIndex : protein.length());
+    }
+
+    // The binary index of hsap_mmus_mapping.txt is hsap_mmus_mapping.bin
+    public static String getIndexFilename(String mappingFilename) {
+        return getBaseFilename(mappingFilename) + ".bin";
+    }
+
+    // The binary index of mmus_gene_protein_mapping.txt that is keyed by protein is mmus_gene_protein_mapping_inverted.bin
+    public static String getInvertedIndexFilename(String mappingFilename) {
+        return getBaseFilename(mappingFilename) + "_inverted.bin";
+    }
+
+    private static String getBaseFilename(String mappingFilename) {
+        return mappingFilename.endsWith(".txt") ? mappingFilename.substring(0, mappingFilename.length() - ".txt".length()) : mappingFilename;
     }
 
-    private static String getTargetProteinsAsString(Set<String> targetProteins) {
+    private static String getTargetProteinsAsString(List<String> targetProteins) {
         return targetProteins
                 .stream()
-                .filter(targetProteinId -> !targetProteinId.equals("LDO"))
                 .map(targetProteinId -> getProteinId(targetProteinId))
                 .sorted()
                 .collect(Collectors.joining(" "));
@@ -0,0 +1,142 @@
+package org.reactome.release.orthopairs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Reads the lines of a PANTHER ortholog file straight from a byte stream, such as an entry of the downloaded tar.gz archive. Lines are found and
+ * tokenized by scanning their bytes for tabs and pipes, rather than decoding each line and splitting it with regular expressions. Lines that don't
+ * start with the source species' PANTHER name are skipped before anything is allocated for them, and Strings are only created for the fields of
+ * the orthologs that are kept.
+ */
+public class PantherOrthologScanner {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] GENE_PREFIX = "Gene".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LEAST_DIVERGED_ORTHOLOG = "LDO".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ORTHOLOG = "O".getBytes(StandardCharsets.US_ASCII);
+    private final byte[] sourceSpeciesPrefix;
+    private final Set<String> targetSpeciesNames;
+    private final OrthologHandler handler;
+
+    // Receives each ortholog that is kept. The orthologType is either 'LDO' or 'O'.
+    public interface OrthologHandler {
+        void handle(String targetSpecies, String sourceProtein, String targetGene, String targetProtein, String orthologType);
+    }
+
+    public PantherOrthologScanner(String sourceSpeciesPantherName, Set<String> targetSpeciesNames, OrthologHandler handler) {
+        this.sourceSpeciesPrefix = sourceSpeciesPantherName.getBytes(StandardCharsets.UTF_8);
+        this.targetSpeciesNames = targetSpeciesNames;
+        this.handler = handler;
+    }
+
+    // Reads the stream to its end. The stream isn't closed, so it can be the entry of an archive.
+    public void scan(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length = 0;
+        int read;
+        while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            int remainderStart = scanLines(buffer, 0, length);
+            // The incomplete last line is moved to the front of the buffer, which grows if a single line fills it
+            length -= remainderStart;
+            System.arraycopy(buffer, remainderStart, buffer, 0, length);
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        if (length > 0) {
+            scanLine(buffer, 0, length);
+        }
+    }
+
+    // Scans the complete lines between start and end, returning the start of the incomplete line that follows them
+    public int scanLines(byte[] buffer, int start, int end) {
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '\n') {
+                scanLine(buffer, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    // Sample line: HUMAN|HGNC=10663|UniProtKB=O60524	MOUSE|MGI=MGI=1918305|UniProtKB=Q8CCP0	LDO	Euarchontoglires	PTHR15239
+    // Tab-seperated sections: Human gene and protein info, Species gene and protein info, Ortholog type, last common ancestor for homolog (verify), pantherID
+    public void scanLine(byte[] buffer, int start, int end) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        if (!startsWith(buffer, start, end, sourceSpeciesPrefix)) {
+            return;
+        }
+        int sourceEnd = indexOf(buffer, '\t', start, end);
+        int targetEnd = indexOf(buffer, '\t', sourceEnd + 1, end);
+        int orthologTypeEnd = indexOf(buffer, '\t', targetEnd + 1, end);
+        if (targetEnd == end) {
+            return;
+        }
+        // For Ortholog type, we only want to look at the Least Divered Ortholog(LDO) and Ortholog(O) lines, and not the 'P', 'X', or 'LDX' ones.
+        String orthologType;
+        if (equals(buffer, targetEnd + 1, orthologTypeEnd, LEAST_DIVERGED_ORTHOLOG)) {
+            orthologType = "LDO";
+        } else if (equals(buffer, targetEnd + 1, orthologTypeEnd, ORTHOLOG)) {
+            orthologType = "O";
+        } else {
+            return;
+        }
+        int sourceGeneStart = indexOf(buffer, '|', start, sourceEnd) + 1;
+        int sourceProteinStart = indexOf(buffer, '|', sourceGeneStart, sourceEnd) + 1;
+        int targetGeneStart = indexOf(buffer, '|', sourceEnd + 1, targetEnd) + 1;
+        int targetProteinStart = indexOf(buffer, '|', targetGeneStart, targetEnd) + 1;
+        if (sourceProteinStart > sourceEnd || targetProteinStart > targetEnd) {
+            return;
+        }
+        // We don't look at lines where the gene value starts with Gene (Gene|GeneID|Gene_Name|Gene_ORFName|Gene_OrderedLocusName), since these are often just names, not IDs.
+        if (startsWith(buffer, sourceGeneStart, sourceProteinStart, GENE_PREFIX) || startsWith(buffer, targetGeneStart, targetProteinStart, GENE_PREFIX)) {
+            return;
+        }
+        // Nor at lines that contain species that aren't in Reactome
+        String targetSpecies = decode(buffer, sourceEnd + 1, targetGeneStart - 1);
+        if (!targetSpeciesNames.contains(targetSpecies)) {
+            return;
+        }
+        String sourceProtein = decode(buffer, sourceProteinStart, indexOf(buffer, '|', sourceProteinStart, sourceEnd));
+        String targetGene = decode(buffer, targetGeneStart, targetProteinStart - 1);
+        String targetProtein = decode(buffer, targetProteinStart, indexOf(buffer, '|', targetProteinStart, targetEnd));
+        handler.handle(targetSpecies, sourceProtein, targetGene, targetProtein, orthologType);
+    }
+
+    // Returns the index of the first occurrence of value between start and end, or end if there isn't one
+    private static int indexOf(byte[] buffer, char value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean startsWith(byte[] buffer, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] buffer, int start, int end, byte[] value) {
+        return end - start == value.length && startsWith(buffer, start, end, value);
+    }
+
+    private static String decode(byte[] buffer, int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+}
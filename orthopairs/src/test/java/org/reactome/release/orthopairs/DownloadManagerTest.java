@@ -0,0 +1,224 @@
+package org.reactome.release.orthopairs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DownloadManagerTest {
+
+    private HttpServer server;
+    private Path tempDirectory;
+    private Path cacheDirectory;
+    // The stand-in server's single file, and the requests it has received for it
+    private volatile byte[] fileContent;
+    private volatile String fileETag;
+    private volatile boolean interruptNextResponse;
+    private final List<String> responses = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> rangeRequests = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("DownloadManagerTest");
+        cacheDirectory = tempDirectory.resolve("cache");
+        setFile("first version of the alternate ID file\n", "\"v1\"");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ids.txt", this::serveFile);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        try (Stream<Path> paths = Files.walk(tempDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void unchangedFilesAreNotDownloadedAgain() throws IOException {
+        Path destination = tempDirectory.resolve("ids.txt");
+
+        new DownloadManager(cacheDirectory, 2).download(getURL(), destination);
+        Files.delete(destination);
+        new DownloadManager(cacheDirectory, 2).download(getURL(), destination);
+
+        assertEquals(Arrays.asList("200", "304"), responses);
+        assertArrayEquals(fileContent, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void changedFilesReplaceTheirCachedCopy() throws IOException {
+        Path destination = tempDirectory.resolve("ids.txt");
+        DownloadManager downloadManager = new DownloadManager(cacheDirectory, 2);
+
+        downloadManager.download(getURL(), destination);
+        setFile("second version of the alternate ID file\n", "\"v2\"");
+        downloadManager.download(getURL(), destination);
+
+        assertEquals(Arrays.asList("200", "200"), responses);
+        assertArrayEquals(fileContent, Files.readAllBytes(destination));
+        try (Stream<Path> objects = Files.list(cacheDirectory.resolve("objects"))) {
+            assertEquals(1, objects.count());
+        }
+    }
+
+    @Test
+    public void interruptedDownloadsAreResumed() throws IOException {
+        Path destination = tempDirectory.resolve("ids.txt");
+        DownloadManager downloadManager = new DownloadManager(cacheDirectory, 2);
+        interruptNextResponse = true;
+
+        try {
+            downloadManager.download(getURL(), destination);
+            fail("The interrupted download should have failed");
+        } catch (IOException e) {
+            assertFalse(Files.exists(destination));
+        }
+        downloadManager.download(getURL(), destination);
+
+        assertEquals(Arrays.asList("200", "206"), responses);
+        assertEquals(Collections.singletonList("bytes=" + fileContent.length / 2 + "-"), rangeRequests);
+        assertArrayEquals(fileContent, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void corruptedCachedCopiesAreDownloadedAgain() throws IOException {
+        Path destination = tempDirectory.resolve("ids.txt");
+        DownloadManager downloadManager = new DownloadManager(cacheDirectory, 2);
+        downloadManager.download(getURL(), destination);
+        Files.delete(destination);
+        try (Stream<Path> objects = Files.list(cacheDirectory.resolve("objects"))) {
+            Files.write(objects.findFirst().get(), "corrupted".getBytes(StandardCharsets.UTF_8));
+        }
+
+        downloadManager.download(getURL(), destination);
+
+        assertEquals(Arrays.asList("200", "200"), responses);
+        assertArrayEquals(fileContent, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void cachedNonHttpFilesAreNotDownloadedAgain() throws IOException {
+        Path sourceFile = tempDirectory.resolve("source.txt");
+        Files.write(sourceFile, fileContent);
+        Path destination = tempDirectory.resolve("ids.txt");
+        DownloadManager downloadManager = new DownloadManager(cacheDirectory, 2);
+
+        downloadManager.download(sourceFile.toUri().toString(), destination);
+        Files.delete(sourceFile);
+        downloadManager.download(sourceFile.toUri().toString(), destination);
+
+        assertArrayEquals(fileContent, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void corruptedCachedCopiesOfNonHttpFilesAreDownloadedAgain() throws IOException {
+        Path sourceFile = tempDirectory.resolve("source.txt");
+        Files.write(sourceFile, fileContent);
+        Path destination = tempDirectory.resolve("ids.txt");
+        DownloadManager downloadManager = new DownloadManager(cacheDirectory, 2);
+        downloadManager.download(sourceFile.toUri().toString(), destination);
+        Files.delete(destination);
+        try (Stream<Path> objects = Files.list(cacheDirectory.resolve("objects"))) {
+            Files.write(objects.findFirst().get(), "corrupted".getBytes(StandardCharsets.UTF_8));
+        }
+        setFile("second version of the alternate ID file\n", "\"v2\"");
+        Files.write(sourceFile, fileContent);
+
+        downloadManager.download(sourceFile.toUri().toString(), destination);
+
+        assertArrayEquals(fileContent, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void writingToTheDestinationLeavesTheCachedCopyIntact() throws IOException {
+        Path destination = tempDirectory.resolve("ids.txt");
+        DownloadManager downloadManager = new DownloadManager(cacheDirectory, 2);
+        downloadManager.download(getURL(), destination);
+
+        Files.write(destination, "appended line\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Files.delete(destination);
+        downloadManager.download(getURL(), destination);
+
+        assertEquals(Arrays.asList("200", "304"), responses);
+        assertArrayEquals(fileContent, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void filesAreDownloadedTogether() throws IOException {
+        Map<String, Path> urlDestinations = new LinkedHashMap<>();
+        urlDestinations.put(getURL(), tempDirectory.resolve("ids.txt"));
+        urlDestinations.put(getURL() + "?copy", tempDirectory.resolve("ids_copy.txt"));
+
+        new DownloadManager(cacheDirectory, 2).downloadAll(urlDestinations);
+
+        assertArrayEquals(fileContent, Files.readAllBytes(tempDirectory.resolve("ids.txt")));
+        assertArrayEquals(fileContent, Files.readAllBytes(tempDirectory.resolve("ids_copy.txt")));
+        // Both URLs have the same content, which is cached once
+        try (Stream<Path> objects = Files.list(cacheDirectory.resolve("objects"))) {
+            assertEquals(1, objects.count());
+        }
+    }
+
+    private void setFile(String content, String eTag) {
+        fileContent = content.getBytes(StandardCharsets.UTF_8);
+        fileETag = eTag;
+    }
+
+    private String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/ids.txt";
+    }
+
+    // Serves the file as a server that supports ETags and byte ranges would
+    private void serveFile(HttpExchange exchange) throws IOException {
+        byte[] content = fileContent;
+        String eTag = fileETag;
+        exchange.getResponseHeaders().set("ETag", eTag);
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            respond(exchange, 304, null, 0);
+        } else if (range != null && eTag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+            rangeRequests.add(range);
+            int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+            respond(exchange, 206, Arrays.copyOfRange(content, start, content.length), content.length - start);
+        } else if (interruptNextResponse) {
+            interruptNextResponse = false;
+            // The connection is closed after half of the file
+            respond(exchange, 200, Arrays.copyOf(content, content.length / 2), content.length);
+        } else {
+            respond(exchange, 200, content, content.length);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int responseCode, byte[] body, long contentLength) throws IOException {
+        responses.add(String.valueOf(responseCode));
+        exchange.sendResponseHeaders(responseCode, body != null ? contentLength : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (body != null) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            // Expected when fewer bytes than the Content-Length are written
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package org.reactome.release.orthopairs;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -14,8 +17,11 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 
 import static org.junit.Assert.*;
@@ -66,4 +72,63 @@ public class OrthologyFileParserTest {
         assertEquals(testGeneProteinMap.get("DICDI").get("dictyBase=DDB_G0267808").toString(), "[UniProtKB=Q55G56]");
         assertEquals(testGeneProteinMap.get("DICDI").get("dictyBase=DDB_G0267808").size(), 1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void orthologyArchiveParserTest() throws Exception {
+        // The archive holds the test file, as the PANTHER archives hold their ortholog file
+        File pantherTestArchive = File.createTempFile("PantherTestFile", ".tar.gz");
+        pantherTestArchive.deleteOnExit();
+        File pantherFile = new File(pantherTestFile);
+        try (TarArchiveOutputStream tarOut = new TarArchiveOutputStream(new GzipCompressorOutputStream(new FileOutputStream(pantherTestArchive)))) {
+            tarOut.putArchiveEntry(new TarArchiveEntry(pantherFile, pantherFile.getName()));
+            Files.copy(pantherFile.toPath(), tarOut);
+            tarOut.closeArchiveEntry();
+        }
+        JSONObject speciesJSONFile = (JSONObject) parser.parse(new FileReader(pathToSpeciesConfig));
+        OrthologyFileParser.parsePantherOrthologArchives(Arrays.asList(pantherTestArchive.getPath()), "hsap", speciesJSONFile);
+
+        Map<String, Map<String, Set<String>>> testProteinHomologsMap = OrthologyFileParser.getSourceAndTargetProteinHomologs();
+        assertEquals(testProteinHomologsMap.get("DICDI").get("UniProtKB=O60524").toString(), "[UniProtKB=Q54HA7, LDO]");
+
+        Map<String, Map<String, Set<String>>> testGeneProteinMap = OrthologyFileParser.getTargetGeneProteinMap();
+        assertEquals(testGeneProteinMap.get("DICDI").get("dictyBase=DDB_G0267808").toString(), "[UniProtKB=Q55G56]");
+    }
+
+    @Test
+    public void parallelOrthologyFileParserTest() throws Exception {
+        JSONObject speciesJSONFile = (JSONObject) parser.parse(new FileReader(pathToSpeciesConfig));
+        OrthologyFileParser.parsePantherOrthologFiles(mockList, "hsap", speciesJSONFile, 2);
+
+        Map<String, Map<String, Set<String>>> testProteinHomologsMap = OrthologyFileParser.getSourceAndTargetProteinHomologs();
+        assertEquals(testProteinHomologsMap.get("DICDI").get("UniProtKB=O60524").toString(), "[UniProtKB=Q54HA7, LDO]");
+
+        Map<String, Map<String, Set<String>>> testGeneProteinMap = OrthologyFileParser.getTargetGeneProteinMap();
+        assertEquals(testGeneProteinMap.get("DICDI").get("dictyBase=DDB_G0267808").toString(), "[UniProtKB=Q55G56]");
+    }
+
+    @Test
+    public void mergeIdsKeepsLeastDivergedOrthologsTest() {
+        IdentifierDictionary identifiers = new IdentifierDictionary();
+        Map<String, OrthologGraph.Builder> entityBuilders = new HashMap<>();
+        OrthologyFileParser.MapId("MOUSE", "UniProtKB=P1", "UniProtKB=Q1", entityBuilders, identifiers, "O");
+        OrthologyFileParser.MapId("MOUSE", "UniProtKB=P2", "UniProtKB=Q2", entityBuilders, identifiers, "LDO");
+        OrthologyFileParser.MapId("MOUSE", "UniProtKB=P2", "UniProtKB=Q2", entityBuilders, identifiers, "LDO");
+        // The partial builders number their identifiers with another dictionary, as the builders of a parsing thread do
+        IdentifierDictionary partialIdentifiers = new IdentifierDictionary();
+        Map<String, OrthologGraph.Builder> partialEntityBuilders = new HashMap<>();
+        OrthologyFileParser.MapId("MOUSE", "UniProtKB=P2", "UniProtKB=Q4", partialEntityBuilders, partialIdentifiers, "O");
+        OrthologyFileParser.MapId("MOUSE", "UniProtKB=P1", "UniProtKB=Q3", partialEntityBuilders, partialIdentifiers, "LDO");
+
+        OrthologyFileParser.mergeIds(entityBuilders, partialEntityBuilders, identifiers);
+        OrthologGraph graph = entityBuilders.get("MOUSE").build();
+
+        assertEquals(2, graph.size());
+        int firstRow = graph.indexOf("UniProtKB=P1");
+        assertEquals(Arrays.asList("UniProtKB=Q3"), graph.getValues(firstRow));
+        assertTrue(graph.isLeastDiverged(firstRow));
+        int secondRow = graph.indexOf("UniProtKB=P2");
+        assertEquals(Arrays.asList("UniProtKB=Q2"), graph.getValues(secondRow));
+        assertTrue(graph.isLeastDiverged(secondRow));
+        assertEquals(-1, graph.indexOf("UniProtKB=Q3"));
+    }
+}
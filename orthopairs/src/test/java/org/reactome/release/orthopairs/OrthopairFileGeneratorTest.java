@@ -56,6 +56,7 @@ public class OrthopairFileGeneratorTest {
         }
         br.close();
         Files.delete(Paths.get(sourceTargetProteinMappingFilename));
+        Files.delete(Paths.get(OrthopairFileGenerator.getIndexFilename(sourceTargetProteinMappingFilename)));
     }
 
     @Test
@@ -83,6 +84,8 @@ public class OrthopairFileGeneratorTest {
         }
         br.close();
         Files.delete(Paths.get(targetGeneProteinMappingFilename));
+        Files.delete(Paths.get(OrthopairFileGenerator.getIndexFilename(targetGeneProteinMappingFilename)));
+        Files.delete(Paths.get(OrthopairFileGenerator.getInvertedIndexFilename(targetGeneProteinMappingFilename)));
     }
 
     @Test
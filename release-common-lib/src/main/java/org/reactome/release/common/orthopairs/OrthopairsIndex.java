@@ -0,0 +1,194 @@
+package org.reactome.release.common.orthopairs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only view of a binary orthopairs index file, which Orthopairs writes with OrthopairsIndexWriter next to each of its text mapping files
+ * (eg: hsap_mmus_mapping.bin next to hsap_mmus_mapping.txt). Each key maps to the values that follow it on its line(s) of the text file, in the same order.
+ *
+ * The file is memory-mapped rather than read, and keys are found by binary search over it, so opening an index costs nothing up front and a
+ * lookup reads O(log n) keys. The file is big-endian, and is laid out as:
+ * <pre>
+ *   int magic ('ORTP'), int version, int stringCount, int keyCount, int valueCount
+ *   int[stringCount + 1]  offsets of the strings in the string pool
+ *   int[keyCount]         string numbers of the keys, sorted by the unsigned bytes of their UTF-8 encoding
+ *   int[keyCount + 1]     offsets of the values of each key in the value table
+ *   int[valueCount]       value table, of string numbers
+ *   byte[]                string pool, of UTF-8 encoded strings, each held once
+ * </pre>
+ */
+public class OrthopairsIndex {
+
+	public static final int MAGIC = 0x4F525450;
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 5 * Integer.BYTES;
+
+	private final ByteBuffer buffer;
+	private final int keyCount;
+	private final int stringOffsetsStart;
+	private final int keysStart;
+	private final int valueOffsetsStart;
+	private final int valuesStart;
+	private final int poolStart;
+
+	OrthopairsIndex(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an orthopairs index file");
+		}
+		if (buffer.getInt(Integer.BYTES) != VERSION) {
+			throw new IOException("Unsupported orthopairs index version " + buffer.getInt(Integer.BYTES));
+		}
+		this.buffer = buffer;
+		int stringCount = buffer.getInt(2 * Integer.BYTES);
+		this.keyCount = buffer.getInt(3 * Integer.BYTES);
+		int valueCount = buffer.getInt(4 * Integer.BYTES);
+		this.stringOffsetsStart = HEADER_SIZE;
+		this.keysStart = stringOffsetsStart + (stringCount + 1) * Integer.BYTES;
+		this.valueOffsetsStart = keysStart + keyCount * Integer.BYTES;
+		this.valuesStart = valueOffsetsStart + (keyCount + 1) * Integer.BYTES;
+		this.poolStart = valuesStart + valueCount * Integer.BYTES;
+		if (stringCount < 0 || keyCount < 0 || valueCount < 0 || poolStart < 0 || poolStart > buffer.capacity()
+			|| poolStart + buffer.getInt(stringOffsetsStart + stringCount * Integer.BYTES) > buffer.capacity()) {
+			throw new IOException("Truncated orthopairs index file");
+		}
+	}
+
+	/**
+	 * Memory-maps the index file. The mapping remains valid after this returns, and is released once the returned index is garbage collected.
+	 * @param indexFilePath Path of the binary orthopairs index file
+	 * @return Index of the file's mappings
+	 * @throws IOException Thrown if the file can't be mapped, or isn't an orthopairs index file of a supported version
+	 */
+	public static OrthopairsIndex open(Path indexFilePath) throws IOException {
+		try (FileChannel channel = FileChannel.open(indexFilePath, StandardOpenOption.READ)) {
+			return new OrthopairsIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * @return Number of keys in the index
+	 */
+	public int size() {
+		return keyCount;
+	}
+
+	/**
+	 * @param keyIndex Position of the key, from 0 to size() - 1, in the order of the keys' UTF-8 bytes
+	 * @return Key at the position
+	 */
+	public String getKey(int keyIndex) {
+		return getString(buffer.getInt(keysStart + keyIndex * Integer.BYTES));
+	}
+
+	/**
+	 * @param key Key to find
+	 * @return Position of the key, or -1 if it isn't in the index
+	 */
+	public int indexOf(String key) {
+		if (key == null) {
+			return -1;
+		}
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = keyCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compareString(buffer.getInt(keysStart + middle * Integer.BYTES), keyBytes);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	public boolean containsKey(String key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * @param keyIndex Position of the key, from 0 to size() - 1
+	 * @return Position of the key's first value, for use with getValue
+	 */
+	public int getValueStart(int keyIndex) {
+		return buffer.getInt(valueOffsetsStart + keyIndex * Integer.BYTES);
+	}
+
+	/**
+	 * @param keyIndex Position of the key, from 0 to size() - 1
+	 * @return Position after the key's last value
+	 */
+	public int getValueEnd(int keyIndex) {
+		return buffer.getInt(valueOffsetsStart + (keyIndex + 1) * Integer.BYTES);
+	}
+
+	/**
+	 * Reads a single value, so that a key's values can be used without reading them all.
+	 * @param valuePosition Position of the value, from getValueStart(keyIndex) to getValueEnd(keyIndex) - 1
+	 * @return Value at the position
+	 */
+	public String getValue(int valuePosition) {
+		return getString(buffer.getInt(valuesStart + valuePosition * Integer.BYTES));
+	}
+
+	/**
+	 * @param keyIndex Position of the key, from 0 to size() - 1
+	 * @return Values of the key at the position, in the order they were written
+	 */
+	public List<String> getValues(int keyIndex) {
+		int valueStart = getValueStart(keyIndex);
+		int valueEnd = getValueEnd(keyIndex);
+		List<String> values = new ArrayList<>(valueEnd - valueStart);
+		for (int valuePosition = valueStart; valuePosition < valueEnd; valuePosition++) {
+			values.add(getValue(valuePosition));
+		}
+		return values;
+	}
+
+	/**
+	 * @param key Key to find
+	 * @return Values of the key, or an empty list if it isn't in the index
+	 */
+	public List<String> getValues(String key) {
+		int keyIndex = indexOf(key);
+		return keyIndex >= 0 ? getValues(keyIndex) : Collections.emptyList();
+	}
+
+	private String getString(int stringNumber) {
+		int stringStart = getStringStart(stringNumber);
+		byte[] stringBytes = new byte[getStringStart(stringNumber + 1) - stringStart];
+		// A duplicate is positioned rather than the shared buffer, so that lookups can be made from several threads
+		ByteBuffer stringBuffer = buffer.duplicate();
+		stringBuffer.position(stringStart);
+		stringBuffer.get(stringBytes);
+		return new String(stringBytes, StandardCharsets.UTF_8);
+	}
+
+	// Compares the unsigned bytes of the string with those of the key, as the keys were sorted when written
+	private int compareString(int stringNumber, byte[] keyBytes) {
+		int stringStart = getStringStart(stringNumber);
+		int stringLength = getStringStart(stringNumber + 1) - stringStart;
+		for (int i = 0; i < Math.min(stringLength, keyBytes.length); i++) {
+			int comparison = Integer.compare(buffer.get(stringStart + i) & 0xFF, keyBytes[i] & 0xFF);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(stringLength, keyBytes.length);
+	}
+
+	private int getStringStart(int stringNumber) {
+		return poolStart + buffer.getInt(stringOffsetsStart + stringNumber * Integer.BYTES);
+	}
+}
@@ -0,0 +1,113 @@
+package org.reactome.release.common.orthopairs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the binary orthopairs index file that accompanies a text mapping file. Its keys are sorted and each string is held once in a string pool,
+ * so it can be memory-mapped and searched without being parsed. The layout is documented by its reader, OrthopairsIndex.
+ */
+public class OrthopairsIndexWriter {
+	private final Map<String, Integer> stringNumbers = new HashMap<>();
+	private final List<byte[]> strings = new ArrayList<>();
+	// The values of each key, in the order they are added
+	private final Map<Integer, List<Integer>> keyValues = new LinkedHashMap<>();
+	private int valueCount;
+
+	/**
+	 * Adds a line of a text mapping file, which is a key followed by a tab and its space-separated values. The line is split with String.split,
+	 * as Orthoinference reads the text file, and the values of a key that is on several lines are those of its last line.
+	 * @param mappingLine Line of the text mapping file, with or without its line break
+	 */
+	public void addLine(String mappingLine) {
+		String line = mappingLine.endsWith("\n") ? mappingLine.substring(0, mappingLine.length() - 1) : mappingLine;
+		String[] tabSplit = line.split("\t");
+		List<Integer> values = new ArrayList<>();
+		for (String value : tabSplit[1].split(" ")) {
+			values.add(getStringNumber(value));
+		}
+		List<Integer> replacedValues = keyValues.put(getStringNumber(tabSplit[0]), values);
+		valueCount += values.size() - (replacedValues != null ? replacedValues.size() : 0);
+	}
+
+	/**
+	 * Adds a single value to the key, after any values it already has. Used to write an index that doesn't follow the lines of a text file, such
+	 * as one keyed by the values of a mapping file.
+	 * @param key Key to add the value to
+	 * @param value Value to add
+	 */
+	public void add(String key, String value) {
+		keyValues.computeIfAbsent(getStringNumber(key), k -> new ArrayList<>()).add(getStringNumber(value));
+		valueCount++;
+	}
+
+	/**
+	 * Writes the index of the lines added so far.
+	 * @param indexFilePath Path of the binary orthopairs index file
+	 * @throws IOException Thrown if the file can't be written
+	 */
+	public void write(Path indexFilePath) throws IOException {
+		List<Integer> keys = new ArrayList<>(keyValues.keySet());
+		keys.sort((firstKey, secondKey) -> compareUnsigned(strings.get(firstKey), strings.get(secondKey)));
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFilePath)))) {
+			out.writeInt(OrthopairsIndex.MAGIC);
+			out.writeInt(OrthopairsIndex.VERSION);
+			out.writeInt(strings.size());
+			out.writeInt(keys.size());
+			out.writeInt(valueCount);
+			int stringOffset = 0;
+			for (byte[] string : strings) {
+				out.writeInt(stringOffset);
+				stringOffset += string.length;
+			}
+			out.writeInt(stringOffset);
+			for (int key : keys) {
+				out.writeInt(key);
+			}
+			int valueOffset = 0;
+			for (int key : keys) {
+				out.writeInt(valueOffset);
+				valueOffset += keyValues.get(key).size();
+			}
+			out.writeInt(valueOffset);
+			for (int key : keys) {
+				for (int value : keyValues.get(key)) {
+					out.writeInt(value);
+				}
+			}
+			for (byte[] string : strings) {
+				out.write(string);
+			}
+		}
+	}
+
+	private int getStringNumber(String string) {
+		Integer stringNumber = stringNumbers.get(string);
+		if (stringNumber == null) {
+			stringNumber = strings.size();
+			stringNumbers.put(string, stringNumber);
+			strings.add(string.getBytes(StandardCharsets.UTF_8));
+		}
+		return stringNumber;
+	}
+
+	// Keys are sorted by their unsigned UTF-8 bytes, which is the order the reader's binary search compares them in
+	private static int compareUnsigned(byte[] first, byte[] second) {
+		for (int i = 0; i < Math.min(first.length, second.length); i++) {
+			int comparison = Integer.compare(first[i] & 0xFF, second[i] & 0xFF);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(first.length, second.length);
+	}
+}
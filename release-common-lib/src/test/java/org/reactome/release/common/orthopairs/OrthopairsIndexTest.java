@@ -0,0 +1,80 @@
+package org.reactome.release.common.orthopairs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class OrthopairsIndexTest {
+
+	// Strings: 0 'Q9Y', 1 'A1', 2 'P12', 3 'B2', 4 'P1'. Keys, sorted: 'P1' -> [A1], 'P12' -> [B2, A1], 'Q9Y' -> [B2]
+	private static final String[] STRINGS = {"Q9Y", "A1", "P12", "B2", "P1"};
+	private static final int[] KEYS = {4, 2, 0};
+	private static final int[] VALUE_OFFSETS = {0, 1, 3, 4};
+	private static final int[] VALUES = {1, 3, 1, 3};
+
+	@Test
+	public void keysAreFoundWithTheirValues() throws IOException {
+		OrthopairsIndex index = OrthopairsIndex.open(writeIndexFile(OrthopairsIndex.VERSION));
+
+		assertThat(index.size(), is(equalTo(3)));
+		assertThat(index.getKey(0), is(equalTo("P1")));
+		assertThat(index.indexOf("P12"), is(equalTo(1)));
+		assertThat(index.getValues("P12"), contains("B2", "A1"));
+		assertThat(index.getValues("Q9Y"), contains("B2"));
+		assertThat(index.getValues("P1"), contains("A1"));
+	}
+
+	@Test
+	public void missingKeysHaveNoValues() throws IOException {
+		OrthopairsIndex index = OrthopairsIndex.open(writeIndexFile(OrthopairsIndex.VERSION));
+
+		assertThat(index.indexOf("P2"), is(equalTo(-1)));
+		assertThat(index.indexOf("A1"), is(equalTo(-1)));
+		assertThat(index.containsKey(null), is(false));
+		assertThat(index.getValues("P"), is(empty()));
+	}
+
+	@Test
+	public void otherVersionsAreRejected() throws IOException {
+		Path indexFilePath = writeIndexFile(OrthopairsIndex.VERSION + 1);
+
+		assertThrows(IOException.class, () -> OrthopairsIndex.open(indexFilePath));
+	}
+
+	private static Path writeIndexFile(int version) throws IOException {
+		Path indexFilePath = Files.createTempFile("hsap_test_mapping", ".bin");
+		indexFilePath.toFile().deleteOnExit();
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(indexFilePath))) {
+			out.writeInt(OrthopairsIndex.MAGIC);
+			out.writeInt(version);
+			out.writeInt(STRINGS.length);
+			out.writeInt(KEYS.length);
+			out.writeInt(VALUES.length);
+			int stringOffset = 0;
+			for (String string : STRINGS) {
+				out.writeInt(stringOffset);
+				stringOffset += string.getBytes(StandardCharsets.UTF_8).length;
+			}
+			out.writeInt(stringOffset);
+			for (int value : concat(KEYS, VALUE_OFFSETS, VALUES)) {
+				out.writeInt(value);
+			}
+			for (String string : STRINGS) {
+				out.write(string.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return indexFilePath;
+	}
+
+	private static int[] concat(int[]... arrays) {
+		return Arrays.stream(arrays).flatMapToInt(Arrays::stream).toArray();
+	}
+}
@@ -0,0 +1,49 @@
+package org.reactome.release.common.orthopairs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+
+public class OrthopairsIndexWriterTest {
+
+	@Test
+	public void writtenIndexesAreReadBack() throws IOException {
+		OrthopairsIndexWriter indexWriter = new OrthopairsIndexWriter();
+		indexWriter.addLine("Q9Y\tB2\n");
+		indexWriter.addLine("P12\tB2 A1\n");
+		indexWriter.addLine("P1\tA1\n");
+		indexWriter.addLine("P12\tC3\n");
+		Path indexFilePath = Files.createTempFile("hsap_test_mapping", ".bin");
+		indexFilePath.toFile().deleteOnExit();
+		indexWriter.write(indexFilePath);
+
+		OrthopairsIndex index = OrthopairsIndex.open(indexFilePath);
+
+		assertThat(index.size(), is(equalTo(3)));
+		assertThat(index.getKey(0), is(equalTo("P1")));
+		// As when the text file is read, the last line of a key replaces its earlier lines
+		assertThat(index.getValues("P12"), contains("C3"));
+		assertThat(index.getValues("Q9Y"), contains("B2"));
+		assertThat(index.containsKey("B2"), is(false));
+	}
+
+	@Test
+	public void singleValuesAreAppendedToTheirKey() throws IOException {
+		OrthopairsIndexWriter indexWriter = new OrthopairsIndexWriter();
+		indexWriter.add("A1", "P12");
+		indexWriter.add("B2", "Q9Y");
+		indexWriter.add("A1", "P1");
+		Path indexFilePath = Files.createTempFile("mmus_gene_protein_mapping_inverted", ".bin");
+		indexFilePath.toFile().deleteOnExit();
+		indexWriter.write(indexFilePath);
+
+		OrthopairsIndex index = OrthopairsIndex.open(indexFilePath);
+
+		assertThat(index.getValues("A1"), contains("P12", "P1"));
+		assertThat(index.getValues("B2"), contains("Q9Y"));
+	}
+}